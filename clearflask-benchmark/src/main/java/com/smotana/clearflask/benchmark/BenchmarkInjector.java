@@ -0,0 +1,77 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.google.inject.Stage;
+import com.google.inject.name.Names;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigConfigurator;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.convert.MoreConfigValueConverters;
+import com.smotana.clearflask.core.ServiceInjector;
+import com.smotana.clearflask.store.ContentStore;
+import com.smotana.clearflask.util.DefaultServerSecret;
+import com.smotana.clearflask.util.GsonProvider;
+import com.smotana.clearflask.util.MarkdownAndQuillUtil;
+import com.smotana.clearflask.util.ServerSecretTest;
+import com.smotana.clearflask.web.security.Sanitizer;
+import org.mockito.Mockito;
+
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+
+/**
+ * Wires the components under benchmark without any external dependencies so benchmarks can run offline.
+ */
+public class BenchmarkInjector {
+
+    private BenchmarkInjector() {
+        // disable ctor
+    }
+
+    public static Injector create() {
+        return create(true);
+    }
+
+    /**
+     * @param htmlSanitizerCacheEnabled Disable to measure sanitizing itself rather than a cache hit
+     */
+    public static Injector create(boolean htmlSanitizerCacheEnabled) {
+        ContentStore contentStoreStub = Mockito.mock(ContentStore.class);
+        Mockito.when(contentStoreStub.getScheme()).thenReturn("https");
+        Mockito.when(contentStoreStub.signUrl(any(), any())).thenAnswer(invocation -> Optional.of(invocation.getArgument(1)));
+
+        return Guice.createInjector(Stage.PRODUCTION, Modules.override(ImmutableList.<Module>of(
+                new AbstractModule() {
+                    @Override
+                    protected void configure() {
+                        bind(ServiceInjector.Environment.class).toInstance(ServiceInjector.Environment.TEST);
+                        install(ConfigConfigurator.testModules());
+                        install(MoreConfigValueConverters.module());
+                        install(GsonProvider.module());
+                        bind(ContentStore.class).toInstance(contentStoreStub);
+                    }
+                },
+                Sanitizer.module(),
+                MarkdownAndQuillUtil.module(),
+                DefaultServerSecret.module(Names.named("cursor"))
+        )).with(new AbstractModule() {
+            @Override
+            protected void configure() {
+                install(ConfigSystem.overrideModule(Sanitizer.Config.class, om -> {
+                    om.override(om.id().htmlSanitizerEnabled()).withValue(true);
+                    om.override(om.id().htmlSanitizerCacheEnabled()).withValue(htmlSanitizerCacheEnabled);
+                }));
+                install(ConfigSystem.overrideModule(DefaultServerSecret.Config.class, Names.named("cursor"), om -> {
+                    om.override(om.id().sharedKey()).withValue(ServerSecretTest.getRandomSharedKey());
+                }));
+            }
+        }));
+    }
+}
@@ -0,0 +1,71 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.benchmark;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.smotana.clearflask.util.BloomFilters;
+import com.smotana.clearflask.util.IdUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round-trips of the per-user vote, fund and expression Bloom filters stored in DynamoDB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BloomFiltersBenchmark {
+
+    @Param({"1000", "100000"})
+    public long expectedInsertions;
+
+    private BloomFilter<CharSequence> bloomFilter;
+    private byte[] bloomFilterBytes;
+    private String ideaId;
+
+    @Setup
+    public void setup() {
+        bloomFilter = BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), expectedInsertions, 0.001d);
+        for (long i = 0; i < expectedInsertions / 2; i++) {
+            bloomFilter.put(IdUtil.randomId());
+        }
+        bloomFilterBytes = BloomFilters.toByteArray(bloomFilter);
+        ideaId = IdUtil.randomId();
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return BloomFilters.toByteArray(bloomFilter);
+    }
+
+    @Benchmark
+    public BloomFilter<CharSequence> deserialize() {
+        return BloomFilters.fromByteArray(bloomFilterBytes, Funnels.stringFunnel(Charsets.UTF_8));
+    }
+
+    /**
+     * Deserialize, add an item and serialize again as done on every vote.
+     */
+    @Benchmark
+    public byte[] update() {
+        BloomFilter<CharSequence> bloomFilterUpdated = BloomFilters.fromByteArray(bloomFilterBytes, Funnels.stringFunnel(Charsets.UTF_8));
+        bloomFilterUpdated.put(ideaId);
+        return BloomFilters.toByteArray(bloomFilterUpdated);
+    }
+}
@@ -0,0 +1,55 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.benchmark;
+
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+import com.smotana.clearflask.util.ServerSecret;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cursor encryption done by ElasticUtil.searchWithCursor on every paginated search.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CursorEncryptionBenchmark {
+
+    /**
+     * Typical search_after sort values serialized by ElasticUtil
+     */
+    private static final String CURSOR = "[1.6634912E12,\"title-of-post-abc1\",\"c1f3a8d2-4b7e-4f0a-9d1e-0c6b2a7f5e93\"]";
+
+    private ServerSecret serverSecretCursor;
+    private String cursorEncrypted;
+
+    @Setup
+    public void setup() {
+        serverSecretCursor = BenchmarkInjector.create().getInstance(Key.get(ServerSecret.class, Names.named("cursor")));
+        cursorEncrypted = serverSecretCursor.encryptString(CURSOR);
+    }
+
+    @Benchmark
+    public String encrypt() {
+        return serverSecretCursor.encryptString(CURSOR);
+    }
+
+    @Benchmark
+    public String decrypt() {
+        return serverSecretCursor.decryptString(cursorEncrypted);
+    }
+}
@@ -0,0 +1,76 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.benchmark;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+import com.google.inject.Injector;
+import com.smotana.clearflask.api.model.Hits;
+import com.smotana.clearflask.api.model.IdeaVote;
+import com.smotana.clearflask.api.model.IdeaWithVoteSearchResponse;
+import com.smotana.clearflask.store.MockModelUtil;
+import com.smotana.clearflask.web.security.Sanitizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Response serialization of a page of idea search results, the most common API response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdeaSearchResponseSerializationBenchmark {
+
+    @Param({"10", "50"})
+    public int pageSize;
+
+    private Gson gson;
+    private IdeaWithVoteSearchResponse response;
+    private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(64 * 1024);
+
+    @Setup
+    public void setup() {
+        Injector injector = BenchmarkInjector.create();
+        gson = injector.getInstance(Gson.class);
+        Sanitizer sanitizer = injector.getInstance(Sanitizer.class);
+        response = new IdeaWithVoteSearchResponse(
+                "cursor",
+                IntStream.range(0, pageSize)
+                        .mapToObj(i -> MockModelUtil.getRandomIdea().toIdeaWithVote(
+                                new IdeaVote(null, null, null),
+                                sanitizer))
+                        .collect(ImmutableList.toImmutableList()),
+                new Hits((long) pageSize, null));
+    }
+
+    /**
+     * Same as GsonMessageBody.writeTo
+     */
+    @Benchmark
+    public int serialize() throws IOException {
+        outputStream.reset();
+        try (OutputStreamWriter writer = new OutputStreamWriter(outputStream, Charsets.UTF_8)) {
+            gson.toJson(response, IdeaWithVoteSearchResponse.class, writer);
+        }
+        return outputStream.size();
+    }
+}
@@ -0,0 +1,87 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.benchmark;
+
+import com.google.inject.Injector;
+import com.smotana.clearflask.util.MarkdownAndQuillUtil;
+import com.smotana.clearflask.web.security.Sanitizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sanitizing of user submitted rich text, done on every post and comment read and write.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RichTextBenchmark {
+
+    private static final String PROJECT_ID = "benchmark-project";
+    private static final String HTML = "<div><strong>Feature request:</strong> export to CSV</div>"
+            + "<div><br></div>"
+            + "<ul><li>Include <em>all</em> columns</li><li class=\"ql-indent-1\"><a href=\"https://example.com/docs\" rel=\"noreferrer noopener ugc\" target=\"_blank\">linked <u>docs</u></a></li></ul>"
+            + "<ol><li>first</li><li>second</li></ol>"
+            + "<blockquote>Quoted from the <s>old</s> previous discussion</blockquote>"
+            + "<pre class=\"ql-syntax\" spellcheck=\"false\">SELECT * FROM posts;\n</pre>"
+            + "<div><img src=\"https://s3.amazonaws.com/bucket/benchmark-project/image.png\" width=\"300\" align=\"middle\"></div>"
+            + "<div>Thanks for considering <script>alert(1)</script>this!</div>";
+    private static final String MARKDOWN = "# Release notes\n"
+            + "\n"
+            + "We have **shipped** the _export_ feature requested in [this post](https://example.com/post/abc).\n"
+            + "\n"
+            + "- CSV export\n"
+            + "- JSON export\n"
+            + "  - nested item\n"
+            + "\n"
+            + "> Quoted feedback from a user\n"
+            + "\n"
+            + "```\n"
+            + "curl https://example.com/api/export\n"
+            + "```\n";
+
+    private Sanitizer sanitizer;
+    private Sanitizer sanitizerUncached;
+    private MarkdownAndQuillUtil markdownAndQuillUtil;
+
+    @Setup
+    public void setup() {
+        Injector injector = BenchmarkInjector.create();
+        sanitizer = injector.getInstance(Sanitizer.class);
+        markdownAndQuillUtil = injector.getInstance(MarkdownAndQuillUtil.class);
+        sanitizerUncached = BenchmarkInjector.create(false).getInstance(Sanitizer.class);
+    }
+
+    /**
+     * Read of unchanged content, served from the sanitized html cache.
+     */
+    @Benchmark
+    public String richHtml() {
+        return sanitizer.richHtml(HTML, "post", "benchmark-post", PROJECT_ID, true);
+    }
+
+    /**
+     * Sanitizing itself, as on a write or a cache miss.
+     */
+    @Benchmark
+    public String richHtmlUncached() {
+        return sanitizerUncached.richHtml(HTML, "post", "benchmark-post", PROJECT_ID, true);
+    }
+
+    @Benchmark
+    public String markdownToQuill() {
+        return markdownAndQuillUtil.markdownToQuill(PROJECT_ID, "post", "benchmark-post", MARKDOWN);
+    }
+}
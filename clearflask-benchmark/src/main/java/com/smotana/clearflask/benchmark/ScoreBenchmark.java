@@ -0,0 +1,49 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.benchmark;
+
+import com.smotana.clearflask.util.ExpDecayScore;
+import com.smotana.clearflask.util.WilsonScoreInterval;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scoring done on every vote and comment vote.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoreBenchmark {
+
+    private final WilsonScoreInterval wilsonScoreInterval = new WilsonScoreInterval(0.95);
+    private final ExpDecayScore expDecayScore = new ExpDecayScore(Duration.ofDays(7));
+    private int trials = 1;
+    private double score = 0d;
+    private long timeInMillis = 1_600_000_000_000L;
+
+    @Benchmark
+    public double wilsonLowerBound() {
+        trials = trials % 10_000 + 1;
+        return wilsonScoreInterval.lowerBound(trials, trials / 3);
+    }
+
+    @Benchmark
+    public double expDecayUpdateScore() {
+        timeInMillis += 60_000L;
+        score = expDecayScore.updateScore(score, timeInMillis);
+        return score;
+    }
+}
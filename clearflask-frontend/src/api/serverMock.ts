@@ -1263,6 +1263,14 @@ class ServerMock implements Client.ApiInterface, Admin.ApiInterface {
       userFacingMessage: 'Imported successfully',
     });
   }
+  projectImportStatusAdmin(request: Admin.ProjectImportStatusAdminRequest): Promise<Admin.ImportStatus> {
+    return this.returnLater({
+      importId: request.importId,
+      total: 0,
+      processed: 0,
+      done: true,
+    });
+  }
   userCreateAdmin(request: Admin.UserCreateAdminRequest): Promise<Admin.UserAdmin> {
     const user: Admin.UserAdmin = {
       userId: randomUuid(),
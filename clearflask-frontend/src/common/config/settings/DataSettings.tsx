@@ -117,6 +117,7 @@ interface State {
 class DataSettings extends Component<Props & ConnectProps & WithStyles<typeof styles, true> & WithSnackbarProps & RouteComponentProps, State> {
   state: State = {};
   unsubscribe?: () => void;
+  importStatusTimer: NodeJS.Timeout | undefined = undefined;
 
   componentDidMount() {
     this.unsubscribe = this.props.server.getStore().subscribe(() => this.forceUpdate());
@@ -124,6 +125,24 @@ class DataSettings extends Component<Props & ConnectProps & WithStyles<typeof st
 
   componentWillUnmount() {
     this.unsubscribe && this.unsubscribe();
+    this.importStatusTimer && clearTimeout(this.importStatusTimer);
+  }
+
+  pollImportStatus(importId: string) {
+    this.importStatusTimer = setTimeout(() => this.props.server.dispatchAdmin()
+      .then(d => d.projectImportStatusAdmin({
+        projectId: this.props.server.getProjectId(),
+        importId,
+      }))
+      .then(status => {
+        if (!status.done) {
+          this.pollImportStatus(importId);
+        } else if (status.userFacingMessage) {
+          this.props.enqueueSnackbar(
+            status.userFacingMessage,
+            { variant: status.isError ? 'error' : 'success' });
+        }
+      }), 2000);
   }
 
   render() {
@@ -356,6 +375,11 @@ class DataSettings extends Component<Props & ConnectProps & WithStyles<typeof st
                             result.userFacingMessage,
                             { variant: result.isError ? 'error' : 'success' });
                         }
+                        result.rowErrors?.slice(0, 5).forEach(rowError => this.props.enqueueSnackbar(
+                          rowError, { variant: 'error' }));
+                        if (result.importId) {
+                          this.pollImportStatus(result.importId);
+                        }
                         if (result.isError) {
                           this.setState({ importIsSubmitting: false });
                         } else {
@@ -55,14 +55,19 @@ import com.smotana.clearflask.security.SimpleEmailValidator;
 import com.smotana.clearflask.security.limiter.TieredWebLimiter;
 import com.smotana.clearflask.security.limiter.challenge.CaptchaChallenger;
 import com.smotana.clearflask.security.limiter.challenge.LocalChallengeLimiter;
+import com.smotana.clearflask.security.limiter.rate.DistributedRateLimiter;
 import com.smotana.clearflask.security.limiter.rate.LocalRateLimiter;
 import com.smotana.clearflask.store.ConfigAwsCredentialsProvider;
+import com.smotana.clearflask.store.Reindexer;
 import com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
 import com.smotana.clearflask.store.elastic.DefaultElasticSearchProvider;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
+import com.smotana.clearflask.store.elastic.IndexRebuilder;
 import com.smotana.clearflask.store.github.GitHubClientProviderImpl;
 import com.smotana.clearflask.store.github.GitHubStoreImpl;
+import com.smotana.clearflask.store.github.LocalGitHubEventQueue;
+import com.smotana.clearflask.store.impl.DynamoCacheInvalidationBus;
 import com.smotana.clearflask.store.impl.DynamoCertStore;
 import com.smotana.clearflask.store.impl.DynamoDraftStore;
 import com.smotana.clearflask.store.impl.DynamoElasticAccountStore;
@@ -71,8 +76,10 @@ import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
 import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
 import com.smotana.clearflask.store.impl.DynamoNotificationStore;
 import com.smotana.clearflask.store.impl.DynamoProjectStore;
+import com.smotana.clearflask.store.impl.DynamoTokenBucketStore;
 import com.smotana.clearflask.store.impl.DynamoTokenVerifyStore;
 import com.smotana.clearflask.store.impl.DynamoVoteStore;
+import com.smotana.clearflask.store.impl.LoopbackCacheInvalidationBus;
 import com.smotana.clearflask.store.impl.ResourceLegalStore;
 import com.smotana.clearflask.store.impl.S3ContentStore;
 import com.smotana.clearflask.store.mysql.DefaultMysqlProvider;
@@ -81,6 +88,7 @@ import com.smotana.clearflask.store.route53.DefaultRoute53Provider;
 import com.smotana.clearflask.store.s3.DefaultS3ClientProvider;
 import com.smotana.clearflask.util.AutoCreateKikConfigFile;
 import com.smotana.clearflask.util.BeanUtil;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.util.ChatwootUtil;
 import com.smotana.clearflask.util.ConfigSchemaUpgrader;
 import com.smotana.clearflask.util.DefaultServerSecret;
@@ -111,6 +119,9 @@ import com.smotana.clearflask.web.security.AuthenticationFilter;
 import com.smotana.clearflask.web.security.Sanitizer;
 import com.smotana.clearflask.web.security.SuperAdminPredicate;
 import com.smotana.clearflask.web.security.UserBindUtil;
+import com.smotana.clearflask.web.util.ProjectExporter;
+import com.smotana.clearflask.web.util.ProjectImporter;
+import com.smotana.clearflask.web.util.RecentWrites;
 import com.smotana.clearflask.web.util.WebhookServiceImpl;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -191,8 +202,14 @@ public enum ServiceInjector {
                 install(DefaultMysqlProvider.module());
                 install(S3ContentStore.module());
                 install(DynamoProjectStore.module());
+                if (env == Environment.PRODUCTION_AWS) {
+                    install(DynamoCacheInvalidationBus.module());
+                } else {
+                    install(LoopbackCacheInvalidationBus.module());
+                }
                 install(DynamoElasticAccountStore.module());
                 install(DynamoElasticUserStore.module());
+                install(BloomFilterCache.module());
                 install(DynamoTokenVerifyStore.module());
                 install(DynamoElasticIdeaStore.module());
                 install(DynamoDraftStore.module());
@@ -205,12 +222,18 @@ public enum ServiceInjector {
                 }
                 install(GitHubClientProviderImpl.module());
                 install(GitHubStoreImpl.module());
+                install(LocalGitHubEventQueue.module());
                 install(ResourceLegalStore.module());
                 install(SingleTableProvider.module());
                 install(MysqlUtil.module());
+                install(Reindexer.module());
                 install(ElasticUtil.module());
+                install(IndexRebuilder.module());
                 install(DefaultServerSecret.module(Names.named("cursor")));
                 install(WebhookServiceImpl.module());
+                install(ProjectExporter.module());
+                install(ProjectImporter.module());
+                install(RecentWrites.module());
                 install(DynamoCouponStore.module());
 
                 // Notification
@@ -238,7 +261,12 @@ public enum ServiceInjector {
                 install(AuthenticationFilter.module());
                 install(SuperAdminPredicate.module());
                 install(TieredWebLimiter.module());
-                install(LocalRateLimiter.module());
+                if (env == Environment.PRODUCTION_AWS) {
+                    install(DistributedRateLimiter.module());
+                    install(DynamoTokenBucketStore.module());
+                } else {
+                    install(LocalRateLimiter.module());
+                }
                 install(LocalChallengeLimiter.module());
                 install(CaptchaChallenger.module());
                 install(UserBindUtil.module());
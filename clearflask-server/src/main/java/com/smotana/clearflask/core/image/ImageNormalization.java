@@ -2,6 +2,7 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.core.image;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.smotana.clearflask.web.ApiException;
 import lombok.Value;
 
@@ -16,6 +17,11 @@ public interface ImageNormalization {
      */
     Image normalize(byte[] imgBytes) throws ApiException;
 
+    /**
+     * Same as {@link #normalize} without blocking the caller; fails fast when too many images are queued.
+     */
+    ListenableFuture<Image> normalizeAsync(byte[] imgBytes);
+
     @Value
     class Image {
         String mediaType;
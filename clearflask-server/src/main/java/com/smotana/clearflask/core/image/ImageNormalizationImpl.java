@@ -2,20 +2,35 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.core.image;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
 import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
 import com.smotana.clearflask.store.ContentStore.ContentType;
+import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.web.ApiException;
 import lombok.extern.slf4j.Slf4j;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
 import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
 import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
@@ -25,10 +40,23 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Normalizes on a bounded worker pool so large images and animations cannot pin request threads.
+ */
 @Slf4j
-public class ImageNormalizationImpl implements ImageNormalization {
+@Singleton
+public class ImageNormalizationImpl extends ManagedService implements ImageNormalization {
 
     public interface Config {
         @DefaultValue("0.8")
@@ -42,15 +70,101 @@ public class ImageNormalizationImpl implements ImageNormalization {
 
         @DefaultValue("true")
         boolean keepGifsAsIs();
+
+        @DefaultValue("2")
+        int workerThreads();
+
+        /**
+         * Images waiting for a worker, uploads beyond this are rejected.
+         */
+        @DefaultValue("20")
+        int workerQueueSize();
+
+        @DefaultValue("PT30S")
+        Duration timeout();
+
+        /**
+         * Decoded pixels allowed per image after subsampling, bounds the memory of a single job.
+         */
+        @DefaultValue("25000000")
+        long maxDecodedPixels();
+
+        @DefaultValue("300")
+        int maxGifFrames();
     }
 
-    private static final String COMMENT_INDEX = "comment";
+    private static final String GIF_IMAGE_METADATA_FORMAT = "javax_imageio_gif_image_1.0";
+    private static final String GIF_STREAM_METADATA_FORMAT = "javax_imageio_gif_stream_1.0";
 
     @Inject
     private Config config;
 
+    private ThreadPoolExecutor threadPool;
+    private ListeningExecutorService executor;
+    private final LongAdder normalizedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder subsampledCount = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+
+    @Override
+    protected void serviceStart() throws Exception {
+        threadPool = new ThreadPoolExecutor(
+                config.workerThreads(), config.workerThreads(), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.workerQueueSize()),
+                new ThreadFactoryBuilder().setNameFormat("ImageNormalizationImpl-worker-%d").build());
+        executor = MoreExecutors.listeningDecorator(threadPool);
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
     @Override
     public Image normalize(byte[] imgBytes) throws ApiException {
+        ListenableFuture<Image> imageFuture = normalizeAsync(imgBytes);
+        try {
+            return imageFuture.get(config.timeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof ApiException) {
+                throw (ApiException) ex.getCause();
+            }
+            throw new ApiException(Response.Status.INTERNAL_SERVER_ERROR, "Failed to process image", ex);
+        } catch (TimeoutException ex) {
+            imageFuture.cancel(true);
+            throw new ApiException(Response.Status.SERVICE_UNAVAILABLE, "Image took too long to process", ex);
+        } catch (InterruptedException ex) {
+            imageFuture.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ApiException(Response.Status.SERVICE_UNAVAILABLE, "Image processing interrupted", ex);
+        }
+    }
+
+    @Override
+    public ListenableFuture<Image> normalizeAsync(byte[] imgBytes) {
+        try {
+            return executor.submit(() -> normalizeSync(imgBytes));
+        } catch (RejectedExecutionException ex) {
+            rejectedCount.increment();
+            return Futures.immediateFailedFuture(new ApiException(Response.Status.TOO_MANY_REQUESTS,
+                    "Too many images are being processed, please try again later", ex));
+        }
+    }
+
+    @Extern
+    public Map<String, Long> getStats() {
+        return Map.of(
+                "normalized", normalizedCount.sum(),
+                "rejected", rejectedCount.sum(),
+                "subsampled", subsampledCount.sum(),
+                "queued", (long) threadPool.getQueue().size(),
+                "decodeMillisTotal", TimeUnit.NANOSECONDS.toMillis(decodeNanos.sum()),
+                "encodeMillisTotal", TimeUnit.NANOSECONDS.toMillis(encodeNanos.sum()));
+    }
+
+    private Image normalizeSync(byte[] imgBytes) throws ApiException {
         try (ByteArrayInputStream bais = new ByteArrayInputStream(imgBytes);
              ImageInputStream iis = ImageIO.createImageInputStream(bais)) {
             Iterator<ImageReader> imageReaders = ImageIO.getImageReaders(iis);
@@ -58,39 +172,130 @@ public class ImageNormalizationImpl implements ImageNormalization {
                 throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Unsupported format");
             }
             ImageReader imageReader = imageReaders.next();
-            String format = imageReader.getFormatName();
-            imageReader.setInput(iis);
-            int numImages = imageReader.getNumImages(true);
-
-            if (numImages < 1) {
-                throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Empty image");
-            } else if ("gif".equals(format) && numImages > 1 && config.keepGifsAsIs()) {
-                return new Image(ContentType.GIF.getMediaType(), imgBytes);
-            } else {
-                return writeJpeg(imageReader.read(0));
+            try {
+                String format = imageReader.getFormatName();
+                imageReader.setInput(iis);
+
+                Image image;
+                if ("gif".equalsIgnoreCase(format) && isAnimated(imageReader)) {
+                    image = config.keepGifsAsIs()
+                            ? new Image(ContentType.GIF.getMediaType(), imgBytes)
+                            : writeGif(imageReader);
+                } else {
+                    image = writeJpeg(readSubsampled(imageReader));
+                }
+                normalizedCount.increment();
+                return image;
+            } finally {
+                imageReader.dispose();
             }
-        } catch (IOException ex) {
+        } catch (IOException | IndexOutOfBoundsException ex) {
             throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Corrupted image", ex);
         }
     }
 
     /**
-     * TODO not working....
-     * For some reason this produces an empty image file.
+     * Only looks for a second frame, avoids scanning the whole animation to count frames.
+     */
+    private boolean isAnimated(ImageReader imageReader) throws IOException {
+        try {
+            imageReader.getWidth(1);
+            return true;
+        } catch (IndexOutOfBoundsException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Decodes the first image skipping source pixels of images much larger than the target dimensions
+     * instead of decoding them in full only to scale them down.
+     */
+    private BufferedImage readSubsampled(ImageReader imageReader) throws IOException {
+        if (imageReader.getNumImages(false) == 0) {
+            throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Empty image");
+        }
+        int width = imageReader.getWidth(0);
+        int height = imageReader.getHeight(0);
+        Dimension scaledDimension = getScaledDimension(width, height, config.maxWidth(), config.maxHeight());
+        int subsampling = Math.max(1, Math.min(
+                width / Math.max(1, (int) scaledDimension.getWidth()),
+                height / Math.max(1, (int) scaledDimension.getHeight())));
+        checkDecodedPixels((long) (width / subsampling) * (height / subsampling));
+
+        ImageReadParam param = imageReader.getDefaultReadParam();
+        if (subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            subsampledCount.increment();
+        }
+        long startNanos = System.nanoTime();
+        try {
+            return imageReader.read(0, param);
+        } finally {
+            decodeNanos.add(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Re-encodes an animation one frame at a time, compositing each frame onto a canvas of the full
+     * animation size so only the canvas and the current frame are held in memory.
      */
     private Image writeGif(ImageReader imageReader) {
         byte[] data;
         try (ByteArrayOutputStream out = new ByteArrayOutputStream();
              ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            Dimension canvasDimension = getGifCanvasDimension(imageReader);
+            checkDecodedPixels((long) canvasDimension.width * canvasDimension.height);
+            BufferedImage canvas = new BufferedImage(canvasDimension.width, canvasDimension.height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D canvasGraphics = canvas.createGraphics();
+
             final ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
-            writer.setOutput(ios);
-            writer.prepareWriteSequence(null);
-            int numImages = imageReader.getNumImages(true);
-            for (int i = 0; i < numImages; i++) {
-                BufferedImage image = resizeImg(imageReader.read(imageReader.getMinIndex()));
-                writer.writeToSequence(new IIOImage(image, null, null), null);
+            try {
+                writer.setOutput(ios);
+                writer.prepareWriteSequence(null);
+                for (int i = 0; ; i++) {
+                    if (i >= config.maxGifFrames()) {
+                        throw new ApiException(Response.Status.REQUEST_ENTITY_TOO_LARGE, "Animation has too many frames");
+                    }
+                    long decodeStartNanos = System.nanoTime();
+                    BufferedImage frame;
+                    IIOMetadataNode frameMetadata;
+                    try {
+                        frame = imageReader.read(i);
+                        frameMetadata = (IIOMetadataNode) imageReader.getImageMetadata(i).getAsTree(GIF_IMAGE_METADATA_FORMAT);
+                    } catch (IndexOutOfBoundsException ex) {
+                        break;
+                    } finally {
+                        decodeNanos.add(System.nanoTime() - decodeStartNanos);
+                    }
+                    IIOMetadataNode descriptor = getChild(frameMetadata, "ImageDescriptor");
+                    IIOMetadataNode graphicControl = getChild(frameMetadata, "GraphicControlExtension");
+                    int left = getIntAttribute(descriptor, "imageLeftPosition", 0);
+                    int top = getIntAttribute(descriptor, "imageTopPosition", 0);
+                    int delayTime = getIntAttribute(graphicControl, "delayTime", 0);
+                    String disposalMethod = graphicControl == null ? "none" : graphicControl.getAttribute("disposalMethod");
+
+                    canvasGraphics.drawImage(frame, left, top, null);
+
+                    long encodeStartNanos = System.nanoTime();
+                    BufferedImage resized = resizeImg(canvas, BufferedImage.TYPE_INT_RGB, Color.WHITE);
+                    ImageWriteParam writeParam = writer.getDefaultWriteParam();
+                    IIOMetadata writeMetadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(resized), writeParam);
+                    setGifFrameMetadata(writeMetadata, delayTime, i == 0);
+                    writer.writeToSequence(new IIOImage(resized, null, writeMetadata), writeParam);
+                    encodeNanos.add(System.nanoTime() - encodeStartNanos);
+
+                    if ("restoreToBackgroundColor".equals(disposalMethod)) {
+                        canvasGraphics.setComposite(AlphaComposite.Clear);
+                        canvasGraphics.fillRect(left, top, frame.getWidth(), frame.getHeight());
+                        canvasGraphics.setComposite(AlphaComposite.SrcOver);
+                    }
+                }
+                writer.endWriteSequence();
+            } finally {
+                writer.dispose();
+                canvasGraphics.dispose();
             }
-            writer.endWriteSequence();
+            ios.flush();
             data = out.toByteArray();
         } catch (IOException ex) {
             throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Corrupted image", ex);
@@ -98,49 +303,134 @@ public class ImageNormalizationImpl implements ImageNormalization {
         return new Image(ContentType.GIF.getMediaType(), data);
     }
 
+    private Dimension getGifCanvasDimension(ImageReader imageReader) throws IOException {
+        IIOMetadata streamMetadata = imageReader.getStreamMetadata();
+        if (streamMetadata != null) {
+            IIOMetadataNode screenDescriptor = getChild((IIOMetadataNode) streamMetadata.getAsTree(GIF_STREAM_METADATA_FORMAT), "LogicalScreenDescriptor");
+            int width = getIntAttribute(screenDescriptor, "logicalScreenWidth", 0);
+            int height = getIntAttribute(screenDescriptor, "logicalScreenHeight", 0);
+            if (width > 0 && height > 0) {
+                return new Dimension(width, height);
+            }
+        }
+        return new Dimension(imageReader.getWidth(0), imageReader.getHeight(0));
+    }
+
+    private void setGifFrameMetadata(IIOMetadata metadata, int delayTime, boolean isFirstFrame) throws IOException {
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(GIF_IMAGE_METADATA_FORMAT);
+
+        IIOMetadataNode graphicControl = getOrCreateChild(root, "GraphicControlExtension");
+        graphicControl.setAttribute("disposalMethod", "none");
+        graphicControl.setAttribute("userInputFlag", "FALSE");
+        graphicControl.setAttribute("transparentColorFlag", "FALSE");
+        graphicControl.setAttribute("delayTime", String.valueOf(delayTime));
+        graphicControl.setAttribute("transparentColorIndex", "0");
+
+        if (isFirstFrame) {
+            // Loop forever
+            IIOMetadataNode applicationExtension = new IIOMetadataNode("ApplicationExtension");
+            applicationExtension.setAttribute("applicationID", "NETSCAPE");
+            applicationExtension.setAttribute("authenticationCode", "2.0");
+            applicationExtension.setUserObject(new byte[]{0x1, 0x0, 0x0});
+            getOrCreateChild(root, "ApplicationExtensions").appendChild(applicationExtension);
+        }
+
+        metadata.setFromTree(GIF_IMAGE_METADATA_FORMAT, root);
+    }
+
     private Image writeJpeg(BufferedImage image) {
         if (image == null) {
             throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "No image");
         }
 
-        BufferedImage convertedImage = resizeImg(image);
+        long startNanos = System.nanoTime();
+        BufferedImage convertedImage = resizeImg(image, BufferedImage.TYPE_INT_RGB, Color.WHITE);
 
         JPEGImageWriteParam jpegParams = new JPEGImageWriteParam(null);
         jpegParams.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-        jpegParams.setCompressionQuality(0.8f);
+        jpegParams.setCompressionQuality(config.compressionQuality());
 
         byte[] data;
         try (ByteArrayOutputStream out = new ByteArrayOutputStream();
              ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
             final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
-            writer.setOutput(ios);
-            writer.write(null, new IIOImage(convertedImage, null, null), jpegParams);
+            try {
+                writer.setOutput(ios);
+                writer.write(null, new IIOImage(convertedImage, null, null), jpegParams);
+            } finally {
+                writer.dispose();
+            }
+            ios.flush();
             data = out.toByteArray();
         } catch (IOException ex) {
             throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Corrupted image", ex);
+        } finally {
+            encodeNanos.add(System.nanoTime() - startNanos);
         }
         return new Image(ContentType.JPEG.getMediaType(), data);
     }
 
-    private BufferedImage resizeImg(BufferedImage image) {
+    private BufferedImage resizeImg(BufferedImage image, int imageType, Color background) {
         Dimension scaledDimension = getScaledDimension(image.getWidth(), image.getHeight(), config.maxWidth(), config.maxHeight());
         final BufferedImage convertedImage = new BufferedImage(
                 (int) scaledDimension.getWidth(),
                 (int) scaledDimension.getHeight(),
-                BufferedImage.TYPE_INT_RGB);
+                imageType);
 
-        convertedImage.createGraphics().drawImage(
-                image,
-                0,
-                0,
-                convertedImage.getWidth(),
-                convertedImage.getHeight(),
-                Color.WHITE,
-                null);
+        Graphics2D graphics = convertedImage.createGraphics();
+        try {
+            graphics.drawImage(
+                    image,
+                    0,
+                    0,
+                    convertedImage.getWidth(),
+                    convertedImage.getHeight(),
+                    background,
+                    null);
+        } finally {
+            graphics.dispose();
+        }
 
         return convertedImage;
     }
 
+    private void checkDecodedPixels(long pixels) {
+        if (pixels > config.maxDecodedPixels()) {
+            throw new ApiException(Response.Status.REQUEST_ENTITY_TOO_LARGE, "Image dimensions are too large");
+        }
+    }
+
+    private static IIOMetadataNode getChild(IIOMetadataNode parent, String name) {
+        NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node child = children.item(i);
+            if (name.equals(child.getNodeName())) {
+                return (IIOMetadataNode) child;
+            }
+        }
+        return null;
+    }
+
+    private static IIOMetadataNode getOrCreateChild(IIOMetadataNode parent, String name) {
+        IIOMetadataNode child = getChild(parent, name);
+        if (child == null) {
+            child = new IIOMetadataNode(name);
+            parent.appendChild(child);
+        }
+        return child;
+    }
+
+    private static int getIntAttribute(IIOMetadataNode node, String name, int defaultValue) {
+        if (node == null || !node.hasAttribute(name)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(node.getAttribute(name));
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
     Dimension getScaledDimension(double imageWidth, double imageHeight, double boundaryWidth, double boundaryHeight) {
         double ratio = Math.min(boundaryWidth / imageWidth, boundaryHeight / imageHeight);
         return ratio >= 1d
@@ -154,6 +444,7 @@ public class ImageNormalizationImpl implements ImageNormalization {
             protected void configure() {
                 bind(ImageNormalization.class).to(ImageNormalizationImpl.class).asEagerSingleton();
                 install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(ImageNormalizationImpl.class).asEagerSingleton();
             }
         };
     }
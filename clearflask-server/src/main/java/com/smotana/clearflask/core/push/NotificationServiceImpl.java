@@ -2,12 +2,16 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.core.push;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Predicates;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -42,9 +46,14 @@ import com.smotana.clearflask.core.push.provider.BrowserPushService;
 import com.smotana.clearflask.core.push.provider.EmailService;
 import com.smotana.clearflask.store.AccountStore.Account;
 import com.smotana.clearflask.store.CommentStore.CommentModel;
+import com.smotana.clearflask.store.IdeaStore;
 import com.smotana.clearflask.store.IdeaStore.IdeaModel;
 import com.smotana.clearflask.store.NotificationStore;
+import com.smotana.clearflask.store.NotificationStore.FanOutCheckpoint;
+import com.smotana.clearflask.store.NotificationStore.FanOutSource;
+import com.smotana.clearflask.store.NotificationStore.FanOutType;
 import com.smotana.clearflask.store.NotificationStore.NotificationModel;
+import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.InvitationModel;
 import com.smotana.clearflask.store.ProjectStore.Project;
 import com.smotana.clearflask.store.UserStore;
@@ -52,24 +61,32 @@ import com.smotana.clearflask.store.UserStore.UserModel;
 import com.smotana.clearflask.store.VoteStore;
 import com.smotana.clearflask.store.VoteStore.ListResponse;
 import com.smotana.clearflask.store.VoteStore.TransactionModel;
+import com.smotana.clearflask.util.Extern;
+import com.smotana.clearflask.util.IdUtil;
+import com.smotana.clearflask.util.LogUtil;
 import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.Sanitizer;
-import lombok.AllArgsConstructor;
-import lombok.Builder;
-import lombok.NonNull;
+import lombok.Getter;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Objects;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
-import java.util.stream.Collectors;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
@@ -86,6 +103,12 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
      * If changed, also change in App.tsx
      */
     public static final String SSO_TOKEN_PARAM_NAME = "token";
+    private static final ImmutableList<FanOutSource> STATUS_OR_RESPONSE_CHANGED_SOURCES = ImmutableList.of(
+            FanOutSource.FUNDERS,
+            FanOutSource.VOTERS,
+            FanOutSource.EXPRESSERS);
+    private static final ImmutableList<FanOutSource> POST_CREATED_SOURCES = ImmutableList.of(
+            FanOutSource.CATEGORY_SUBSCRIBERS);
 
     public interface Config {
         @DefaultValue("true")
@@ -99,6 +122,62 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
 
         @DefaultValue("false")
         boolean notifyPaymentFailedBecauseNoPaymentMethod();
+
+        /**
+         * Lane for messages sent to a single recipient, such as password resets and email logins.
+         * When full, tasks run on the caller's thread.
+         */
+        @DefaultValue("4")
+        int transactionalThreads();
+
+        @DefaultValue("1000")
+        int transactionalQueueSize();
+
+        /**
+         * Lane for fan-out to all subscribers of a post. When full, tasks run on the caller's thread
+         * rather than being dropped, slowing down the caller instead of losing notifications.
+         */
+        @DefaultValue("2")
+        int bulkThreads();
+
+        @DefaultValue("100")
+        int bulkQueueSize();
+
+        @DefaultValue("10")
+        int emailSendConcurrency();
+
+        @DefaultValue("10")
+        int browserPushSendConcurrency();
+
+        /**
+         * When a channel queue is full, the sending lane thread sends itself.
+         */
+        @DefaultValue("1000")
+        int channelQueueSize();
+
+        /**
+         * Checkpoint fan-out progress so another node can resume it if this one goes away.
+         */
+        @DefaultValue("true")
+        boolean fanOutCheckpointEnabled();
+
+        /**
+         * How long a fan-out is owned by a node since its last checkpoint before others may take over.
+         */
+        @DefaultValue("PT5M")
+        Duration fanOutLeaseDuration();
+
+        @DefaultValue("PT5M")
+        Duration fanOutResumeInterval();
+
+        @DefaultValue("P7D")
+        Duration fanOutCheckpointExpiry();
+
+        /**
+         * Users per send batch within a page, the lease is renewed between batches.
+         */
+        @DefaultValue("100")
+        int fanOutSendBatchSize();
     }
 
     @Inject
@@ -116,6 +195,10 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
     @Inject
     private UserStore userStore;
     @Inject
+    private ProjectStore projectStore;
+    @Inject
+    private IdeaStore ideaStore;
+    @Inject
     private OnCommentReply onCommentReply;
     @Inject
     private OnTrialEnded onTrialEnded;
@@ -146,19 +229,58 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
     @Inject
     private Sanitizer sanitizer;
 
-    private ListeningExecutorService executor;
+    private Lane transactionalLane;
+    private Lane bulkLane;
+    private ListeningExecutorService emailExecutor;
+    private ListeningExecutorService browserPushExecutor;
+    private ScheduledExecutorService fanOutResumeExecutor;
+    private final String leaseOwner = IdUtil.randomId();
 
     @Override
     protected void serviceStart() throws Exception {
-        executor = MoreExecutors.listeningDecorator(new ThreadPoolExecutor(
-                2, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
-                new ThreadFactoryBuilder().setNameFormat("NotificationServiceImpl-worker-%d").build()));
+        transactionalLane = new Lane("transactional", new ThreadPoolExecutor(
+                config.transactionalThreads(), config.transactionalThreads(), 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(config.transactionalQueueSize()),
+                new ThreadFactoryBuilder().setNameFormat("NotificationServiceImpl-transactional-%d").build(),
+                new ThreadPoolExecutor.CallerRunsPolicy()));
+        bulkLane = new Lane("bulk", new ThreadPoolExecutor(
+                config.bulkThreads(), config.bulkThreads(), 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(config.bulkQueueSize()),
+                new ThreadFactoryBuilder().setNameFormat("NotificationServiceImpl-bulk-%d").build(),
+                new ThreadPoolExecutor.CallerRunsPolicy()));
+        emailExecutor = createChannelExecutor("email", config.emailSendConcurrency());
+        browserPushExecutor = createChannelExecutor("browserPush", config.browserPushSendConcurrency());
+        fanOutResumeExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("NotificationServiceImpl-fanOutResume-%d").build());
+        long resumeIntervalMs = config.fanOutResumeInterval().toMillis();
+        fanOutResumeExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                resumeAbandonedFanOuts();
+            } catch (Exception ex) {
+                log.warn("Failed to resume abandoned fan-outs", ex);
+            }
+        }, resumeIntervalMs, resumeIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private ListeningExecutorService createChannelExecutor(String channel, int concurrency) {
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+                concurrency, concurrency, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(config.channelQueueSize()),
+                new ThreadFactoryBuilder().setNameFormat("NotificationServiceImpl-" + channel + "-%d").build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        return MoreExecutors.listeningDecorator(threadPoolExecutor);
     }
 
     @Override
     protected void serviceStop() throws Exception {
-        executor.shutdownNow();
-        executor.awaitTermination(30, TimeUnit.SECONDS);
+        // Stop lanes first as their tasks feed the channel executors
+        for (ExecutorService executor : ImmutableList.of(fanOutResumeExecutor, transactionalLane.getExecutor(), bulkLane.getExecutor(), emailExecutor, browserPushExecutor)) {
+            executor.shutdown();
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        }
     }
 
     @Override
@@ -167,46 +289,63 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
-            checkArgument(statusChanged || responseChanged);
-
-            Optional<IdeaStatus> changedStatus;
-            if (statusChanged) {
-                IdeaStatus status = configAdmin.getContent()
-                        .getCategories()
-                        .stream()
-                        .filter(c -> idea.getCategoryId().equals(c.getCategoryId()))
-                        .findAny()
-                        .orElseThrow(IllegalStateException::new)
-                        .getWorkflow()
-                        .getStatuses()
-                        .stream()
-                        .filter(s -> idea.getStatusId().equals(s.getStatusId()))
-                        .findAny()
-                        .orElseThrow(IllegalStateException::new);
-                changedStatus = Optional.of(status);
-            } else {
-                changedStatus = Optional.empty();
-            }
+        submit(bulkLane, () -> fanOutStatusOrResponseChanged(configAdmin, idea, newFanOutCheckpoint(idea, FanOutType.STATUS_OR_RESPONSE_CHANGED)
+                .skipUserId(senderOpt.map(UserModel::getUserId).orElse(null))
+                .statusChanged(statusChanged)
+                .responseChanged(responseChanged)
+                .source(FanOutSource.FUNDERS)
+                .build(), false));
+    }
 
-            Optional<String> changedResponse;
-            if (responseChanged) {
-                checkState(idea.hasResponse());
-                changedResponse = Optional.of(idea.getResponseAsText(sanitizer));
-            } else {
-                changedResponse = Optional.empty();
-            }
+    private void fanOutStatusOrResponseChanged(ConfigAdmin configAdmin, IdeaModel idea, FanOutCheckpoint checkpoint, boolean isResumed) {
+        checkArgument(checkpoint.getStatusChanged() || checkpoint.getResponseChanged());
+
+        Optional<IdeaStatus> changedStatus;
+        if (checkpoint.getStatusChanged()) {
+            IdeaStatus status = configAdmin.getContent()
+                    .getCategories()
+                    .stream()
+                    .filter(c -> idea.getCategoryId().equals(c.getCategoryId()))
+                    .findAny()
+                    .orElseThrow(IllegalStateException::new)
+                    .getWorkflow()
+                    .getStatuses()
+                    .stream()
+                    .filter(s -> idea.getStatusId().equals(s.getStatusId()))
+                    .findAny()
+                    .orElseThrow(IllegalStateException::new);
+            changedStatus = Optional.of(status);
+        } else {
+            changedStatus = Optional.empty();
+        }
 
-            String link = "https://" + Project.getHostname(configAdmin, configApp) + "/post/" + idea.getIdeaId();
+        Optional<String> changedResponse;
+        if (checkpoint.getResponseChanged()) {
+            checkState(idea.hasResponse());
+            changedResponse = Optional.of(idea.getResponseAsText(sanitizer));
+        } else {
+            changedResponse = Optional.empty();
+        }
 
-            Set<String> userSeen = Sets.newHashSet();
-            BiConsumer<SubscriptionAction, UserModel> sendToUser = (subscriptionAction, user) -> {
-                if (!userSeen.add(user.getUserId())) {
-                    return;
-                }
+        String link = "https://" + Project.getHostname(configAdmin, configApp) + "/post/" + idea.getIdeaId();
 
-                try {
-                    notificationStore.notificationCreate(new NotificationModel(
+        fanOut(idea, checkpoint, STATUS_OR_RESPONSE_CHANGED_SOURCES, isResumed, (source, users) -> {
+            SubscriptionAction subscriptionAction;
+            switch (source) {
+                case FUNDERS:
+                    subscriptionAction = FUNDED;
+                    break;
+                case VOTERS:
+                    subscriptionAction = VOTED;
+                    break;
+                case EXPRESSERS:
+                    subscriptionAction = EXPRESSED;
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected source " + source);
+            }
+            sendBatch(users,
+                    user -> new NotificationModel(
                             idea.getProjectId(),
                             user.getUserId(),
                             notificationStore.genNotificationId(),
@@ -216,40 +355,13 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
                             Instant.now().plus(config.notificationExpiry()).getEpochSecond(),
                             onStatusOrResponseChange.inAppDescription(
                                     user, idea, configAdmin, subscriptionAction,
-                                    link, changedStatus, changedResponse)));
-                } catch (Exception ex) {
-                    log.warn("Failed to send in-app notification", ex);
-                }
-                Optional<String> authTokenOpt = Optional.empty();
-                try {
-                    if (user.isEmailNotify() && !Strings.isNullOrEmpty(user.getEmail())) {
-                        if (!authTokenOpt.isPresent()) {
-                            authTokenOpt = Optional.of(userStore.createToken(user.getProjectId(), user.getUserId(), config.autoLoginExpiry()));
-                        }
-                        emailService.send(onStatusOrResponseChange.email(
-                                user, idea, configAdmin, subscriptionAction,
-                                link, changedStatus, changedResponse, authTokenOpt.get()));
-                    }
-                } catch (Exception ex) {
-                    log.warn("Failed to send email notification", ex);
-                }
-                try {
-                    if (!Strings.isNullOrEmpty(user.getBrowserPushToken())) {
-                        if (!authTokenOpt.isPresent()) {
-                            authTokenOpt = Optional.of(userStore.createToken(user.getProjectId(), user.getUserId(), config.autoLoginExpiry()));
-                        }
-                        browserPushService.send(onStatusOrResponseChange.browserPush(
-                                user, idea, configAdmin, subscriptionAction,
-                                link, changedStatus, changedResponse, authTokenOpt.get()));
-                    }
-                } catch (Exception ex) {
-                    log.warn("Failed to send browser push notification", ex);
-                }
-            };
-            Subscribers subscribers = getSubscribers(idea, senderOpt);
-            subscribers.usersExpressed.forEach(user -> sendToUser.accept(EXPRESSED, user));
-            subscribers.usersFunded.forEach(user -> sendToUser.accept(FUNDED, user));
-            subscribers.usersVoted.forEach(user -> sendToUser.accept(VOTED, user));
+                                    link, changedStatus, changedResponse)),
+                    (user, authToken) -> onStatusOrResponseChange.email(
+                            user, idea, configAdmin, subscriptionAction,
+                            link, changedStatus, changedResponse, authToken),
+                    (user, authToken) -> onStatusOrResponseChange.browserPush(
+                            user, idea, configAdmin, subscriptionAction,
+                            link, changedStatus, changedResponse, authToken));
         });
     }
 
@@ -259,7 +371,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(transactionalLane, () -> {
             String link = "https://" + Project.getHostname(configAdmin, configApp) + "/transaction";
 
             try {
@@ -316,7 +428,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.trace("Not sending notification, user is replying to self");
             return;
         }
-        submit(() -> {
+        submit(transactionalLane, () -> {
             String link = "https://" + Project.getHostname(configAdmin, configApp) + "/post/" + idea.getIdeaId() + "/comment/" + comment.getCommentId();
 
             Optional<UserModel> userOpt = userStore.getUser(idea.getProjectId(), userId);
@@ -373,7 +485,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(transactionalLane, () -> {
             String link = "https://" + Project.getHostname(configAdmin, configApp) + "/account";
             checkState(!Strings.isNullOrEmpty(user.getEmail()));
 
@@ -393,7 +505,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(transactionalLane, () -> {
             String link = "https://" + configApp.domain() + "/dashboard";
             if (!hasPaymentMethod) {
                 link += "/billing";
@@ -414,7 +526,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(transactionalLane, () -> {
             String link = "https://" + configApp.domain() + "/invoice/" + invoiceIdStr;
             checkState(!Strings.isNullOrEmpty(accountEmail));
 
@@ -436,7 +548,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             // Only notify when has payment method, mainly to not duplicate emails right after trial ended
             return;
         }
-        submit(() -> {
+        submit(transactionalLane, () -> {
             String link = "https://" + configApp.domain() + "/dashboard/billing";
             checkState(!Strings.isNullOrEmpty(accountEmail));
 
@@ -458,7 +570,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.trace("On mod invite with user having no email {}", user);
             return;
         }
-        submit(() -> {
+        submit(transactionalLane, () -> {
             String link = "https://" + Project.getHostname(configAdmin, configApp) + "/account";
             checkState(!Strings.isNullOrEmpty(user.getEmail()));
 
@@ -478,7 +590,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(transactionalLane, () -> {
             String link = "https://" + configApp.domain() + "/invitation/" + invitation.getInvitationId();
             try {
                 emailService.send(onTeammateInvite.email(invitation, link));
@@ -498,7 +610,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.warn("On email changed with user having no email {}", user);
             return;
         }
-        submit(() -> {
+        submit(transactionalLane, () -> {
             String link = "https://" + Project.getHostname(configAdmin, configApp) + "/account";
             checkState(!Strings.isNullOrEmpty(user.getEmail()));
 
@@ -518,7 +630,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(transactionalLane, () -> {
             try {
                 emailService.send(emailVerify.email(configAdmin, email, token));
             } catch (Exception ex) {
@@ -533,7 +645,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(transactionalLane, () -> {
             String link = "https://" + Project.getHostname(configAdmin, configApp);
             checkState(!Strings.isNullOrEmpty(user.getEmail()));
 
@@ -558,67 +670,33 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
                 .isPresent()) {
             return;
         }
-        submit(() -> {
-            String projectId = project.getProjectId();
-            ConfigAdmin configAdmin = project.getVersionedConfigAdmin().getConfig();
-            String link = "https://"
-                    + Project.getHostname(configAdmin, configApp)
-                    + "/post/"
-                    + idea.getIdeaId();
-
-            Optional<String> cursor = Optional.empty();
-            do {
-                ListResponse<VoteStore.VoteModel> subscriptionsBatch = voteStore.voteListByTarget(projectId, idea.getCategoryId(), cursor);
-                cursor = subscriptionsBatch.getCursorOpt();
-
-                ImmutableMap<String, UserModel> subscribersBatch = userStore.getUsers(
-                        projectId,
-                        subscriptionsBatch.getItems().stream()
-                                .map(VoteStore.VoteModel::getUserId)
-                                .collect(ImmutableList.toImmutableList()));
-
-                try {
-                    notificationStore.notificationsCreate(subscribersBatch.values().stream()
-                            .map(user -> new NotificationModel(
-                                    projectId,
-                                    user.getUserId(),
-                                    notificationStore.genNotificationId(),
-                                    idea.getIdeaId(),
-                                    null,
-                                    idea.getCreated(),
-                                    Instant.now().plus(this.config.notificationExpiry()).getEpochSecond(),
-                                    onPostCreated.inAppDescription(notifySubscribers, configAdmin, user)))
-                            .collect(ImmutableList.toImmutableList()));
-                } catch (Exception ex) {
-                    log.warn("Failed to send in-app notification", ex);
-                }
+        submit(bulkLane, () -> fanOutPostCreated(project.getVersionedConfigAdmin().getConfig(), idea, notifySubscribers, newFanOutCheckpoint(idea, FanOutType.POST_CREATED)
+                .statusChanged(false)
+                .responseChanged(false)
+                .notifyTitle(notifySubscribers.getTitle())
+                .notifyBody(notifySubscribers.getBody())
+                .source(FanOutSource.CATEGORY_SUBSCRIBERS)
+                .build(), false));
+    }
 
-                subscribersBatch.values().forEach(user -> {
-                    Optional<String> authTokenOpt = Optional.empty();
-                    try {
-                        if (user.isEmailNotify() && !Strings.isNullOrEmpty(user.getEmail())) {
-                            if (!authTokenOpt.isPresent()) {
-                                authTokenOpt = Optional.of(userStore.createToken(user.getProjectId(), user.getUserId(), this.config.autoLoginExpiry()));
-                            }
-                            emailService.send(onPostCreated.email(notifySubscribers, configAdmin, user, link, authTokenOpt.get()));
-                        }
-                    } catch (Exception ex) {
-                        log.warn("Failed to send email notification", ex);
-                    }
-                    try {
-                        if (!Strings.isNullOrEmpty(user.getBrowserPushToken())) {
-                            if (!authTokenOpt.isPresent()) {
-                                authTokenOpt = Optional.of(userStore.createToken(user.getProjectId(), user.getUserId(), this.config.autoLoginExpiry()));
-                            }
-                            browserPushService.send(onPostCreated.browserPush(notifySubscribers, configAdmin, user, link, authTokenOpt.get()));
-                        }
-                    } catch (Exception ex) {
-                        log.warn("Failed to send browser push notification", ex);
-                    }
-                });
+    private void fanOutPostCreated(ConfigAdmin configAdmin, IdeaModel idea, NotifySubscribers notifySubscribers, FanOutCheckpoint checkpoint, boolean isResumed) {
+        String link = "https://"
+                + Project.getHostname(configAdmin, configApp)
+                + "/post/"
+                + idea.getIdeaId();
 
-            } while (cursor.isPresent());
-        });
+        fanOut(idea, checkpoint, POST_CREATED_SOURCES, isResumed, (source, users) -> sendBatch(users,
+                user -> new NotificationModel(
+                        idea.getProjectId(),
+                        user.getUserId(),
+                        notificationStore.genNotificationId(),
+                        idea.getIdeaId(),
+                        null,
+                        idea.getCreated(),
+                        Instant.now().plus(this.config.notificationExpiry()).getEpochSecond(),
+                        onPostCreated.inAppDescription(notifySubscribers, configAdmin, user)),
+                (user, authToken) -> onPostCreated.email(notifySubscribers, configAdmin, user, link, authToken),
+                (user, authToken) -> onPostCreated.browserPush(notifySubscribers, configAdmin, user, link, authToken)));
     }
 
     @Override
@@ -627,7 +705,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(transactionalLane, () -> {
             String link = "https://" + configApp.domain() + "/dashboard";
 
             try {
@@ -638,79 +716,305 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
         });
     }
 
-    private Subscribers getSubscribers(IdeaModel idea, Optional<UserModel> senderOpt) {
-        String skipUserId = senderOpt.map(UserModel::getUserId).orElse("");
-        ImmutableSet.Builder<String> userIdsFundBuilder = ImmutableSet.builder();
-        if (idea.getFundersCount() != null && idea.getFundersCount() != 0) {
-            ListResponse<VoteStore.FundModel> resultFund = null;
+    private FanOutCheckpoint.FanOutCheckpointBuilder newFanOutCheckpoint(IdeaModel idea, FanOutType type) {
+        return FanOutCheckpoint.builder()
+                .fanOutId(IdUtil.randomId())
+                .type(type)
+                .projectId(idea.getProjectId())
+                .ideaId(idea.getIdeaId())
+                .leaseOwner(leaseOwner)
+                .leaseExpiresEpochMs(0L)
+                .ttlInEpochSec(0L);
+    }
+
+    /**
+     * Sends to subscribers page by page as they are read. Users already seen in a previous source are skipped.
+     * <p>
+     * Progress is checkpointed once the audience spans more than one page so another node can resume if this one
+     * goes away. Progress is kept as a page count since cursors are encrypted with a random IV and cannot be
+     * compared. On resume, already sent pages are re-read only to rebuild the set of seen users.
+     */
+    private void fanOut(IdeaModel idea, FanOutCheckpoint checkpoint, ImmutableList<FanOutSource> sources, boolean isResumed, BiConsumer<FanOutSource, ImmutableCollection<UserModel>> batchSender) {
+        int resumeSourceIndex = sources.indexOf(checkpoint.getSource());
+        checkArgument(resumeSourceIndex >= 0, "Source %s not applicable", checkpoint.getSource());
+        int resumePageIndex = Optional.ofNullable(checkpoint.getPageIndex()).orElse(0);
+        String skipUserId = Strings.nullToEmpty(checkpoint.getSkipUserId());
+        // Hashes instead of user ids to keep memory low for large audiences
+        Set<Long> seenUserIdHashes = Sets.newHashSet();
+        boolean isCheckpointed = isResumed;
+
+        for (int sourceIndex = 0; sourceIndex < sources.size(); sourceIndex++) {
+            FanOutSource source = sources.get(sourceIndex);
+            Optional<String> cursorOpt = Optional.empty();
+            int pageIndex = 0;
+            if (sourceIndex < resumeSourceIndex
+                    || (sourceIndex == resumeSourceIndex && resumePageIndex > 0)) {
+                do {
+                    ListResponse<String> page = fetchFanOutPage(idea, source, cursorOpt);
+                    page.getItems().forEach(userId -> seenUserIdHashes.add(hashUserId(userId)));
+                    cursorOpt = page.getCursorOpt();
+                    pageIndex++;
+                } while (cursorOpt.isPresent()
+                        && (sourceIndex < resumeSourceIndex || pageIndex < resumePageIndex));
+                if (sourceIndex < resumeSourceIndex || cursorOpt.isEmpty()) {
+                    continue;
+                }
+            }
+
             do {
-                resultFund = voteStore.fundListByTarget(idea.getProjectId(), idea.getIdeaId(), Optional.ofNullable(resultFund).flatMap(ListResponse::getCursorOpt));
-                userIdsFundBuilder.addAll(resultFund.getItems().stream()
-                        .map(VoteStore.FundModel::getUserId)
+                ListResponse<String> page = fetchFanOutPage(idea, source, cursorOpt);
+                ImmutableList<String> userIds = page.getItems().stream()
                         .filter(Predicates.not(skipUserId::equals))
-                        .collect(Collectors.toSet()));
-            } while (resultFund.getCursorOpt().isPresent());
+                        .filter(userId -> seenUserIdHashes.add(hashUserId(userId)))
+                        .collect(ImmutableList.toImmutableList());
+                for (List<String> userIdsBatch : Lists.partition(userIds, config.fanOutSendBatchSize())) {
+                    if (isCheckpointed) {
+                        // Sending a large page may outlast the lease
+                        Optional<FanOutCheckpoint> checkpointRenewedOpt = renewFanOutLeaseIfNeeded(checkpoint);
+                        if (checkpointRenewedOpt.isEmpty()) {
+                            log.warn("Fan-out {} was taken over by another node, stopping", checkpoint.getFanOutId());
+                            return;
+                        }
+                        checkpoint = checkpointRenewedOpt.get();
+                    }
+                    batchSender.accept(source, userStore.getUsers(idea.getProjectId(), userIdsBatch).values());
+                }
+                cursorOpt = page.getCursorOpt();
+                pageIndex++;
+
+                boolean isDone = !cursorOpt.isPresent() && sourceIndex + 1 >= sources.size();
+                if (config.fanOutCheckpointEnabled() && !isDone && (isCheckpointed || cursorOpt.isPresent())) {
+                    FanOutCheckpoint checkpointNext = checkpoint.toBuilder()
+                            .source(cursorOpt.isPresent() ? source : sources.get(sourceIndex + 1))
+                            .pageIndex(cursorOpt.isPresent() ? pageIndex : 0)
+                            .leaseOwner(leaseOwner)
+                            .leaseExpiresEpochMs(Instant.now().plus(config.fanOutLeaseDuration()).toEpochMilli())
+                            .ttlInEpochSec(Instant.now().plus(config.fanOutCheckpointExpiry()).getEpochSecond())
+                            .build();
+                    if (!notificationStore.fanOutCheckpointPut(checkpointNext, isCheckpointed ? Optional.of(leaseOwner) : Optional.empty())) {
+                        log.warn("Fan-out {} was taken over by another node, stopping", checkpoint.getFanOutId());
+                        return;
+                    }
+                    checkpoint = checkpointNext;
+                    isCheckpointed = true;
+                }
+            } while (cursorOpt.isPresent());
         }
-        ImmutableSet<String> userIdsFund = userIdsFundBuilder.build();
 
-        ImmutableSet.Builder<String> userIdsVoteBuilder = ImmutableSet.builder();
-        if (idea.getVotersCount() != null && idea.getVotersCount() != 0) {
-            ListResponse<VoteStore.VoteModel> resultVote = null;
-            do {
-                resultVote = voteStore.voteListByTarget(idea.getProjectId(), idea.getIdeaId(), Optional.ofNullable(resultVote).flatMap(ListResponse::getCursorOpt));
-                userIdsVoteBuilder.addAll(resultVote.getItems().stream()
-                        .map(VoteStore.VoteModel::getUserId)
-                        .filter(Predicates.not(skipUserId::equals))
-                        .collect(Collectors.toSet()));
-            } while (resultVote.getCursorOpt().isPresent());
+        if (isCheckpointed) {
+            notificationStore.fanOutCheckpointDelete(checkpoint.getFanOutId());
+        }
+    }
+
+    /**
+     * Extends the lease once half of it has elapsed, keeping progress as is.
+     *
+     * @return empty if the lease was lost to another node
+     */
+    private Optional<FanOutCheckpoint> renewFanOutLeaseIfNeeded(FanOutCheckpoint checkpoint) {
+        long nowEpochMs = Instant.now().toEpochMilli();
+        long renewAfterEpochMs = checkpoint.getLeaseExpiresEpochMs() - config.fanOutLeaseDuration().toMillis() / 2;
+        if (nowEpochMs < renewAfterEpochMs) {
+            return Optional.of(checkpoint);
         }
-        ImmutableSet<String> userIdsVote = userIdsVoteBuilder.build();
+        FanOutCheckpoint checkpointRenewed = checkpoint.toBuilder()
+                .leaseOwner(leaseOwner)
+                .leaseExpiresEpochMs(nowEpochMs + config.fanOutLeaseDuration().toMillis())
+                .build();
+        return notificationStore.fanOutCheckpointPut(checkpointRenewed, Optional.of(leaseOwner))
+                ? Optional.of(checkpointRenewed)
+                : Optional.empty();
+    }
 
-        ImmutableSet.Builder<String> userIdsExpressBuilder = ImmutableSet.builder();
-        if (!idea.getExpressions().isEmpty()) {
-            ListResponse<VoteStore.ExpressModel> resultExpress = null;
-            do {
-                resultExpress = voteStore.expressListByTarget(idea.getProjectId(), idea.getIdeaId(), Optional.ofNullable(resultExpress).flatMap(ListResponse::getCursorOpt));
-                userIdsExpressBuilder.addAll(resultExpress.getItems().stream()
+    private ListResponse<String> fetchFanOutPage(IdeaModel idea, FanOutSource source, Optional<String> cursorOpt) {
+        switch (source) {
+            case FUNDERS:
+                if (idea.getFundersCount() == null || idea.getFundersCount() == 0) {
+                    return new ListResponse<>(ImmutableList.of(), Optional.empty());
+                }
+                ListResponse<VoteStore.FundModel> resultFund = voteStore.fundListByTarget(idea.getProjectId(), idea.getIdeaId(), cursorOpt);
+                return new ListResponse<>(resultFund.getItems().stream()
+                        .map(VoteStore.FundModel::getUserId)
+                        .collect(ImmutableList.toImmutableList()), resultFund.getCursorOpt());
+            case VOTERS:
+                if (idea.getVotersCount() == null || idea.getVotersCount() == 0) {
+                    return new ListResponse<>(ImmutableList.of(), Optional.empty());
+                }
+                ListResponse<VoteStore.VoteModel> resultVote = voteStore.voteListByTarget(idea.getProjectId(), idea.getIdeaId(), cursorOpt);
+                return new ListResponse<>(resultVote.getItems().stream()
+                        .map(VoteStore.VoteModel::getUserId)
+                        .collect(ImmutableList.toImmutableList()), resultVote.getCursorOpt());
+            case EXPRESSERS:
+                if (idea.getExpressions() == null || idea.getExpressions().isEmpty()) {
+                    return new ListResponse<>(ImmutableList.of(), Optional.empty());
+                }
+                ListResponse<VoteStore.ExpressModel> resultExpress = voteStore.expressListByTarget(idea.getProjectId(), idea.getIdeaId(), cursorOpt);
+                return new ListResponse<>(resultExpress.getItems().stream()
                         .map(VoteStore.ExpressModel::getUserId)
-                        .filter(Predicates.not(skipUserId::equals))
-                        .collect(Collectors.toSet()));
-            } while (resultExpress.getCursorOpt().isPresent());
+                        .collect(ImmutableList.toImmutableList()), resultExpress.getCursorOpt());
+            case CATEGORY_SUBSCRIBERS:
+                ListResponse<VoteStore.VoteModel> resultSubscription = voteStore.voteListByTarget(idea.getProjectId(), idea.getCategoryId(), cursorOpt);
+                return new ListResponse<>(resultSubscription.getItems().stream()
+                        .map(VoteStore.VoteModel::getUserId)
+                        .collect(ImmutableList.toImmutableList()), resultSubscription.getCursorOpt());
+            default:
+                throw new IllegalStateException("Unknown fan-out source " + source);
         }
-        ImmutableSet<String> userIdsExpress = userIdsExpressBuilder.build();
+    }
 
-        ImmutableSet<String> userIds = ImmutableSet.<String>builder()
-                .addAll(userIdsExpress)
-                .addAll(userIdsFund)
-                .addAll(userIdsVote)
-                .build();
-        if (userIds.isEmpty()) {
-            return new Subscribers(ImmutableSet.of(), ImmutableSet.of(), ImmutableSet.of());
+    private long hashUserId(String userId) {
+        return Hashing.murmur3_128().hashString(userId, Charsets.UTF_8).asLong();
+    }
+
+    /**
+     * Resumes fan-outs whose node stopped checkpointing progress.
+     */
+    @Extern
+    public void resumeAbandonedFanOuts() {
+        if (!config.enabled() || !config.fanOutCheckpointEnabled()) {
+            return;
         }
-        ImmutableMap<String, UserModel> usersById = userStore.getUsers(idea.getProjectId(), userIds);
+        notificationStore.fanOutCheckpointListAll(checkpoint -> {
+            if (checkpoint.getLeaseExpiresEpochMs() >= Instant.now().toEpochMilli()) {
+                return;
+            }
+            notificationStore.fanOutCheckpointClaim(
+                            checkpoint.getFanOutId(),
+                            leaseOwner,
+                            Instant.now().plus(config.fanOutLeaseDuration()).toEpochMilli())
+                    .ifPresent(checkpointClaimed -> {
+                        log.info("Resuming abandoned fan-out {} for project {} idea {}",
+                                checkpointClaimed.getFanOutId(), checkpointClaimed.getProjectId(), checkpointClaimed.getIdeaId());
+                        submit(bulkLane, () -> resumeFanOut(checkpointClaimed));
+                    });
+        });
+    }
 
-        return new Subscribers(
-                userIdsFund.stream()
-                        .map(usersById::get).filter(Objects::nonNull).collect(ImmutableSet.toImmutableSet()),
-                userIdsVote.stream()
-                        .filter(object -> !userIdsFund.contains(object))
-                        .map(usersById::get).filter(Objects::nonNull).collect(ImmutableSet.toImmutableSet()),
-                userIdsExpress.stream()
-                        .filter(object -> !userIdsFund.contains(object))
-                        .filter(object -> !userIdsExpress.contains(object))
-                        .map(usersById::get).filter(Objects::nonNull).collect(ImmutableSet.toImmutableSet()));
+    private void resumeFanOut(FanOutCheckpoint checkpoint) {
+        Optional<Project> projectOpt = projectStore.getProject(checkpoint.getProjectId(), true);
+        Optional<IdeaModel> ideaOpt = ideaStore.getIdea(checkpoint.getProjectId(), checkpoint.getIdeaId());
+        if (!projectOpt.isPresent() || !ideaOpt.isPresent()) {
+            log.info("Dropping fan-out {}, project or idea no longer exists", checkpoint.getFanOutId());
+            notificationStore.fanOutCheckpointDelete(checkpoint.getFanOutId());
+            return;
+        }
+        ConfigAdmin configAdmin = projectOpt.get().getVersionedConfigAdmin().getConfig();
+        switch (checkpoint.getType()) {
+            case STATUS_OR_RESPONSE_CHANGED:
+                fanOutStatusOrResponseChanged(configAdmin, ideaOpt.get(), checkpoint, true);
+                break;
+            case POST_CREATED:
+                fanOutPostCreated(configAdmin, ideaOpt.get(), new NotifySubscribers(
+                        checkpoint.getNotifyTitle(),
+                        checkpoint.getNotifyBody()), checkpoint, true);
+                break;
+            default:
+                throw new IllegalStateException("Unknown fan-out type " + checkpoint.getType());
+        }
     }
 
-    private void submit(Runnable task) {
-        executor.submit(() -> {
+    /**
+     * Sends to a batch of users: in-app notifications in a single write, email and browser push concurrently.
+     */
+    private void sendBatch(
+            ImmutableCollection<UserModel> users,
+            Function<UserModel, NotificationModel> inAppNotifier,
+            BiFunction<UserModel, String, EmailService.Email> emailer,
+            BiFunction<UserModel, String, BrowserPushService.BrowserPush> browserPusher) {
+        try {
+            notificationStore.notificationsCreate(users.stream()
+                    .map(inAppNotifier)
+                    .collect(ImmutableList.toImmutableList()));
+        } catch (Exception ex) {
+            log.warn("Failed to send in-app notification", ex);
+        }
+
+        List<ListenableFuture<?>> sends = Lists.newArrayList();
+        users.forEach(user -> {
+            Optional<String> authTokenOpt = createTokenIfNotifiable(user);
+            if (authTokenOpt.isEmpty()) {
+                return;
+            }
+            if (user.isEmailNotify() && !Strings.isNullOrEmpty(user.getEmail())) {
+                sends.add(sendEmail(() -> emailer.apply(user, authTokenOpt.get())));
+            }
+            if (!Strings.isNullOrEmpty(user.getBrowserPushToken())) {
+                sends.add(sendBrowserPush(() -> browserPusher.apply(user, authTokenOpt.get())));
+            }
+        });
+        // Wait on each batch to keep the number of pending sends bounded
+        awaitSends(sends);
+    }
+
+    private void submit(Lane lane, Runnable task) {
+        long enqueuedAt = System.nanoTime();
+        Thread callerThread = Thread.currentThread();
+        lane.getExecutor().execute(() -> {
+            long startedAt = System.nanoTime();
+            lane.getQueueWaitNanos().add(startedAt - enqueuedAt);
+            if (Thread.currentThread() == callerThread) {
+                lane.getCallerRuns().increment();
+                if (LogUtil.rateLimitAllowLog("notificationServiceImpl-lane-full")) {
+                    log.warn("Notification {} lane is full, running task on caller's thread", lane.getName());
+                }
+            }
             try {
                 task.run();
             } catch (Throwable th) {
                 log.warn("Failed to complete task", th);
+            } finally {
+                lane.getRunNanos().add(System.nanoTime() - startedAt);
+                lane.getCompleted().increment();
+            }
+        });
+    }
+
+    /**
+     * Creates a single auto-login token shared by all channels, or empty if user has no channel to send to.
+     */
+    private Optional<String> createTokenIfNotifiable(UserModel user) {
+        if ((user.isEmailNotify() && !Strings.isNullOrEmpty(user.getEmail()))
+                || !Strings.isNullOrEmpty(user.getBrowserPushToken())) {
+            return Optional.of(userStore.createToken(user.getProjectId(), user.getUserId(), config.autoLoginExpiry()));
+        }
+        return Optional.empty();
+    }
+
+    private ListenableFuture<?> sendEmail(Supplier<EmailService.Email> emailSupplier) {
+        return emailExecutor.submit(() -> {
+            try {
+                emailService.send(emailSupplier.get());
+            } catch (Exception ex) {
+                log.warn("Failed to send email notification", ex);
             }
         });
     }
 
+    private ListenableFuture<?> sendBrowserPush(Supplier<BrowserPushService.BrowserPush> browserPushSupplier) {
+        return browserPushExecutor.submit(() -> {
+            try {
+                browserPushService.send(browserPushSupplier.get());
+            } catch (Exception ex) {
+                log.warn("Failed to send browser push notification", ex);
+            }
+        });
+    }
+
+    private void awaitSends(List<ListenableFuture<?>> sends) {
+        try {
+            Futures.successfulAsList(sends).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            log.warn("Failed to wait for notification sends", ex);
+        }
+    }
+
+    @Extern
+    public ImmutableList<LaneStats> getLaneStats() {
+        return ImmutableList.of(transactionalLane.getStats(), bulkLane.getStats());
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
@@ -723,14 +1027,43 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
     }
 
     @Value
-    @Builder(toBuilder = true)
-    @AllArgsConstructor
-    private static class Subscribers {
-        @NonNull
-        private final ImmutableSet<UserModel> usersExpressed;
-        @NonNull
-        private final ImmutableSet<UserModel> usersFunded;
-        @NonNull
-        private final ImmutableSet<UserModel> usersVoted;
+    public static class LaneStats {
+        String name;
+        int queueDepth;
+        int activeThreads;
+        long completed;
+        /**
+         * Tasks run on the submitting thread as the lane was full
+         */
+        long callerRuns;
+        double avgQueueWaitMillis;
+        double avgRunMillis;
+    }
+
+    @Getter
+    private static class Lane {
+        private final String name;
+        private final ThreadPoolExecutor executor;
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder callerRuns = new LongAdder();
+        private final LongAdder queueWaitNanos = new LongAdder();
+        private final LongAdder runNanos = new LongAdder();
+
+        private Lane(String name, ThreadPoolExecutor executor) {
+            this.name = name;
+            this.executor = executor;
+        }
+
+        private LaneStats getStats() {
+            long completedCount = completed.sum();
+            return new LaneStats(
+                    name,
+                    executor.getQueue().size(),
+                    executor.getActiveCount(),
+                    completedCount,
+                    callerRuns.sum(),
+                    completedCount == 0 ? 0d : queueWaitNanos.sum() / 1_000_000d / completedCount,
+                    completedCount == 0 ? 0d : runNanos.sum() / 1_000_000d / completedCount);
+        }
     }
 }
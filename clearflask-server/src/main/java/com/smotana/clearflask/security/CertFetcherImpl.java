@@ -4,10 +4,17 @@ package com.smotana.clearflask.security;
 
 import com.amazonaws.util.StringInputStream;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
@@ -23,6 +30,7 @@ import com.smotana.clearflask.store.CertStore.ChallengeModel;
 import com.smotana.clearflask.store.CertStore.KeypairModel;
 import com.smotana.clearflask.store.CertStore.KeypairModel.KeypairType;
 import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.util.LogUtil;
 import com.smotana.clearflask.web.Application;
 import lombok.SneakyThrows;
@@ -55,7 +63,10 @@ import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -76,6 +87,27 @@ public class CertFetcherImpl extends ManagedService implements CertFetcher {
 
         @DefaultValue("P60D")
         Duration renewWithExpiryRangeMax();
+
+        /**
+         * Certs are re-read from the store after this long to pick up renewals by other nodes.
+         */
+        @DefaultValue("PT10M")
+        Duration certCacheExpireAfterWrite();
+
+        @DefaultValue("10000")
+        long certCacheMaximumSize();
+
+        @DefaultValue("PT1M")
+        Duration unknownDomainCacheExpireAfterWrite();
+
+        @DefaultValue("100000")
+        long unknownDomainCacheMaximumSize();
+
+        /**
+         * After a failed cert creation or renewal, the domain is not retried for this long.
+         */
+        @DefaultValue("PT1H")
+        Duration renewRetryAfterFailure();
     }
 
     @Inject
@@ -89,6 +121,28 @@ public class CertFetcherImpl extends ManagedService implements CertFetcher {
 
     private ListeningExecutorService executor;
     private Duration renewWithExpiry;
+    private Cache<String, CertAndKeypair> certCache;
+    private Cache<String, Boolean> unknownDomainCache;
+    private Cache<String, Boolean> createFailedCache;
+    /** Cert creations in progress by requested domain, concurrent requests wait on the same one */
+    private final ConcurrentMap<String, ListenableFuture<CertAndKeypair>> certCreationsInFlight = Maps.newConcurrentMap();
+    private final Set<String> renewalsPending = Sets.newConcurrentHashSet();
+
+    @Inject
+    private void setup() {
+        certCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.certCacheExpireAfterWrite())
+                .maximumSize(config.certCacheMaximumSize())
+                .recordStats()
+                .build();
+        unknownDomainCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.unknownDomainCacheExpireAfterWrite())
+                .maximumSize(config.unknownDomainCacheMaximumSize())
+                .build();
+        createFailedCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.renewRetryAfterFailure())
+                .build();
+    }
 
     @Override
     protected void serviceStart() throws Exception {
@@ -119,53 +173,30 @@ public class CertFetcherImpl extends ManagedService implements CertFetcher {
             if (configApp.domain().equals(domain)
                     || domain.endsWith("." + configApp.domain())) {
                 domainToRequest = "*." + configApp.domain();
+            } else if (unknownDomainCache.getIfPresent(domain) != null) {
+                return Optional.empty();
             } else if (!projectStore.getProjectBySlug(domain, true).isPresent()) {
+                unknownDomainCache.put(domain, Boolean.TRUE);
                 return Optional.empty();
             } else {
                 domainToRequest = domain;
             }
 
-            Optional<CertModel> certModelOpt = certStore.getCert(domainToRequest);
-            if (certModelOpt.isPresent() && Instant.now().isAfter(certModelOpt.get().getExpiresAt().minus(renewWithExpiry))) {
-                executor.submit(() -> {
-                    try {
-                        createCert(domainToRequest);
-                    } catch (Exception ex) {
-                        log.warn("Failed to renew cert for domain {}", domain, ex);
-                    }
-                });
-            }
-            if (certModelOpt.isEmpty()) {
-                try {
-                    return Optional.of(createCert(domainToRequest));
-                } catch (Exception ex) {
-                    log.warn("Failed to create cert for domain {}", domain, ex);
-                    return Optional.empty();
-                }
-            } else {
-                Optional<KeypairModel> keypairModelOpt = certStore.getKeypair(KeypairType.CERT, domainToRequest);
-                if (keypairModelOpt.isEmpty()) {
-                    log.warn("No keypair found matching cert for domain {}, re-creating both", domainToRequest);
-                    certStore.deleteCert(domainToRequest);
-                    return Optional.of(createCert(domainToRequest));
-                }
-
-                // Because there were a few certs we created with the wrong private key,
-                // Ensure the private key matches the cert otherwise throw it away
-                if (certModelOpt.get().getIssuedAt().isBefore(CHECK_PRIVATE_PUBLIC_CREATED_PRIOR_TO)) {
-                    boolean privatePublicMatches = checkPrivatePublicMatches(certModelOpt.get(), keypairModelOpt.get());
-                    if (!privatePublicMatches) {
-                        log.warn("Keypair doesn't match cert for domain {}, re-creating both", domainToRequest);
-                        certStore.deleteKeypair(KeypairType.CERT, domainToRequest);
-                        certStore.deleteCert(domainToRequest);
-                        return Optional.of(createCert(domainToRequest));
-                    }
+            CertAndKeypair certAndKeypair = certCache.getIfPresent(domainToRequest);
+            if (certAndKeypair == null) {
+                Optional<CertAndKeypair> certAndKeypairOpt = loadCertAndKeypair(domainToRequest);
+                if (certAndKeypairOpt.isEmpty()) {
+                    return Optional.of(createCertSingleFlight(domainToRequest).get());
                 }
+                certAndKeypair = certAndKeypairOpt.get();
+                certCache.put(domainToRequest, certAndKeypair);
+            }
 
-                return Optional.of(new CertAndKeypair(
-                        certModelOpt.get(),
-                        keypairModelOpt.get()));
+            if (Instant.now().isAfter(certAndKeypair.getCert().getExpiresAt().minus(renewWithExpiry))) {
+                renewAsync(domainToRequest);
             }
+
+            return Optional.of(certAndKeypair);
         } catch (Exception ex) {
             if (LogUtil.rateLimitAllowLog("WildCertFetcherImpl-failed-get-create-wildcart-cert")) {
                 log.warn("Failed to get/create wildcard cert for domain {}", domain, ex);
@@ -174,6 +205,99 @@ public class CertFetcherImpl extends ManagedService implements CertFetcher {
         }
     }
 
+    @Extern
+    public void invalidateCertCache() {
+        certCache.invalidateAll();
+        unknownDomainCache.invalidateAll();
+        createFailedCache.invalidateAll();
+    }
+
+    @Extern
+    public CacheStats getCertCacheStats() {
+        return certCache.stats();
+    }
+
+    /**
+     * Reads a usable cert and keypair from the store. Unusable ones are removed to be re-created.
+     */
+    private Optional<CertAndKeypair> loadCertAndKeypair(String domainToRequest) {
+        Optional<CertModel> certModelOpt = certStore.getCert(domainToRequest);
+        if (certModelOpt.isEmpty()) {
+            return Optional.empty();
+        }
+
+        Optional<KeypairModel> keypairModelOpt = certStore.getKeypair(KeypairType.CERT, domainToRequest);
+        if (keypairModelOpt.isEmpty()) {
+            log.warn("No keypair found matching cert for domain {}, re-creating both", domainToRequest);
+            certStore.deleteCert(domainToRequest);
+            return Optional.empty();
+        }
+
+        // Because there were a few certs we created with the wrong private key,
+        // Ensure the private key matches the cert otherwise throw it away
+        if (certModelOpt.get().getIssuedAt().isBefore(CHECK_PRIVATE_PUBLIC_CREATED_PRIOR_TO)) {
+            boolean privatePublicMatches = checkPrivatePublicMatches(certModelOpt.get(), keypairModelOpt.get());
+            if (!privatePublicMatches) {
+                log.warn("Keypair doesn't match cert for domain {}, re-creating both", domainToRequest);
+                certStore.deleteKeypair(KeypairType.CERT, domainToRequest);
+                certStore.deleteCert(domainToRequest);
+                return Optional.empty();
+            }
+        }
+
+        return Optional.of(new CertAndKeypair(
+                certModelOpt.get(),
+                keypairModelOpt.get()));
+    }
+
+    /**
+     * Creates the cert on the calling thread, unless a creation for the domain is already in progress,
+     * in which case its result is shared. After a failure, the domain is not retried until renewRetryAfterFailure.
+     */
+    private ListenableFuture<CertAndKeypair> createCertSingleFlight(String domainToRequest) {
+        SettableFuture<CertAndKeypair> certFuture = SettableFuture.create();
+        ListenableFuture<CertAndKeypair> inFlightCertFuture = certCreationsInFlight.putIfAbsent(domainToRequest, certFuture);
+        if (inFlightCertFuture != null) {
+            return inFlightCertFuture;
+        }
+        try {
+            // Checked while in flight so a creation failing concurrently cannot be missed
+            if (createFailedCache.getIfPresent(domainToRequest) != null) {
+                certFuture.setException(new Exception("Cert creation recently failed for domain " + domainToRequest + ", not retrying yet"));
+                return certFuture;
+            }
+            CertAndKeypair certAndKeypair = createCert(domainToRequest);
+            certCache.put(domainToRequest, certAndKeypair);
+            certFuture.set(certAndKeypair);
+        } catch (Throwable th) {
+            createFailedCache.put(domainToRequest, Boolean.TRUE);
+            certFuture.setException(th);
+        } finally {
+            certCreationsInFlight.remove(domainToRequest, certFuture);
+        }
+        return certFuture;
+    }
+
+    private void renewAsync(String domainToRequest) {
+        if (createFailedCache.getIfPresent(domainToRequest) != null
+                || !renewalsPending.add(domainToRequest)) {
+            return;
+        }
+        try {
+            executor.submit(() -> {
+                try {
+                    createCertSingleFlight(domainToRequest).get();
+                } catch (Exception ex) {
+                    log.warn("Failed to renew cert for domain {}", domainToRequest, ex);
+                } finally {
+                    renewalsPending.remove(domainToRequest);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            renewalsPending.remove(domainToRequest);
+        }
+    }
+
     @SneakyThrows
     @VisibleForTesting
     static boolean checkPrivatePublicMatches(CertModel certModel, KeypairModel keypairModel) {
@@ -13,6 +13,7 @@ import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.api.model.ErrorResponse;
 import com.smotana.clearflask.security.limiter.challenge.ChallengeLimiter;
 import com.smotana.clearflask.security.limiter.rate.RateLimiter;
+import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.web.ApiException;
 import lombok.extern.slf4j.Slf4j;
 import rx.Observable;
@@ -176,6 +177,11 @@ public class TieredWebLimiter implements Limiter {
         }
     }
 
+    @Extern
+    public RateLimiter.Stats getRateLimiterStats() {
+        return rateLimiter.getStats();
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
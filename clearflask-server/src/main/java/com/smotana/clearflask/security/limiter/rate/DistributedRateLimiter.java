@@ -0,0 +1,203 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.security.limiter.rate;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.store.TokenBucketStore;
+import com.smotana.clearflask.util.Extern;
+import com.smotana.clearflask.util.LogUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Rate limiter with token buckets shared by all nodes so a client gets the configured rate regardless of how many
+ * nodes serve it.
+ * <p>
+ * To avoid a network round trip per request, each node takes a batch of permits from the shared bucket at a time
+ * and serves requests from it locally. A batch is discarded if not used up within the lease duration, which makes
+ * the limit slightly stricter than configured, never looser. Likewise when the shared bucket runs out, requests
+ * are rejected locally until enough permits would have refilled.
+ */
+@Slf4j
+@Singleton
+public class DistributedRateLimiter implements RateLimiter {
+
+    public interface Config {
+        /**
+         * If disabled, limits are enforced per node only.
+         */
+        @DefaultValue("true")
+        boolean enabled();
+
+        /**
+         * How long permits taken from a shared bucket may be used locally.
+         */
+        @DefaultValue("PT2S")
+        Duration leaseDuration();
+
+        /**
+         * Upper bound of permits taken from a shared bucket at a time, as a fraction of its capacity.
+         */
+        @DefaultValue("0.05")
+        double leaseMaxCapacityFraction();
+
+        @DefaultValue("100000")
+        long leaseMaximumSize();
+
+        /**
+         * When the shared store is unavailable, enforce limits per node instead of rejecting.
+         */
+        @DefaultValue("true")
+        boolean fallbackToLocalOnFailure();
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private TokenBucketStore tokenBucketStore;
+    @Inject
+    private LocalRateLimiter localRateLimiter;
+
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder localHitCount = new LongAdder();
+    private final LongAdder sharedStoreCount = new LongAdder();
+    private final LongAdder sharedStoreFailureCount = new LongAdder();
+    private Cache<String, Lease> leases;
+
+    @Inject
+    private void setup() {
+        leases = CacheBuilder.newBuilder()
+                .expireAfterAccess(config.leaseDuration())
+                .maximumSize(config.leaseMaximumSize())
+                .<String, Lease>removalListener(notification -> {
+                    if (notification.getCause() == RemovalCause.SIZE) {
+                        evictionCount.increment();
+                    }
+                })
+                .build();
+    }
+
+    @Override
+    public boolean tryAcquire(String target, int permits, double prechargedDurationInSeconds, double permitsPerSecond, double capacityInSeconds) {
+        if (!config.enabled()) {
+            return localRateLimiter.tryAcquire(target, permits, prechargedDurationInSeconds, permitsPerSecond, capacityInSeconds);
+        }
+        String bucketId = target + "-" + permitsPerSecond + "-" + capacityInSeconds;
+        Lease lease;
+        try {
+            lease = leases.get(bucketId, Lease::new);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+        synchronized (lease) {
+            long nowNanos = System.nanoTime();
+            if (lease.expiresAtNanos - nowNanos < 0) {
+                lease.permits = 0d;
+            }
+            if (lease.permits >= permits) {
+                lease.permits -= permits;
+                localHitCount.increment();
+                return true;
+            }
+            if (lease.deniedUntilNanos - nowNanos > 0) {
+                localHitCount.increment();
+                return false;
+            }
+
+            double minPermits = permits - lease.permits;
+            double maxPermits = Math.max(minPermits, permitsPerSecond * capacityInSeconds * config.leaseMaxCapacityFraction());
+            double taken;
+            try {
+                sharedStoreCount.increment();
+                taken = tokenBucketStore.take(
+                        bucketId,
+                        minPermits,
+                        maxPermits,
+                        permitsPerSecond,
+                        capacityInSeconds,
+                        permitsPerSecond * Math.min(capacityInSeconds, prechargedDurationInSeconds));
+            } catch (Exception ex) {
+                sharedStoreFailureCount.increment();
+                if (LogUtil.rateLimitAllowLog("distributedRateLimiter-storeFailure")) {
+                    log.warn("Failed to take permits from shared token bucket {}", bucketId, ex);
+                }
+                if (config.fallbackToLocalOnFailure()) {
+                    return localRateLimiter.tryAcquire(target, permits, prechargedDurationInSeconds, permitsPerSecond, capacityInSeconds);
+                }
+                return false;
+            }
+            if (taken < minPermits) {
+                // Nothing was taken, the shared bucket cannot have enough permits until it refills
+                lease.deniedUntilNanos = nowNanos + (long) Math.ceil((minPermits - taken) / permitsPerSecond * 1_000_000_000d);
+                return false;
+            }
+            lease.permits += taken - permits;
+            lease.expiresAtNanos = nowNanos + config.leaseDuration().toNanos();
+            return true;
+        }
+    }
+
+    @Override
+    public boolean tryAcquire(String target, int permits, double prechargedDurationInSeconds, double... altPermCap) {
+        checkArgument(altPermCap.length % 2 == 0);
+
+        for (int i = 0; i < altPermCap.length; i += 2) {
+            if (!tryAcquire(target, permits, prechargedDurationInSeconds, altPermCap[i], altPermCap[i + 1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drops permits leased by this node, shared buckets are unaffected.
+     */
+    @Extern
+    @Override
+    public void clearAll() {
+        leases.invalidateAll();
+        localRateLimiter.clearAll();
+    }
+
+    @Extern
+    @Override
+    public Stats getStats() {
+        Stats localStats = localRateLimiter.getStats();
+        return new Stats(
+                leases.size() + localStats.getBucketCount(),
+                evictionCount.sum() + localStats.getEvictionCount(),
+                localHitCount.sum(),
+                sharedStoreCount.sum(),
+                sharedStoreFailureCount.sum());
+    }
+
+    private static class Lease {
+        private double permits = 0d;
+        private long expiresAtNanos = System.nanoTime();
+        private long deniedUntilNanos = System.nanoTime();
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(RateLimiter.class).to(DistributedRateLimiter.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+                install(ConfigSystem.configModule(LocalRateLimiter.Config.class));
+            }
+        };
+    }
+}
@@ -4,6 +4,7 @@ package com.smotana.clearflask.security.limiter.rate;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
 import com.google.common.util.concurrent.GuavaRateLimiters;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
@@ -18,6 +19,7 @@ import java.time.Duration;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
@@ -28,6 +30,9 @@ public class LocalRateLimiter implements RateLimiter {
     public interface Config {
         @DefaultValue("true")
         boolean enabled();
+
+        @DefaultValue("100000")
+        long maximumSizePerCapacity();
     }
 
     private final ConcurrentMap<Double, Cache<String, com.google.common.util.concurrent.RateLimiter>> rateLimiters = CacheBuilder.newBuilder()
@@ -40,9 +45,11 @@ public class LocalRateLimiter implements RateLimiter {
     @Inject
     private GuavaRateLimiters guavaRateLimiters;
 
+    private final LongAdder evictionCount = new LongAdder();
+
     @Override
     public boolean tryAcquire(String target, int permits, double prechargedDurationInSeconds, double permitsPerSecond, double capacityInSeconds) {
-        return getRateLimiter(target, permitsPerSecond, prechargedDurationInSeconds, capacityInSeconds).tryAcquire(permits);
+        return getRateLimiter(target, prechargedDurationInSeconds, permitsPerSecond, capacityInSeconds).tryAcquire(permits);
     }
 
     @Override
@@ -67,12 +74,28 @@ public class LocalRateLimiter implements RateLimiter {
         rateLimiters.clear();
     }
 
+    @Extern
+    @Override
+    public Stats getStats() {
+        return new Stats(
+                rateLimiters.values().stream().mapToLong(Cache::size).sum(),
+                evictionCount.sum(),
+                0L,
+                0L,
+                0L);
+    }
+
     private com.google.common.util.concurrent.RateLimiter getRateLimiter(String target, double prechargedDuration, double permitsPerSecond, double capacityInSeconds) {
         Cache<String, com.google.common.util.concurrent.RateLimiter> rateLimiterCache = rateLimiters.get(capacityInSeconds);
         if (rateLimiterCache == null) {
             rateLimiterCache = rateLimiters.computeIfAbsent(capacityInSeconds, capacityInSec -> CacheBuilder.newBuilder()
                     .expireAfterAccess(capacityInSec.longValue(), TimeUnit.SECONDS)
-                    .maximumSize(100000)
+                    .maximumSize(config.maximumSizePerCapacity())
+                    .<String, com.google.common.util.concurrent.RateLimiter>removalListener(notification -> {
+                        if (notification.getCause() == RemovalCause.SIZE) {
+                            evictionCount.increment();
+                        }
+                    })
                     .build());
         }
         try {
@@ -2,6 +2,8 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.security.limiter.rate;
 
+import lombok.Value;
+
 public interface RateLimiter {
 
     boolean tryAcquire(
@@ -18,4 +20,28 @@ public interface RateLimiter {
             double... alternatingPermitsPerSecondAndCapacityInSeconds);
 
     void clearAll();
+
+    Stats getStats();
+
+    @Value
+    class Stats {
+        /**
+         * Buckets currently held in memory on this node.
+         */
+        long bucketCount;
+
+        /**
+         * Buckets dropped from memory due to size limits, their state was lost.
+         */
+        long evictionCount;
+
+        /**
+         * Acquisitions served without contacting the shared store.
+         */
+        long localHitCount;
+
+        long sharedStoreCount;
+
+        long sharedStoreFailureCount;
+    }
 }
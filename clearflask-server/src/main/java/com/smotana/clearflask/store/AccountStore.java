@@ -50,7 +50,7 @@ public interface AccountStore {
 
     Optional<Account> getAccountByEmail(String email);
 
-    void repopulateIndex(boolean deleteExistingIndex, boolean repopulateElasticSearch, boolean repopulateMysql) throws Exception;
+    void repopulateIndex(boolean deleteExistingIndex, boolean repopulateElasticSearch, boolean repopulateMysql, boolean resume) throws Exception;
 
     boolean isEmailAvailable(String email);
 
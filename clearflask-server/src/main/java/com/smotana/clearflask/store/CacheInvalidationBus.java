@@ -0,0 +1,61 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store;
+
+import io.dataspray.singletable.DynamoTable;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.function.Consumer;
+
+import static io.dataspray.singletable.TableType.Primary;
+
+/**
+ * Broadcasts invalidations of per-node caches to the rest of the cluster.
+ */
+public interface CacheInvalidationBus {
+
+    /**
+     * Invalidates a key of the named cache on other nodes. The caller is expected to have already
+     * updated or invalidated its own copy; implementations may deliver the message back to this node too.
+     * Delivery is best effort and may be asynchronous, this never blocks on or fails due to the transport.
+     */
+    void publish(String cacheName, String key);
+
+    /**
+     * Registers a handler receiving keys of the named cache invalidated elsewhere.
+     */
+    void subscribe(String cacheName, Consumer<String> handler);
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = "bucket", rangePrefix = "cacheInvalidation", rangeKeys = "messageId")
+    class CacheInvalidation {
+        /**
+         * Publish time truncated to the bucket width followed by a shard number, all nodes poll every shard of the latest buckets.
+         */
+        @NonNull
+        String bucket;
+
+        /**
+         * Publish time in epoch millis, zero padded for ordering, followed by a random suffix.
+         */
+        @NonNull
+        String messageId;
+
+        @NonNull
+        String nodeId;
+
+        @NonNull
+        String cacheName;
+
+        @NonNull
+        String key;
+
+        @NonNull
+        long ttlInEpochSec;
+    }
+}
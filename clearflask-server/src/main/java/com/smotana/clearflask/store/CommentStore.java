@@ -47,12 +47,22 @@ public interface CommentStore {
     /** Returns optional empty if index already exists */
     ListenableFuture<Void> createIndex(String projectId);
 
-    void repopulateIndex(String projectId, boolean deleteExistingIndex, boolean repopulateElasticSearch, boolean repopulateMysql) throws Exception;
+    void repopulateIndex(String projectId, boolean deleteExistingIndex, boolean repopulateElasticSearch, boolean repopulateMysql, boolean resume) throws Exception;
+
+    /**
+     * Rebuilds the ElasticSearch index into a new index and swaps it in while search keeps being served.
+     */
+    void rebuildIndexElasticSearch(String projectId) throws Exception;
 
     double computeCommentScore(int upvotes, int downvotes);
 
     CommentAndIndexingFuture<List<Void>> createCommentAndUpvote(CommentModel comment);
 
+    /**
+     * Bulk write of comments as they are, without votes. Parent and idea comment counts are left to the caller.
+     */
+    ListenableFuture<List<Void>> createComments(String projectId, Iterable<CommentModel> comments);
+
     Optional<CommentModel> getComment(String projectId, String ideaId, String commentId);
 
     ImmutableMap<String, CommentModel> getComments(String projectId, String ideaId, Collection<String> commentIds);
@@ -65,6 +75,11 @@ public interface CommentStore {
 
     void exportAllForProject(String projectId, Consumer<CommentModel> consumer);
 
+    /**
+     * Single page of {@link #exportAllForProject}, continue with the returned cursor until it is empty.
+     */
+    ExportPage<CommentModel> exportPageForProject(String projectId, Optional<String> cursorOpt) throws Exception;
+
     CommentAndIndexingFuture<Void> updateComment(String projectId, String ideaId, String commentId, Instant updated, CommentUpdate commentUpdate);
 
     CommentAndIndexingFuture<Void> voteComment(String projectId, String ideaId, String commentId, String userId, VoteValue vote);
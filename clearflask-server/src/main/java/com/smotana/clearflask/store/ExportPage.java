@@ -0,0 +1,20 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store;
+
+import com.google.common.collect.ImmutableList;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.Optional;
+
+/**
+ * Single page of a store's items for a project, continue with the cursor until it is empty.
+ */
+@Value
+public class ExportPage<T> {
+    @NonNull
+    ImmutableList<T> items;
+    @NonNull
+    Optional<String> cursorOpt;
+}
@@ -21,6 +21,7 @@ import org.kohsuke.github.GHIssue;
 import org.kohsuke.github.GHIssueComment;
 
 import java.io.IOException;
+import java.time.Instant;
 import java.util.Optional;
 
 import static io.dataspray.singletable.TableType.Primary;
@@ -44,6 +45,11 @@ public interface GitHubStore {
 
     ListenableFuture<Optional<StatusAndOrResponse>> cfStatusAndOrResponseChangedAsync(Project project, IdeaModel idea, boolean statusChanged, boolean responseChanged);
 
+    /**
+     * Imports existing issues and comments of the linked repository, resuming from the last checkpoint.
+     */
+    ListenableFuture<Void> backfillIssuesAsync(String projectId);
+
     @Value
     class StatusAndOrResponse {
         @NonNull
@@ -69,4 +75,31 @@ public interface GitHubStore {
         @NonNull
         long ttlInEpochSec;
     }
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = "projectId", rangePrefix = "githubBackfill", rangeKeys = "repositoryId")
+    class GitHubBackfillCheckpoint {
+        @NonNull
+        String projectId;
+
+        @NonNull
+        long repositoryId;
+
+        /**
+         * Issues last updated at or after this time are yet to be backfilled.
+         */
+        @NonNull
+        Instant updatedSince;
+
+        @NonNull
+        long issueCount;
+
+        @NonNull
+        long commentCount;
+
+        @NonNull
+        boolean complete;
+    }
 }
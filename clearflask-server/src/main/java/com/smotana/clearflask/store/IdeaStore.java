@@ -61,7 +61,12 @@ public interface IdeaStore {
 
     ListenableFuture<Void> createIndex(String projectId);
 
-    void repopulateIndex(String projectId, boolean deleteExistingIndex, boolean repopulateElasticSearch, boolean repopulateMysql) throws Exception;
+    void repopulateIndex(String projectId, boolean deleteExistingIndex, boolean repopulateElasticSearch, boolean repopulateMysql, boolean resume) throws Exception;
+
+    /**
+     * Rebuilds the ElasticSearch index into a new index and swaps it in while search keeps being served.
+     */
+    void rebuildIndexElasticSearch(String projectId) throws Exception;
 
     ListenableFuture<Void> createIdea(IdeaModel idea);
 
@@ -89,6 +94,11 @@ public interface IdeaStore {
 
     void exportAllForProject(String projectId, Consumer<IdeaModel> consumer);
 
+    /**
+     * Single page of {@link #exportAllForProject}, continue with the returned cursor until it is empty.
+     */
+    ExportPage<IdeaModel> exportPageForProject(String projectId, Optional<String> cursorOpt) throws Exception;
+
     IdeaAndIndexingFuture updateIdea(String projectId, String ideaId, IdeaUpdate ideaUpdate);
 
     IdeaAndIndexingFuture updateIdea(String projectId, String ideaId, IdeaUpdateAdmin ideaUpdateAdmin, Optional<UserModel> responseAuthor);
@@ -14,7 +14,9 @@ import lombok.Value;
 import java.time.Instant;
 import java.util.Collection;
 import java.util.Optional;
+import java.util.function.Consumer;
 
+import static io.dataspray.singletable.TableType.Gsi;
 import static io.dataspray.singletable.TableType.Primary;
 
 public interface NotificationStore {
@@ -34,6 +36,22 @@ public interface NotificationStore {
 
     void notificationClearAll(String projectId, String userId);
 
+    /**
+     * Saves fan-out progress if the lease is still held by given owner.
+     *
+     * @return false if the lease was taken over by another owner
+     */
+    boolean fanOutCheckpointPut(FanOutCheckpoint checkpoint, Optional<String> previousLeaseOwnerOpt);
+
+    /**
+     * Takes over an abandoned fan-out whose lease has expired.
+     */
+    Optional<FanOutCheckpoint> fanOutCheckpointClaim(String fanOutId, String leaseOwner, long leaseExpiresEpochMs);
+
+    void fanOutCheckpointDelete(String fanOutId);
+
+    void fanOutCheckpointListAll(Consumer<FanOutCheckpoint> consumer);
+
     @Value
     class NotificationListResponse {
         ImmutableList<NotificationModel> notifications;
@@ -79,4 +97,70 @@ public interface NotificationStore {
                     getDescription());
         }
     }
+
+    enum FanOutType {
+        STATUS_OR_RESPONSE_CHANGED,
+        POST_CREATED
+    }
+
+    /**
+     * Source of subscribers in the order they are notified. Users found in an earlier source are skipped in later ones.
+     */
+    enum FanOutSource {
+        FUNDERS,
+        VOTERS,
+        EXPRESSERS,
+        CATEGORY_SUBSCRIBERS
+    }
+
+    /**
+     * Progress of a large subscriber fan-out so it can be resumed by another node.
+     */
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = "fanOutId", rangePrefix = "notificationFanOut")
+    @DynamoTable(type = Gsi, indexNumber = 2, shardKeys = "fanOutId", shardCount = 10, rangePrefix = "notificationFanOutSharded", rangeKeys = "fanOutId")
+    class FanOutCheckpoint {
+        @NonNull
+        String fanOutId;
+
+        @NonNull
+        FanOutType type;
+
+        @NonNull
+        String projectId;
+
+        @NonNull
+        String ideaId;
+
+        /** User that triggered the fan-out and should not be notified */
+        String skipUserId;
+
+        @NonNull
+        Boolean statusChanged;
+
+        @NonNull
+        Boolean responseChanged;
+
+        String notifyTitle;
+
+        String notifyBody;
+
+        /** Source being sent to, all previous sources are done */
+        @NonNull
+        FanOutSource source;
+
+        /** Number of pages of source already sent, null if at the beginning */
+        Integer pageIndex;
+
+        @NonNull
+        String leaseOwner;
+
+        @NonNull
+        Long leaseExpiresEpochMs;
+
+        @NonNull
+        long ttlInEpochSec;
+    }
 }
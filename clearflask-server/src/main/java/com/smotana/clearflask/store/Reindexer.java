@@ -0,0 +1,570 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store;
+
+import com.amazonaws.services.dynamodbv2.document.QueryOutcome;
+import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
+import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.util.Extern;
+import com.smotana.clearflask.util.LogUtil;
+import io.dataspray.singletable.DynamoTable;
+import io.dataspray.singletable.IndexSchema;
+import io.dataspray.singletable.SingleTable;
+import io.dataspray.singletable.TableSchema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.rest.RestStatus;
+import org.jooq.DSLContext;
+import org.jooq.Queries;
+import org.jooq.Query;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static com.google.common.base.Preconditions.checkState;
+import static io.dataspray.singletable.TableType.Primary;
+
+/**
+ * Repopulates ElasticSearch and MySQL from DynamoDB, shared by all stores' repopulateIndex.
+ * <p>
+ * Pages are read on the calling thread and written by a pool of workers, so reading the next page overlaps with
+ * writing the previous ones. Documents are written as size-bounded bulk requests to ElasticSearch and as JDBC batches
+ * to MySQL. On ElasticSearch rejections, bulk requests shrink and workers back off until writes succeed again.
+ * <p>
+ * After every page written, together with all pages before it, the page cursor is persisted so an interrupted
+ * reindex resumes where it left off.
+ */
+@Slf4j
+@Singleton
+public class Reindexer extends ManagedService {
+
+    public interface Config {
+        @DefaultValue("4")
+        int workerThreads();
+
+        /**
+         * Pages read ahead of the oldest page not yet written.
+         */
+        @DefaultValue("8")
+        int maxPagesInFlight();
+
+        @DefaultValue("500")
+        int bulkMaxActions();
+
+        @DefaultValue("5242880")
+        long bulkMaxSizeInBytes();
+
+        /**
+         * Bulk requests never shrink below this many actions on rejections.
+         */
+        @DefaultValue("10")
+        int bulkMinActions();
+
+        @DefaultValue("PT0.1S")
+        Duration rejectionBackoffInitial();
+
+        @DefaultValue("PT30S")
+        Duration rejectionBackoffMax();
+
+        /**
+         * Attempts to write documents ElasticSearch keeps rejecting before failing the job.
+         */
+        @DefaultValue("10")
+        int rejectionMaxRetries();
+
+        @DefaultValue("true")
+        boolean checkpointEnabled();
+
+        @DefaultValue("P7D")
+        Duration checkpointExpiry();
+
+        /**
+         * How long finished jobs are kept in progress reports.
+         */
+        @DefaultValue("P1D")
+        Duration progressRetention();
+    }
+
+    @FunctionalInterface
+    public interface PageFetcher<T> {
+        Page<T> fetch(Optional<String> cursorOpt) throws Exception;
+    }
+
+    /**
+     * Pages through all items of an index partition.
+     */
+    public static <T> PageFetcher<T> indexPageFetcher(IndexSchema<T> schema, Map<String, Object> partitionKeys, Predicate<T> filter) {
+        return cursorOpt -> {
+            QueryOutcome outcome = schema.index().query(new QuerySpec()
+                            .withHashKey(schema.partitionKey(partitionKeys))
+                            .withRangeKeyCondition(new RangeKeyCondition(schema.rangeKeyName())
+                                    .beginsWith(schema.rangeValuePartial(Map.of())))
+                            .withExclusiveStartKey(cursorOpt
+                                    .map(schema::toExclusiveStartKey)
+                                    .orElse(null)))
+                    .firstPage()
+                    .getLowLevelResult();
+            return new Page<>(
+                    outcome.getItems().stream()
+                            .map(schema::fromItem)
+                            .filter(filter)
+                            .collect(ImmutableList.toImmutableList()),
+                    Optional.ofNullable(outcome.getQueryResult().getLastEvaluatedKey())
+                            .map(schema::serializeLastEvaluatedKey));
+        };
+    }
+
+    @Value
+    public static class Page<T> {
+        @NonNull
+        ImmutableList<T> items;
+        @NonNull
+        Optional<String> cursorOpt;
+    }
+
+    @Value
+    @Builder
+    public static class Job<T> {
+        /**
+         * Identifies the job for resuming and progress reporting, e.g. idea-projectId.
+         */
+        @NonNull
+        String jobId;
+
+        @NonNull
+        PageFetcher<T> pageFetcher;
+
+        /**
+         * Null if ElasticSearch is not repopulated.
+         */
+        @Nullable
+        Function<T, IndexRequest> toEsIndexRequest;
+
+        /**
+         * Null if MySQL is not repopulated.
+         */
+        @Nullable
+        Function<T, Queries> toMysqlQueries;
+
+        /**
+         * Continue from the checkpoint of a previous interrupted run of the same job, if any. Off by default as a
+         * checkpoint may be days old; without it any checkpoint is discarded and the job starts over.
+         */
+        boolean resume;
+    }
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = "jobId", rangePrefix = "reindexCheckpoint")
+    public static class ReindexCheckpoint {
+        @NonNull
+        String jobId;
+
+        /**
+         * Cursor after the last page fully written.
+         */
+        @NonNull
+        String cursor;
+
+        @NonNull
+        boolean repopulateElasticSearch;
+
+        @NonNull
+        boolean repopulateMysql;
+
+        @NonNull
+        long documentCount;
+
+        @NonNull
+        Instant updated;
+
+        @NonNull
+        long ttlInEpochSec;
+    }
+
+    public enum JobState {
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    @Value
+    public static class JobProgress {
+        String jobId;
+        JobState state;
+        Instant started;
+        Optional<Instant> finished;
+        boolean resumed;
+        long pageCount;
+        long documentCount;
+        long failedDocumentCount;
+        long bulkRequestCount;
+        long rejectionCount;
+        double documentsPerSecond;
+        int bulkMaxActions;
+        long backoffMs;
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private SingleTable singleTable;
+    @Inject
+    private Provider<RestHighLevelClient> elastic;
+    @Inject
+    private Provider<DSLContext> mysql;
+
+    private TableSchema<ReindexCheckpoint> reindexCheckpointSchema;
+    private ListeningExecutorService executor;
+    private final ConcurrentMap<String, JobTracker> jobs = Maps.newConcurrentMap();
+
+    @Inject
+    private void setup() {
+        reindexCheckpointSchema = singleTable.parseTableSchema(ReindexCheckpoint.class);
+    }
+
+    @Override
+    protected void serviceStart() throws Exception {
+        executor = MoreExecutors.listeningDecorator(new ThreadPoolExecutor(
+                config.workerThreads(), config.workerThreads(), 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("Reindexer-worker-%d").build()));
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Runs the job to completion on the calling thread, using the worker pool for writes.
+     *
+     * @return number of documents read
+     */
+    public <T> long reindex(Job<T> job) throws Exception {
+        boolean repopulateElasticSearch = job.getToEsIndexRequest() != null;
+        boolean repopulateMysql = job.getToMysqlQueries() != null;
+        Optional<ReindexCheckpoint> checkpointOpt = getCheckpoint(job.getJobId())
+                .filter(checkpoint -> job.isResume()
+                        && checkpoint.isRepopulateElasticSearch() == repopulateElasticSearch
+                        && checkpoint.isRepopulateMysql() == repopulateMysql);
+        if (checkpointOpt.isEmpty()) {
+            deleteCheckpoint(job.getJobId());
+        }
+
+        pruneFinishedJobs();
+        JobTracker tracker = new JobTracker(job.getJobId(), checkpointOpt.isPresent(), config.bulkMaxActions());
+        checkState(jobs.compute(job.getJobId(), (jobId, existing) -> existing != null && existing.state == JobState.RUNNING ? existing : tracker) == tracker,
+                "Reindex job %s is already running", job.getJobId());
+        log.info("Reindex job {} starting, resuming from checkpoint {}", job.getJobId(), checkpointOpt.isPresent());
+
+        ArrayDeque<PageInFlight> pagesInFlight = new ArrayDeque<>();
+        try {
+            Optional<String> cursorOpt = checkpointOpt.map(ReindexCheckpoint::getCursor);
+            long documentCount = checkpointOpt.map(ReindexCheckpoint::getDocumentCount).orElse(0L);
+            do {
+                Page<T> page = job.getPageFetcher().fetch(cursorOpt);
+                cursorOpt = page.getCursorOpt();
+                documentCount += page.getItems().size();
+                tracker.pageCount.increment();
+                tracker.documentCount.add(page.getItems().size());
+                pagesInFlight.add(new PageInFlight(
+                        executor.submit(() -> writePage(job, tracker, page.getItems())),
+                        cursorOpt,
+                        documentCount));
+                while (pagesInFlight.size() >= config.maxPagesInFlight()
+                        || (!pagesInFlight.isEmpty() && pagesInFlight.peek().getWriteFuture().isDone())) {
+                    completePage(job, pagesInFlight.poll(), repopulateElasticSearch, repopulateMysql);
+                }
+            } while (cursorOpt.isPresent());
+            while (!pagesInFlight.isEmpty()) {
+                completePage(job, pagesInFlight.poll(), repopulateElasticSearch, repopulateMysql);
+            }
+
+            deleteCheckpoint(job.getJobId());
+            tracker.finish(JobState.COMPLETED);
+            log.info("Reindex job {} completed, {} documents", job.getJobId(), documentCount);
+            return documentCount;
+        } catch (Exception ex) {
+            // No more checkpoints past a failed page, a resumed run would skip it
+            pagesInFlight.forEach(pageInFlight -> pageInFlight.getWriteFuture().cancel(true));
+            tracker.finish(JobState.FAILED);
+            log.warn("Reindex job {} failed, checkpoint kept for resuming", job.getJobId(), ex);
+            throw ex;
+        }
+    }
+
+    @Extern
+    public ImmutableMap<String, JobProgress> getReindexProgress() {
+        pruneFinishedJobs();
+        return jobs.values().stream()
+                .map(JobTracker::toProgress)
+                .collect(ImmutableMap.toImmutableMap(JobProgress::getJobId, p -> p));
+    }
+
+    @Extern
+    public Optional<ReindexCheckpoint> getCheckpoint(String jobId) {
+        return Optional.ofNullable(reindexCheckpointSchema.fromItem(reindexCheckpointSchema.table().getItem(new GetItemSpec()
+                .withPrimaryKey(reindexCheckpointSchema.primaryKey(Map.of(
+                        "jobId", jobId)))
+                .withConsistentRead(true))));
+    }
+
+    /**
+     * Forces the next run of the job to start over.
+     */
+    @Extern
+    public void deleteCheckpoint(String jobId) {
+        reindexCheckpointSchema.table().deleteItem(new DeleteItemSpec()
+                .withPrimaryKey(reindexCheckpointSchema.primaryKey(Map.of(
+                        "jobId", jobId))));
+    }
+
+    private void completePage(Job<?> job, PageInFlight pageInFlight, boolean repopulateElasticSearch, boolean repopulateMysql) throws Exception {
+        try {
+            pageInFlight.getWriteFuture().get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+        if (!config.checkpointEnabled() || pageInFlight.getCursorOpt().isEmpty()) {
+            return;
+        }
+        Instant now = Instant.now();
+        reindexCheckpointSchema.table().putItem(new PutItemSpec()
+                .withItem(reindexCheckpointSchema.toItem(new ReindexCheckpoint(
+                        job.getJobId(),
+                        pageInFlight.getCursorOpt().get(),
+                        repopulateElasticSearch,
+                        repopulateMysql,
+                        pageInFlight.getDocumentCount(),
+                        now,
+                        now.plus(config.checkpointExpiry()).getEpochSecond()))));
+    }
+
+    private <T> Void writePage(Job<T> job, JobTracker tracker, ImmutableList<T> items) throws Exception {
+        if (items.isEmpty()) {
+            return null;
+        }
+        if (job.getToEsIndexRequest() != null) {
+            writeElastic(tracker, items.stream()
+                    .map(job.getToEsIndexRequest())
+                    .collect(ImmutableList.toImmutableList()));
+        }
+        if (job.getToMysqlQueries() != null) {
+            // Sent as one JDBC batch, with rewriteBatchedStatements the driver sends it in as few round trips as possible
+            mysql.get().batch(items.stream()
+                            .map(job.getToMysqlQueries())
+                            .flatMap(queries -> Arrays.stream(queries.queries()))
+                            .toArray(Query[]::new))
+                    .execute();
+        }
+        return null;
+    }
+
+    private void writeElastic(JobTracker tracker, List<IndexRequest> indexRequests) throws Exception {
+        List<IndexRequest> pending = indexRequests;
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+            if (attempt >= config.rejectionMaxRetries()) {
+                tracker.failedDocumentCount.add(pending.size());
+                throw new ElasticsearchStatusException("Reindex job {} gave up on {} documents after {} rejections",
+                        RestStatus.TOO_MANY_REQUESTS, tracker.jobId, pending.size(), attempt);
+            }
+            List<IndexRequest> rejected = Lists.newArrayList();
+            for (BulkRequest bulkRequest : toBulkRequests(pending, tracker.bulkMaxActions.get())) {
+                long backoffMs = tracker.backoffMs.get();
+                if (backoffMs > 0) {
+                    Thread.sleep(backoffMs);
+                }
+                tracker.bulkRequestCount.increment();
+                BulkResponse response;
+                try {
+                    response = elastic.get().bulk(bulkRequest, RequestOptions.DEFAULT);
+                } catch (ElasticsearchStatusException ex) {
+                    if (ex.status() != RestStatus.TOO_MANY_REQUESTS) {
+                        throw ex;
+                    }
+                    bulkRequest.requests().forEach(r -> rejected.add((IndexRequest) r));
+                    onRejected(tracker, bulkRequest.numberOfActions());
+                    continue;
+                }
+                int rejectedCount = 0;
+                for (BulkItemResponse item : response.getItems()) {
+                    if (!item.isFailed()) {
+                        continue;
+                    }
+                    if (item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                        rejected.add((IndexRequest) bulkRequest.requests().get(item.getItemId()));
+                        rejectedCount++;
+                    } else {
+                        tracker.failedDocumentCount.increment();
+                        if (LogUtil.rateLimitAllowLog("reindexer-document-failure")) {
+                            log.warn("Reindex job {} failed to index document {}: {}",
+                                    tracker.jobId, item.getId(), item.getFailureMessage());
+                        }
+                    }
+                }
+                if (rejectedCount > 0) {
+                    onRejected(tracker, rejectedCount);
+                } else {
+                    onAccepted(tracker);
+                }
+            }
+            pending = rejected;
+        }
+    }
+
+    private List<BulkRequest> toBulkRequests(List<IndexRequest> indexRequests, int maxActions) {
+        List<BulkRequest> bulkRequests = Lists.newArrayList();
+        BulkRequest bulkRequest = new BulkRequest();
+        for (IndexRequest indexRequest : indexRequests) {
+            if (bulkRequest.numberOfActions() > 0
+                    && (bulkRequest.numberOfActions() >= maxActions
+                    || bulkRequest.estimatedSizeInBytes() + indexRequest.source().length() > config.bulkMaxSizeInBytes())) {
+                bulkRequests.add(bulkRequest);
+                bulkRequest = new BulkRequest();
+            }
+            bulkRequest.add(indexRequest);
+        }
+        if (bulkRequest.numberOfActions() > 0) {
+            bulkRequests.add(bulkRequest);
+        }
+        return bulkRequests;
+    }
+
+    private void onRejected(JobTracker tracker, int rejectedCount) {
+        tracker.rejectionCount.add(rejectedCount);
+        tracker.bulkMaxActions.updateAndGet(actions -> Math.max(config.bulkMinActions(), actions / 2));
+        tracker.backoffMs.updateAndGet(backoffMs -> Math.min(config.rejectionBackoffMax().toMillis(),
+                Math.max(config.rejectionBackoffInitial().toMillis(), backoffMs * 2)));
+        if (LogUtil.rateLimitAllowLog("reindexer-rejected")) {
+            log.info("Reindex job {} throttled by ElasticSearch, bulk size {} backoff {}ms",
+                    tracker.jobId, tracker.bulkMaxActions.get(), tracker.backoffMs.get());
+        }
+    }
+
+    private void onAccepted(JobTracker tracker) {
+        tracker.backoffMs.updateAndGet(backoffMs -> backoffMs / 2 < config.rejectionBackoffInitial().toMillis() ? 0L : backoffMs / 2);
+        tracker.bulkMaxActions.updateAndGet(actions -> Math.min(config.bulkMaxActions(), actions + Math.max(1, actions / 10)));
+    }
+
+    private void pruneFinishedJobs() {
+        Instant expiry = Instant.now().minus(config.progressRetention());
+        jobs.values().removeIf(tracker -> tracker.finished != null && tracker.finished.isBefore(expiry));
+    }
+
+    @Value
+    private static class PageInFlight {
+        ListenableFuture<Void> writeFuture;
+        Optional<String> cursorOpt;
+        long documentCount;
+    }
+
+    private static class JobTracker {
+        private final String jobId;
+        private final boolean resumed;
+        private final Instant started = Instant.now();
+        private final long startedNanos = System.nanoTime();
+        private volatile JobState state = JobState.RUNNING;
+        private volatile Instant finished;
+        private volatile long finishedNanos;
+        private final LongAdder pageCount = new LongAdder();
+        private final LongAdder documentCount = new LongAdder();
+        private final LongAdder failedDocumentCount = new LongAdder();
+        private final LongAdder bulkRequestCount = new LongAdder();
+        private final LongAdder rejectionCount = new LongAdder();
+        private final AtomicInteger bulkMaxActions;
+        private final AtomicLong backoffMs = new AtomicLong();
+
+        private JobTracker(String jobId, boolean resumed, int bulkMaxActions) {
+            this.jobId = jobId;
+            this.resumed = resumed;
+            this.bulkMaxActions = new AtomicInteger(bulkMaxActions);
+        }
+
+        private void finish(JobState state) {
+            this.finishedNanos = System.nanoTime();
+            this.finished = Instant.now();
+            this.state = state;
+        }
+
+        private JobProgress toProgress() {
+            long elapsedNanos = (finished != null ? finishedNanos : System.nanoTime()) - startedNanos;
+            return new JobProgress(
+                    jobId,
+                    state,
+                    started,
+                    Optional.ofNullable(finished),
+                    resumed,
+                    pageCount.sum(),
+                    documentCount.sum(),
+                    failedDocumentCount.sum(),
+                    bulkRequestCount.sum(),
+                    rejectionCount.sum(),
+                    elapsedNanos <= 0L ? 0d : documentCount.sum() / (elapsedNanos / 1_000_000_000d),
+                    bulkMaxActions.get(),
+                    backoffMs.get());
+        }
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(Reindexer.class).asEagerSingleton();
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(Reindexer.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+            }
+        };
+    }
+}
@@ -0,0 +1,57 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store;
+
+import io.dataspray.singletable.DynamoTable;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+import static io.dataspray.singletable.TableType.Primary;
+
+/**
+ * Token buckets shared by all nodes, used for rate limiting.
+ */
+public interface TokenBucketStore {
+
+    /**
+     * Refills the bucket for time elapsed and takes between minPermits and maxPermits from it.
+     *
+     * @return permits taken, or if fewer than minPermits were available, none are taken and the permits available
+     * are returned instead
+     */
+    double take(String bucketId, double minPermits, double maxPermits, double permitsPerSecond, double capacityInSeconds, double initialPermits);
+
+    default double refilledPermits(TokenBucket bucket, long nowEpochMs, double permitsPerSecond, double capacityInSeconds) {
+        double elapsedInSeconds = Math.max(0L, nowEpochMs - bucket.getLastRefillEpochMs()) / 1000d;
+        return Math.min(permitsPerSecond * capacityInSeconds, bucket.getPermits() + elapsedInSeconds * permitsPerSecond);
+    }
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = "bucketId", rangePrefix = "tokenBucket")
+    class TokenBucket {
+        @NonNull
+        String bucketId;
+
+        @NonNull
+        double permits;
+
+        @NonNull
+        long lastRefillEpochMs;
+
+        /**
+         * Incremented on every write for optimistic locking.
+         */
+        @NonNull
+        long version;
+
+        /**
+         * Set to when the bucket would be full again, at which point a fresh bucket is equivalent.
+         */
+        @NonNull
+        long ttlInEpochSec;
+    }
+}
@@ -46,7 +46,12 @@ public interface UserStore {
 
     ListenableFuture<Void> createIndex(String projectId);
 
-    void repopulateIndex(String projectId, boolean deleteExistingIndex, boolean repopulateElasticSearch, boolean repopulateMysql) throws Exception;
+    void repopulateIndex(String projectId, boolean deleteExistingIndex, boolean repopulateElasticSearch, boolean repopulateMysql, boolean resume) throws Exception;
+
+    /**
+     * Rebuilds the ElasticSearch index into a new index and swaps it in while search keeps being served.
+     */
+    void rebuildIndexElasticSearch(String projectId) throws Exception;
 
     UserAndIndexingFuture createUser(UserModel user);
 
@@ -62,6 +67,11 @@ public interface UserStore {
 
     void exportAllForProject(String projectId, Consumer<UserModel> consumer);
 
+    /**
+     * Single page of {@link #exportAllForProject}, continue with the returned cursor until it is empty.
+     */
+    ExportPage<UserModel> exportPageForProject(String projectId, Optional<String> cursorOpt) throws Exception;
+
     long getUserCountForProject(String projectId);
 
     void setUserTracked(String projectId, String userId);
@@ -29,6 +29,7 @@ import java.util.Optional;
 public class DefaultDynamoDbProvider extends ManagedService implements Provider<AmazonDynamoDB> {
 
     public static final int DYNAMO_READ_BATCH_MAX_SIZE = 100;
+    public static final String DYNAMO_READ_BATCH_MAX_SIZE_STR = "100";
     public static final int DYNAMO_WRITE_BATCH_MAX_SIZE = 25;
     public static final String DYNAMO_WRITE_BATCH_MAX_SIZE_STR = "25";
 
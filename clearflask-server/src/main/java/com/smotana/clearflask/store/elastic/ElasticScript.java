@@ -26,7 +26,7 @@ import static com.google.common.base.Preconditions.checkState;
 @Getter
 public enum ElasticScript {
     WILSON("elastic/comment-vote-wilson.painless", 1),
-    EXP_DECAY("elastic/exp-decay.painless", 2);
+    EXP_DECAY("elastic/exp-decay.painless", 3);
 
     private final String name;
     private final int version;
@@ -0,0 +1,500 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.elastic;
+
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.util.Extern;
+import com.smotana.clearflask.util.LogUtil;
+import io.dataspray.singletable.DynamoTable;
+import io.dataspray.singletable.SingleTable;
+import io.dataspray.singletable.TableSchema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.GetIndexRequest;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
+
+import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_READ_BATCH_MAX_SIZE_STR;
+import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
+import static io.dataspray.singletable.TableType.Primary;
+
+/**
+ * Rebuilds an ElasticSearch index without downtime.
+ * <p>
+ * Stores read and write through an alias, e.g. idea-projectId. A rebuild populates a new versioned index while the
+ * alias keeps serving the old one. Writes during the rebuild are recorded in a catch-up log by key, which is replayed
+ * onto the new index from the source of truth before and after the alias is swapped over atomically. Changes are
+ * recorded in the background in batches to keep writes off the catch-up log's latency.
+ * <p>
+ * Indexes created before aliases were introduced are concrete indexes named as the alias, they are replaced by the
+ * alias as part of the swap.
+ */
+@Slf4j
+@Singleton
+public class IndexRebuilder extends ManagedService {
+
+    public interface Config {
+        /**
+         * How long nodes may take to notice a rebuild started or finished. Rebuilds wait this long for all nodes to
+         * start or stop recording writes.
+         */
+        @DefaultValue("PT10S")
+        Duration rebuildStateCacheExpiry();
+
+        /**
+         * Catch-up log is replayed until at most this many keys remain, after which the alias is swapped.
+         */
+        @DefaultValue("100")
+        int catchUpSwapThreshold();
+
+        @DefaultValue("10")
+        int catchUpMaxRounds();
+
+        /**
+         * Keys passed to a replayer at a time.
+         */
+        @DefaultValue(DYNAMO_READ_BATCH_MAX_SIZE_STR)
+        int catchUpBatchSize();
+
+        /**
+         * A rebuild not finished within this time is considered abandoned and no longer records writes.
+         */
+        @DefaultValue("P1D")
+        Duration rebuildExpiry();
+
+        /**
+         * How often recorded changes are written to the catch-up log. Must be well below rebuildStateCacheExpiry as
+         * that is how long a rebuild waits for recorded changes to land.
+         */
+        @DefaultValue("PT0.2S")
+        Duration changeFlushInterval();
+
+        /**
+         * Changes waiting to be written to the catch-up log; once full, changes are written on the calling thread.
+         */
+        @DefaultValue("10000")
+        int changeQueueSize();
+    }
+
+    @FunctionalInterface
+    public interface IndexCreator {
+        void create(String indexName) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface IndexPopulator {
+        void populate(String indexName) throws Exception;
+    }
+
+    /**
+     * Re-syncs documents for the given keys from the source of truth, including deleting ones no longer present.
+     */
+    @FunctionalInterface
+    public interface CatchUpReplayer {
+        void replay(String indexName, ImmutableSet<String> keys) throws Exception;
+    }
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = "alias", rangePrefix = "indexRebuild")
+    public static class IndexRebuild {
+        @NonNull
+        String alias;
+
+        @NonNull
+        String targetIndex;
+
+        @NonNull
+        Instant started;
+
+        @NonNull
+        long ttlInEpochSec;
+    }
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = "alias", rangePrefix = "indexRebuildChange", rangeKeys = "key")
+    public static class IndexRebuildChange {
+        @NonNull
+        String alias;
+
+        /**
+         * Store specific, identifies what to re-sync, e.g. an idea id.
+         */
+        @NonNull
+        String key;
+
+        /**
+         * Random per recorded change so a change recorded again during a replay is not lost.
+         */
+        @NonNull
+        long changeId;
+
+        @NonNull
+        long ttlInEpochSec;
+    }
+
+    @Value
+    private static class PendingChange {
+        @NonNull
+        String alias;
+
+        @NonNull
+        String key;
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private DynamoDB dynamoDoc;
+    @Inject
+    private SingleTable singleTable;
+    @Inject
+    private Provider<RestHighLevelClient> elastic;
+
+    private TableSchema<IndexRebuild> indexRebuildSchema;
+    private TableSchema<IndexRebuildChange> indexRebuildChangeSchema;
+    private LoadingCache<String, Boolean> rebuildingCache;
+    private BlockingQueue<PendingChange> pendingChanges;
+    private ScheduledExecutorService changeFlushExecutor;
+
+    @Inject
+    private void setup() {
+        indexRebuildSchema = singleTable.parseTableSchema(IndexRebuild.class);
+        indexRebuildChangeSchema = singleTable.parseTableSchema(IndexRebuildChange.class);
+        rebuildingCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.rebuildStateCacheExpiry())
+                .build(new CacheLoader<>() {
+                    @Override
+                    public Boolean load(String alias) {
+                        return getRebuild(alias).isPresent();
+                    }
+                });
+        pendingChanges = new LinkedBlockingQueue<>(config.changeQueueSize());
+    }
+
+    @Override
+    protected void serviceStart() throws Exception {
+        changeFlushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("IndexRebuilder-flush-%d").build());
+        changeFlushExecutor.scheduleWithFixedDelay(this::flushChanges,
+                config.changeFlushInterval().toMillis(), config.changeFlushInterval().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        changeFlushExecutor.shutdownNow();
+        changeFlushExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        flushChanges();
+    }
+
+    /**
+     * To be called on every write to the alias, with a key identifying what the write affected. Does not block on
+     * DynamoDB, the change is written to the catch-up log in the background.
+     */
+    public void recordChange(String alias, String key) {
+        // Known to not be rebuilding, skip without queueing
+        if (Boolean.FALSE.equals(rebuildingCache.getIfPresent(alias))) {
+            return;
+        }
+        PendingChange change = new PendingChange(alias, key);
+        if (!pendingChanges.offer(change)) {
+            if (LogUtil.rateLimitAllowLog("indexRebuilder-change-queue-full")) {
+                log.warn("Index rebuild change queue is full, recording on calling thread");
+            }
+            writeChanges(ImmutableList.of(change));
+        }
+    }
+
+    private void flushChanges() {
+        List<PendingChange> changes = Lists.newArrayList();
+        pendingChanges.drainTo(changes);
+        if (!changes.isEmpty()) {
+            writeChanges(changes);
+        }
+    }
+
+    private void writeChanges(Collection<PendingChange> changes) {
+        long ttlInEpochSec = Instant.now().plus(config.rebuildExpiry()).getEpochSecond();
+        ImmutableList<Item> items = changes.stream()
+                .distinct()
+                .filter(change -> isRebuilding(change.getAlias()))
+                .map(change -> indexRebuildChangeSchema.toItem(new IndexRebuildChange(
+                        change.getAlias(),
+                        change.getKey(),
+                        ThreadLocalRandom.current().nextLong(),
+                        ttlInEpochSec)))
+                .collect(ImmutableList.toImmutableList());
+        for (List<Item> batch : Iterables.partition(items, DYNAMO_WRITE_BATCH_MAX_SIZE)) {
+            try {
+                singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(new TableWriteItems(indexRebuildChangeSchema.tableName())
+                        .withItemsToPut(batch)));
+            } catch (Exception ex) {
+                if (LogUtil.rateLimitAllowLog("indexRebuilder-record-change-failure")) {
+                    log.warn("Failed to record {} changes during rebuild", batch.size(), ex);
+                }
+            }
+        }
+    }
+
+    private boolean isRebuilding(String alias) {
+        try {
+            return rebuildingCache.getUnchecked(alias);
+        } catch (Exception ex) {
+            if (LogUtil.rateLimitAllowLog("indexRebuilder-rebuild-state-failure")) {
+                log.warn("Failed to get rebuild state of alias {}, recording change anyway", alias, ex);
+            }
+            // A stray change is replayed harmlessly, a missing one leaves the new index stale
+            return true;
+        }
+    }
+
+    /**
+     * Rebuilds the index behind the alias, returns once the alias points to the new index.
+     *
+     * @return name of the new index
+     */
+    public String rebuild(String alias, IndexCreator indexCreator, IndexPopulator indexPopulator, CatchUpReplayer catchUpReplayer) throws Exception {
+        String targetIndex = alias + "-v" + Instant.now().toEpochMilli();
+        log.info("Rebuilding alias {} into index {}", alias, targetIndex);
+        indexCreator.create(targetIndex);
+
+        Instant now = Instant.now();
+        try {
+            indexRebuildSchema.table().putItem(new PutItemSpec()
+                    .withItem(indexRebuildSchema.toItem(new IndexRebuild(
+                            alias,
+                            targetIndex,
+                            now,
+                            now.plus(config.rebuildExpiry()).getEpochSecond())))
+                    .withConditionExpression("attribute_not_exists(#partitionKey) OR #ttlInEpochSec < :now")
+                    .withNameMap(Map.of(
+                            "#partitionKey", indexRebuildSchema.partitionKeyName(),
+                            "#ttlInEpochSec", "ttlInEpochSec"))
+                    .withValueMap(Map.of(
+                            ":now", now.getEpochSecond())));
+        } catch (ConditionalCheckFailedException ex) {
+            elastic.get().indices().delete(new DeleteIndexRequest(targetIndex), RequestOptions.DEFAULT);
+            throw new IllegalStateException("Alias " + alias + " is already being rebuilt", ex);
+        }
+        rebuildingCache.invalidate(alias);
+
+        boolean swapped = false;
+        try {
+            // Anything written from here on is recorded; anything before will be picked up by populating
+            Thread.sleep(config.rebuildStateCacheExpiry().toMillis());
+            indexPopulator.populate(targetIndex);
+
+            for (int round = 0; round < config.catchUpMaxRounds(); round++) {
+                if (!catchUp(alias, targetIndex, catchUpReplayer, config.catchUpSwapThreshold())) {
+                    break;
+                }
+            }
+            catchUp(alias, targetIndex, catchUpReplayer, 0);
+
+            ImmutableSet<String> oldIndices = swapAlias(alias, targetIndex);
+            swapped = true;
+
+            // Writes that landed on the old index between the last replay and the swap may still be waiting to be
+            // flushed to the log, keep recording until they are in and replay them onto the new index
+            Thread.sleep(config.rebuildStateCacheExpiry().toMillis());
+            catchUp(alias, alias, catchUpReplayer, 0);
+            deleteRebuild(alias);
+
+            if (!oldIndices.isEmpty()) {
+                elastic.get().indices().delete(new DeleteIndexRequest(oldIndices.toArray(String[]::new)), RequestOptions.DEFAULT);
+            }
+            log.info("Rebuilt alias {} into index {}, removed old indices {}", alias, targetIndex, oldIndices);
+            return targetIndex;
+        } catch (Exception ex) {
+            if (swapped) {
+                log.warn("Rebuilding alias {} into index {} failed after swapping the alias, writes since the swap may be missing", alias, targetIndex, ex);
+                deleteRebuild(alias);
+                throw ex;
+            }
+            log.warn("Rebuilding alias {} into index {} failed, alias still points to the old index", alias, targetIndex, ex);
+            if (getRebuild(alias).filter(rebuild -> targetIndex.equals(rebuild.getTargetIndex())).isPresent()) {
+                deleteRebuild(alias);
+                elastic.get().indices().delete(new DeleteIndexRequest(targetIndex), RequestOptions.DEFAULT);
+            }
+            throw ex;
+        }
+    }
+
+    @Extern
+    public Optional<IndexRebuild> getRebuild(String alias) {
+        return Optional.ofNullable(indexRebuildSchema.fromItem(indexRebuildSchema.table().getItem(new GetItemSpec()
+                        .withPrimaryKey(indexRebuildSchema.primaryKey(Map.of(
+                                "alias", alias)))
+                        .withConsistentRead(true))))
+                // Expired items linger until DynamoDB gets around to deleting them
+                .filter(rebuild -> rebuild.getTtlInEpochSec() >= Instant.now().getEpochSecond());
+    }
+
+    /**
+     * Resolves an alias to its indices; a concrete index resolves to itself.
+     */
+    @SneakyThrows
+    public String[] resolveIndices(String aliasOrIndex) {
+        ImmutableSet<String> indices = ImmutableSet.copyOf(elastic.get().indices()
+                .getAlias(new GetAliasesRequest(aliasOrIndex), RequestOptions.DEFAULT)
+                .getAliases()
+                .keySet());
+        return indices.isEmpty() ? new String[]{aliasOrIndex} : indices.toArray(String[]::new);
+    }
+
+    /**
+     * Writes the given documents to the index and deletes any other of the document ids.
+     */
+    public void replayDocuments(String indexName, Collection<String> docIds, Map<String, IndexRequest> indexRequestsById) throws IOException {
+        if (docIds.isEmpty()) {
+            return;
+        }
+        BulkRequest bulkRequest = new BulkRequest();
+        for (String docId : docIds) {
+            IndexRequest indexRequest = indexRequestsById.get(docId);
+            if (indexRequest != null) {
+                bulkRequest.add(indexRequest.index(indexName));
+            } else {
+                bulkRequest.add(new DeleteRequest(indexName, docId));
+            }
+        }
+        BulkResponse response = elastic.get().bulk(bulkRequest, RequestOptions.DEFAULT);
+        if (response.hasFailures()) {
+            throw new IOException("Failed to replay documents onto " + indexName + ": " + response.buildFailureMessage());
+        }
+    }
+
+    private ImmutableSet<String> swapAlias(String alias, String targetIndex) throws Exception {
+        ImmutableSet<String> oldIndices = ImmutableSet.copyOf(elastic.get().indices()
+                .getAlias(new GetAliasesRequest(alias), RequestOptions.DEFAULT)
+                .getAliases()
+                .keySet());
+        IndicesAliasesRequest request = new IndicesAliasesRequest();
+        if (oldIndices.isEmpty()) {
+            if (elastic.get().indices().exists(new GetIndexRequest(alias), RequestOptions.DEFAULT)) {
+                // Concrete index from before aliases, must be removed in the same request for the alias to take its name
+                request.addAliasAction(AliasActions.removeIndex().index(alias));
+            }
+        } else {
+            oldIndices.forEach(oldIndex -> request.addAliasAction(AliasActions.remove().index(oldIndex).alias(alias)));
+        }
+        request.addAliasAction(AliasActions.add().index(targetIndex).alias(alias));
+        elastic.get().indices().updateAliases(request, RequestOptions.DEFAULT);
+        return oldIndices;
+    }
+
+    /**
+     * @return whether more than threshold keys were found
+     */
+    private boolean catchUp(String alias, String indexName, CatchUpReplayer catchUpReplayer, int threshold) throws Exception {
+        ImmutableList<IndexRebuildChange> changes = StreamSupport.stream(indexRebuildChangeSchema.table().query(new QuerySpec()
+                                .withHashKey(indexRebuildChangeSchema.partitionKey(Map.of(
+                                        "alias", alias)))
+                                .withRangeKeyCondition(new RangeKeyCondition(indexRebuildChangeSchema.rangeKeyName())
+                                        .beginsWith(indexRebuildChangeSchema.rangeValuePartial(Map.of())))
+                                .withConsistentRead(true))
+                        .pages()
+                        .spliterator(), false)
+                .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
+                .map(indexRebuildChangeSchema::fromItem)
+                .collect(ImmutableList.toImmutableList());
+        if (changes.size() <= threshold) {
+            return false;
+        }
+        if (!changes.isEmpty()) {
+            log.info("Catching up alias {} on index {} with {} changes", alias, indexName, changes.size());
+            for (List<IndexRebuildChange> batch : Iterables.partition(changes, config.catchUpBatchSize())) {
+                catchUpReplayer.replay(indexName, batch.stream()
+                        .map(IndexRebuildChange::getKey)
+                        .collect(ImmutableSet.toImmutableSet()));
+            }
+        }
+        for (IndexRebuildChange change : changes) {
+            try {
+                indexRebuildChangeSchema.table().deleteItem(new DeleteItemSpec()
+                        .withPrimaryKey(indexRebuildChangeSchema.primaryKey(Map.of(
+                                "alias", alias,
+                                "key", change.getKey())))
+                        .withConditionExpression("#changeId = :changeId")
+                        .withNameMap(Map.of("#changeId", "changeId"))
+                        .withValueMap(Map.of(":changeId", change.getChangeId())));
+            } catch (ConditionalCheckFailedException ex) {
+                // Changed again during replay, will be replayed in the next round
+            }
+        }
+        return true;
+    }
+
+    private void deleteRebuild(String alias) {
+        indexRebuildSchema.table().deleteItem(new DeleteItemSpec()
+                .withPrimaryKey(indexRebuildSchema.primaryKey(Map.of(
+                        "alias", alias))));
+        rebuildingCache.invalidate(alias);
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(IndexRebuilder.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(IndexRebuilder.class).asEagerSingleton();
+            }
+        };
+    }
+}
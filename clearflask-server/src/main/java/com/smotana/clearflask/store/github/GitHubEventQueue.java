@@ -0,0 +1,45 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.github;
+
+import lombok.NonNull;
+import lombok.Value;
+
+import java.io.IOException;
+import java.time.Instant;
+
+/**
+ * Ingestion of verified GitHub repository webhook deliveries, decoupled from the webhook request.
+ */
+public interface GitHubEventQueue {
+
+    /**
+     * Accepts a delivery for processing. Redeliveries of an already accepted delivery id are ignored,
+     * unless processing it has since failed.
+     *
+     * @return false if the delivery was a duplicate and was not accepted
+     */
+    boolean enqueue(GitHubEvent event) throws IOException;
+
+    @Value
+    class GitHubEvent {
+        /**
+         * Value of X-GitHub-Delivery header
+         */
+        @NonNull
+        String deliveryId;
+        /**
+         * Value of X-GitHub-Event header
+         */
+        @NonNull
+        String eventType;
+        @NonNull
+        String projectId;
+        long installationId;
+        long repositoryId;
+        @NonNull
+        String payload;
+        @NonNull
+        Instant received;
+    }
+}
@@ -13,6 +13,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
@@ -52,6 +54,7 @@ import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.Project;
 import com.smotana.clearflask.store.UserStore;
 import com.smotana.clearflask.store.UserStore.UserModel;
+import com.smotana.clearflask.store.github.GitHubClientProvider.GitHubInstallation;
 import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
 import com.smotana.clearflask.util.ColorUtil;
 import com.smotana.clearflask.util.Extern;
@@ -70,6 +73,7 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.message.BasicNameValuePair;
 import org.kohsuke.github.GHAppInstallation;
+import org.kohsuke.github.GHDirection;
 import org.kohsuke.github.GHEvent;
 import org.kohsuke.github.GHEventPayload;
 import org.kohsuke.github.GHEventPayload.Issue;
@@ -77,6 +81,7 @@ import org.kohsuke.github.GHEventPayload.IssueComment;
 import org.kohsuke.github.GHHook;
 import org.kohsuke.github.GHIssue;
 import org.kohsuke.github.GHIssueComment;
+import org.kohsuke.github.GHIssueQueryBuilder;
 import org.kohsuke.github.GHIssueState;
 import org.kohsuke.github.GHLabel;
 import org.kohsuke.github.GHRepository;
@@ -84,6 +89,7 @@ import org.kohsuke.github.GHUser;
 import org.kohsuke.github.GitHub;
 import org.kohsuke.github.GitHubClientUtil;
 import org.kohsuke.github.HttpException;
+import org.kohsuke.github.PagedIterator;
 
 import javax.ws.rs.core.Response;
 import java.awt.*;
@@ -94,11 +100,13 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -124,6 +132,18 @@ public class GitHubStoreImpl extends ManagedService implements GitHubStore {
 
         @DefaultValue("P1D")
         Duration authExpiry();
+
+        @DefaultValue("true")
+        boolean backfillEnabled();
+
+        @DefaultValue("100")
+        int backfillPageSize();
+
+        /**
+         * Backfill shares the installation rate limiter with webhook processing, waits this long when exhausted.
+         */
+        @DefaultValue("PT5S")
+        Duration backfillRateLimitedRetryDelay();
     }
 
     @Inject
@@ -163,12 +183,15 @@ public class GitHubStoreImpl extends ManagedService implements GitHubStore {
 
     private final JsonPath changesNameJsonPath = JsonPath.compile("changes.name");
     private final JsonPath changesBodyJsonPath = JsonPath.compile("changes.body");
+    private final Set<String> backfillsRunning = Sets.newConcurrentHashSet();
     private TableSchema<GitHubAuthorization> gitHubAuthorizationSchema;
+    private TableSchema<GitHubBackfillCheckpoint> gitHubBackfillCheckpointSchema;
     private ListeningExecutorService executor;
 
     @Override
     protected void serviceStart() throws Exception {
         gitHubAuthorizationSchema = singleTable.parseTableSchema(GitHubAuthorization.class);
+        gitHubBackfillCheckpointSchema = singleTable.parseTableSchema(GitHubBackfillCheckpoint.class);
 
         executor = MoreExecutors.listeningDecorator(new ThreadPoolExecutor(
                 2, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
@@ -416,46 +439,13 @@ public class GitHubStoreImpl extends ManagedService implements GitHubStore {
         switch (ghIssue.getAction()) {
             case "opened":
                 UserModel user = getCfUserFromGhUser(project.getProjectId(), ghIssue.getIssue().getUser());
-                return Optional.of(ideaStore.createIdeaAndUpvote(new IdeaModel(
-                        project.getProjectId(),
+                return Optional.of(ideaStore.createIdeaAndUpvote(issueToIdea(
+                        project,
                         ideaId,
-                        user.getUserId(),
-                        user.getName(),
-                        user.getIsMod(),
+                        ghIssue.getIssue(),
+                        user,
                         Instant.now(),
-                        ghIssue.getIssue().getTitle(),
-                        markdownAndQuillUtil.markdownToQuill(project.getProjectId(), "gh-new-post", ideaId, ghIssue.getIssue().getBody()),
-                        null,
-                        null,
-                        null,
-                        null,
-                        integration.getCreateWithCategoryId(),
-                        Optional.ofNullable(Strings.emptyToNull(integration.getInitialStatusId()))
-                                .or(() -> project.getCategory(integration.getCreateWithCategoryId())
-                                        .map(Category::getWorkflow)
-                                        .flatMap(workflow -> Optional.ofNullable(workflow.getEntryStatus())))
-                                .orElse(null),
-                        integration.getCreateWithTags() != null
-                                ? ImmutableSet.copyOf(integration.getCreateWithTags())
-                                : ImmutableSet.of(),
-                        0L,
-                        0L,
-                        null,
-                        null,
-                        null,
-                        null,
-                        null,
-                        null,
-                        ImmutableMap.of(),
-                        null,
-                        ImmutableSet.of(),
-                        ImmutableSet.of(),
-                        null,
-                        null,
-                        ImmutableSet.of(),
-                        null,
-                        ghIssue.getIssue().getHtmlUrl().toExternalForm(),
-                        null)));
+                        Optional.empty())));
             case "reopened":
             case "closed":
                 Optional<String> switchToStatusOpt = Optional.ofNullable(integration.getStatusSync())
@@ -519,21 +509,13 @@ public class GitHubStoreImpl extends ManagedService implements GitHubStore {
                 Optional<IdeaModel> ideaOpt = ideaStore.getIdea(project.getProjectId(), postId);
                 if (ideaOpt.isPresent()) {
                     UserModel user = getCfUserFromGhUser(project.getProjectId(), ghIssueComment.getComment().getUser());
-                    return Optional.of(commentStore.createCommentAndUpvote(new CommentModel(
-                            project.getProjectId(),
+                    return Optional.of(commentStore.createCommentAndUpvote(issueCommentToComment(
+                            project,
                             postId,
                             commentId,
-                            ImmutableList.of(),
-                            0,
-                            0L,
-                            user.getUserId(),
-                            user.getName(),
-                            user.getIsMod(),
-                            Instant.now(),
-                            null,
-                            markdownAndQuillUtil.markdownToQuill(project.getProjectId(), "gh-new-comment", commentId, ghIssueComment.getComment().getBody()),
-                            0,
-                            0)));
+                            ghIssueComment.getComment(),
+                            user,
+                            Instant.now())));
                 } else if ("edited".equals(ghIssueComment.getAction())) {
                     // GitHub client is missing "changes" parsing so we cannot do:
                     // ghIssueComment.getChanges().getBody()
@@ -799,6 +781,184 @@ public class GitHubStoreImpl extends ManagedService implements GitHubStore {
         });
     }
 
+    @Extern
+    @Override
+    public ListenableFuture<Void> backfillIssuesAsync(String projectId) {
+        if (!config.enabled() || !config.backfillEnabled()) {
+            log.debug("Not enabled, skipping");
+            return Futures.immediateFuture(null);
+        }
+        if (!backfillsRunning.add(projectId)) {
+            log.info("Backfill already running for project {}", projectId);
+            return Futures.immediateFuture(null);
+        }
+        return submit(() -> {
+            try {
+                backfillIssues(projectId);
+            } finally {
+                // Before the future completes so a retry right after a failure is not skipped
+                backfillsRunning.remove(projectId);
+            }
+            return null;
+        });
+    }
+
+    @Extern
+    public Optional<GitHubBackfillCheckpoint> getBackfillCheckpoint(String projectId, long repositoryId) {
+        return Optional.ofNullable(gitHubBackfillCheckpointSchema.fromItem(gitHubBackfillCheckpointSchema.table().getItem(new GetItemSpec()
+                .withPrimaryKey(gitHubBackfillCheckpointSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "repositoryId", repositoryId))))));
+    }
+
+    /**
+     * Pages through issues oldest update first so that the checkpoint can resume from the last page written.
+     * Issues already present, e.g. created by a webhook or a previous run, are left untouched.
+     */
+    private void backfillIssues(String projectId) throws IOException, InterruptedException, ExecutionException {
+        Optional<Project> projectOpt = projectStore.getProject(projectId, false);
+        Optional<com.smotana.clearflask.api.model.GitHub> integrationOpt = projectOpt.flatMap(Project::getGitHubIntegration);
+        if (integrationOpt.isEmpty()) {
+            log.info("Skipping backfill for project {} without GitHub integration", projectId);
+            return;
+        }
+        Project project = projectOpt.get();
+        com.smotana.clearflask.api.model.GitHub integration = integrationOpt.get();
+        GitHubBackfillCheckpoint checkpoint = getBackfillCheckpoint(projectId, integration.getRepositoryId())
+                .orElseGet(() -> new GitHubBackfillCheckpoint(projectId, integration.getRepositoryId(), Instant.EPOCH, 0L, 0L, false));
+        log.info("Starting backfill for project {} repository {} from {}",
+                projectId, integration.getRepositoryId(), checkpoint.getUpdatedSince());
+
+        GitHubInstallation installation = gitHubClientProvider.getInstallationClient(integration.getInstallationId());
+        acquireBackfillPermit(installation);
+        GHRepository repository = installation.getClient().getRepositoryById(integration.getRepositoryId());
+        Map<Long, UserModel> usersByGhUserId = Maps.newHashMap();
+        boolean done = false;
+        while (!done) {
+            // Query again from the checkpoint for every page, offset paging over issues sorted by
+            // update time would skip any issue updated mid-run as it moves past the current offset
+            Instant pageUpdatedSince = checkpoint.getUpdatedSince();
+            PagedIterator<GHIssue> issuesIterator = repository.queryIssues()
+                    .state(GHIssueState.ALL)
+                    .since(Date.from(pageUpdatedSince))
+                    .sort(GHIssueQueryBuilder.Sort.UPDATED)
+                    .direction(GHDirection.ASC)
+                    .pageSize(config.backfillPageSize())
+                    .list()
+                    .iterator();
+            do {
+                acquireBackfillPermit(installation);
+                if (!issuesIterator.hasNext()) {
+                    done = true;
+                    break;
+                }
+                List<GHIssue> ghIssues = issuesIterator.nextPage();
+                long commentCount = backfillIssuesPage(project, integration, installation, ghIssues, usersByGhUserId);
+                checkpoint = checkpoint.toBuilder()
+                        .updatedSince(ghIssues.get(ghIssues.size() - 1).getUpdatedAt().toInstant())
+                        .issueCount(checkpoint.getIssueCount() + ghIssues.size())
+                        .commentCount(checkpoint.getCommentCount() + commentCount)
+                        .build();
+                gitHubBackfillCheckpointSchema.table().putItem(gitHubBackfillCheckpointSchema.toItem(checkpoint));
+                // Since is inclusive, if the whole page was updated at the same time as the previous checkpoint,
+                // querying again would return the same page, continue to the next page instead
+            } while (!checkpoint.getUpdatedSince().isAfter(pageUpdatedSince));
+        }
+        checkpoint = checkpoint.toBuilder().complete(true).build();
+        gitHubBackfillCheckpointSchema.table().putItem(gitHubBackfillCheckpointSchema.toItem(checkpoint));
+        log.info("Finished backfill for project {} repository {}, {} issues and {} comments seen in total",
+                projectId, integration.getRepositoryId(), checkpoint.getIssueCount(), checkpoint.getCommentCount());
+    }
+
+    /**
+     * @return number of comments written
+     */
+    private long backfillIssuesPage(Project project, com.smotana.clearflask.api.model.GitHub integration, GitHubInstallation installation, List<GHIssue> ghIssues, Map<Long, UserModel> usersByGhUserId) throws IOException, InterruptedException, ExecutionException {
+        ImmutableMap<String, GHIssue> ghIssuesByIdeaId = ghIssues.stream()
+                // Pull requests are listed as issues too
+                .filter(ghIssue -> !ghIssue.isPullRequest())
+                .collect(ImmutableMap.toImmutableMap(
+                        ghIssue -> ideaStore.genDeterministicIdeaIdForGithubIssue(ghIssue.getNumber(), ghIssue.getId(), integration.getRepositoryId()),
+                        ghIssue -> ghIssue));
+        if (ghIssuesByIdeaId.isEmpty()) {
+            return 0L;
+        }
+        ImmutableSet<String> existingIdeaIds = ideaStore.getIdeas(project.getProjectId(), ghIssuesByIdeaId.keySet()).keySet();
+
+        ImmutableList.Builder<IdeaModel> ideasBuilder = ImmutableList.builder();
+        ImmutableList.Builder<CommentModel> commentsBuilder = ImmutableList.builder();
+        for (Map.Entry<String, GHIssue> entry : ghIssuesByIdeaId.entrySet()) {
+            String ideaId = entry.getKey();
+            GHIssue ghIssue = entry.getValue();
+            if (existingIdeaIds.contains(ideaId)) {
+                continue;
+            }
+
+            long ideaCommentCount = 0L;
+            if (integration.getCommentSync() == Boolean.TRUE && ghIssue.getCommentsCount() > 0) {
+                PagedIterator<GHIssueComment> commentsIterator = ghIssue.listComments()
+                        .withPageSize(config.backfillPageSize())
+                        .iterator();
+                while (true) {
+                    acquireBackfillPermit(installation);
+                    if (!commentsIterator.hasNext()) {
+                        break;
+                    }
+                    for (GHIssueComment ghIssueComment : commentsIterator.nextPage()) {
+                        commentsBuilder.add(issueCommentToComment(
+                                project,
+                                ideaId,
+                                commentStore.genDeterministicCommentIdForGithubIssueComment(ghIssueComment.getId()),
+                                ghIssueComment,
+                                getCfUserFromGhUserForBackfill(project.getProjectId(), installation, ghIssueComment.getUser(), usersByGhUserId),
+                                ghIssueComment.getCreatedAt().toInstant()));
+                        ideaCommentCount++;
+                    }
+                }
+            }
+
+            Optional<String> closedStatusIdOpt = ghIssue.getState() == GHIssueState.CLOSED
+                    ? Optional.ofNullable(integration.getStatusSync()).map(GitHubStatusSync::getClosedStatus)
+                    : Optional.empty();
+            ideasBuilder.add(issueToIdea(
+                    project,
+                    ideaId,
+                    ghIssue,
+                    getCfUserFromGhUserForBackfill(project.getProjectId(), installation, ghIssue.getUser(), usersByGhUserId),
+                    ghIssue.getCreatedAt().toInstant(),
+                    closedStatusIdOpt)
+                    .toBuilder()
+                    .commentCount(ideaCommentCount)
+                    .childCommentCount(ideaCommentCount)
+                    .build());
+        }
+
+        // Comments first as an existing idea is skipped on resume; if writing ideas fails,
+        // the comments are written again with the same ids on the next run
+        ImmutableList<IdeaModel> ideas = ideasBuilder.build();
+        ImmutableList<CommentModel> comments = commentsBuilder.build();
+        commentStore.createComments(project.getProjectId(), comments).get();
+        ideaStore.createIdeas(project.getProjectId(), ideas).get();
+        return comments.size();
+    }
+
+    private UserModel getCfUserFromGhUserForBackfill(String projectId, GitHubInstallation installation, GHUser ghUser, Map<Long, UserModel> usersByGhUserId) throws InterruptedException {
+        UserModel user = usersByGhUserId.get(ghUser.getId());
+        if (user == null) {
+            // May fetch the user's email and name if the user is new
+            acquireBackfillPermit(installation);
+            user = getCfUserFromGhUser(projectId, ghUser);
+            usersByGhUserId.put(ghUser.getId(), user);
+        }
+        return user;
+    }
+
+    private void acquireBackfillPermit(GitHubInstallation installation) throws InterruptedException {
+        while (!installation.getRateLimiter().tryAcquire()) {
+            Thread.sleep(config.backfillRateLimitedRetryDelay().toMillis());
+        }
+    }
+
     private Optional<IdeaStore.GitHubIssueMetadata> getMetadataFromLinkedIdea(Project project, IdeaModel idea) {
         Optional<IdeaStore.GitHubIssueMetadata> gitHubIssueMetadataOpt = ideaStore.extractGitHubIssueFromIdeaId(idea.getIdeaId());
         if (gitHubIssueMetadataOpt.isEmpty()) {
@@ -812,6 +972,69 @@ public class GitHubStoreImpl extends ManagedService implements GitHubStore {
 
     }
 
+    private IdeaModel issueToIdea(Project project, String ideaId, GHIssue ghIssue, UserModel user, Instant created, Optional<String> statusIdOpt) {
+        com.smotana.clearflask.api.model.GitHub integration = project.getGitHubIntegration().get();
+        return new IdeaModel(
+                project.getProjectId(),
+                ideaId,
+                user.getUserId(),
+                user.getName(),
+                user.getIsMod(),
+                created,
+                ghIssue.getTitle(),
+                markdownAndQuillUtil.markdownToQuill(project.getProjectId(), "gh-new-post", ideaId, ghIssue.getBody()),
+                null,
+                null,
+                null,
+                null,
+                integration.getCreateWithCategoryId(),
+                statusIdOpt
+                        .or(() -> Optional.ofNullable(Strings.emptyToNull(integration.getInitialStatusId())))
+                        .or(() -> project.getCategory(integration.getCreateWithCategoryId())
+                                .map(Category::getWorkflow)
+                                .flatMap(workflow -> Optional.ofNullable(workflow.getEntryStatus())))
+                        .orElse(null),
+                integration.getCreateWithTags() != null
+                        ? ImmutableSet.copyOf(integration.getCreateWithTags())
+                        : ImmutableSet.of(),
+                0L,
+                0L,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                ImmutableMap.of(),
+                null,
+                ImmutableSet.of(),
+                ImmutableSet.of(),
+                null,
+                null,
+                ImmutableSet.of(),
+                null,
+                ghIssue.getHtmlUrl().toExternalForm(),
+                null);
+    }
+
+    private CommentModel issueCommentToComment(Project project, String postId, String commentId, GHIssueComment ghIssueComment, UserModel user, Instant created) {
+        return new CommentModel(
+                project.getProjectId(),
+                postId,
+                commentId,
+                ImmutableList.of(),
+                0,
+                0L,
+                user.getUserId(),
+                user.getName(),
+                user.getIsMod(),
+                created,
+                null,
+                markdownAndQuillUtil.markdownToQuill(project.getProjectId(), "gh-new-comment", commentId, ghIssueComment.getBody()),
+                0,
+                0);
+    }
+
     private UserModel getCfUserFromGhUser(String projectId, GHUser ghUser) {
         return userStore.createOrGet(
                 projectId,
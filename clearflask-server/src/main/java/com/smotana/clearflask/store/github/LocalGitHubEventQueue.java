@@ -0,0 +1,412 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.github;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.store.GitHubStore;
+import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.ProjectStore.Project;
+import com.smotana.clearflask.store.github.GitHubClientProvider.GitHubInstallation;
+import com.smotana.clearflask.util.Extern;
+import com.smotana.clearflask.util.LogUtil;
+import com.smotana.clearflask.web.ApiException;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.kohsuke.github.GHEventPayload;
+import org.kohsuke.github.GitHub;
+
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process {@link GitHubEventQueue}. Deliveries are acknowledged before they are processed and GitHub
+ * does not redeliver an acknowledged delivery, so events pending on restart, expired or failed are lost
+ * unless redelivered manually from the GitHub App's advanced settings. Failed and expired deliveries are
+ * forgotten so such a redelivery is accepted.
+ * <p>
+ * Events of the same issue are processed in order, one at a time, and a pending event is replaced by
+ * a newer one that fully supersedes it (e.g. close after reopen). Each installation has a bounded
+ * number of events in flight and backs off when its rate limiter runs out.
+ */
+@Slf4j
+@Singleton
+public class LocalGitHubEventQueue extends ManagedService implements GitHubEventQueue {
+
+    /**
+     * Issue actions whose handling depends only on the latest issue state, grouped by what they supersede.
+     * Edits are not coalesced as each only applies the fields listed in its own changes.
+     */
+    private static final ImmutableMap<String, String> ISSUE_COALESCE_GROUPS = ImmutableMap.of(
+            "closed", "state",
+            "reopened", "state",
+            "labeled", "labels",
+            "unlabeled", "labels");
+
+    public interface Config {
+        /**
+         * If disabled, events are processed inline with the webhook request.
+         */
+        @DefaultValue("true")
+        boolean enabled();
+
+        @DefaultValue("PT24H")
+        Duration deliveryDedupeExpiry();
+
+        @DefaultValue("100000")
+        long deliveryDedupeMaximumSize();
+
+        @DefaultValue("4")
+        int workerThreads();
+
+        @DefaultValue("2")
+        int maxConcurrentPerInstallation();
+
+        @DefaultValue("10000")
+        int maxPendingEvents();
+
+        @DefaultValue("PT5S")
+        Duration rateLimitedRetryDelay();
+
+        /**
+         * Events still pending after this long are dropped.
+         */
+        @DefaultValue("PT1H")
+        Duration maxEventAge();
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private GitHubStore gitHubStore;
+    @Inject
+    private ProjectStore projectStore;
+    @Inject
+    private GitHubClientProvider gitHubClientProvider;
+
+    private final Object lock = new Object();
+    /** Guarded by lock */
+    private final Map<Long, InstallationQueue> installationQueues = Maps.newHashMap();
+    /** Guarded by lock */
+    private int pendingCount = 0;
+    private final LongAdder acceptedCount = new LongAdder();
+    private final LongAdder duplicateCount = new LongAdder();
+    private final LongAdder coalescedCount = new LongAdder();
+    private final LongAdder rateLimitedCount = new LongAdder();
+    private final LongAdder processedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder expiredCount = new LongAdder();
+    private Cache<String, Boolean> seenDeliveries;
+    private ListeningScheduledExecutorService executor;
+
+    @Inject
+    private void setup() {
+        seenDeliveries = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.deliveryDedupeExpiry())
+                .maximumSize(config.deliveryDedupeMaximumSize())
+                .build();
+    }
+
+    @Override
+    protected void serviceStart() throws Exception {
+        executor = MoreExecutors.listeningDecorator(Executors.newScheduledThreadPool(config.workerThreads(),
+                new ThreadFactoryBuilder().setNameFormat("LocalGitHubEventQueue-worker-%d").build()));
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+        synchronized (lock) {
+            if (pendingCount > 0) {
+                log.warn("Dropping {} pending GitHub events on shutdown", pendingCount);
+            }
+        }
+    }
+
+    @Override
+    public boolean enqueue(GitHubEvent event) throws IOException {
+        if (seenDeliveries.asMap().putIfAbsent(event.getDeliveryId(), Boolean.TRUE) != null) {
+            duplicateCount.increment();
+            log.debug("Ignoring duplicate GitHub delivery {}", event.getDeliveryId());
+            return false;
+        }
+        acceptedCount.increment();
+
+        if (!config.enabled()) {
+            GitHubInstallation installation = gitHubClientProvider.getInstallationClient(event.getInstallationId());
+            if (!installation.getRateLimiter().tryAcquire()) {
+                seenDeliveries.invalidate(event.getDeliveryId());
+                throw new ApiException(Response.Status.TOO_MANY_REQUESTS, "Too many GitHub events, try again later");
+            }
+            try {
+                process(event, installation);
+            } catch (Throwable th) {
+                // Allow a manual redelivery
+                seenDeliveries.invalidate(event.getDeliveryId());
+                throw th;
+            }
+            processedCount.increment();
+            return true;
+        }
+
+        QueuedEvent queuedEvent = toQueuedEvent(event);
+        synchronized (lock) {
+            InstallationQueue installationQueue = installationQueues.computeIfAbsent(event.getInstallationId(), id -> new InstallationQueue());
+            if (queuedEvent.getCoalesceKeyOpt().isPresent()) {
+                ListIterator<QueuedEvent> pendingIterator = installationQueue.pending.listIterator();
+                while (pendingIterator.hasNext()) {
+                    if (queuedEvent.getCoalesceKeyOpt().equals(pendingIterator.next().getCoalesceKeyOpt())) {
+                        pendingIterator.set(queuedEvent);
+                        coalescedCount.increment();
+                        return true;
+                    }
+                }
+            }
+            if (pendingCount >= config.maxPendingEvents()) {
+                seenDeliveries.invalidate(event.getDeliveryId());
+                if (LogUtil.rateLimitAllowLog("github-event-queue-full")) {
+                    log.warn("GitHub event queue is full, rejecting delivery {}", event.getDeliveryId());
+                }
+                throw new ApiException(Response.Status.TOO_MANY_REQUESTS, "Too many GitHub events, try again later");
+            }
+            installationQueue.pending.addLast(queuedEvent);
+            pendingCount++;
+        }
+        dispatch(event.getInstallationId());
+        return true;
+    }
+
+    @Extern
+    public Map<String, Long> getStats() {
+        long pending;
+        synchronized (lock) {
+            pending = pendingCount;
+        }
+        return Map.of(
+                "pending", pending,
+                "accepted", acceptedCount.sum(),
+                "duplicate", duplicateCount.sum(),
+                "coalesced", coalescedCount.sum(),
+                "rateLimited", rateLimitedCount.sum(),
+                "processed", processedCount.sum(),
+                "failed", failedCount.sum(),
+                "expired", expiredCount.sum());
+    }
+
+    private void dispatch(long installationId) {
+        synchronized (lock) {
+            InstallationQueue installationQueue = installationQueues.get(installationId);
+            if (installationQueue == null) {
+                return;
+            }
+            if (installationQueue.pausedUntil != null) {
+                if (Instant.now().isBefore(installationQueue.pausedUntil)) {
+                    return;
+                }
+                installationQueue.pausedUntil = null;
+            }
+            Iterator<QueuedEvent> pendingIterator = installationQueue.pending.iterator();
+            while (installationQueue.running < config.maxConcurrentPerInstallation() && pendingIterator.hasNext()) {
+                QueuedEvent queuedEvent = pendingIterator.next();
+                if (queuedEvent.getSerializeKeyOpt().isPresent()
+                        && !installationQueue.inProgressKeys.add(queuedEvent.getSerializeKeyOpt().get())) {
+                    continue; // An earlier event for the same issue is in progress
+                }
+                pendingIterator.remove();
+                pendingCount--;
+                installationQueue.running++;
+                executor.execute(() -> run(installationId, queuedEvent));
+            }
+            if (installationQueue.pending.isEmpty() && installationQueue.running == 0) {
+                installationQueues.remove(installationId);
+            }
+        }
+    }
+
+    private void run(long installationId, QueuedEvent queuedEvent) {
+        GitHubEvent event = queuedEvent.getEvent();
+        boolean rateLimited = false;
+        try {
+            if (event.getReceived().plus(config.maxEventAge()).isBefore(Instant.now())) {
+                expiredCount.increment();
+                seenDeliveries.invalidate(event.getDeliveryId());
+                if (LogUtil.rateLimitAllowLog("github-event-queue-expired")) {
+                    log.warn("Dropping expired GitHub event {} delivery {} for project {}",
+                            event.getEventType(), event.getDeliveryId(), event.getProjectId());
+                }
+                return;
+            }
+            GitHubInstallation installation = gitHubClientProvider.getInstallationClient(installationId);
+            if (!installation.getRateLimiter().tryAcquire()) {
+                rateLimited = true;
+                rateLimitedCount.increment();
+                return;
+            }
+            process(event, installation);
+            processedCount.increment();
+        } catch (Throwable th) {
+            failedCount.increment();
+            // Allow a manual redelivery
+            seenDeliveries.invalidate(event.getDeliveryId());
+            if (LogUtil.rateLimitAllowLog("github-event-queue-process-failure")) {
+                log.warn("Failed to process GitHub event {} delivery {} for project {}",
+                        event.getEventType(), event.getDeliveryId(), event.getProjectId(), th);
+            }
+        } finally {
+            synchronized (lock) {
+                InstallationQueue installationQueue = installationQueues.get(installationId);
+                installationQueue.running--;
+                queuedEvent.getSerializeKeyOpt().ifPresent(installationQueue.inProgressKeys::remove);
+                if (rateLimited) {
+                    // Put it back in front to keep ordering and pause the installation
+                    installationQueue.pending.addFirst(queuedEvent);
+                    pendingCount++;
+                    installationQueue.pausedUntil = Instant.now().plus(config.rateLimitedRetryDelay());
+                }
+            }
+            if (rateLimited) {
+                if (!executor.isShutdown()) {
+                    executor.schedule(() -> dispatch(installationId),
+                            config.rateLimitedRetryDelay().toMillis(), TimeUnit.MILLISECONDS);
+                }
+            } else {
+                dispatch(installationId);
+            }
+        }
+    }
+
+    private void process(GitHubEvent event, GitHubInstallation installation) throws IOException {
+        Optional<Project> projectOpt = projectStore.getProject(event.getProjectId(), true)
+                .filter(p -> p.getGitHubIntegration()
+                        .filter(i -> i.getInstallationId() == event.getInstallationId())
+                        .filter(i -> i.getRepositoryId() == event.getRepositoryId())
+                        .isPresent());
+        if (projectOpt.isEmpty()) {
+            log.info("Skipping GitHub event {} for project {} with integration removed since receiving",
+                    event.getDeliveryId(), event.getProjectId());
+            return;
+        }
+        Project project = projectOpt.get();
+        GitHub client = installation.getClient();
+        switch (event.getEventType()) {
+            case "issues":
+                gitHubStore.ghIssueEvent(project, parseEventPayload(client, event, GHEventPayload.Issue.class));
+                break;
+            case "issue_comment":
+                gitHubStore.ghIssueCommentEvent(project, parseEventPayload(client, event, GHEventPayload.IssueComment.class), event.getPayload());
+                break;
+            case "release":
+                gitHubStore.ghReleaseEvent(project, parseEventPayload(client, event, GHEventPayload.Release.class), event.getPayload());
+                break;
+            default:
+                if (LogUtil.rateLimitAllowLog("github-event-queue-uninteresting-event")) {
+                    log.warn("Received uninteresting event {}", event.getEventType());
+                }
+                break;
+        }
+    }
+
+    private QueuedEvent toQueuedEvent(GitHubEvent event) {
+        Optional<String> serializeKeyOpt = Optional.empty();
+        Optional<String> coalesceKeyOpt = Optional.empty();
+        try {
+            switch (event.getEventType()) {
+                case "issues":
+                    GHEventPayload.Issue issue = parseEventPayload(GitHub.offline(), event, GHEventPayload.Issue.class);
+                    String issueKey = getIssueKey(event, issue.getIssue().getNumber());
+                    serializeKeyOpt = Optional.of(issueKey);
+                    coalesceKeyOpt = Optional.ofNullable(ISSUE_COALESCE_GROUPS.get(issue.getAction()))
+                            .map(group -> issueKey + "/" + group);
+                    break;
+                case "issue_comment":
+                    GHEventPayload.IssueComment issueComment = parseEventPayload(GitHub.offline(), event, GHEventPayload.IssueComment.class);
+                    String commentIssueKey = getIssueKey(event, issueComment.getIssue().getNumber());
+                    serializeKeyOpt = Optional.of(commentIssueKey);
+                    if ("edited".equals(issueComment.getAction())) {
+                        coalesceKeyOpt = Optional.of(commentIssueKey + "/comment/" + issueComment.getComment().getId() + "/edited");
+                    }
+                    break;
+            }
+        } catch (IOException | RuntimeException ex) {
+            // Leave it unkeyed, processing will surface the problem
+            if (LogUtil.rateLimitAllowLog("github-event-queue-key-failure")) {
+                log.warn("Failed to determine issue of GitHub event {} delivery {}",
+                        event.getEventType(), event.getDeliveryId(), ex);
+            }
+        }
+        return new QueuedEvent(event, serializeKeyOpt, coalesceKeyOpt);
+    }
+
+    private String getIssueKey(GitHubEvent event, int issueNumber) {
+        return event.getProjectId() + "/" + event.getRepositoryId() + "/" + issueNumber;
+    }
+
+    private <T extends GHEventPayload> T parseEventPayload(GitHub client, GitHubEvent event, Class<T> type) throws IOException {
+        return client.parseEventPayload(new StringReader(event.getPayload()), type);
+    }
+
+    @Value
+    private static class QueuedEvent {
+        @NonNull
+        GitHubEvent event;
+        /**
+         * Events with the same key are processed one at a time in order.
+         */
+        @NonNull
+        Optional<String> serializeKeyOpt;
+        /**
+         * A pending event is replaced by a newer event with the same key.
+         */
+        @NonNull
+        Optional<String> coalesceKeyOpt;
+    }
+
+    /**
+     * All fields guarded by lock
+     */
+    private static class InstallationQueue {
+        private final LinkedList<QueuedEvent> pending = new LinkedList<>();
+        private final Set<String> inProgressKeys = Sets.newHashSet();
+        private int running = 0;
+        private Instant pausedUntil = null;
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(GitHubEventQueue.class).to(LocalGitHubEventQueue.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(LocalGitHubEventQueue.class).asEagerSingleton();
+            }
+        };
+    }
+}
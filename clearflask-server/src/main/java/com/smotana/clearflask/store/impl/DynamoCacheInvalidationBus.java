@@ -0,0 +1,293 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.impl;
+
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Queues;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.store.CacheInvalidationBus;
+import com.smotana.clearflask.util.Extern;
+import com.smotana.clearflask.util.IdUtil;
+import com.smotana.clearflask.util.LogUtil;
+import io.dataspray.singletable.SingleTable;
+import io.dataspray.singletable.TableSchema;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.StreamSupport;
+
+import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
+
+/**
+ * Invalidations are written to a time bucketed partition in DynamoDB which every node polls.
+ * Each bucket is split into shards to spread writes across partitions, and publishing is batched
+ * on a background thread so a slow or failing DynamoDB never holds up the caller.
+ */
+@Slf4j
+@Singleton
+public class DynamoCacheInvalidationBus extends ManagedService implements CacheInvalidationBus {
+
+    public interface Config {
+        @DefaultValue("true")
+        boolean enabled();
+
+        @DefaultValue("PT1S")
+        Duration pollInterval();
+
+        /**
+         * Time span of a single partition; polls read the partitions overlapping the lookback window.
+         */
+        @DefaultValue("PT1M")
+        Duration bucketWidth();
+
+        /**
+         * Number of partitions each bucket is spread across, every poll reads all of them.
+         * Must be the same on all nodes; lowering it strands messages written to the removed shards.
+         */
+        @DefaultValue("4")
+        int bucketShards();
+
+        /**
+         * How far before the previous poll to read again, covers clock skew between nodes and slow writes.
+         */
+        @DefaultValue("PT10S")
+        Duration lookback();
+
+        @DefaultValue("PT1H")
+        Duration messageExpiry();
+
+        @DefaultValue("PT0.1S")
+        Duration publishInterval();
+
+        /**
+         * Invalidations queued beyond this are dropped, other nodes then rely on cache expiry.
+         */
+        @DefaultValue("10000")
+        int publishQueueCapacity();
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private SingleTable singleTable;
+    @Inject
+    private DynamoDB dynamoDoc;
+
+    private final String nodeId = IdUtil.randomId();
+    private final ConcurrentMap<String, List<Consumer<String>>> handlersByCacheName = Maps.newConcurrentMap();
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private TableSchema<CacheInvalidation> cacheInvalidationSchema;
+    private Cache<String, Boolean> seenMessageIds;
+    private BlockingQueue<Map.Entry<String, String>> publishQueue;
+    private ScheduledExecutorService pollExecutor;
+    private ScheduledExecutorService publishExecutor;
+    private volatile long lastPollEpochMs;
+
+    @Inject
+    private void setup() {
+        cacheInvalidationSchema = singleTable.parseTableSchema(CacheInvalidation.class);
+        seenMessageIds = CacheBuilder.newBuilder()
+                // Messages are re-read for the lookback window after the poll that first saw them
+                .expireAfterWrite(config.lookback().plus(config.pollInterval()).multipliedBy(2))
+                .build();
+        publishQueue = Queues.newLinkedBlockingQueue(config.publishQueueCapacity());
+    }
+
+    @Override
+    protected void serviceStart() throws Exception {
+        lastPollEpochMs = Instant.now().toEpochMilli();
+        pollExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("DynamoCacheInvalidationBus-poll-%d").build());
+        pollExecutor.scheduleWithFixedDelay(this::poll,
+                config.pollInterval().toMillis(), config.pollInterval().toMillis(), TimeUnit.MILLISECONDS);
+        publishExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("DynamoCacheInvalidationBus-publish-%d").build());
+        publishExecutor.scheduleWithFixedDelay(this::flushPublishQueue,
+                config.publishInterval().toMillis(), config.publishInterval().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        publishExecutor.shutdown();
+        publishExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        // Send anything published after the last scheduled flush
+        flushPublishQueue();
+        pollExecutor.shutdownNow();
+        pollExecutor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void publish(String cacheName, String key) {
+        if (!config.enabled()) {
+            return;
+        }
+        if (!publishQueue.offer(Maps.immutableEntry(cacheName, key))) {
+            droppedCount.incrementAndGet();
+            if (LogUtil.rateLimitAllowLog("cacheInvalidationBus-publish-queue-full")) {
+                log.warn("Publish queue full, dropping invalidation of cache {} key {}, other nodes will rely on expiry",
+                        cacheName, key);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(String cacheName, Consumer<String> handler) {
+        handlersByCacheName.computeIfAbsent(cacheName, c -> new CopyOnWriteArrayList<>())
+                .add(handler);
+    }
+
+    @Extern
+    public Map<String, Long> getCounts() {
+        return Map.of(
+                "published", publishedCount.get(),
+                "received", receivedCount.get(),
+                "dropped", droppedCount.get(),
+                "queued", (long) publishQueue.size());
+    }
+
+    private void flushPublishQueue() {
+        List<Map.Entry<String, String>> pending = Lists.newArrayList();
+        publishQueue.drainTo(pending);
+        if (pending.isEmpty()) {
+            return;
+        }
+        // Stamp at write time so the message id stays within the lookback of pollers
+        long nowEpochMs = Instant.now().toEpochMilli();
+        String bucket = getBucket(nowEpochMs);
+        String messageIdPrefix = getMessageId(nowEpochMs);
+        long ttlInEpochSec = Instant.ofEpochMilli(nowEpochMs).plus(config.messageExpiry()).getEpochSecond();
+        int bucketShards = Math.max(1, config.bucketShards());
+        ImmutableList<Item> items = pending.stream()
+                .distinct()
+                .map(entry -> cacheInvalidationSchema.toItem(new CacheInvalidation(
+                        getShardedBucket(bucket, ThreadLocalRandom.current().nextInt(bucketShards)),
+                        messageIdPrefix + "-" + IdUtil.randomId(),
+                        nodeId,
+                        entry.getKey(),
+                        entry.getValue(),
+                        ttlInEpochSec)))
+                .collect(ImmutableList.toImmutableList());
+        for (List<Item> batch : Iterables.partition(items, DYNAMO_WRITE_BATCH_MAX_SIZE)) {
+            try {
+                singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(new TableWriteItems(cacheInvalidationSchema.tableName())
+                        .withItemsToPut(batch)));
+                publishedCount.addAndGet(batch.size());
+            } catch (Exception ex) {
+                droppedCount.addAndGet(batch.size());
+                if (LogUtil.rateLimitAllowLog("cacheInvalidationBus-publish-failure")) {
+                    log.warn("Failed to publish {} cache invalidations, other nodes will rely on expiry",
+                            batch.size(), ex);
+                }
+            }
+        }
+    }
+
+    private void poll() {
+        if (!config.enabled()) {
+            return;
+        }
+        try {
+            long nowEpochMs = Instant.now().toEpochMilli();
+            long fromEpochMs = Math.min(lastPollEpochMs, nowEpochMs) - config.lookback().toMillis();
+            long bucketWidthMs = config.bucketWidth().toMillis();
+            int bucketShards = Math.max(1, config.bucketShards());
+            for (long bucket = fromEpochMs / bucketWidthMs; bucket <= nowEpochMs / bucketWidthMs; bucket++) {
+                for (int shard = 0; shard < bucketShards; shard++) {
+                    pollBucket(getShardedBucket(String.valueOf(bucket), shard), getMessageId(fromEpochMs));
+                }
+            }
+            lastPollEpochMs = nowEpochMs;
+        } catch (Exception ex) {
+            if (LogUtil.rateLimitAllowLog("cacheInvalidationBus-poll-failure")) {
+                log.warn("Failed to poll cache invalidations", ex);
+            }
+        }
+    }
+
+    private void pollBucket(String bucket, String fromMessageId) {
+        StreamSupport.stream(cacheInvalidationSchema.table().query(new QuerySpec()
+                                .withHashKey(cacheInvalidationSchema.partitionKey(Map.of(
+                                        "bucket", bucket)))
+                                .withRangeKeyCondition(new RangeKeyCondition(cacheInvalidationSchema.rangeKeyName())
+                                        .gt(cacheInvalidationSchema.rangeValuePartial(Map.of(
+                                                "messageId", fromMessageId))))
+                                .withConsistentRead(true))
+                        .pages()
+                        .spliterator(), false)
+                .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
+                .map(cacheInvalidationSchema::fromItem)
+                .filter(message -> !nodeId.equals(message.getNodeId()))
+                .filter(message -> seenMessageIds.asMap().putIfAbsent(message.getMessageId(), true) == null)
+                .forEach(this::dispatch);
+    }
+
+    private void dispatch(CacheInvalidation message) {
+        receivedCount.incrementAndGet();
+        List<Consumer<String>> handlers = handlersByCacheName.get(message.getCacheName());
+        if (handlers == null) {
+            return;
+        }
+        for (Consumer<String> handler : handlers) {
+            try {
+                handler.accept(message.getKey());
+            } catch (Exception ex) {
+                log.warn("Failed to invalidate cache {} key {}", message.getCacheName(), message.getKey(), ex);
+            }
+        }
+    }
+
+    private String getBucket(long epochMs) {
+        return String.valueOf(epochMs / config.bucketWidth().toMillis());
+    }
+
+    private String getShardedBucket(String bucket, int shard) {
+        return bucket + "-" + shard;
+    }
+
+    private String getMessageId(long epochMs) {
+        return String.format("%015d", epochMs);
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(CacheInvalidationBus.class).to(DynamoCacheInvalidationBus.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(DynamoCacheInvalidationBus.class).asEagerSingleton();
+            }
+        };
+    }
+}
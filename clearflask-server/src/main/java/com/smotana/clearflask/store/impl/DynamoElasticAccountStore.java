@@ -30,6 +30,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -52,9 +53,11 @@ import com.smotana.clearflask.api.model.AccountSearchSuperAdmin;
 import com.smotana.clearflask.api.model.SubscriptionStatus;
 import com.smotana.clearflask.core.ManagedService;
 import com.smotana.clearflask.store.AccountStore;
+import com.smotana.clearflask.store.CacheInvalidationBus;
 import com.smotana.clearflask.store.IdeaStore;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.SearchEngine;
+import com.smotana.clearflask.store.Reindexer;
 import com.smotana.clearflask.store.UserStore;
 import com.smotana.clearflask.store.elastic.ActionListeners;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
@@ -113,6 +116,7 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_READ_BATCH_MAX_SIZE;
 import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
 import static com.smotana.clearflask.store.mysql.DefaultMysqlProvider.ID_MAX_LENGTH;
@@ -124,6 +128,7 @@ import static com.smotana.clearflask.util.ExplicitNull.orNull;
 public class DynamoElasticAccountStore extends ManagedService implements AccountStore {
 
     private static final String ACCOUNT_INDEX = "account";
+    private static final String ACCOUNT_CACHE_NAME = "account";
 
     public interface Config {
         /**
@@ -137,6 +142,19 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
 
         @DefaultValue("PT1M")
         Duration configCacheExpireAfterWrite();
+
+        /**
+         * Caches sessions and api key lookups for authentication. Revocations on this node take effect immediately,
+         * revocations on other nodes take effect after expiry.
+         */
+        @DefaultValue("true")
+        boolean enableAuthCache();
+
+        @DefaultValue("PT30S")
+        Duration authCacheExpireAfterWrite();
+
+        @DefaultValue("100000")
+        long authCacheMaximumSize();
     }
 
     @Inject
@@ -163,11 +181,15 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
     @Inject
     private MysqlUtil mysqlUtil;
     @Inject
+    private Reindexer reindexer;
+    @Inject
     private UserStore userStore;
     @Inject
     private IdeaStore ideaStore;
     @Inject
     private ProjectStore projectStore;
+    @Inject
+    private CacheInvalidationBus cacheInvalidationBus;
 
     private TableSchema<Account> accountSchema;
     private IndexSchema<Account> accountByApiKeySchema;
@@ -177,6 +199,8 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
     private TableSchema<AccountSession> sessionBySessionIdSchema;
     private IndexSchema<AccountSession> sessionByAccountIdSchema;
     private Cache<String, Optional<Account>> accountCache;
+    private Cache<String, AccountSession> sessionCache;
+    private Cache<String, String> accountIdByApiKeyCache;
 
     @Override
     protected ImmutableSet<Class> serviceDependencies() {
@@ -188,6 +212,20 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
         accountCache = CacheBuilder.newBuilder()
                 .expireAfterWrite(config.configCacheExpireAfterWrite())
                 .build();
+        sessionCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.authCacheExpireAfterWrite())
+                .maximumSize(config.authCacheMaximumSize())
+                .recordStats()
+                .build();
+        accountIdByApiKeyCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.authCacheExpireAfterWrite())
+                .maximumSize(config.authCacheMaximumSize())
+                .recordStats()
+                .build();
+        cacheInvalidationBus.subscribe(ACCOUNT_CACHE_NAME, accountId -> {
+            accountCache.invalidate(accountId);
+            invalidateApiKeyCache(accountId);
+        });
 
         accountSchema = singleTable.parseTableSchema(Account.class);
         accountByApiKeySchema = singleTable.parseGlobalSecondaryIndexSchema(1, Account.class);
@@ -341,6 +379,18 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
 
     @Override
     public Optional<Account> getAccountByApiKey(String apiKey) {
+        if (config.enableAuthCache()) {
+            String accountIdCached = accountIdByApiKeyCache.getIfPresent(apiKey);
+            if (accountIdCached != null) {
+                // Verify against the account in case the key was since rotated
+                Optional<Account> accountOpt = getAccount(accountIdCached, true)
+                        .filter(account -> apiKey.equals(account.getApiKey()));
+                if (accountOpt.isPresent()) {
+                    return accountOpt;
+                }
+                accountIdByApiKeyCache.invalidate(apiKey);
+            }
+        }
         ImmutableList<Account> accountsByApiKey = StreamSupport.stream(accountByApiKeySchema.index().query(new QuerySpec()
                                 .withHashKey(accountByApiKeySchema.partitionKey(Map.of(
                                         "apiKey", apiKey)))
@@ -359,6 +409,9 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
             }
             throw new ApiException(Response.Status.UNAUTHORIZED, "Your API key is misconfigured");
         } else if (accountsByApiKey.size() == 1) {
+            if (config.enableAuthCache()) {
+                accountIdByApiKeyCache.put(apiKey, accountsByApiKey.get(0).getAccountId());
+            }
             return Optional.of(accountsByApiKey.get(0));
         } else {
             return Optional.empty();
@@ -403,9 +456,10 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
 
     @Extern
     @Override
-    public void repopulateIndex(boolean deleteExistingIndex, boolean repopulateElasticSearch, boolean repopulateMysql) throws Exception {
-        log.info("Repopulating index for accounts deleteExistingIndex {} repopulateElasticSearch {} repopulateMysql {}",
-                deleteExistingIndex, repopulateElasticSearch, repopulateMysql);
+    public void repopulateIndex(boolean deleteExistingIndex, boolean repopulateElasticSearch, boolean repopulateMysql, boolean resume) throws Exception {
+        checkArgument(!resume || !deleteExistingIndex, "Cannot resume when deleting existing index");
+        log.info("Repopulating index for accounts deleteExistingIndex {} repopulateElasticSearch {} repopulateMysql {} resume {}",
+                deleteExistingIndex, repopulateElasticSearch, repopulateMysql, resume);
         if (repopulateElasticSearch) {
             boolean indexAlreadyExists = elastic.get().indices().exists(new GetIndexRequest(ACCOUNT_INDEX), RequestOptions.DEFAULT);
             if (indexAlreadyExists && deleteExistingIndex) {
@@ -421,20 +475,27 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
             mysql.get().deleteFrom(JooqAccount.ACCOUNT).execute();
         }
 
-        listAllAccounts(account -> {
-            if (repopulateElasticSearch) {
-                try {
-                    elastic.get().index(accountToEsIndexRequest(account), RequestOptions.DEFAULT);
-                } catch (IOException ex) {
-                    if (LogUtil.rateLimitAllowLog("dynamoelsaticaccountstore-reindex-failure")) {
-                        log.warn("Failed to re-index account {}", account.getAccountId(), ex);
-                    }
-                }
-            }
-            if (repopulateMysql) {
-                accountToMysqlQuery(account).execute();
-            }
-        });
+        Reindexer.Job.JobBuilder<Account> jobBuilder = Reindexer.Job.<Account>builder()
+                .jobId("account")
+                .pageFetcher(cursorOpt -> {
+                    ShardPageResult<AccountEmail> result = singleTable.fetchShardNextPage(
+                            accountIdShardedSchema,
+                            cursorOpt,
+                            DYNAMO_READ_BATCH_MAX_SIZE);
+                    return new Reindexer.Page<>(
+                            getAccounts(result.getItems().stream()
+                                    .map(AccountEmail::getAccountId)
+                                    .collect(Collectors.toList()), false).values().asList(),
+                            result.getCursorOpt());
+                })
+                .resume(resume);
+        if (repopulateElasticSearch) {
+            jobBuilder.toEsIndexRequest(this::accountToEsIndexRequest);
+        }
+        if (repopulateMysql) {
+            jobBuilder.toMysqlQueries(account -> mysql.get().queries(accountToMysqlQuery(account)));
+        }
+        reindexer.reindex(jobBuilder.build());
     }
 
     @Override
@@ -597,6 +658,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
         accountCache.put(accountId, Optional.of(account));
+        cacheInvalidationBus.publish(ACCOUNT_CACHE_NAME, accountId);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = configApp.defaultSearchEngine();
@@ -661,6 +723,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                             .withReturnValues(ReturnValue.ALL_NEW))
                     .getItem());
             accountCache.put(accountId, Optional.of(account));
+            cacheInvalidationBus.publish(ACCOUNT_CACHE_NAME, accountId);
             return account;
         } else {
             if (addons.isEmpty()) {
@@ -687,6 +750,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                             .withReturnValues(ReturnValue.ALL_NEW))
                     .getItem());
             accountCache.put(accountId, Optional.of(account));
+            cacheInvalidationBus.publish(ACCOUNT_CACHE_NAME, accountId);
             return account;
         }
     }
@@ -705,6 +769,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
         accountCache.put(accountId, Optional.of(account));
+        cacheInvalidationBus.publish(ACCOUNT_CACHE_NAME, accountId);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = configApp.defaultSearchEngine();
@@ -739,6 +804,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
         accountCache.put(accountId, Optional.of(account));
+        cacheInvalidationBus.publish(ACCOUNT_CACHE_NAME, accountId);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = configApp.defaultSearchEngine();
@@ -814,6 +880,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
         accountCache.put(accountId, Optional.of(account));
+        cacheInvalidationBus.publish(ACCOUNT_CACHE_NAME, accountId);
         return account;
     }
 
@@ -831,6 +898,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
         accountCache.put(accountId, Optional.of(account));
+        cacheInvalidationBus.publish(ACCOUNT_CACHE_NAME, accountId);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = configApp.defaultSearchEngine();
@@ -873,6 +941,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
         accountCache.put(accountId, Optional.of(account));
+        cacheInvalidationBus.publish(ACCOUNT_CACHE_NAME, accountId);
         revokeSessions(account.getAccountId(), sessionToLeaveOpt);
         return account;
     }
@@ -911,6 +980,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
         revokeSessions(accountId, sessionIdToLeave);
         Account account = accountOld.toBuilder().email(emailNew).build();
         accountCache.put(accountId, Optional.of(account));
+        cacheInvalidationBus.publish(ACCOUNT_CACHE_NAME, accountId);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = configApp.defaultSearchEngine();
@@ -942,6 +1012,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
     @Extern
     @Override
     public Account updateApiKey(String accountId, String apiKey) {
+        invalidateApiKeyCache(accountId);
         Expression expression = accountSchema.expressionBuilder()
                 .conditionExists()
                 .set("apiKey", apiKey)
@@ -961,6 +1032,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
         accountCache.put(accountId, Optional.of(account));
+        cacheInvalidationBus.publish(ACCOUNT_CACHE_NAME, accountId);
         return account;
     }
 
@@ -977,6 +1049,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
         accountCache.put(accountId, Optional.of(account));
+        cacheInvalidationBus.publish(ACCOUNT_CACHE_NAME, accountId);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = configApp.defaultSearchEngine();
@@ -1022,6 +1095,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                             .withReturnValues(ReturnValue.ALL_NEW))
                     .getItem());
             accountCache.put(accountId, Optional.of(account));
+            cacheInvalidationBus.publish(ACCOUNT_CACHE_NAME, accountId);
             return account;
         } else {
             if (attrs.isEmpty()) {
@@ -1048,6 +1122,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                             .withReturnValues(ReturnValue.ALL_NEW))
                     .getItem());
             accountCache.put(accountId, Optional.of(account));
+            cacheInvalidationBus.publish(ACCOUNT_CACHE_NAME, accountId);
             return account;
         }
     }
@@ -1065,6 +1140,8 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
         accountSchema.table().deleteItem(new DeleteItemSpec()
                 .withPrimaryKey(accountSchema.primaryKey(Map.of("accountId", accountId))));
         accountCache.invalidate(accountId);
+        cacheInvalidationBus.publish(ACCOUNT_CACHE_NAME, accountId);
+        invalidateApiKeyCache(accountId);
         revokeSessions(accountId);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
@@ -1102,8 +1179,21 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
     @Extern
     @Override
     public Optional<AccountSession> getSession(String sessionId) {
-        return getSession(sessionId, false)
+        if (config.enableAuthCache()) {
+            AccountSession sessionCached = sessionCache.getIfPresent(sessionId);
+            if (sessionCached != null) {
+                if (sessionCached.getTtlInEpochSec() >= Instant.now().getEpochSecond()) {
+                    return Optional.of(sessionCached);
+                }
+                sessionCache.invalidate(sessionId);
+            }
+        }
+        Optional<AccountSession> sessionOpt = getSession(sessionId, false)
                 .or(() -> getSession(sessionId, true));
+        if (config.enableAuthCache()) {
+            sessionOpt.ifPresent(session -> sessionCache.put(sessionId, session));
+        }
+        return sessionOpt;
     }
 
     private Optional<AccountSession> getSession(String sessionId, boolean consistentRead) {
@@ -1123,7 +1213,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
 
     @Override
     public AccountSession refreshSession(AccountSession accountSession, long ttlInEpochSec) {
-        return sessionBySessionIdSchema.fromItem(sessionBySessionIdSchema.table().updateItem(new UpdateItemSpec()
+        AccountSession refreshedSession = sessionBySessionIdSchema.fromItem(sessionBySessionIdSchema.table().updateItem(new UpdateItemSpec()
                         .withPrimaryKey(sessionBySessionIdSchema.primaryKey(accountSession))
                         .withConditionExpression("attribute_exists(#partitionKey)")
                         .withUpdateExpression("SET #ttlInEpochSec = :ttlInEpochSec")
@@ -1133,6 +1223,10 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                         .withValueMap(new ValueMap().withLong(":ttlInEpochSec", ttlInEpochSec))
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
+        if (config.enableAuthCache()) {
+            sessionCache.put(refreshedSession.getSessionId(), refreshedSession);
+        }
+        return refreshedSession;
     }
 
     @Extern
@@ -1141,6 +1235,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
         sessionBySessionIdSchema.table().deleteItem(new DeleteItemSpec()
                 .withPrimaryKey(sessionBySessionIdSchema.primaryKey(Map.of(
                         "sessionId", sessionId))));
+        sessionCache.invalidate(sessionId);
     }
 
     @Extern
@@ -1174,9 +1269,27 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                                     "sessionId", sessionId)))
                             .forEach(tableWriteItems::addPrimaryKeyToDelete);
                     singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
+                    sessionCache.invalidateAll(sessionIdsBatch);
                 });
     }
 
+    private void invalidateApiKeyCache(String accountId) {
+        accountIdByApiKeyCache.asMap().values().removeIf(accountId::equals);
+    }
+
+    @Extern
+    public ImmutableMap<String, CacheStats> getAuthCacheStats() {
+        return ImmutableMap.of(
+                "session", sessionCache.stats(),
+                "accountIdByApiKey", accountIdByApiKeyCache.stats());
+    }
+
+    @Extern
+    public void invalidateAuthCache() {
+        sessionCache.invalidateAll();
+        accountIdByApiKeyCache.invalidateAll();
+    }
+
     private void indexAccount(String accountId) {
         indexAccount(SettableFuture.create(), accountId);
     }
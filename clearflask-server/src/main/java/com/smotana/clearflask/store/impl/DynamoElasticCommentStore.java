@@ -46,28 +46,31 @@ import com.smotana.clearflask.api.model.HistogramSearchAdmin;
 import com.smotana.clearflask.api.model.Hits;
 import com.smotana.clearflask.core.ManagedService;
 import com.smotana.clearflask.store.CommentStore;
+import com.smotana.clearflask.store.ExportPage;
 import com.smotana.clearflask.store.IdeaStore;
 import com.smotana.clearflask.store.IdeaStore.IdeaAndIndexingFuture;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.SearchEngine;
+import com.smotana.clearflask.store.Reindexer;
 import com.smotana.clearflask.store.UserStore;
 import com.smotana.clearflask.store.VoteStore;
 import com.smotana.clearflask.store.VoteStore.VoteValue;
 import com.smotana.clearflask.store.elastic.ActionListeners;
 import com.smotana.clearflask.store.elastic.ElasticScript;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
+import com.smotana.clearflask.store.elastic.IndexRebuilder;
 import com.smotana.clearflask.store.mysql.CompletionStageUtil;
 import com.smotana.clearflask.store.mysql.DefaultMysqlProvider;
 import com.smotana.clearflask.store.mysql.MoreSQLDataType;
 import com.smotana.clearflask.store.mysql.MysqlCustomFunction;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
+import com.smotana.clearflask.store.mysql.MysqlUtil.SeekField;
 import com.smotana.clearflask.store.mysql.model.routines.JooqVoteWilson;
 import com.smotana.clearflask.store.mysql.model.tables.JooqComment;
 import com.smotana.clearflask.store.mysql.model.tables.JooqCommentParentId;
 import com.smotana.clearflask.store.mysql.model.tables.records.JooqCommentParentIdRecord;
 import com.smotana.clearflask.store.mysql.model.tables.records.JooqCommentRecord;
 import com.smotana.clearflask.util.Extern;
-import com.smotana.clearflask.util.LogUtil;
 import com.smotana.clearflask.util.ServerSecret;
 import com.smotana.clearflask.util.WilsonScoreInterval;
 import com.smotana.clearflask.web.ApiException;
@@ -79,6 +82,7 @@ import io.dataspray.singletable.SingleTable;
 import io.dataspray.singletable.TableSchema;
 import lombok.extern.slf4j.Slf4j;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequest;
@@ -102,8 +106,9 @@ import org.jooq.Condition;
 import org.jooq.DSLContext;
 import org.jooq.JoinType;
 import org.jooq.Queries;
+import org.jooq.Record;
+import org.jooq.Result;
 import org.jooq.SelectField;
-import org.jooq.SortField;
 import org.jooq.Table;
 import org.jooq.impl.DSL;
 import org.jooq.impl.SQLDataType;
@@ -111,7 +116,6 @@ import org.jooq.util.mysql.MySQLDataType;
 import rx.Observable;
 
 import javax.ws.rs.core.Response;
-import java.io.IOException;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collection;
@@ -128,9 +132,11 @@ import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_READ_BATCH_MAX_SIZE;
 import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
 import static com.smotana.clearflask.store.mysql.DefaultMysqlProvider.ID_MAX_LENGTH;
+import static com.smotana.clearflask.store.mysql.MysqlUtil.seekField;
 import static com.smotana.clearflask.util.ExplicitNull.orNull;
 import static org.jooq.SortOrder.ASC;
 import static org.jooq.SortOrder.DESC;
@@ -146,6 +152,13 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
         @DefaultValue("false")
         boolean elasticForceRefresh();
 
+        /**
+         * Do not wait for the index refresh on writes, callers see their own changes through
+         * {@link com.smotana.clearflask.web.util.RecentWrites} until the index catches up.
+         */
+        @DefaultValue("false")
+        boolean elasticAsyncIndexing();
+
         @DefaultValue("3")
         int searchInitialDepthLimit();
 
@@ -203,6 +216,10 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
     private Provider<DSLContext> mysql;
     @Inject
     private MysqlUtil mysqlUtil;
+    @Inject
+    private Reindexer reindexer;
+    @Inject
+    private IndexRebuilder indexRebuilder;
 
     private TableSchema<CommentModel> commentSchema;
     private IndexSchema<CommentModel> commentByProjectIdSchema;
@@ -282,61 +299,65 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
 
     @Extern
     public ListenableFuture<Void> createIndexElasticSearch(String projectId) {
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
-        if (projectStore.getSearchEngineForProject(projectId).isWriteElastic()) {
-            elastic.get().indices().createAsync(new CreateIndexRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId)).mapping(gson.toJson(ImmutableMap.of(
-                            "dynamic", "false",
-                            "properties", ImmutableMap.builder()
-                                    .put("ideaId", ImmutableMap.of(
-                                            "type", "keyword"))
-                                    .put("parentCommentIds", ImmutableMap.of(
-                                            "type", "keyword"))
-                                    .put("level", ImmutableMap.of(
-                                            "type", "integer"))
-                                    .put("childCommentCount", ImmutableMap.of(
-                                            "type", "integer"))
-                                    .put("authorUserId", ImmutableMap.of(
-                                            "type", "keyword"))
-                                    .put("authorName", ImmutableMap.of(
-                                            "type", "keyword"))
-                                    .put("authorIsMod", ImmutableMap.of(
-                                            "type", "boolean"))
-                                    .put("created", ImmutableMap.of(
-                                            "type", "date",
-                                            "format", "epoch_second"))
-                                    .put("edited", ImmutableMap.of(
-                                            "type", "date",
-                                            "format", "epoch_second"))
-                                    .put("content", ImmutableMap.of(
-                                            "type", "text",
-                                            "index_prefixes", ImmutableMap.of()))
-                                    .put("upvotes", ImmutableMap.of(
-                                            "type", "integer"))
-                                    .put("downvotes", ImmutableMap.of(
-                                            "type", "integer"))
-                                    .put("score", ImmutableMap.of(
-                                            "type", "double"))
-                                    .build())), XContentType.JSON),
-                    RequestOptions.DEFAULT,
-                    ActionListeners.fromFuture(indexingFuture, elasticUtil::isIndexAlreadyExistsException));
-        } else {
-            indexingFuture.set(null); // Nothing to do here
+        if (!projectStore.getSearchEngineForProject(projectId).isWriteElastic()) {
+            return Futures.immediateFuture(null); // Nothing to do here
         }
+        return createIndexElasticSearchNamed(elasticUtil.getIndexName(COMMENT_INDEX, projectId));
+    }
+
+    private ListenableFuture<Void> createIndexElasticSearchNamed(String indexName) {
+        SettableFuture<Void> indexingFuture = SettableFuture.create();
+        elastic.get().indices().createAsync(new CreateIndexRequest(indexName).mapping(gson.toJson(ImmutableMap.of(
+                        "dynamic", "false",
+                        "properties", ImmutableMap.builder()
+                                .put("ideaId", ImmutableMap.of(
+                                        "type", "keyword"))
+                                .put("parentCommentIds", ImmutableMap.of(
+                                        "type", "keyword"))
+                                .put("level", ImmutableMap.of(
+                                        "type", "integer"))
+                                .put("childCommentCount", ImmutableMap.of(
+                                        "type", "integer"))
+                                .put("authorUserId", ImmutableMap.of(
+                                        "type", "keyword"))
+                                .put("authorName", ImmutableMap.of(
+                                        "type", "keyword"))
+                                .put("authorIsMod", ImmutableMap.of(
+                                        "type", "boolean"))
+                                .put("created", ImmutableMap.of(
+                                        "type", "date",
+                                        "format", "epoch_second"))
+                                .put("edited", ImmutableMap.of(
+                                        "type", "date",
+                                        "format", "epoch_second"))
+                                .put("content", ImmutableMap.of(
+                                        "type", "text",
+                                        "index_prefixes", ImmutableMap.of()))
+                                .put("upvotes", ImmutableMap.of(
+                                        "type", "integer"))
+                                .put("downvotes", ImmutableMap.of(
+                                        "type", "integer"))
+                                .put("score", ImmutableMap.of(
+                                        "type", "double"))
+                                .build())), XContentType.JSON),
+                RequestOptions.DEFAULT,
+                ActionListeners.fromFuture(indexingFuture, elasticUtil::isIndexAlreadyExistsException));
         return indexingFuture;
     }
 
     @Extern
     @Override
-    public void repopulateIndex(String projectId, boolean deleteExistingIndex, boolean repopulateElasticSearch, boolean repopulateMysql) throws Exception {
-        log.info("Repopulating index for project {} deleteExistingIndex {} repopulateElasticSearch {} repopulateMysql {}",
-                projectId, deleteExistingIndex, repopulateElasticSearch, repopulateMysql);
+    public void repopulateIndex(String projectId, boolean deleteExistingIndex, boolean repopulateElasticSearch, boolean repopulateMysql, boolean resume) throws Exception {
+        checkArgument(!resume || !deleteExistingIndex, "Cannot resume when deleting existing index");
+        log.info("Repopulating index for project {} deleteExistingIndex {} repopulateElasticSearch {} repopulateMysql {} resume {}",
+                projectId, deleteExistingIndex, repopulateElasticSearch, repopulateMysql, resume);
         if (repopulateElasticSearch) {
             boolean indexAlreadyExists = elastic.get().indices().exists(
                     new GetIndexRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId)),
                     RequestOptions.DEFAULT);
             if (indexAlreadyExists && deleteExistingIndex) {
                 elastic.get().indices().delete(
-                        new DeleteIndexRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId)),
+                        new DeleteIndexRequest(indexRebuilder.resolveIndices(elasticUtil.getIndexName(COMMENT_INDEX, projectId))),
                         RequestOptions.DEFAULT);
             }
             if (!indexAlreadyExists || deleteExistingIndex) {
@@ -349,28 +370,51 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
                     .execute();
         }
 
-        StreamSupport.stream(commentByProjectIdSchema.index().query(new QuerySpec()
-                                .withHashKey(commentByProjectIdSchema.partitionKey(Map.of(
-                                        "projectId", projectId)))
-                                .withRangeKeyCondition(new RangeKeyCondition(commentByProjectIdSchema.rangeKeyName())
-                                        .beginsWith(commentByProjectIdSchema.rangeValuePartial(Map.of()))))
-                        .pages()
-                        .spliterator(), false)
-                .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
-                .map(commentByProjectIdSchema::fromItem)
-                .filter(comment -> projectId.equals(comment.getProjectId()))
-                .forEach(comment -> {
-                    if (repopulateElasticSearch) {
-                        try {
-                            elastic.get().index(commentToEsIndexRequest(comment), RequestOptions.DEFAULT);
-                        } catch (IOException ex) {
-                            if (LogUtil.rateLimitAllowLog("dynamoelasticcommentstore-reindex-failure")) {
-                                log.warn("Failed to re-index comment id {} projectId {}", comment.getCommentId(), projectId, ex);
-                            }
-                        }
-                    }
-                    if (repopulateMysql) {
-                        commentToMysqlQuery(comment).fetchMany();
+        Reindexer.Job.JobBuilder<CommentModel> jobBuilder = Reindexer.Job.<CommentModel>builder()
+                .jobId("comment-" + projectId)
+                .pageFetcher(Reindexer.indexPageFetcher(commentByProjectIdSchema, Map.of(
+                        "projectId", projectId), comment -> projectId.equals(comment.getProjectId())))
+                .resume(resume);
+        if (repopulateElasticSearch) {
+            jobBuilder.toEsIndexRequest(this::commentToEsIndexRequest);
+        }
+        if (repopulateMysql) {
+            jobBuilder.toMysqlQueries(this::commentToMysqlQuery);
+        }
+        reindexer.reindex(jobBuilder.build());
+    }
+
+    @Override
+    public void rebuildIndexElasticSearch(String projectId) throws Exception {
+        indexRebuilder.rebuild(elasticUtil.getIndexName(COMMENT_INDEX, projectId),
+                indexName -> createIndexElasticSearchNamed(indexName).get(),
+                indexName -> reindexer.reindex(Reindexer.Job.<CommentModel>builder()
+                        .jobId("comment-rebuild-" + projectId)
+                        .pageFetcher(Reindexer.indexPageFetcher(commentByProjectIdSchema, Map.of(
+                                "projectId", projectId), comment -> projectId.equals(comment.getProjectId())))
+                        .toEsIndexRequest(comment -> commentToEsIndexRequest(comment).index(indexName))
+                        .build()),
+                // Changes are recorded per idea, replay all comments of each idea
+                (indexName, ideaIds) -> {
+                    for (String ideaId : ideaIds) {
+                        ImmutableMap<String, CommentModel> comments = StreamSupport.stream(commentSchema.table().query(new QuerySpec()
+                                                .withHashKey(commentSchema.partitionKey(Map.of(
+                                                        "ideaId", ideaId,
+                                                        "projectId", projectId)))
+                                                .withRangeKeyCondition(new RangeKeyCondition(commentSchema.rangeKeyName())
+                                                        .beginsWith(commentSchema.rangeValuePartial(Map.of()))))
+                                        .pages()
+                                        .spliterator(), false)
+                                .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
+                                .map(commentSchema::fromItem)
+                                .collect(ImmutableMap.toImmutableMap(CommentModel::getCommentId, c -> c));
+                        elastic.get().deleteByQuery(new DeleteByQueryRequest(indexName)
+                                        .setQuery(QueryBuilders.boolQuery()
+                                                .filter(QueryBuilders.termQuery("ideaId", ideaId))
+                                                .mustNot(QueryBuilders.idsQuery().addIds(comments.keySet().toArray(String[]::new)))),
+                                RequestOptions.DEFAULT);
+                        indexRebuilder.replayDocuments(indexName, comments.keySet(),
+                                Maps.transformValues(comments, this::commentToEsIndexRequest));
                     }
                 });
     }
@@ -410,11 +454,12 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
             SettableFuture<Void> parentIndexingFuture = SettableFuture.create();
             SearchEngine searchEngine = projectStore.getSearchEngineForProject(commentWithVote.getProjectId());
             if (searchEngine.isWriteElastic()) {
+                indexRebuilder.recordChange(elasticUtil.getIndexName(COMMENT_INDEX, commentWithVote.getProjectId()), commentWithVote.getIdeaId());
                 elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(COMMENT_INDEX, commentWithVote.getProjectId()), parentCommentId)
                                 .doc(gson.toJson(ImmutableMap.of(
                                         "childCommentCount", parentChildCommentCount
                                 )), XContentType.JSON)
-                                .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
+                                .setRefreshPolicy(refreshPolicy()),
                         RequestOptions.DEFAULT,
                         searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(parentIndexingFuture, f -> indexComment(f, commentWithVote.getProjectId(), commentWithVote.getIdeaId(), commentWithVote.getCommentId()))
                                 : ActionListeners.onFailureRetry(() -> indexComment(commentWithVote.getProjectId(), commentWithVote.getIdeaId(), commentWithVote.getCommentId())));
@@ -448,6 +493,46 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
         return new CommentAndIndexingFuture<>(commentWithVote, Futures.allAsList(builder.build()));
     }
 
+    @Override
+    public ListenableFuture<List<Void>> createComments(String projectId, Iterable<CommentModel> comments) {
+        List<ListenableFuture<Void>> indexingFutures = Lists.newArrayList();
+        Iterables.partition(comments, DYNAMO_WRITE_BATCH_MAX_SIZE).forEach(commentsBatch -> {
+            checkState(commentsBatch.stream().map(CommentModel::getProjectId).allMatch(projectId::equals));
+            checkArgument(commentsBatch.stream().allMatch(comment -> comment.getParentCommentIds().size() == comment.getLevel()));
+            singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(new TableWriteItems(commentSchema.tableName())
+                    .withItemsToPut(commentsBatch.stream()
+                            .map(commentSchema::toItem)
+                            .collect(ImmutableList.toImmutableList()))));
+
+            SettableFuture<Void> indexingFuture = SettableFuture.create();
+            SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
+            if (searchEngine.isWriteElastic()) {
+                commentsBatch.forEach(comment -> indexRebuilder.recordChange(elasticUtil.getIndexName(COMMENT_INDEX, projectId), comment.getIdeaId()));
+                elastic.get().bulkAsync(new BulkRequest()
+                                .setRefreshPolicy(refreshPolicy())
+                                .add(commentsBatch.stream()
+                                        // Refresh policy is only allowed on the bulk request itself
+                                        .map(comment -> commentToEsIndexRequest(comment).setRefreshPolicy(WriteRequest.RefreshPolicy.NONE))
+                                        .collect(ImmutableList.toImmutableList())),
+                        RequestOptions.DEFAULT,
+                        searchEngine.isReadElastic() ? ActionListeners.fromFuture(indexingFuture)
+                                : ActionListeners.logFailure());
+            }
+            if (searchEngine.isWriteMysql()) {
+                CompletionStage<Integer> completionStage = mysqlUtil.sequentialBatch(mysql.get().queries(commentsBatch.stream()
+                        .flatMap(comment -> Arrays.stream(commentToMysqlQuery(comment).queries()))
+                        .collect(Collectors.toList())));
+                if (searchEngine.isReadMysql()) {
+                    CompletionStageUtil.toSettableFuture(indexingFuture, completionStage);
+                } else {
+                    CompletionStageUtil.logFailure(completionStage);
+                }
+            }
+            indexingFutures.add(indexingFuture);
+        });
+        return Futures.allAsList(indexingFutures);
+    }
+
     @Extern
     @Override
     public Optional<CommentModel> getComment(String projectId, String ideaId, String commentId) {
@@ -526,20 +611,20 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
         }
 
         final ImmutableList<String> sortFieldsElastic;
-        final ImmutableList<SortField<?>> sortFieldsMysql;
+        final ImmutableList<SeekField<?>> sortFieldsMysql;
         if (commentSearchAdmin.getSortBy() != null) {
             switch (commentSearchAdmin.getSortBy()) {
                 case CREATED:
                     sortFieldsElastic = ImmutableList.of("created");
-                    sortFieldsMysql = ImmutableList.of(JooqComment.COMMENT.CREATED.sort(sortOrderMysql));
+                    sortFieldsMysql = ImmutableList.of(seekField(JooqComment.COMMENT.CREATED, sortOrderMysql));
                     break;
                 case EDITED:
                     sortFieldsElastic = ImmutableList.of("edited");
-                    sortFieldsMysql = ImmutableList.of(JooqComment.COMMENT.EDITED.sort(sortOrderMysql));
+                    sortFieldsMysql = ImmutableList.of(seekField(JooqComment.COMMENT.EDITED, sortOrderMysql));
                     break;
                 case TOP:
                     sortFieldsElastic = ImmutableList.of("score");
-                    sortFieldsMysql = ImmutableList.of(JooqComment.COMMENT.SCORE.sort(sortOrderMysql));
+                    sortFieldsMysql = ImmutableList.of(seekField(JooqComment.COMMENT.SCORE, sortOrderMysql));
                     break;
                 default:
                     throw new ApiException(Response.Status.BAD_REQUEST,
@@ -615,22 +700,30 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
                 Optional<Condition> conditionSearchTextOpt = Optional.ofNullable(Strings.emptyToNull(commentSearchAdmin.getSearchText()))
                         .map(searchText -> JooqComment.COMMENT.CONTENT.like("%" + searchText + "%")
                                 .or(JooqComment.COMMENT.AUTHORNAME.like("%" + searchText + "%")));
-                primaryKeys = mysql.get().select(JooqComment.COMMENT.POSTID, JooqComment.COMMENT.COMMENTID)
+                // Primary key as tie-breaker for keyset pagination
+                ImmutableList<SeekField<?>> seekFields = ImmutableList.<SeekField<?>>builder()
+                        .addAll(sortFieldsMysql)
+                        .add(seekField(JooqComment.COMMENT.POSTID, ASC))
+                        .add(seekField(JooqComment.COMMENT.COMMENTID, ASC))
+                        .build();
+                Result<Record> records = mysql.get().select(mysqlUtil.seekSelectFields(seekFields, JooqComment.COMMENT.POSTID, JooqComment.COMMENT.COMMENTID))
                         .from(JooqComment.COMMENT)
                         .where(mysqlUtil.and(mysqlUtil.and(
                                         conditionSearchTextOpt,
                                         conditionFilterAuthorIdOpt),
-                                JooqComment.COMMENT.PROJECTID.eq(projectId)))
-                        .orderBy(sortFieldsMysql)
+                                JooqComment.COMMENT.PROJECTID.eq(projectId),
+                                mysqlUtil.seekCondition(seekFields, cursorOpt)))
+                        .orderBy(mysqlUtil.seekSortFields(seekFields))
                         .offset(mysqlUtil.offset(cursorOpt))
                         .limit(mysqlUtil.limit(configSearch, Optional.empty()))
-                        .stream()
-                        .map(hit -> commentSchema.primaryKey(ImmutableMap.of(
+                        .fetch();
+                primaryKeys = records.stream()
+                        .map(record -> commentSchema.primaryKey(ImmutableMap.of(
                                 "projectId", projectId,
-                                "ideaId", hit.component1(),
-                                "commentId", hit.component2())))
+                                "ideaId", record.get(JooqComment.COMMENT.POSTID),
+                                "commentId", record.get(JooqComment.COMMENT.COMMENTID))))
                         .toArray(PrimaryKey[]::new);
-                nextCursorOpt = mysqlUtil.nextCursor(configSearch, cursorOpt, Optional.empty(), primaryKeys.length);
+                nextCursorOpt = mysqlUtil.nextSeekCursor(configSearch, Optional.empty(), seekFields, records);
             }
 
             if (primaryKeys.length == 0) {
@@ -785,6 +878,13 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
                 .forEach(consumer);
     }
 
+    @Override
+    public ExportPage<CommentModel> exportPageForProject(String projectId, Optional<String> cursorOpt) throws Exception {
+        Reindexer.Page<CommentModel> page = Reindexer.indexPageFetcher(commentByProjectIdSchema, Map.of(
+                "projectId", projectId), comment -> projectId.equals(comment.getProjectId())).fetch(cursorOpt);
+        return new ExportPage<>(page.getItems(), page.getCursorOpt());
+    }
+
     @Override
     public CommentAndIndexingFuture<Void> updateComment(String projectId, String ideaId, String commentId, Instant updated, CommentUpdate commentUpdate) {
         CommentModel comment = commentSchema.fromItem(commentSchema.table().updateItem(new UpdateItemSpec()
@@ -802,12 +902,13 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
+            indexRebuilder.recordChange(elasticUtil.getIndexName(COMMENT_INDEX, projectId), ideaId);
             elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId), commentId)
                             .doc(gson.toJson(ImmutableMap.of(
                                     "edited", comment.getEdited().getEpochSecond(),
                                     "content", comment.getContentAsText(sanitizer)
                             )), XContentType.JSON)
-                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
+                            .setRefreshPolicy(refreshPolicy()),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexComment(f, comment.getProjectId(), comment.getIdeaId(), comment.getCommentId()))
                             : ActionListeners.onFailureRetry(() -> indexComment(comment.getProjectId(), comment.getIdeaId(), comment.getCommentId())));
@@ -885,12 +986,13 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
+            indexRebuilder.recordChange(elasticUtil.getIndexName(COMMENT_INDEX, projectId), ideaId);
             elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId), commentId)
                             .script(ElasticScript.WILSON.toScript(ImmutableMap.of(
                                     "upvoteDiff", upvoteDiff,
                                     "downvoteDiff", downvoteDiff,
                                     "z", wilsonScoreInterval.getZ())))
-                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
+                            .setRefreshPolicy(refreshPolicy()),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexComment(f, comment.getProjectId(), comment.getIdeaId(), comment.getCommentId()))
                             : ActionListeners.onFailureRetry(() -> indexComment(comment.getProjectId(), comment.getIdeaId(), comment.getCommentId())));
@@ -949,9 +1051,10 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
             updates.put("authorName", null);
             updates.put("content", null);
             updates.put("edited", comment.getEdited().getEpochSecond());
+            indexRebuilder.recordChange(elasticUtil.getIndexName(COMMENT_INDEX, projectId), ideaId);
             elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId), commentId)
                             .doc(gson.toJson(updates), XContentType.JSON)
-                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
+                            .setRefreshPolicy(refreshPolicy()),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexComment(f, comment.getProjectId(), comment.getIdeaId(), comment.getCommentId()))
                             : ActionListeners.onFailureRetry(() -> indexComment(comment.getProjectId(), comment.getIdeaId(), comment.getCommentId())));
@@ -990,8 +1093,9 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
+            indexRebuilder.recordChange(elasticUtil.getIndexName(COMMENT_INDEX, projectId), ideaId);
             elastic.get().deleteAsync(new DeleteRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId), commentId)
-                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
+                            .setRefreshPolicy(refreshPolicy()),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexComment(f, projectId, ideaId, commentId))
                             : ActionListeners.onFailureRetry(() -> indexComment(projectId, ideaId, commentId)));
@@ -1041,6 +1145,7 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
+            indexRebuilder.recordChange(elasticUtil.getIndexName(COMMENT_INDEX, projectId), ideaId);
             elastic.get().deleteByQueryAsync(new DeleteByQueryRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId))
                             .setQuery(QueryBuilders.termQuery("ideaId", ideaId)),
                     RequestOptions.DEFAULT,
@@ -1092,7 +1197,7 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
-            elastic.get().indices().deleteAsync(new DeleteIndexRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId)),
+            elastic.get().indices().deleteAsync(new DeleteIndexRequest(indexRebuilder.resolveIndices(elasticUtil.getIndexName(COMMENT_INDEX, projectId))),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.fromFuture(indexingFuture)
                             : ActionListeners.logFailure());
@@ -1120,6 +1225,7 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
         if (!commentOpt.isPresent()) {
             SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
             if (searchEngine.isWriteElastic()) {
+                indexRebuilder.recordChange(elasticUtil.getIndexName(COMMENT_INDEX, projectId), ideaId);
                 elastic.get().deleteAsync(new DeleteRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId), commentId),
                         RequestOptions.DEFAULT,
                         searchEngine.isReadElastic()
@@ -1150,6 +1256,7 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
     private void indexComment(SettableFuture<Void> indexingFuture, CommentModel comment) {
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(comment.getProjectId());
         if (searchEngine.isWriteElastic()) {
+            indexRebuilder.recordChange(elasticUtil.getIndexName(COMMENT_INDEX, comment.getProjectId()), comment.getIdeaId());
             elastic.get().indexAsync(commentToEsIndexRequest(comment),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic()
@@ -1203,7 +1310,7 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
 
     private IndexRequest commentToEsIndexRequest(CommentModel comment) {
         return new IndexRequest(elasticUtil.getIndexName(COMMENT_INDEX, comment.getProjectId()))
-                .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
+                .setRefreshPolicy(refreshPolicy())
                 .id(comment.getCommentId())
                 .source(gson.toJson(ImmutableMap.builder()
                         .put("ideaId", comment.getIdeaId())
@@ -1222,6 +1329,13 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
                         .build()), XContentType.JSON);
     }
 
+    private WriteRequest.RefreshPolicy refreshPolicy() {
+        if (config.elasticForceRefresh()) {
+            return WriteRequest.RefreshPolicy.IMMEDIATE;
+        }
+        return config.elasticAsyncIndexing() ? WriteRequest.RefreshPolicy.NONE : WriteRequest.RefreshPolicy.WAIT_UNTIL;
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
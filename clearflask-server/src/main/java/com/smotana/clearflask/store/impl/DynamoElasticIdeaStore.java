@@ -19,6 +19,7 @@ import com.amazonaws.services.dynamodbv2.model.ReturnValue;
 import com.google.common.base.Strings;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -30,7 +31,9 @@ import com.google.common.collect.Sets;
 import com.google.common.collect.Sets.SetView;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
@@ -51,9 +54,12 @@ import com.smotana.clearflask.api.model.IdeaSearchAdmin;
 import com.smotana.clearflask.api.model.IdeaUpdate;
 import com.smotana.clearflask.api.model.IdeaUpdateAdmin;
 import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.store.CacheInvalidationBus;
+import com.smotana.clearflask.store.ExportPage;
 import com.smotana.clearflask.store.IdeaStore;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.SearchEngine;
+import com.smotana.clearflask.store.Reindexer;
 import com.smotana.clearflask.store.UserStore;
 import com.smotana.clearflask.store.UserStore.UserModel;
 import com.smotana.clearflask.store.VoteStore;
@@ -63,11 +69,13 @@ import com.smotana.clearflask.store.elastic.ActionListeners;
 import com.smotana.clearflask.store.elastic.ElasticScript;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
 import com.smotana.clearflask.store.elastic.ElasticUtil.ConfigSearch;
+import com.smotana.clearflask.store.elastic.IndexRebuilder;
 import com.smotana.clearflask.store.mysql.CompletionStageUtil;
 import com.smotana.clearflask.store.mysql.DefaultMysqlProvider;
 import com.smotana.clearflask.store.mysql.MoreSQLDataType;
 import com.smotana.clearflask.store.mysql.MysqlCustomFunction;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
+import com.smotana.clearflask.store.mysql.MysqlUtil.SeekField;
 import com.smotana.clearflask.store.mysql.MysqlUtil.Join;
 import com.smotana.clearflask.store.mysql.model.JooqRoutines;
 import com.smotana.clearflask.store.mysql.model.tables.JooqIdea;
@@ -89,11 +97,15 @@ import io.dataspray.singletable.ExpressionBuilder;
 import io.dataspray.singletable.IndexSchema;
 import io.dataspray.singletable.SingleTable;
 import io.dataspray.singletable.TableSchema;
+import lombok.NonNull;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequest;
@@ -124,6 +136,8 @@ import org.jooq.DSLContext;
 import org.jooq.JoinType;
 import org.jooq.Queries;
 import org.jooq.Query;
+import org.jooq.Record;
+import org.jooq.Result;
 import org.jooq.SortField;
 import org.jooq.impl.DSL;
 import org.jooq.impl.SQLDataType;
@@ -140,10 +154,21 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -154,6 +179,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
 import static com.smotana.clearflask.store.mysql.DefaultMysqlProvider.ID_MAX_LENGTH;
+import static com.smotana.clearflask.store.mysql.MysqlUtil.seekField;
 import static com.smotana.clearflask.util.ExplicitNull.orNull;
 import static org.jooq.SortOrder.ASC;
 import static org.jooq.SortOrder.DESC;
@@ -169,6 +195,20 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         @DefaultValue("false")
         boolean elasticForceRefresh();
 
+        /**
+         * Do not wait for the index refresh on writes, callers see their own changes through
+         * {@link com.smotana.clearflask.web.util.RecentWrites} until the index catches up.
+         */
+        @DefaultValue("false")
+        boolean elasticAsyncIndexing();
+
+        /**
+         * With {@link #elasticAsyncIndexing()}, how long after a write is acknowledged it becomes searchable,
+         * the index refresh interval.
+         */
+        @DefaultValue("PT2S")
+        Duration elasticAsyncIndexingVisibilityDelay();
+
         @DefaultValue("true")
         boolean enableSimilarToIdea();
 
@@ -187,12 +227,55 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         Duration searchCacheExpireAfterAccessPeriod();
 
         Observable<Duration> searchCacheExpireAfterAccessPeriodObservable();
+
+        /**
+         * Estimated heap used by cached search results.
+         */
+        @DefaultValue("67108864")
+        long searchCacheMaximumWeightInBytes();
+
+        Observable<Long> searchCacheMaximumWeightInBytesObservable();
+
+        @DefaultValue("true")
+        boolean enableSearchCacheForSearchText();
+
+        /**
+         * Changes bump the project's search generation locally right away; other nodes are told
+         * at most once per this period.
+         */
+        @DefaultValue("PT1S")
+        Duration searchCacheInvalidationBroadcastPeriod();
+
+        /**
+         * Merge vote, expression and fund counter updates of the same idea arriving within
+         * {@link #indexCoalescingWindow()} and flush them as a single index update per idea.
+         */
+        @DefaultValue("true")
+        boolean enableIndexCoalescing();
+
+        @DefaultValue("PT0.2S")
+        Duration indexCoalescingWindow();
+
+        /**
+         * Caches ideas for reads by id. Writes on this node update the cache immediately, writes on
+         * other nodes take effect after expiry.
+         */
+        @DefaultValue("true")
+        boolean enableIdeaCache();
+
+        @DefaultValue("PT10S")
+        Duration ideaCacheExpireAfterWrite();
+
+        @DefaultValue("10000")
+        long ideaCacheMaximumSize();
     }
 
     public static final String IDEA_INDEX = "idea";
     public static final String IDEA_TAGS_INDEX = "idea_tags";
     public static final String IDEA_FUNDERS_INDEX = "idea_funders";
     private static final long EXP_DECAY_PERIOD_MILLIS = Duration.ofDays(7).toMillis();
+    private static final int IDEA_CACHE_GENERATION_STRIPES = 1024;
+    private static final String IDEA_SEARCH_CACHE_NAME = "ideaSearch";
     private static final Pattern EXTRACT_GITHUB_ISSUE_FROM_IDEA_ID_MATCHER = Pattern.compile("github-(?<issueNumber>[0-9]+)-(?<issueId>[0-9]+)-(?<repositoryId>[0-9]+)");
 
     @Inject
@@ -226,11 +309,33 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
     private Provider<DSLContext> mysql;
     @Inject
     private MysqlUtil mysqlUtil;
+    @Inject
+    private Reindexer reindexer;
+    @Inject
+    private IndexRebuilder indexRebuilder;
+    @Inject
+    private CacheInvalidationBus cacheInvalidationBus;
 
     private TableSchema<IdeaModel> ideaSchema;
     private IndexSchema<IdeaModel> ideaByProjectIdSchema;
     private ExpDecayScore expDecayScoreWeek;
     private Cache<IdeaSearchKey, SearchResponse> ideaSearchCache;
+    /**
+     * Current search generation per project, part of every search cache key. Values are drawn from a
+     * single counter so a project whose entry was evicted never gets a generation it had before.
+     */
+    private Cache<String, Long> ideaSearchGenerations;
+    private final AtomicLong ideaSearchGenerationCounter = new AtomicLong();
+    private final Set<String> ideaSearchGenerationBroadcastPending = Sets.newConcurrentHashSet();
+    private Cache<IdeaCacheKey, IdeaModel> ideaCache;
+    /**
+     * Striped write generations guarding the idea cache against a slow read or an out-of-order write
+     * overwriting a newer entry.
+     */
+    private final AtomicLongArray ideaCacheGenerations = new AtomicLongArray(IDEA_CACHE_GENERATION_STRIPES);
+    private final ConcurrentMap<IdeaIndexKey, PendingIndexUpdate> pendingIndexUpdates = Maps.newConcurrentMap();
+    private ScheduledExecutorService indexCoalescingExecutor;
+    private final AtomicBoolean indexCoalescingFlushScheduled = new AtomicBoolean(false);
 
     @Inject
     private void setup() {
@@ -242,17 +347,101 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         Stream.of(config.searchCacheExpireAfterAccessPeriodObservable(),
                         config.searchCacheExpireAfterWritePeriodObservable())
                 .forEach(o -> o.subscribe(v -> setupIdeaSearchCache()));
+        config.searchCacheMaximumWeightInBytesObservable().subscribe(v -> setupIdeaSearchCache());
         setupIdeaSearchCache();
+        ideaSearchGenerations = CacheBuilder.newBuilder()
+                .expireAfterAccess(Duration.ofDays(1))
+                .build();
+        cacheInvalidationBus.subscribe(IDEA_SEARCH_CACHE_NAME, this::bumpIdeaSearchGenerationLocal);
+        ideaCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.ideaCacheExpireAfterWrite())
+                .maximumSize(config.ideaCacheMaximumSize())
+                .recordStats()
+                .build();
     }
 
     private void setupIdeaSearchCache() {
         ideaSearchCache = CacheBuilder.newBuilder()
                 .expireAfterWrite(config.searchCacheExpireAfterWritePeriod())
                 .expireAfterAccess(config.searchCacheExpireAfterAccessPeriod())
-                .weakValues()
+                .maximumWeight(config.searchCacheMaximumWeightInBytes())
+                .weigher(DynamoElasticIdeaStore::weighIdeaSearch)
+                .recordStats()
                 .build();
     }
 
+    /**
+     * Rough heap estimate of a cached search result.
+     */
+    private static int weighIdeaSearch(IdeaSearchKey key, SearchResponse searchResponse) {
+        return 256
+                + Optional.ofNullable(key.getIdeaSearchAdmin().getSearchText()).map(String::length).orElse(0)
+                + key.getCursorOpt().map(String::length).orElse(0)
+                + searchResponse.getCursorOpt().map(String::length).orElse(0)
+                + searchResponse.getIdeaIds().stream()
+                .mapToInt(ideaId -> 48 + ideaId.length())
+                .sum();
+    }
+
+    private long getIdeaSearchGeneration(String projectId) {
+        return ideaSearchGenerations.asMap().computeIfAbsent(projectId, p -> ideaSearchGenerationCounter.incrementAndGet());
+    }
+
+    /**
+     * Makes all cached searches of the project unreachable here and, shortly after, on other nodes.
+     */
+    private void bumpIdeaSearchGeneration(String projectId) {
+        bumpIdeaSearchGenerationLocal(projectId);
+        ideaSearchGenerationBroadcastPending.add(projectId);
+    }
+
+    private void bumpIdeaSearchGenerationLocal(String projectId) {
+        ideaSearchGenerations.put(projectId, ideaSearchGenerationCounter.incrementAndGet());
+    }
+
+    /**
+     * For project wide changes, tells other nodes immediately.
+     */
+    private void invalidateIdeaSearchCache(String projectId) {
+        bumpIdeaSearchGenerationLocal(projectId);
+        cacheInvalidationBus.publish(IDEA_SEARCH_CACHE_NAME, projectId);
+    }
+
+    private void broadcastIdeaSearchGenerations() {
+        for (String projectId : ImmutableList.copyOf(ideaSearchGenerationBroadcastPending)) {
+            ideaSearchGenerationBroadcastPending.remove(projectId);
+            cacheInvalidationBus.publish(IDEA_SEARCH_CACHE_NAME, projectId);
+        }
+    }
+
+    /**
+     * Indexing future for a change to the project's ideas. The search generation is bumped both now and
+     * once the change is searchable, so a search racing the index refresh is not cached for long.
+     * Without waiting for the refresh, it is bumped again once the refresh is expected to be done.
+     */
+    private SettableFuture<Void> createIndexingFuture(String projectId) {
+        bumpIdeaSearchGeneration(projectId);
+        SettableFuture<Void> indexingFuture = SettableFuture.create();
+        indexingFuture.addListener(() -> bumpIdeaSearchGeneration(projectId), MoreExecutors.directExecutor());
+        if (config.elasticAsyncIndexing()) {
+            // Acknowledged writes are not searchable until the next index refresh
+            indexingFuture.addListener(() -> {
+                try {
+                    indexCoalescingExecutor.schedule(() -> bumpIdeaSearchGeneration(projectId),
+                            config.elasticAsyncIndexingVisibilityDelay().toMillis(), TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException ex) {
+                    bumpIdeaSearchGeneration(projectId);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+        return indexingFuture;
+    }
+
+    @Extern
+    public CacheStats getIdeaSearchCacheStats() {
+        return ideaSearchCache.stats();
+    }
+
     @Override
     protected ImmutableSet<Class> serviceDependencies() {
         return ImmutableSet.of(DefaultMysqlProvider.class, DynamoElasticUserStore.class);
@@ -263,6 +452,23 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         if (configApp.createIndexesOnStartup() && configApp.defaultSearchEngine().isWriteMysql()) {
             createIndexMysql();
         }
+
+        indexCoalescingExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("DynamoElasticIdeaStore-index-coalescing-%d").build());
+        if (config.enableIndexCoalescing()) {
+            scheduleIndexCoalescingFlush();
+        }
+        long searchCacheInvalidationBroadcastPeriodMillis = config.searchCacheInvalidationBroadcastPeriod().toMillis();
+        indexCoalescingExecutor.scheduleWithFixedDelay(this::broadcastIdeaSearchGenerations,
+                searchCacheInvalidationBroadcastPeriodMillis, searchCacheInvalidationBroadcastPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        indexCoalescingExecutor.shutdown();
+        indexCoalescingExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        flushPendingIndexUpdates();
+        broadcastIdeaSearchGenerations();
     }
 
     @Extern
@@ -352,8 +558,12 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
 
     @Extern
     public ListenableFuture<Void> createIndexElasticSearch(String projectId) {
+        return createIndexElasticSearchNamed(elasticUtil.getIndexName(IDEA_INDEX, projectId));
+    }
+
+    private ListenableFuture<Void> createIndexElasticSearchNamed(String indexName) {
         SettableFuture<Void> indexingFuture = SettableFuture.create();
-        elastic.get().indices().createAsync(new CreateIndexRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId)).mapping(gson.toJson(ImmutableMap.of(
+        elastic.get().indices().createAsync(new CreateIndexRequest(indexName).mapping(gson.toJson(ImmutableMap.of(
                         "dynamic", "false",
                         "properties", ImmutableMap.builder()
                                 .put("authorUserId", ImmutableMap.of(
@@ -421,16 +631,17 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
 
     @Extern
     @Override
-    public void repopulateIndex(String projectId, boolean deleteExistingIndex, boolean repopulateElasticSearch, boolean repopulateMysql) throws Exception {
-        log.info("Repopulating index for project {} deleteExistingIndex {} repopulateElasticSearch {} repopulateMysql {}",
-                projectId, deleteExistingIndex, repopulateElasticSearch, repopulateMysql);
+    public void repopulateIndex(String projectId, boolean deleteExistingIndex, boolean repopulateElasticSearch, boolean repopulateMysql, boolean resume) throws Exception {
+        checkArgument(!resume || !deleteExistingIndex, "Cannot resume when deleting existing index");
+        log.info("Repopulating index for project {} deleteExistingIndex {} repopulateElasticSearch {} repopulateMysql {} resume {}",
+                projectId, deleteExistingIndex, repopulateElasticSearch, repopulateMysql, resume);
         if (repopulateElasticSearch) {
             boolean indexAlreadyExists = elastic.get().indices().exists(
                     new GetIndexRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId)),
                     RequestOptions.DEFAULT);
             if (indexAlreadyExists && deleteExistingIndex) {
                 elastic.get().indices().delete(
-                        new DeleteIndexRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId)),
+                        new DeleteIndexRequest(indexRebuilder.resolveIndices(elasticUtil.getIndexName(IDEA_INDEX, projectId))),
                         RequestOptions.DEFAULT);
             }
             if (!indexAlreadyExists || deleteExistingIndex) {
@@ -443,30 +654,35 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                     .execute();
         }
 
-        StreamSupport.stream(ideaByProjectIdSchema.index().query(new QuerySpec()
-                                .withHashKey(ideaByProjectIdSchema.partitionKey(Map.of(
-                                        "projectId", projectId)))
-                                .withRangeKeyCondition(new RangeKeyCondition(ideaByProjectIdSchema.rangeKeyName())
-                                        .beginsWith(ideaByProjectIdSchema.rangeValuePartial(Map.of()))))
-                        .pages()
-                        .spliterator(), false)
-                .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
-                .map(ideaByProjectIdSchema::fromItem)
-                .filter(idea -> projectId.equals(idea.getProjectId()))
-                .forEach(idea -> {
-                    if (repopulateElasticSearch) {
-                        try {
-                            elastic.get().index(ideaToEsIndexRequest(idea, false), RequestOptions.DEFAULT);
-                        } catch (IOException ex) {
-                            if (LogUtil.rateLimitAllowLog("dynamoelsaticideastore-reindex-failure")) {
-                                log.warn("Failed to re-index idea {}", idea.getIdeaId(), ex);
-                            }
-                        }
-                    }
-                    if (repopulateMysql) {
-                        ideaToMysqlRecords(idea).fetchMany();
-                    }
-                });
+        Reindexer.Job.JobBuilder<IdeaModel> jobBuilder = Reindexer.Job.<IdeaModel>builder()
+                .jobId("idea-" + projectId)
+                .pageFetcher(Reindexer.indexPageFetcher(ideaByProjectIdSchema, Map.of(
+                        "projectId", projectId), idea -> projectId.equals(idea.getProjectId())))
+                .resume(resume);
+        if (repopulateElasticSearch) {
+            jobBuilder.toEsIndexRequest(idea -> ideaToEsIndexRequest(idea, false));
+        }
+        if (repopulateMysql) {
+            jobBuilder.toMysqlQueries(this::ideaToMysqlRecords);
+        }
+        reindexer.reindex(jobBuilder.build());
+        invalidateIdeaSearchCache(projectId);
+    }
+
+    @Override
+    public void rebuildIndexElasticSearch(String projectId) throws Exception {
+        indexRebuilder.rebuild(elasticUtil.getIndexName(IDEA_INDEX, projectId),
+                indexName -> createIndexElasticSearchNamed(indexName).get(),
+                indexName -> reindexer.reindex(Reindexer.Job.<IdeaModel>builder()
+                        .jobId("idea-rebuild-" + projectId)
+                        .pageFetcher(Reindexer.indexPageFetcher(ideaByProjectIdSchema, Map.of(
+                                "projectId", projectId), idea -> projectId.equals(idea.getProjectId())))
+                        .toEsIndexRequest(idea -> ideaToEsIndexRequest(idea, false).index(indexName))
+                        .build()),
+                (indexName, ideaIds) -> indexRebuilder.replayDocuments(indexName, ideaIds,
+                        // Cache may hold a stale copy of a change made on another node
+                        Maps.transformValues(getIdeas(projectId, ideaIds, false), idea -> ideaToEsIndexRequest(idea, false))));
+        invalidateIdeaSearchCache(projectId);
     }
 
     @Override
@@ -498,14 +714,50 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         } catch (ConditionalCheckFailedException ex) {
             throw new ApiException(Response.Status.CONFLICT, "Similar title already exists, please choose another.", ex);
         }
+        ideaCacheInvalidate(idea.getProjectId(), idea.getIdeaId());
 
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
+        SettableFuture<Void> indexingFuture = createIndexingFuture(idea.getProjectId());
         indexIdea(indexingFuture, idea);
 
         return indexingFuture;
     }
 
     private Queries ideaToMysqlRecords(IdeaModel idea) {
+        JooqIdeaRecord ideaRecord = ideaToMysqlIdeaRecord(idea);
+
+        return mysql.get().queries(Stream.concat(Stream.of(mysql.get().insertInto(JooqIdea.IDEA, JooqIdea.IDEA.fields())
+                                .values(ideaRecord)
+                                .onDuplicateKeyUpdate()
+                                .set(ideaRecord)),
+                        ideaToMysqlTagRecords(idea).map(tagRecord -> mysql.get().insertInto(JooqIdeaTags.IDEA_TAGS, JooqIdeaTags.IDEA_TAGS.fields())
+                                .values(tagRecord)
+                                .onDuplicateKeyUpdate()
+                                .set(tagRecord)))
+                .collect(Collectors.toList())
+        );
+    }
+
+    /**
+     * Multi-row inserts of newly created ideas, existing rows are left as is since a multi-row insert cannot
+     * update each duplicate with its own values.
+     */
+    private Queries newIdeasToMysqlRecords(List<IdeaModel> ideas) {
+        ImmutableList<JooqIdeaTagsRecord> tagRecords = ideas.stream()
+                .flatMap(this::ideaToMysqlTagRecords)
+                .collect(ImmutableList.toImmutableList());
+        return mysql.get().queries(Stream.concat(Stream.of(mysql.get().insertInto(JooqIdea.IDEA, JooqIdea.IDEA.fields())
+                                .valuesOfRecords(ideas.stream()
+                                        .map(this::ideaToMysqlIdeaRecord)
+                                        .collect(ImmutableList.toImmutableList()))
+                                .onDuplicateKeyIgnore()),
+                        tagRecords.isEmpty() ? Stream.empty() : Stream.of(mysql.get().insertInto(JooqIdeaTags.IDEA_TAGS, JooqIdeaTags.IDEA_TAGS.fields())
+                                .valuesOfRecords(tagRecords)
+                                .onDuplicateKeyIgnore()))
+                .collect(Collectors.toList())
+        );
+    }
+
+    private JooqIdeaRecord ideaToMysqlIdeaRecord(IdeaModel idea) {
         JooqIdeaRecord ideaRecord = JooqIdea.IDEA.newRecord();
         ideaRecord.setProjectid(idea.getProjectId());
         ideaRecord.setPostid(idea.getIdeaId());
@@ -530,22 +782,14 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         ideaRecord.setTrendscore(idea.getTrendScore());
         ideaRecord.setMergedtopostid(idea.getMergedToPostId());
         ideaRecord.setOrder(idea.getOrder());
+        return ideaRecord;
+    }
 
-        Stream<JooqIdeaTagsRecord> tagRecords = idea.getTagIds().stream().map(tagId -> JooqIdeaTags.IDEA_TAGS.newRecord().values(
+    private Stream<JooqIdeaTagsRecord> ideaToMysqlTagRecords(IdeaModel idea) {
+        return idea.getTagIds().stream().map(tagId -> JooqIdeaTags.IDEA_TAGS.newRecord().values(
                 idea.getProjectId(),
                 idea.getIdeaId(),
                 tagId));
-
-        return mysql.get().queries(Stream.concat(Stream.of(mysql.get().insertInto(JooqIdea.IDEA, JooqIdea.IDEA.fields())
-                                .values(ideaRecord)
-                                .onDuplicateKeyUpdate()
-                                .set(ideaRecord)),
-                        tagRecords.map(tagRecord -> mysql.get().insertInto(JooqIdeaTags.IDEA_TAGS, JooqIdeaTags.IDEA_TAGS.fields())
-                                .values(tagRecord)
-                                .onDuplicateKeyUpdate()
-                                .set(tagRecord)))
-                .collect(Collectors.toList())
-        );
     }
 
     private IndexRequest ideaToEsIndexRequest(IdeaModel idea, boolean setRefreshPolicy) {
@@ -583,7 +827,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                         .put("order", idea.getOrderOrDefault())
                         .build()), XContentType.JSON);
         if (setRefreshPolicy) {
-            req.setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL);
+            req.setRefreshPolicy(refreshPolicy());
         }
         return req;
     }
@@ -597,12 +841,14 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                     .withItemsToPut(ideasBatch.stream()
                             .map(ideaSchema::toItem)
                             .collect(ImmutableList.toImmutableList()))));
+            ideasBatch.forEach(idea -> ideaCacheInvalidate(projectId, idea.getIdeaId()));
 
-            SettableFuture<Void> indexingFuture = SettableFuture.create();
+            SettableFuture<Void> indexingFuture = createIndexingFuture(projectId);
             SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
             if (searchEngine.isWriteElastic()) {
+                ideasBatch.forEach(idea -> indexRebuilder.recordChange(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId()));
                 elastic.get().bulkAsync(new BulkRequest()
-                                .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
+                                .setRefreshPolicy(refreshPolicy())
                                 .add(ideasBatch.stream()
                                         .map(idea -> ideaToEsIndexRequest(idea, false))
                                         .collect(ImmutableList.toImmutableList())),
@@ -611,14 +857,11 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                                 : ActionListeners.logFailure());
             }
             if (searchEngine.isWriteMysql()) {
-                List<CompletionStage<?>> completionStages = ideasBatch.stream()
-                        .map(this::ideaToMysqlRecords)
-                        .map(mysqlUtil::sequentialBatch)
-                        .collect(Collectors.toList());
+                CompletionStage<Integer> completionStage = mysqlUtil.sequentialBatch(newIdeasToMysqlRecords(ideasBatch));
                 if (searchEngine.isReadMysql()) {
-                    CompletionStageUtil.toSettableFuture(indexingFuture, completionStages);
+                    CompletionStageUtil.toSettableFuture(indexingFuture, completionStage);
                 } else {
-                    CompletionStageUtil.logFailure(completionStages);
+                    CompletionStageUtil.logFailure(completionStage);
                 }
             }
             indexingFutures.add(indexingFuture);
@@ -629,20 +872,64 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
     @Extern
     @Override
     public Optional<IdeaModel> getIdea(String projectId, String ideaId) {
-        return Optional.ofNullable(ideaSchema.fromItem(ideaSchema.table().getItem(new GetItemSpec()
+        IdeaCacheKey cacheKey = new IdeaCacheKey(projectId, ideaId);
+        if (config.enableIdeaCache()) {
+            IdeaModel ideaCached = ideaCache.getIfPresent(cacheKey);
+            if (ideaCached != null) {
+                return Optional.of(ideaCached);
+            }
+        }
+        long cacheGeneration = ideaCacheGenerations.get(getIdeaCacheStripe(cacheKey));
+        Optional<IdeaModel> ideaOpt = Optional.ofNullable(ideaSchema.fromItem(ideaSchema.table().getItem(new GetItemSpec()
                         .withPrimaryKey(ideaSchema.primaryKey(Map.of(
                                 "projectId", projectId,
                                 "ideaId", ideaId))))))
                 .map(this::upgradeExpressionsProperty);
+        ideaOpt.ifPresent(idea -> ideaCachePopulate(cacheGeneration, idea));
+        return ideaOpt;
+    }
+
+    /**
+     * Reads the idea straight from DynamoDB bypassing the idea cache; used when repairing the search index
+     * so a stale cached copy is never indexed.
+     */
+    private Optional<IdeaModel> getIdeaConsistent(String projectId, String ideaId) {
+        return Optional.ofNullable(ideaSchema.fromItem(ideaSchema.table().getItem(new GetItemSpec()
+                        .withPrimaryKey(ideaSchema.primaryKey(Map.of(
+                                "projectId", projectId,
+                                "ideaId", ideaId)))
+                        .withConsistentRead(true))))
+                .map(this::upgradeExpressionsProperty);
     }
 
     @Override
     public ImmutableMap<String, IdeaModel> getIdeas(String projectId, ImmutableCollection<String> ideaIds) {
+        return getIdeas(projectId, ideaIds, true);
+    }
+
+    private ImmutableMap<String, IdeaModel> getIdeas(String projectId, ImmutableCollection<String> ideaIds, boolean useCache) {
         if (ideaIds.isEmpty()) {
             return ImmutableMap.of();
         }
-        return singleTable.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(ideaSchema.tableName()).withPrimaryKeys(ideaIds.stream()
-                        .distinct()
+        ImmutableMap<String, IdeaModel> ideasCached = !config.enableIdeaCache() || !useCache ? ImmutableMap.of()
+                : ideaCache.getAllPresent(ideaIds.stream()
+                        .map(ideaId -> new IdeaCacheKey(projectId, ideaId))
+                        .collect(ImmutableSet.toImmutableSet()))
+                .values().stream()
+                .collect(ImmutableMap.toImmutableMap(
+                        IdeaModel::getIdeaId,
+                        i -> i));
+        // Only fetch the misses, remembering the generation each one was read at
+        ImmutableMap<String, Long> cacheGenerationByMissingIdeaId = ideaIds.stream()
+                .distinct()
+                .filter(Predicate.not(ideasCached::containsKey))
+                .collect(ImmutableMap.toImmutableMap(
+                        ideaId -> ideaId,
+                        ideaId -> ideaCacheGenerations.get(getIdeaCacheStripe(new IdeaCacheKey(projectId, ideaId)))));
+        if (cacheGenerationByMissingIdeaId.isEmpty()) {
+            return ideasCached;
+        }
+        ImmutableMap<String, IdeaModel> ideasFetched = singleTable.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(ideaSchema.tableName()).withPrimaryKeys(cacheGenerationByMissingIdeaId.keySet().stream()
                         .map(ideaId -> ideaSchema.primaryKey(Map.of(
                                 "projectId", projectId,
                                 "ideaId", ideaId)))
@@ -652,6 +939,76 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                 .collect(ImmutableMap.toImmutableMap(
                         IdeaModel::getIdeaId,
                         i -> i));
+        ideasFetched.values().forEach(idea -> ideaCachePopulate(cacheGenerationByMissingIdeaId.get(idea.getIdeaId()), idea));
+        return ImmutableMap.<String, IdeaModel>builder()
+                .putAll(ideasCached)
+                .putAll(ideasFetched)
+                .build();
+    }
+
+    @Extern
+    public CacheStats getIdeaCacheStats() {
+        return ideaCache.stats();
+    }
+
+    @Extern
+    public void invalidateIdeaCache() {
+        ideaCache.invalidateAll();
+    }
+
+    @Value
+    private static class IdeaCacheKey {
+        @NonNull
+        String projectId;
+        @NonNull
+        String ideaId;
+    }
+
+    private int getIdeaCacheStripe(IdeaCacheKey cacheKey) {
+        return Math.floorMod(cacheKey.hashCode(), IDEA_CACHE_GENERATION_STRIPES);
+    }
+
+    /**
+     * Call before writing an idea; the returned generation is handed to {@link #ideaCacheWriteThrough}.
+     */
+    private long ideaCacheWriteBegin(String projectId, String ideaId) {
+        return ideaCacheGenerations.incrementAndGet(getIdeaCacheStripe(new IdeaCacheKey(projectId, ideaId)));
+    }
+
+    /**
+     * Caches the result of a write unless another write to the same stripe started since, in which case
+     * the entry is dropped as we cannot tell which result is newer.
+     */
+    private IdeaModel ideaCacheWriteThrough(long cacheGeneration, IdeaModel idea) {
+        if (idea == null) {
+            return null;
+        }
+        IdeaCacheKey cacheKey = new IdeaCacheKey(idea.getProjectId(), idea.getIdeaId());
+        if (config.enableIdeaCache() && ideaCacheGenerations.get(getIdeaCacheStripe(cacheKey)) == cacheGeneration) {
+            ideaCache.put(cacheKey, idea);
+        } else {
+            ideaCache.invalidate(cacheKey);
+        }
+        return idea;
+    }
+
+    /**
+     * Caches the result of a read unless a write started since the read began.
+     */
+    private void ideaCachePopulate(long cacheGeneration, IdeaModel idea) {
+        if (!config.enableIdeaCache()) {
+            return;
+        }
+        IdeaCacheKey cacheKey = new IdeaCacheKey(idea.getProjectId(), idea.getIdeaId());
+        if (ideaCacheGenerations.get(getIdeaCacheStripe(cacheKey)) == cacheGeneration) {
+            ideaCache.asMap().putIfAbsent(cacheKey, idea);
+        }
+    }
+
+    private void ideaCacheInvalidate(String projectId, String ideaId) {
+        IdeaCacheKey cacheKey = new IdeaCacheKey(projectId, ideaId);
+        ideaCacheGenerations.incrementAndGet(getIdeaCacheStripe(cacheKey));
+        ideaCache.invalidate(cacheKey);
     }
 
     @Override
@@ -665,14 +1022,15 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         ConnectResponse connectResponse = connectIdeas(projectId, ideaId, parentIdeaId, true, undo, categoryExpressionToWeightMapper);
 
         // TODO Fix this: I believe this needs to update more than just mergedToPostId field: votes, expressions, funding, trend score...
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
+        SettableFuture<Void> indexingFuture = createIndexingFuture(projectId);
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
             ImmutableMap.Builder<Object, Object> updates = ImmutableMap.builder();
             updates.put("mergedToPostId", orNull(connectResponse.getIdea().getMergedToPostId()));
+            indexRebuilder.recordChange(elasticUtil.getIndexName(IDEA_INDEX, projectId), ideaId);
             elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), ideaId)
                             .doc(gson.toJson(updates.build()), XContentType.JSON)
-                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
+                            .setRefreshPolicy(refreshPolicy()),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, connectResponse.getIdea()))
                             : ActionListeners.onFailureRetry(() -> indexIdea(connectResponse.getIdea())));
@@ -904,7 +1262,8 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
 
         Expression ideaExpression = ideaExpressionBuilder.build();
         log.trace("connect ideaExpression {}", ideaExpression);
-        idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
+        long cacheGeneration = ideaCacheWriteBegin(projectId, ideaId);
+        idea = ideaCacheWriteThrough(cacheGeneration, ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
                         .withPrimaryKey(ideaSchema.primaryKey(Map.of(
                                 "projectId", projectId,
                                 "ideaId", ideaId)))
@@ -913,10 +1272,11 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                         .withNameMap(ideaExpression.nameMap().orElse(null))
                         .withValueMap(ideaExpression.valMap().orElse(null))
                         .withReturnValues(ReturnValue.ALL_NEW))
-                .getItem());
+                .getItem()));
         Expression parentIdeaExpression = parentIdeaExpressionBuilder.build();
         log.trace("connect parentIdeaExpression {}", parentIdeaExpression);
-        parentIdea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
+        long parentCacheGeneration = ideaCacheWriteBegin(projectId, parentIdeaId);
+        parentIdea = ideaCacheWriteThrough(parentCacheGeneration, ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
                         .withPrimaryKey(ideaSchema.primaryKey(Map.of(
                                 "projectId", projectId,
                                 "ideaId", parentIdeaId)))
@@ -925,7 +1285,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                         .withNameMap(parentIdeaExpression.nameMap().orElse(null))
                         .withValueMap(parentIdeaExpression.valMap().orElse(null))
                         .withReturnValues(ReturnValue.ALL_NEW))
-                .getItem());
+                .getItem()));
 
         return new ConnectResponse(idea, parentIdea);
     }
@@ -1210,7 +1570,10 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
     @Value
     static class IdeaSearchKey {
         String projectId;
+        long generation;
         IdeaSearchAdmin ideaSearchAdmin;
+        boolean useAccurateCursor;
+        Optional<String> cursorOpt;
     }
 
     private SearchResponse searchIdeas(
@@ -1230,8 +1593,8 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
 
         boolean useCache = config.enableSearchCache()
                 && ideaSearchAdmin.getFundedByMeAndActive() != Boolean.TRUE
-                && ideaSearchAdmin.getSearchText() == null;
-        IdeaSearchKey key = new IdeaSearchKey(projectId, ideaSearchAdmin);
+                && (ideaSearchAdmin.getSearchText() == null || config.enableSearchCacheForSearchText());
+        IdeaSearchKey key = new IdeaSearchKey(projectId, getIdeaSearchGeneration(projectId), ideaSearchAdmin, useAccurateCursor, cursorOpt);
         if (useCache) {
             SearchResponse cachedResponse = ideaSearchCache.getIfPresent(key);
             if (cachedResponse != null) {
@@ -1313,49 +1676,61 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         } else {
             SearchIdeasConditions searchConditions = searchIdeasCondition(projectId, ideaSearchAdmin, requestorUserIdOpt);
 
-            final ImmutableList<SortField<?>> sortFields;
+            // Sort fields end with postId as a tie-breaker for keyset pagination
+            final ImmutableList<SeekField<?>> seekFields;
+            boolean sortRandom = false;
             if (ideaSearchAdmin.getSortBy() != null
                     && Strings.isNullOrEmpty(ideaSearchAdmin.getSimilarToIdeaId())
                     && Strings.isNullOrEmpty(ideaSearchAdmin.getSearchText())) {
                 switch (ideaSearchAdmin.getSortBy()) {
                     case TOP:
-                        sortFields = ImmutableList.of(JooqIdea.IDEA.FUNDED.sort(DESC), JooqIdea.IDEA.VOTEVALUE.sort(DESC), JooqIdea.IDEA.EXPRESSIONSVALUE.sort(DESC));
+                        seekFields = ImmutableList.of(seekField(JooqIdea.IDEA.FUNDED, DESC), seekField(JooqIdea.IDEA.VOTEVALUE, DESC), seekField(JooqIdea.IDEA.EXPRESSIONSVALUE, DESC), seekField(JooqIdea.IDEA.POSTID, ASC));
                         break;
                     case NEW:
-                        sortFields = ImmutableList.of(JooqIdea.IDEA.CREATED.sort(DESC));
+                        seekFields = ImmutableList.of(seekField(JooqIdea.IDEA.CREATED, DESC), seekField(JooqIdea.IDEA.POSTID, ASC));
                         break;
                     case TRENDING:
-                        sortFields = ImmutableList.of(JooqIdea.IDEA.TRENDSCORE.sort(DESC), JooqIdea.IDEA.FUNDED.sort(DESC), JooqIdea.IDEA.VOTEVALUE.sort(DESC), JooqIdea.IDEA.EXPRESSIONSVALUE.sort(DESC));
+                        seekFields = ImmutableList.of(seekField(JooqIdea.IDEA.TRENDSCORE, DESC), seekField(JooqIdea.IDEA.FUNDED, DESC), seekField(JooqIdea.IDEA.VOTEVALUE, DESC), seekField(JooqIdea.IDEA.EXPRESSIONSVALUE, DESC), seekField(JooqIdea.IDEA.POSTID, ASC));
                         break;
                     case RANDOM:
-                        sortFields = ImmutableList.of(DSL.rand().sort(DESC));
+                        // Random order cannot be seeked, keep using offset pagination
+                        seekFields = ImmutableList.of();
+                        sortRandom = true;
                         break;
                     case DRAGANDDROP:
-                        sortFields = ImmutableList.of(JooqIdea.IDEA.ORDER.sort(ASC), JooqIdea.IDEA.CREATED.sort(ASC));
+                        seekFields = ImmutableList.of(seekField(JooqIdea.IDEA.ORDER, ASC), seekField(JooqIdea.IDEA.CREATED, ASC), seekField(JooqIdea.IDEA.POSTID, ASC));
                         break;
                     default:
                         throw new ApiException(Response.Status.BAD_REQUEST,
                                 "Sorting by '" + ideaSearchAdmin.getSortBy() + "' not supported");
                 }
             } else if (Strings.isNullOrEmpty(ideaSearchAdmin.getSearchText())) {
-                sortFields = ImmutableList.of(JooqIdea.IDEA.FUNDED.sort(DESC), JooqIdea.IDEA.VOTEVALUE.sort(DESC), JooqIdea.IDEA.EXPRESSIONSVALUE.sort(DESC));
+                seekFields = ImmutableList.of(seekField(JooqIdea.IDEA.FUNDED, DESC), seekField(JooqIdea.IDEA.VOTEVALUE, DESC), seekField(JooqIdea.IDEA.EXPRESSIONSVALUE, DESC), seekField(JooqIdea.IDEA.POSTID, ASC));
             } else {
-                sortFields = ImmutableList.of();
+                seekFields = ImmutableList.of(seekField(JooqIdea.IDEA.POSTID, ASC));
             }
 
-            List<String> postIds = mysql.get().selectDistinct(JooqIdea.IDEA.POSTID)
+            Result<Record> records = mysql.get().selectDistinct(mysqlUtil.seekSelectFields(seekFields, JooqIdea.IDEA.POSTID))
                     .from(mysqlUtil.join(JooqIdea.IDEA, searchConditions.getJoins()))
                     .where(mysqlUtil.and(
                             searchConditions.getConditions(),
-                            searchConditions.getConditionsRange()))
-                    .orderBy(sortFields)
+                            searchConditions.getConditionsRange(),
+                            mysqlUtil.seekCondition(seekFields, cursorOpt)))
+                    .orderBy(sortRandom
+                            ? ImmutableList.<SortField<?>>of(DSL.rand().sort(DESC))
+                            : mysqlUtil.seekSortFields(seekFields))
                     .offset(mysqlUtil.offset(cursorOpt))
                     .limit(mysqlUtil.limit(configSearch, Optional.ofNullable(ideaSearchAdmin.getLimit()).map(Long::intValue)))
-                    .fetch(JooqIdea.IDEA.POSTID);
+                    .fetch();
+            ImmutableList<String> postIds = records.stream()
+                    .map(record -> record.get(JooqIdea.IDEA.POSTID))
+                    .collect(ImmutableList.toImmutableList());
 
             searchResponse = new SearchResponse(
-                    ImmutableList.copyOf(postIds),
-                    mysqlUtil.nextCursor(configSearch, cursorOpt, limitOpt, postIds.size()),
+                    postIds,
+                    sortRandom
+                            ? mysqlUtil.nextCursor(configSearch, cursorOpt, limitOpt, postIds.size())
+                            : mysqlUtil.nextSeekCursor(configSearch, limitOpt, seekFields, records),
                     postIds.size(),
                     true);
         }
@@ -1450,6 +1825,13 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                 .forEach(consumer);
     }
 
+    @Override
+    public ExportPage<IdeaModel> exportPageForProject(String projectId, Optional<String> cursorOpt) throws Exception {
+        Reindexer.Page<IdeaModel> page = Reindexer.indexPageFetcher(ideaByProjectIdSchema, Map.of(
+                "projectId", projectId), idea -> projectId.equals(idea.getProjectId())).fetch(cursorOpt);
+        return new ExportPage<>(page.getItems(), page.getCursorOpt());
+    }
+
     @Override
     public IdeaAndIndexingFuture updateIdea(String projectId, String ideaId, IdeaUpdate ideaUpdate) {
         return updateIdea(projectId, ideaId, new IdeaUpdateAdmin(
@@ -1614,14 +1996,16 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             }
         }
 
-        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(updateItemSpec).getItem());
+        long cacheGeneration = ideaCacheWriteBegin(projectId, ideaId);
+        IdeaModel idea = ideaCacheWriteThrough(cacheGeneration, ideaSchema.fromItem(ideaSchema.table().updateItem(updateItemSpec).getItem()));
 
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
+        SettableFuture<Void> indexingFuture = createIndexingFuture(projectId);
         if (searchEngine.isWriteElastic()) {
             if (indexUpdatesElastic.size() > 0) {
+                indexRebuilder.recordChange(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId());
                 elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
                                 .doc(gson.toJson(indexUpdatesElastic), XContentType.JSON)
-                                .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
+                                .setRefreshPolicy(refreshPolicy()),
                         RequestOptions.DEFAULT,
                         searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId))
                                 : ActionListeners.onFailureRetry(() -> indexIdea(projectId, ideaId)));
@@ -1687,7 +2071,8 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         String updateExpression = "SET " + String.join(", ", setUpdates);
         log.trace("VoteIdea expression: {}", updateExpression);
 
-        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
+        long cacheGeneration = ideaCacheWriteBegin(projectId, ideaId);
+        IdeaModel idea = ideaCacheWriteThrough(cacheGeneration, ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
                         .withPrimaryKey(ideaSchema.primaryKey(Map.of(
                                 "projectId", projectId,
                                 "ideaId", ideaId)))
@@ -1695,7 +2080,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                         .withNameMap(nameMap)
                         .withValueMap(valMap)
                         .withUpdateExpression(updateExpression))
-                .getItem());
+                .getItem()));
 
         if (!userId.equals(idea.getAuthorUserId())) {
             userStore.userVoteUpdateBloom(projectId, userId, ideaId);
@@ -1718,10 +2103,17 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             indexUpdatesMysql.put(JooqIdea.IDEA.VOTERSCOUNT, idea.getVotersCount());
         }
 
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
+        if (config.enableIndexCoalescing()) {
+            return new IdeaAndIndexingFuture(idea, coalesceIndexUpdate(projectId, ideaId, searchEngine,
+                    updateTrend ? 1 : 0, indexUpdatesElastic, ImmutableMap.of(), ImmutableMap.of(),
+                    indexUpdatesMysql, ImmutableList.of()));
+        }
+
+        SettableFuture<Void> indexingFuture = createIndexingFuture(projectId);
         if (searchEngine.isWriteElastic()) {
             if (!indexUpdatesElastic.isEmpty() || updateTrend) {
+                indexRebuilder.recordChange(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId());
                 UpdateRequest updateRequest = new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId());
                 if (updateTrend) {
                     updateRequest.script(ElasticScript.EXP_DECAY.toScript(ImmutableMap.of(
@@ -1731,7 +2123,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                 } else {
                     updateRequest.doc(gson.toJson(indexUpdatesElastic), XContentType.JSON);
                 }
-                elastic.get().updateAsync(updateRequest.setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
+                elastic.get().updateAsync(updateRequest.setRefreshPolicy(refreshPolicy()),
                         RequestOptions.DEFAULT,
                         searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId))
                                 : ActionListeners.onFailureRetry(() -> indexIdea(projectId, ideaId)));
@@ -1804,7 +2196,8 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         String updateExpression = "SET " + String.join(", ", setUpdates);
         log.trace("ExpressIdeaSet expression: {}", updateExpression);
 
-        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
+        long cacheGeneration = ideaCacheWriteBegin(projectId, ideaId);
+        IdeaModel idea = ideaCacheWriteThrough(cacheGeneration, ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
                         .withPrimaryKey(ideaSchema.primaryKey(Map.of(
                                 "projectId", projectId,
                                 "ideaId", ideaId)))
@@ -1812,7 +2205,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                         .withNameMap(nameMap)
                         .withValueMap(valMap)
                         .withUpdateExpression(updateExpression))
-                .getItem());
+                .getItem()));
 
         if (!userId.equals(idea.getAuthorUserId())) {
             userStore.userExpressUpdateBloom(projectId, userId, ideaId);
@@ -1830,15 +2223,22 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                     System.currentTimeMillis()));
         }
 
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
+        if (config.enableIndexCoalescing()) {
+            return new IdeaAndExpressionsAndIndexingFuture(expressions, idea, coalesceIndexUpdate(projectId, ideaId, searchEngine,
+                    1, indexUpdatesElastic, ImmutableMap.of(), ImmutableMap.of(),
+                    indexUpdatesMysql, ImmutableList.of()));
+        }
+
+        SettableFuture<Void> indexingFuture = createIndexingFuture(projectId);
         if (searchEngine.isWriteElastic()) {
+            indexRebuilder.recordChange(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId());
             elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
                             .script(ElasticScript.EXP_DECAY.toScript(ImmutableMap.of(
                                     "decayPeriodInMillis", EXP_DECAY_PERIOD_MILLIS,
                                     "timeInMillis", System.currentTimeMillis(),
                                     "extraUpdates", indexUpdatesElastic)))
-                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
+                            .setRefreshPolicy(refreshPolicy()),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId))
                             : ActionListeners.onFailureRetry(() -> indexIdea(projectId, ideaId)));
@@ -1872,7 +2272,8 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         }
 
         double expressionValueDiff = expressionToWeightMapper.apply(expression);
-        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
+        long cacheGeneration = ideaCacheWriteBegin(projectId, ideaId);
+        IdeaModel idea = ideaCacheWriteThrough(cacheGeneration, ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
                         .withPrimaryKey(ideaSchema.primaryKey(Map.of(
                                 "projectId", projectId,
                                 "ideaId", ideaId)))
@@ -1880,24 +2281,45 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                         .withNameMap(Map.of("#exprAdd", expression))
                         .withValueMap(Map.of(":val", Math.abs(expressionValueDiff), ":one", 1, ":zero", 0))
                         .withUpdateExpression("SET expressions.#exprAdd = if_not_exists(expressions.#exprAdd, :zero) + :one, expressionsValue = if_not_exists(expressionsValue, :zero) " + (expressionValueDiff > 0 ? "+" : "-") + " :val"))
-                .getItem());
+                .getItem()));
 
         if (!userId.equals(idea.getAuthorUserId())) {
             userStore.userExpressUpdateBloom(projectId, userId, ideaId);
         }
 
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
+        if (config.enableIndexCoalescing()) {
+            return new IdeaAndExpressionsAndIndexingFuture(
+                    ImmutableSet.<String>builder()
+                            .addAll(expressionsPrev)
+                            .add(expression)
+                            .build(),
+                    idea, coalesceIndexUpdate(projectId, ideaId, searchEngine,
+                            1, ImmutableMap.of(
+                                    "expressions", idea.getExpressions().keySet(),
+                                    "expressionsValue", idea.getExpressionsValue()),
+                            ImmutableMap.of(), ImmutableMap.of(),
+                            ImmutableMap.of(
+                                    JooqIdea.IDEA.EXPRESSIONSVALUE, idea.getExpressionsValue(),
+                                    JooqIdea.IDEA.TRENDSCORE, JooqRoutines.expDecay(
+                                            idea.getTrendScore(),
+                                            EXP_DECAY_PERIOD_MILLIS,
+                                            System.currentTimeMillis())),
+                            ImmutableList.of()));
+        }
+
+        SettableFuture<Void> indexingFuture = createIndexingFuture(projectId);
         if (searchEngine.isWriteElastic()) {
             Map<String, Object> indexUpdates = Maps.newHashMap();
             indexUpdates.put("expressions", idea.getExpressions().keySet());
             indexUpdates.put("expressionsValue", idea.getExpressionsValue());
+            indexRebuilder.recordChange(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId());
             elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
                             .script(ElasticScript.EXP_DECAY.toScript(ImmutableMap.of(
                                     "decayPeriodInMillis", EXP_DECAY_PERIOD_MILLIS,
                                     "timeInMillis", System.currentTimeMillis(),
                                     "extraUpdates", indexUpdates)))
-                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
+                            .setRefreshPolicy(refreshPolicy()),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId))
                             : ActionListeners.onFailureRetry(() -> indexIdea(projectId, ideaId)));
@@ -1936,7 +2358,8 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         }
 
         double expressionValueDiff = -expressionToWeightMapper.apply(expression);
-        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
+        long cacheGeneration = ideaCacheWriteBegin(projectId, ideaId);
+        IdeaModel idea = ideaCacheWriteThrough(cacheGeneration, ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
                         .withPrimaryKey(ideaSchema.primaryKey(Map.of(
                                 "projectId", projectId,
                                 "ideaId", ideaId)))
@@ -1944,24 +2367,42 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                         .withNameMap(Map.of("#exprRem", expression))
                         .withValueMap(Map.of(":val", Math.abs(expressionValueDiff), ":one", 1, ":zero", 0))
                         .withUpdateExpression("SET expressions.#exprRem = if_not_exists(expressions.#exprRem, :zero) - :one, expressionsValue = if_not_exists(expressionsValue, :zero) " + (expressionValueDiff > 0 ? "+" : "-") + " :val"))
-                .getItem());
+                .getItem()));
 
         if (!userId.equals(idea.getAuthorUserId())) {
             userStore.userExpressUpdateBloom(projectId, userId, ideaId);
         }
 
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
+        if (config.enableIndexCoalescing()) {
+            return new IdeaAndExpressionsAndIndexingFuture(
+                    ImmutableSet.copyOf(Sets.difference(expressionsPrev, ImmutableSet.of(expression))),
+                    idea, coalesceIndexUpdate(projectId, ideaId, searchEngine,
+                            1, ImmutableMap.of(
+                                    "expressions", idea.getExpressions().keySet(),
+                                    "expressionsValue", idea.getExpressionsValue()),
+                            ImmutableMap.of(), ImmutableMap.of(),
+                            ImmutableMap.of(
+                                    JooqIdea.IDEA.EXPRESSIONSVALUE, idea.getExpressionsValue(),
+                                    JooqIdea.IDEA.TRENDSCORE, JooqRoutines.expDecay(
+                                            idea.getTrendScore(),
+                                            EXP_DECAY_PERIOD_MILLIS,
+                                            System.currentTimeMillis())),
+                            ImmutableList.of()));
+        }
+
+        SettableFuture<Void> indexingFuture = createIndexingFuture(projectId);
         if (searchEngine.isWriteElastic()) {
             Map<String, Object> indexUpdates = Maps.newHashMap();
             indexUpdates.put("expressions", idea.getExpressions().keySet());
             indexUpdates.put("expressionsValue", idea.getExpressionsValue());
+            indexRebuilder.recordChange(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId());
             elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
                             .script(ElasticScript.EXP_DECAY.toScript(ImmutableMap.of(
                                     "decayPeriodInMillis", EXP_DECAY_PERIOD_MILLIS,
                                     "timeInMillis", System.currentTimeMillis(),
                                     "extraUpdates", indexUpdates)))
-                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
+                            .setRefreshPolicy(refreshPolicy()),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId))
                             : ActionListeners.onFailureRetry(() -> indexIdea(projectId, ideaId)));
@@ -2020,7 +2461,8 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         String updateExpression = "SET " + String.join(", ", setUpdates);
         log.trace("FundIdea expression: {}", updateExpression);
 
-        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
+        long cacheGeneration = ideaCacheWriteBegin(projectId, ideaId);
+        IdeaModel idea = ideaCacheWriteThrough(cacheGeneration, ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
                         .withPrimaryKey(ideaSchema.primaryKey(Map.of(
                                 "projectId", projectId,
                                 "ideaId", ideaId)))
@@ -2028,12 +2470,20 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                         .withNameMap(nameMap)
                         .withValueMap(valMap)
                         .withUpdateExpression(updateExpression))
-                .getItem());
+                .getItem()));
+
+        SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
+        if (config.enableIndexCoalescing()) {
+            return new IdeaTransactionAndIndexingFuture(
+                    resultingFundAmount,
+                    idea,
+                    transactionAndFundPrevious.getTransaction(),
+                    coalesceFundIndexUpdate(idea, userId, hasFundedBefore, resultingFundAmount, searchEngine));
+        }
 
         Map<String, Object> indexUpdatesElastic = Maps.newHashMap();
         JooqIdeaRecord indexUpdatesMysql = JooqIdea.IDEA.newRecord();
         List<Query> indexQueriesMysql = Lists.newArrayList();
-        SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         ImmutableMap.Builder<String, Object> scriptParamsBuilder = ImmutableMap.builder();
         if (searchEngine.isWriteElastic()) {
             scriptParamsBuilder.put("extraUpdates", indexUpdatesElastic);
@@ -2072,11 +2522,12 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             }
         }
 
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
+        SettableFuture<Void> indexingFuture = createIndexingFuture(projectId);
         if (searchEngine.isWriteElastic()) {
+            indexRebuilder.recordChange(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId());
             elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
                             .script(ElasticScript.EXP_DECAY.toScript(scriptParamsBuilder.build()))
-                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
+                            .setRefreshPolicy(refreshPolicy()),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId))
                             : ActionListeners.onFailureRetry(() -> indexIdea(projectId, ideaId)));
@@ -2119,15 +2570,16 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         if (incrementChildCount) {
             attrUpdates.add(new AttributeUpdate("childCommentCount").addNumeric(1));
         }
-        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
+        long cacheGeneration = ideaCacheWriteBegin(projectId, ideaId);
+        IdeaModel idea = ideaCacheWriteThrough(cacheGeneration, ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
                         .withPrimaryKey(ideaSchema.primaryKey(Map.of(
                                 "projectId", projectId,
                                 "ideaId", ideaId)))
                         .withReturnValues(ReturnValue.ALL_NEW)
                         .withAttributeUpdate(attrUpdates.build()))
-                .getItem());
+                .getItem()));
 
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
+        SettableFuture<Void> indexingFuture = createIndexingFuture(projectId);
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
             ImmutableMap.Builder<Object, Object> updates = ImmutableMap.builder();
@@ -2135,9 +2587,10 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             if (incrementChildCount) {
                 updates.put("childCommentCount", idea.getChildCommentCount());
             }
+            indexRebuilder.recordChange(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId());
             elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
                             .doc(gson.toJson(updates.build()), XContentType.JSON)
-                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
+                            .setRefreshPolicy(refreshPolicy()),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId))
                             : ActionListeners.onFailureRetry(() -> indexIdea(projectId, ideaId)));
@@ -2176,12 +2629,14 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                         "ideaId", ideaId)))
                 .withConditionExpression(expression.conditionExpression().orElse(null))
                 .withNameMap(expression.nameMap().orElse(null)));
+        ideaCacheInvalidate(projectId, ideaId);
 
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
+        SettableFuture<Void> indexingFuture = createIndexingFuture(projectId);
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
+            indexRebuilder.recordChange(elasticUtil.getIndexName(IDEA_INDEX, projectId), ideaId);
             elastic.get().deleteAsync(new DeleteRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), ideaId)
-                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
+                            .setRefreshPolicy(refreshPolicy()),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId))
                             : ActionListeners.onFailureRetry(() -> indexIdea(projectId, ideaId)));
@@ -2209,12 +2664,14 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                                 "projectId", projectId,
                                 "ideaId", ideaId)))
                         .toArray(PrimaryKey[]::new))));
+        ideaIds.forEach(ideaId -> ideaCacheInvalidate(projectId, ideaId));
 
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
+        SettableFuture<Void> indexingFuture = createIndexingFuture(projectId);
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
+            ideaIds.forEach(ideaId -> indexRebuilder.recordChange(elasticUtil.getIndexName(IDEA_INDEX, projectId), ideaId));
             elastic.get().bulkAsync(new BulkRequest()
-                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
+                            .setRefreshPolicy(refreshPolicy())
                             .add(ideaIds.stream()
                                     .map(ideaId -> new DeleteRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), ideaId))
                                     .collect(ImmutableList.toImmutableList())),
@@ -2261,12 +2718,14 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                                     "projectId", projectId)))
                             .forEach(tableWriteItems::addPrimaryKeyToDelete);
                     singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
+                    ideaIdsBatch.forEach(ideaId -> ideaCacheInvalidate(projectId, ideaId));
                 });
+        invalidateIdeaSearchCache(projectId);
 
-        SettableFuture<Void> indexingFuture = SettableFuture.create();
+        SettableFuture<Void> indexingFuture = createIndexingFuture(projectId);
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
-            elastic.get().indices().deleteAsync(new DeleteIndexRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId)),
+            elastic.get().indices().deleteAsync(new DeleteIndexRequest(indexRebuilder.resolveIndices(elasticUtil.getIndexName(IDEA_INDEX, projectId))),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.fromFuture(indexingFuture)
                             : ActionListeners.logFailure());
@@ -2285,15 +2744,275 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         return indexingFuture;
     }
 
+    private ListenableFuture<Void> coalesceFundIndexUpdate(IdeaModel idea, String userId, boolean hasFundedBefore, long resultingFundAmount, SearchEngine searchEngine) {
+        String projectId = idea.getProjectId();
+        String ideaId = idea.getIdeaId();
+        Map<String, Object> indexUpdatesElastic = Maps.newHashMap();
+        Map<String, Object> indexArrayAdditionsElastic = Maps.newHashMap();
+        Map<String, Object> indexArrayDeletionsElastic = Maps.newHashMap();
+        Map<Object, Object> indexUpdatesMysql = Maps.newHashMap();
+        List<Query> indexQueriesMysql = Lists.newArrayList();
+        indexUpdatesElastic.put("funded", orNull(idea.getFunded()));
+        indexUpdatesMysql.put(JooqIdea.IDEA.FUNDED, idea.getFunded());
+        indexUpdatesMysql.put(JooqIdea.IDEA.TRENDSCORE, JooqRoutines.expDecay(
+                idea.getTrendScore(),
+                EXP_DECAY_PERIOD_MILLIS,
+                System.currentTimeMillis()));
+        if (!hasFundedBefore && resultingFundAmount != 0L) {
+            indexUpdatesElastic.put("fundersCount", idea.getFundersCount());
+            indexArrayAdditionsElastic.put("funderUserIds", userId);
+            indexUpdatesMysql.put(JooqIdea.IDEA.FUNDERSCOUNT, idea.getFundersCount());
+            if (searchEngine.isWriteMysql()) {
+                indexQueriesMysql.add(mysql.get().insertInto(JooqIdeaFunders.IDEA_FUNDERS, JooqIdeaFunders.IDEA_FUNDERS.fields())
+                        .values(projectId, ideaId, userId)
+                        .onDuplicateKeyIgnore());
+            }
+        } else if (hasFundedBefore && resultingFundAmount == 0L) {
+            indexUpdatesElastic.put("fundersCount", idea.getFundersCount());
+            indexArrayDeletionsElastic.put("funderUserIds", userId);
+            indexUpdatesMysql.put(JooqIdea.IDEA.FUNDERSCOUNT, idea.getFundersCount());
+            if (searchEngine.isWriteMysql()) {
+                indexQueriesMysql.add(mysql.get().deleteFrom(JooqIdeaFunders.IDEA_FUNDERS)
+                        .where(JooqIdeaFunders.IDEA_FUNDERS.PROJECTID.eq(projectId)
+                                .and(JooqIdeaFunders.IDEA_FUNDERS.POSTID.eq(ideaId))
+                                .and(JooqIdeaFunders.IDEA_FUNDERS.FUNDERUSERID.eq(userId))));
+            }
+        }
+        return coalesceIndexUpdate(projectId, ideaId, searchEngine,
+                1, indexUpdatesElastic, indexArrayAdditionsElastic, indexArrayDeletionsElastic,
+                indexUpdatesMysql, indexQueriesMysql);
+    }
+
+    @Value
+    private static class IdeaIndexKey {
+        String projectId;
+        String ideaId;
+    }
+
+    /**
+     * Accumulated index changes of a single idea; only accessed while holding its map entry.
+     */
+    private static class PendingIndexUpdate {
+        private boolean hasElasticUpdate = false;
+        private long trendEventCount = 0L;
+        private final Map<String, Object> elasticUpdates = Maps.newHashMap();
+        private final Map<String, Set<Object>> elasticArrayAdditions = Maps.newHashMap();
+        private final Map<String, Set<Object>> elasticArrayDeletions = Maps.newHashMap();
+        private final List<SettableFuture<Void>> elasticIndexingFutures = Lists.newArrayList();
+        private boolean hasMysqlUpdate = false;
+        private final Map<Object, Object> mysqlUpdates = Maps.newHashMap();
+        private final List<Query> mysqlQueries = Lists.newArrayList();
+        private final List<SettableFuture<Void>> mysqlIndexingFutures = Lists.newArrayList();
+    }
+
+    /**
+     * Queues an index update to be merged with other updates of the same idea and flushed together.
+     * Absolute values in updates overwrite previously queued values, array changes and trend events accumulate.
+     *
+     * @param trendEventCount Number of events contributing to the trend score, zero to leave trend score as is
+     * @return Future completed once the update is durable in the index the project reads from
+     */
+    private ListenableFuture<Void> coalesceIndexUpdate(
+            String projectId,
+            String ideaId,
+            SearchEngine searchEngine,
+            long trendEventCount,
+            Map<String, Object> elasticUpdates,
+            Map<String, Object> elasticArrayAdditions,
+            Map<String, Object> elasticArrayDeletions,
+            Map<Object, Object> mysqlUpdates,
+            List<Query> mysqlQueries) {
+        SettableFuture<Void> indexingFuture = createIndexingFuture(projectId);
+        boolean hasElasticUpdate = searchEngine.isWriteElastic() && (trendEventCount > 0
+                || !elasticUpdates.isEmpty()
+                || !elasticArrayAdditions.isEmpty()
+                || !elasticArrayDeletions.isEmpty());
+        boolean hasMysqlUpdate = searchEngine.isWriteMysql() && (!mysqlUpdates.isEmpty()
+                || !mysqlQueries.isEmpty());
+        if ((searchEngine.isReadElastic() && !hasElasticUpdate)
+                || (searchEngine.isReadMysql() && !hasMysqlUpdate)) {
+            indexingFuture.set(null);
+        }
+        if (!hasElasticUpdate && !hasMysqlUpdate) {
+            return indexingFuture;
+        }
+
+        // Coalescing may have been enabled after startup
+        scheduleIndexCoalescingFlush();
+        pendingIndexUpdates.compute(new IdeaIndexKey(projectId, ideaId), (key, pending) -> {
+            if (pending == null) {
+                pending = new PendingIndexUpdate();
+            }
+            if (hasElasticUpdate) {
+                pending.hasElasticUpdate = true;
+                pending.trendEventCount += trendEventCount;
+                pending.elasticUpdates.putAll(elasticUpdates);
+                for (Map.Entry<String, Object> addition : elasticArrayAdditions.entrySet()) {
+                    pending.elasticArrayAdditions.computeIfAbsent(addition.getKey(), k -> Sets.newLinkedHashSet())
+                            .add(addition.getValue());
+                }
+                // Script applies deletions before additions, cancel out any addition within this window
+                for (Map.Entry<String, Object> deletion : elasticArrayDeletions.entrySet()) {
+                    Optional.ofNullable(pending.elasticArrayAdditions.get(deletion.getKey()))
+                            .ifPresent(additions -> additions.remove(deletion.getValue()));
+                    pending.elasticArrayDeletions.computeIfAbsent(deletion.getKey(), k -> Sets.newLinkedHashSet())
+                            .add(deletion.getValue());
+                }
+                if (searchEngine.isReadElastic()) {
+                    pending.elasticIndexingFutures.add(indexingFuture);
+                }
+            }
+            if (hasMysqlUpdate) {
+                pending.hasMysqlUpdate = true;
+                pending.mysqlUpdates.putAll(mysqlUpdates);
+                pending.mysqlQueries.addAll(mysqlQueries);
+                if (searchEngine.isReadMysql()) {
+                    pending.mysqlIndexingFutures.add(indexingFuture);
+                }
+            }
+            return pending;
+        });
+
+        return indexingFuture;
+    }
+
+    private void scheduleIndexCoalescingFlush() {
+        if (!indexCoalescingFlushScheduled.get() && indexCoalescingFlushScheduled.compareAndSet(false, true)) {
+            long indexCoalescingWindowMillis = config.indexCoalescingWindow().toMillis();
+            indexCoalescingExecutor.scheduleWithFixedDelay(this::flushPendingIndexUpdates,
+                    indexCoalescingWindowMillis, indexCoalescingWindowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Extern
+    public void flushPendingIndexUpdates() {
+        Map<IdeaIndexKey, PendingIndexUpdate> pendingElastic = Maps.newLinkedHashMap();
+        Map<IdeaIndexKey, PendingIndexUpdate> pendingMysql = Maps.newLinkedHashMap();
+        for (IdeaIndexKey key : ImmutableSet.copyOf(pendingIndexUpdates.keySet())) {
+            PendingIndexUpdate pending = pendingIndexUpdates.remove(key);
+            if (pending == null) {
+                continue;
+            }
+            if (pending.hasElasticUpdate) {
+                pendingElastic.put(key, pending);
+            }
+            if (pending.hasMysqlUpdate) {
+                pendingMysql.put(key, pending);
+            }
+        }
+        if (!pendingElastic.isEmpty()) {
+            try {
+                flushPendingIndexUpdatesElastic(pendingElastic);
+            } catch (Throwable th) {
+                log.warn("Failed to flush coalesced ElasticSearch index updates, reindexing instead", th);
+                pendingElastic.forEach((key, pending) -> reindexPending(key, pending.elasticIndexingFutures));
+            }
+        }
+        if (!pendingMysql.isEmpty()) {
+            try {
+                flushPendingIndexUpdatesMysql(pendingMysql);
+            } catch (Throwable th) {
+                log.warn("Failed to flush coalesced MySQL index updates, reindexing instead", th);
+                pendingMysql.forEach((key, pending) -> reindexPending(key, pending.mysqlIndexingFutures));
+            }
+        }
+    }
+
+    private void flushPendingIndexUpdatesElastic(Map<IdeaIndexKey, PendingIndexUpdate> pendingElastic) {
+        long timeInMillis = System.currentTimeMillis();
+        List<Map.Entry<IdeaIndexKey, PendingIndexUpdate>> entries = ImmutableList.copyOf(pendingElastic.entrySet());
+        BulkRequest bulkRequest = new BulkRequest()
+                .setRefreshPolicy(refreshPolicy());
+        for (Map.Entry<IdeaIndexKey, PendingIndexUpdate> entry : entries) {
+            PendingIndexUpdate pending = entry.getValue();
+            ImmutableMap.Builder<String, Object> scriptParamsBuilder = ImmutableMap.builder();
+            scriptParamsBuilder.put("decayPeriodInMillis", EXP_DECAY_PERIOD_MILLIS);
+            scriptParamsBuilder.put("timeInMillis", timeInMillis);
+            scriptParamsBuilder.put("eventCount", pending.trendEventCount);
+            scriptParamsBuilder.put("extraUpdates", pending.elasticUpdates);
+            if (!pending.elasticArrayAdditions.isEmpty()) {
+                scriptParamsBuilder.put("extraArrayAdditions", Maps.transformValues(pending.elasticArrayAdditions, ImmutableList::copyOf));
+            }
+            if (!pending.elasticArrayDeletions.isEmpty()) {
+                scriptParamsBuilder.put("extraArrayDeletions", Maps.transformValues(pending.elasticArrayDeletions, ImmutableList::copyOf));
+            }
+            indexRebuilder.recordChange(elasticUtil.getIndexName(IDEA_INDEX, entry.getKey().getProjectId()), entry.getKey().getIdeaId());
+            bulkRequest.add(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, entry.getKey().getProjectId()), entry.getKey().getIdeaId())
+                    .script(ElasticScript.EXP_DECAY.toScript(scriptParamsBuilder.build())));
+        }
+        elastic.get().bulkAsync(bulkRequest, RequestOptions.DEFAULT, new ActionListener<>() {
+            @Override
+            public void onResponse(BulkResponse bulkResponse) {
+                for (BulkItemResponse itemResponse : bulkResponse.getItems()) {
+                    Map.Entry<IdeaIndexKey, PendingIndexUpdate> entry = entries.get(itemResponse.getItemId());
+                    if (itemResponse.isFailed()) {
+                        if (LogUtil.rateLimitAllowLog("idea-store-coalesced-update-failure")) {
+                            log.info("Retrying a failed coalesced index update {}", itemResponse.getFailureMessage());
+                        }
+                        reindexPending(entry.getKey(), entry.getValue().elasticIndexingFutures);
+                    } else {
+                        entry.getValue().elasticIndexingFutures.forEach(f -> f.set(null));
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(Exception ex) {
+                if (LogUtil.rateLimitAllowLog("idea-store-coalesced-update-failure")) {
+                    log.info("Retrying failed coalesced index updates", ex);
+                }
+                entries.forEach(entry -> reindexPending(entry.getKey(), entry.getValue().elasticIndexingFutures));
+            }
+        });
+    }
+
+    private void reindexPending(IdeaIndexKey key, List<SettableFuture<Void>> indexingFutures) {
+        try {
+            SettableFuture<Void> reindexFuture = SettableFuture.create();
+            indexIdea(reindexFuture, key.getProjectId(), key.getIdeaId());
+            indexingFutures.forEach(f -> f.setFuture(reindexFuture));
+        } catch (Throwable th) {
+            log.warn("Failed to reindex idea {} in project {} after a failed coalesced update",
+                    key.getIdeaId(), key.getProjectId(), th);
+            indexingFutures.forEach(f -> f.setException(th));
+        }
+    }
+
+    private void flushPendingIndexUpdatesMysql(Map<IdeaIndexKey, PendingIndexUpdate> pendingMysql) {
+        List<Query> queries = Lists.newArrayList();
+        List<SettableFuture<Void>> indexingFutures = Lists.newArrayList();
+        for (Map.Entry<IdeaIndexKey, PendingIndexUpdate> entry : pendingMysql.entrySet()) {
+            PendingIndexUpdate pending = entry.getValue();
+            if (!pending.mysqlUpdates.isEmpty()) {
+                queries.add(mysql.get().update(JooqIdea.IDEA)
+                        .set(pending.mysqlUpdates)
+                        .where(JooqIdea.IDEA.PROJECTID.eq(entry.getKey().getProjectId())
+                                .and(JooqIdea.IDEA.POSTID.eq(entry.getKey().getIdeaId()))));
+            }
+            queries.addAll(pending.mysqlQueries);
+            indexingFutures.addAll(pending.mysqlIndexingFutures);
+        }
+        CompletionStage<int[]> completionStage = CompletableFuture.supplyAsync(
+                () -> mysql.get().batch(queries).execute(),
+                mysql.get().configuration().executorProvider().provide());
+        if (indexingFutures.isEmpty()) {
+            CompletionStageUtil.logFailure(completionStage);
+        } else {
+            SettableFuture<Void> batchFuture = CompletionStageUtil.toSettableFuture(SettableFuture.create(), completionStage);
+            indexingFutures.forEach(f -> f.setFuture(batchFuture));
+        }
+    }
+
     private void indexIdea(String projectId, String ideaId) {
         indexIdea(SettableFuture.create(), projectId, ideaId);
     }
 
     private void indexIdea(SettableFuture<Void> indexingFuture, String projectId, String ideaId) {
-        Optional<IdeaModel> ideaOpt = getIdea(projectId, ideaId);
+        Optional<IdeaModel> ideaOpt = getIdeaConsistent(projectId, ideaId);
         if (!ideaOpt.isPresent()) {
             SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
             if (searchEngine.isWriteElastic()) {
+                indexRebuilder.recordChange(elasticUtil.getIndexName(IDEA_INDEX, projectId), ideaId);
                 elastic.get().deleteAsync(new DeleteRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), ideaId),
                         RequestOptions.DEFAULT,
                         searchEngine.isReadElastic()
@@ -2323,6 +3042,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
     private void indexIdea(SettableFuture<Void> indexingFuture, IdeaModel idea) {
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(idea.getProjectId());
         if (searchEngine.isWriteElastic()) {
+            indexRebuilder.recordChange(elasticUtil.getIndexName(IDEA_INDEX, idea.getProjectId()), idea.getIdeaId());
             elastic.get().indexAsync(ideaToEsIndexRequest(idea, true),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic()
@@ -2363,6 +3083,13 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         }
     }
 
+    private WriteRequest.RefreshPolicy refreshPolicy() {
+        if (config.elasticForceRefresh()) {
+            return WriteRequest.RefreshPolicy.IMMEDIATE;
+        }
+        return config.elasticAsyncIndexing() ? WriteRequest.RefreshPolicy.NONE : WriteRequest.RefreshPolicy.WAIT_UNTIL;
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
@@ -30,6 +30,9 @@ import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
 import com.amazonaws.services.dynamodbv2.model.Update;
 import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -68,17 +71,22 @@ import com.smotana.clearflask.api.model.UserUpdate;
 import com.smotana.clearflask.api.model.UserUpdateAdmin;
 import com.smotana.clearflask.core.ManagedService;
 import com.smotana.clearflask.store.AccountStore;
+import com.smotana.clearflask.store.ExportPage;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.SearchEngine;
+import com.smotana.clearflask.store.Reindexer;
 import com.smotana.clearflask.store.UserStore;
 import com.smotana.clearflask.store.elastic.ActionListeners;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
+import com.smotana.clearflask.store.elastic.IndexRebuilder;
 import com.smotana.clearflask.store.mysql.CompletionStageUtil;
 import com.smotana.clearflask.store.mysql.DefaultMysqlProvider;
 import com.smotana.clearflask.store.mysql.MoreSQLDataType;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
+import com.smotana.clearflask.store.mysql.MysqlUtil.SeekField;
 import com.smotana.clearflask.store.mysql.model.tables.JooqUser;
 import com.smotana.clearflask.store.mysql.model.tables.records.JooqUserRecord;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.util.BloomFilters;
 import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.util.LogUtil;
@@ -125,13 +133,13 @@ import org.elasticsearch.search.sort.SortOrder;
 import org.jooq.Condition;
 import org.jooq.DSLContext;
 import org.jooq.Query;
-import org.jooq.SortField;
+import org.jooq.Record;
+import org.jooq.Result;
 import org.jooq.impl.SQLDataType;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 import javax.ws.rs.core.Response;
-import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Arrays;
@@ -148,9 +156,11 @@ import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
 import static com.smotana.clearflask.store.elastic.ElasticUtil.*;
 import static com.smotana.clearflask.store.mysql.DefaultMysqlProvider.ID_MAX_LENGTH;
+import static com.smotana.clearflask.store.mysql.MysqlUtil.seekField;
 import static com.smotana.clearflask.util.ExplicitNull.orNull;
 
 @Slf4j
@@ -172,6 +182,13 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         @DefaultValue("false")
         boolean elasticForceRefresh();
 
+        /**
+         * Do not wait for the index refresh on writes, callers see their own changes through
+         * {@link com.smotana.clearflask.web.util.RecentWrites} until the index catches up.
+         */
+        @DefaultValue("false")
+        boolean elasticAsyncIndexing();
+
         @DefaultValue("0.001")
         double voteBloomFilterFalsePositiveProbability();
 
@@ -208,6 +225,19 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
 
         @DefaultValue("true")
         boolean enableHistograms();
+
+        /**
+         * Caches sessions for authentication. Revocations on this node take effect immediately, revocations on
+         * other nodes take effect after expiry.
+         */
+        @DefaultValue("true")
+        boolean enableSessionCache();
+
+        @DefaultValue("PT30S")
+        Duration sessionCacheExpireAfterWrite();
+
+        @DefaultValue("100000")
+        long sessionCacheMaximumSize();
     }
 
     private static final String USER_INDEX = "user";
@@ -241,6 +271,12 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     private Provider<DSLContext> mysql;
     @Inject
     private MysqlUtil mysqlUtil;
+    @Inject
+    private Reindexer reindexer;
+    @Inject
+    private IndexRebuilder indexRebuilder;
+    @Inject
+    private BloomFilterCache bloomFilterCache;
 
     private TableSchema<UserModel> userSchema;
     private IndexSchema<UserModel> userByProjectIdSchema;
@@ -249,6 +285,7 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     private TableSchema<UserSession> sessionByIdSchema;
     private IndexSchema<UserSession> sessionByUserSchema;
     private TableSchema<UserCounter> userCounterSchema;
+    private Cache<String, UserSession> sessionCache;
     private CloseableHttpClient client;
 
     @Inject
@@ -260,6 +297,11 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         sessionByIdSchema = singleTable.parseTableSchema(UserSession.class);
         sessionByUserSchema = singleTable.parseGlobalSecondaryIndexSchema(1, UserSession.class);
         userCounterSchema = singleTable.parseTableSchema(UserCounter.class);
+        sessionCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.sessionCacheExpireAfterWrite())
+                .maximumSize(config.sessionCacheMaximumSize())
+                .recordStats()
+                .build();
     }
 
     @Override
@@ -311,8 +353,12 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
 
     @Extern
     public ListenableFuture<Void> createIndexElasticSearch(String projectId) {
+        return createIndexElasticSearchNamed(elasticUtil.getIndexName(USER_INDEX, projectId));
+    }
+
+    private ListenableFuture<Void> createIndexElasticSearchNamed(String indexName) {
         SettableFuture<Void> indexingFuture = SettableFuture.create();
-        elastic.get().indices().createAsync(new CreateIndexRequest(elasticUtil.getIndexName(USER_INDEX, projectId))
+        elastic.get().indices().createAsync(new CreateIndexRequest(indexName)
                         .settings(gson.toJson(ImmutableMap.of(
                                 "index", ImmutableMap.of(
                                         "analysis", ImmutableMap.of(
@@ -352,16 +398,17 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
 
     @Extern
     @Override
-    public void repopulateIndex(String projectId, boolean deleteExistingIndex, boolean repopulateElasticSearch, boolean repopulateMysql) throws Exception {
-        log.info("Repopulating index for project {} deleteExistingIndex {} repopulateElasticSearch {} repopulateMysql {}",
-                projectId, deleteExistingIndex, repopulateElasticSearch, repopulateMysql);
+    public void repopulateIndex(String projectId, boolean deleteExistingIndex, boolean repopulateElasticSearch, boolean repopulateMysql, boolean resume) throws Exception {
+        checkArgument(!resume || !deleteExistingIndex, "Cannot resume when deleting existing index");
+        log.info("Repopulating index for project {} deleteExistingIndex {} repopulateElasticSearch {} repopulateMysql {} resume {}",
+                projectId, deleteExistingIndex, repopulateElasticSearch, repopulateMysql, resume);
         if (repopulateElasticSearch) {
             boolean indexAlreadyExists = elastic.get().indices().exists(
                     new GetIndexRequest(elasticUtil.getIndexName(USER_INDEX, projectId)),
                     RequestOptions.DEFAULT);
             if (indexAlreadyExists && deleteExistingIndex) {
                 elastic.get().indices().delete(
-                        new DeleteIndexRequest(elasticUtil.getIndexName(USER_INDEX, projectId)),
+                        new DeleteIndexRequest(indexRebuilder.resolveIndices(elasticUtil.getIndexName(USER_INDEX, projectId))),
                         RequestOptions.DEFAULT);
             }
             if (!indexAlreadyExists || deleteExistingIndex) {
@@ -374,30 +421,32 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                     .execute();
         }
 
-        StreamSupport.stream(userByProjectIdSchema.index().query(new QuerySpec()
-                                .withHashKey(userByProjectIdSchema.partitionKey(Map.of(
-                                        "projectId", projectId)))
-                                .withRangeKeyCondition(new RangeKeyCondition(userByProjectIdSchema.rangeKeyName())
-                                        .beginsWith(userByProjectIdSchema.rangeValuePartial(Map.of()))))
-                        .pages()
-                        .spliterator(), false)
-                .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
-                .map(userByProjectIdSchema::fromItem)
-                .filter(user -> projectId.equals(user.getProjectId()))
-                .forEach(user -> {
-                    if (repopulateElasticSearch) {
-                        try {
-                            elastic.get().index(userToEsIndexRequest(user), RequestOptions.DEFAULT);
-                        } catch (IOException ex) {
-                            if (LogUtil.rateLimitAllowLog("dynamoelsaticuserstore-reindex-failure")) {
-                                log.warn("Failed to re-index user {}", user.getUserId(), ex);
-                            }
-                        }
-                    }
-                    if (repopulateMysql) {
-                        userToMysqlQuery(user).execute();
-                    }
-                });
+        Reindexer.Job.JobBuilder<UserModel> jobBuilder = Reindexer.Job.<UserModel>builder()
+                .jobId("user-" + projectId)
+                .pageFetcher(Reindexer.indexPageFetcher(userByProjectIdSchema, Map.of(
+                        "projectId", projectId), user -> projectId.equals(user.getProjectId())))
+                .resume(resume);
+        if (repopulateElasticSearch) {
+            jobBuilder.toEsIndexRequest(this::userToEsIndexRequest);
+        }
+        if (repopulateMysql) {
+            jobBuilder.toMysqlQueries(user -> mysql.get().queries(userToMysqlQuery(user)));
+        }
+        reindexer.reindex(jobBuilder.build());
+    }
+
+    @Override
+    public void rebuildIndexElasticSearch(String projectId) throws Exception {
+        indexRebuilder.rebuild(elasticUtil.getIndexName(USER_INDEX, projectId),
+                indexName -> createIndexElasticSearchNamed(indexName).get(),
+                indexName -> reindexer.reindex(Reindexer.Job.<UserModel>builder()
+                        .jobId("user-rebuild-" + projectId)
+                        .pageFetcher(Reindexer.indexPageFetcher(userByProjectIdSchema, Map.of(
+                                "projectId", projectId), user -> projectId.equals(user.getProjectId())))
+                        .toEsIndexRequest(user -> userToEsIndexRequest(user).index(indexName))
+                        .build()),
+                (indexName, userIds) -> indexRebuilder.replayDocuments(indexName, userIds,
+                        Maps.transformValues(getUsers(projectId, userIds), this::userToEsIndexRequest)));
     }
 
     @Override
@@ -598,14 +647,15 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                 sortOrder = org.jooq.SortOrder.DEFAULT;
             }
 
-            ImmutableList<SortField<?>> sortFields;
+            // Sort fields end with userId as a tie-breaker for keyset pagination
+            ImmutableList<SeekField<?>> seekFields;
             if (userSearchAdmin.getSortBy() != null) {
                 switch (userSearchAdmin.getSortBy()) {
                     case CREATED:
-                        sortFields = ImmutableList.of(JooqUser.USER.CREATED.sort(sortOrder));
+                        seekFields = ImmutableList.of(seekField(JooqUser.USER.CREATED, sortOrder), seekField(JooqUser.USER.USERID, org.jooq.SortOrder.ASC));
                         break;
                     case FUNDSAVAILABLE:
-                        sortFields = ImmutableList.of(JooqUser.USER.BALANCE.sort(sortOrder));
+                        seekFields = ImmutableList.of(seekField(JooqUser.USER.BALANCE, sortOrder), seekField(JooqUser.USER.USERID, org.jooq.SortOrder.ASC));
                         break;
                     case FUNDEDIDEAS:
                     case SUPPORTEDIDEAS:
@@ -616,7 +666,7 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                                 "Sorting by '" + userSearchAdmin.getSortBy() + "' not supported");
                 }
             } else {
-                sortFields = ImmutableList.of();
+                seekFields = ImmutableList.of(seekField(JooqUser.USER.USERID, org.jooq.SortOrder.ASC));
             }
 
             Condition conditions = JooqUser.USER.PROJECTID.eq(projectId);
@@ -628,17 +678,20 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                         .or(JooqUser.USER.EMAIL.like("%" + userSearchAdmin.getSearchText() + "%")));
             }
 
-            List<String> userIds = mysql.get().select(JooqUser.USER.USERID)
+            Result<Record> records = mysql.get().select(mysqlUtil.seekSelectFields(seekFields, JooqUser.USER.USERID))
                     .from(JooqUser.USER)
-                    .where(conditions)
-                    .orderBy(sortFields)
+                    .where(conditions.and(mysqlUtil.seekCondition(seekFields, cursorOpt)))
+                    .orderBy(mysqlUtil.seekSortFields(seekFields))
                     .offset(mysqlUtil.offset(cursorOpt))
                     .limit(mysqlUtil.limit(configSearch, pageSizeOpt))
-                    .fetch(JooqUser.USER.USERID);
+                    .fetch();
+            ImmutableList<String> userIds = records.stream()
+                    .map(record -> record.get(JooqUser.USER.USERID))
+                    .collect(ImmutableList.toImmutableList());
 
             return new SearchUsersResponse(
-                    ImmutableList.copyOf(userIds),
-                    mysqlUtil.nextCursor(configSearch, cursorOpt, pageSizeOpt, userIds.size()),
+                    userIds,
+                    mysqlUtil.nextSeekCursor(configSearch, pageSizeOpt, seekFields, records),
                     userIds.size(),
                     true);
         }
@@ -659,6 +712,13 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                 .forEach(consumer);
     }
 
+    @Override
+    public ExportPage<UserModel> exportPageForProject(String projectId, Optional<String> cursorOpt) throws Exception {
+        Reindexer.Page<UserModel> page = Reindexer.indexPageFetcher(userByProjectIdSchema, Map.of(
+                "projectId", projectId), user -> projectId.equals(user.getProjectId())).fetch(cursorOpt);
+        return new ExportPage<>(page.getItems(), page.getCursorOpt());
+    }
+
     @Override
     public long getUserCountForProject(String projectId) {
         return StreamSupport.stream(userCounterSchema.table().query(new QuerySpec()
@@ -944,9 +1004,10 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
             if (indexUpdates.size() > 0) {
+                indexRebuilder.recordChange(elasticUtil.getIndexName(USER_INDEX, projectId), userId);
                 elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(USER_INDEX, projectId), userId)
                                 .doc(gson.toJson(indexUpdates), XContentType.JSON)
-                                .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
+                                .setRefreshPolicy(refreshPolicy()),
                         RequestOptions.DEFAULT,
                         searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexUser(f, projectId, userId))
                                 : ActionListeners.onFailureRetry(() -> indexUser(projectId, userId)));
@@ -977,18 +1038,16 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     @Override
     public UserModel userVoteUpdateBloom(String projectId, String userId, String ideaId) {
         UserModel user = getUser(projectId, userId).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
-        BloomFilter<CharSequence> bloomFilter = Optional.ofNullable(user.getVoteBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
-                .orElseGet(() -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), config.voteBloomFilterExpectedInsertions(), config.voteBloomFilterFalsePositiveProbability()));
-        boolean bloomFilterUpdated = bloomFilter.put(ideaId);
-        if (!bloomFilterUpdated) {
+        Optional<byte[]> bloomFilterBytesOpt = updateBloomFilter(user, BloomFilterCache.Kind.VOTE, ideaId,
+                config.voteBloomFilterExpectedInsertions(), config.voteBloomFilterFalsePositiveProbability());
+        if (!bloomFilterBytesOpt.isPresent()) {
             return user;
         }
         return userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
                         .withPrimaryKey(userSchema.primaryKey(Map.of(
                                 "projectId", projectId,
                                 "userId", userId)))
-                        .withAttributeUpdate(new AttributeUpdate("voteBloom").put(BloomFilters.toByteArray(bloomFilter)))
+                        .withAttributeUpdate(new AttributeUpdate("voteBloom").put(bloomFilterBytesOpt.get()))
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
     }
@@ -996,18 +1055,16 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     @Override
     public UserModel userCommentVoteUpdateBloom(String projectId, String userId, String commentId) {
         UserModel user = getUser(projectId, userId).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
-        BloomFilter<CharSequence> bloomFilter = Optional.ofNullable(user.getCommentVoteBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
-                .orElseGet(() -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), config.commentVoteBloomFilterExpectedInsertions(), config.commentVoteBloomFilterFalsePositiveProbability()));
-        boolean bloomFilterUpdated = bloomFilter.put(commentId);
-        if (!bloomFilterUpdated) {
+        Optional<byte[]> bloomFilterBytesOpt = updateBloomFilter(user, BloomFilterCache.Kind.COMMENT_VOTE, commentId,
+                config.commentVoteBloomFilterExpectedInsertions(), config.commentVoteBloomFilterFalsePositiveProbability());
+        if (!bloomFilterBytesOpt.isPresent()) {
             return user;
         }
         return userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
                         .withPrimaryKey(userSchema.primaryKey(Map.of(
                                 "projectId", projectId,
                                 "userId", userId)))
-                        .withAttributeUpdate(new AttributeUpdate("commentVoteBloom").put(BloomFilters.toByteArray(bloomFilter)))
+                        .withAttributeUpdate(new AttributeUpdate("commentVoteBloom").put(bloomFilterBytesOpt.get()))
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
     }
@@ -1015,22 +1072,38 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     @Override
     public UserModel userExpressUpdateBloom(String projectId, String userId, String ideaId) {
         UserModel user = getUser(projectId, userId).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
-        BloomFilter<CharSequence> bloomFilter = Optional.ofNullable(user.getExpressBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
-                .orElseGet(() -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), config.expressBloomFilterExpectedInsertions(), config.expressBloomFilterFalsePositiveProbability()));
-        boolean bloomFilterUpdated = bloomFilter.put(ideaId);
-        if (!bloomFilterUpdated) {
+        Optional<byte[]> bloomFilterBytesOpt = updateBloomFilter(user, BloomFilterCache.Kind.EXPRESS, ideaId,
+                config.expressBloomFilterExpectedInsertions(), config.expressBloomFilterFalsePositiveProbability());
+        if (!bloomFilterBytesOpt.isPresent()) {
             return user;
         }
         return userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
                         .withPrimaryKey(userSchema.primaryKey(Map.of(
                                 "projectId", projectId,
                                 "userId", userId)))
-                        .withAttributeUpdate(new AttributeUpdate("expressBloom").put(BloomFilters.toByteArray(bloomFilter)))
+                        .withAttributeUpdate(new AttributeUpdate("expressBloom").put(bloomFilterBytesOpt.get()))
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
     }
 
+    /**
+     * Adds item to a copy of the user's cached filter.
+     *
+     * @return Serialized updated filter or empty if the filter already contained the item
+     */
+    private Optional<byte[]> updateBloomFilter(UserModel user, BloomFilterCache.Kind kind, String item, long expectedInsertions, double falsePositiveProbability) {
+        BloomFilter<CharSequence> bloomFilter = bloomFilterCache.get(user, kind)
+                .map(BloomFilter::copy)
+                .orElseGet(() -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), expectedInsertions, falsePositiveProbability));
+        boolean bloomFilterUpdated = bloomFilter.put(item);
+        if (!bloomFilterUpdated) {
+            return Optional.empty();
+        }
+        byte[] bloomFilterBytes = BloomFilters.toByteArray(bloomFilter);
+        bloomFilterCache.put(user.getProjectId(), user.getUserId(), kind, bloomFilterBytes, bloomFilter);
+        return Optional.of(bloomFilterBytes);
+    }
+
     @Override
     public UserModel updateSubscription(String projectId, String userId, String categoryId, boolean subscribe) {
         return userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
@@ -1062,13 +1135,11 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
 
         if (updateBloomWithIdeaIdOpt.isPresent()) {
             UserModel user = getUser(projectId, userId).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
-            BloomFilter<CharSequence> bloomFilter = Optional.ofNullable(user.getFundBloom())
-                    .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
-                    .orElseGet(() -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), config.fundBloomFilterExpectedInsertions(), config.fundBloomFilterFalsePositiveProbability()));
-            boolean bloomFilterUpdated = bloomFilter.put(updateBloomWithIdeaIdOpt.get());
-            if (bloomFilterUpdated) {
+            Optional<byte[]> bloomFilterBytesOpt = updateBloomFilter(user, BloomFilterCache.Kind.FUND, updateBloomWithIdeaIdOpt.get(),
+                    config.fundBloomFilterExpectedInsertions(), config.fundBloomFilterFalsePositiveProbability());
+            if (bloomFilterBytesOpt.isPresent()) {
                 nameMap.put("#fundBloom", "fundBloom");
-                valMap.put(":fundBloom", BloomFilters.toByteArray(bloomFilter));
+                valMap.put(":fundBloom", bloomFilterBytesOpt.get());
                 setUpdates.add("#fundBloom = :fundBloom");
             }
         }
@@ -1104,9 +1175,10 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
+            indexRebuilder.recordChange(elasticUtil.getIndexName(USER_INDEX, projectId), userModel.getUserId());
             elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(USER_INDEX, projectId), userModel.getUserId())
                             .doc(gson.toJson(Map.of("balance", userModel.getBalance())), XContentType.JSON)
-                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
+                            .setRefreshPolicy(refreshPolicy()),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexUser(f, projectId, userId))
                             : ActionListeners.onFailureRetry(() -> indexUser(projectId, userId)));
@@ -1166,8 +1238,9 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
+            users.forEach(user -> indexRebuilder.recordChange(elasticUtil.getIndexName(USER_INDEX, projectId), user.getUserId()));
             elastic.get().bulkAsync(new BulkRequest()
-                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
+                            .setRefreshPolicy(refreshPolicy())
                             .add(users.stream()
                                     .map(user -> new DeleteRequest(elasticUtil.getIndexName(USER_INDEX, projectId), user.getUserId()))
                                     .collect(ImmutableList.toImmutableList())),
@@ -1451,7 +1524,16 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     @Extern
     @Override
     public Optional<UserSession> getSession(String sessionId) {
-        return Optional.ofNullable(sessionByIdSchema
+        if (config.enableSessionCache()) {
+            UserSession sessionCached = sessionCache.getIfPresent(sessionId);
+            if (sessionCached != null) {
+                if (sessionCached.getTtlInEpochSec() >= Instant.now().getEpochSecond()) {
+                    return Optional.of(sessionCached);
+                }
+                sessionCache.invalidate(sessionId);
+            }
+        }
+        Optional<UserSession> sessionOpt = Optional.ofNullable(sessionByIdSchema
                         .fromItem(sessionByIdSchema
                                 .table().getItem(new GetItemSpec().withPrimaryKey(sessionByIdSchema
                                         .primaryKey(Map.of("sessionId", sessionId))))))
@@ -1462,11 +1544,15 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                     }
                     return true;
                 });
+        if (config.enableSessionCache()) {
+            sessionOpt.ifPresent(session -> sessionCache.put(sessionId, session));
+        }
+        return sessionOpt;
     }
 
     @Override
     public UserSession refreshSession(UserSession userSession, long ttlInEpochSec) {
-        return sessionByIdSchema.fromItem(sessionByIdSchema.table().updateItem(new UpdateItemSpec()
+        UserSession refreshedSession = sessionByIdSchema.fromItem(sessionByIdSchema.table().updateItem(new UpdateItemSpec()
                         .withPrimaryKey(sessionByIdSchema.primaryKey(userSession))
                         .withConditionExpression("attribute_exists(#partitionKey)")
                         .withUpdateExpression("SET #ttlInEpochSec = :ttlInEpochSec")
@@ -1476,18 +1562,24 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                         .withValueMap(new ValueMap().withLong(":ttlInEpochSec", ttlInEpochSec))
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
+        if (config.enableSessionCache()) {
+            sessionCache.put(refreshedSession.getSessionId(), refreshedSession);
+        }
+        return refreshedSession;
     }
 
     @Override
     public void revokeSession(String sessionId) {
         sessionByIdSchema.table().deleteItem(new DeleteItemSpec()
                 .withPrimaryKey(sessionByIdSchema.primaryKey(Map.of("sessionId", sessionId))));
+        sessionCache.invalidate(sessionId);
     }
 
     @Override
     public void revokeSession(UserSession userSession) {
         sessionByIdSchema.table().deleteItem(new DeleteItemSpec()
                 .withPrimaryKey(sessionByIdSchema.primaryKey(userSession)));
+        sessionCache.invalidate(userSession.getSessionId());
     }
 
     @Override
@@ -1512,9 +1604,20 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                                     "sessionId", sessionId)))
                             .forEach(tableWriteItems::addPrimaryKeyToDelete);
                     singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
+                    sessionCache.invalidateAll(sessionIdsBatch);
                 });
     }
 
+    @Extern
+    public CacheStats getSessionCacheStats() {
+        return sessionCache.stats();
+    }
+
+    @Extern
+    public void invalidateSessionCache() {
+        sessionCache.invalidateAll();
+    }
+
     @Extern
     @Override
     public ListenableFuture<Void> deleteAllForProject(String projectId) {
@@ -1586,7 +1689,7 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
-            elastic.get().indices().deleteAsync(new DeleteIndexRequest(elasticUtil.getIndexName(USER_INDEX, projectId)),
+            elastic.get().indices().deleteAsync(new DeleteIndexRequest(indexRebuilder.resolveIndices(elasticUtil.getIndexName(USER_INDEX, projectId))),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.fromFuture(indexingFuture)
                             : ActionListeners.logFailure());
@@ -1616,6 +1719,7 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         if (!userOpt.isPresent()) {
             SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
             if (searchEngine.isWriteElastic()) {
+                indexRebuilder.recordChange(elasticUtil.getIndexName(USER_INDEX, projectId), userId);
                 elastic.get().deleteAsync(new DeleteRequest(elasticUtil.getIndexName(USER_INDEX, projectId), userId),
                         RequestOptions.DEFAULT,
                         searchEngine.isReadElastic()
@@ -1645,6 +1749,7 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     private void indexUser(SettableFuture<Void> indexingFuture, UserModel user) {
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(user.getProjectId());
         if (searchEngine.isWriteElastic()) {
+            indexRebuilder.recordChange(elasticUtil.getIndexName(USER_INDEX, user.getProjectId()), user.getUserId());
             elastic.get().indexAsync(userToEsIndexRequest(user),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic()
@@ -1678,7 +1783,7 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
 
     private IndexRequest userToEsIndexRequest(UserModel user) {
         return new IndexRequest(elasticUtil.getIndexName(USER_INDEX, user.getProjectId()))
-                .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
+                .setRefreshPolicy(refreshPolicy())
                 .id(user.getUserId())
                 .source(gson.toJson(ImmutableMap.of(
                         "name", orNull(user.getName()),
@@ -1713,6 +1818,13 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         return identifiersBuilder.build();
     }
 
+    private WriteRequest.RefreshPolicy refreshPolicy() {
+        if (config.elasticForceRefresh()) {
+            return WriteRequest.RefreshPolicy.IMMEDIATE;
+        }
+        return config.elasticAsyncIndexing() ? WriteRequest.RefreshPolicy.NONE : WriteRequest.RefreshPolicy.WAIT_UNTIL;
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
@@ -15,7 +15,12 @@ import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
 import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.amazonaws.services.dynamodbv2.document.spec.UpdateItemSpec;
+import com.amazonaws.services.dynamodbv2.document.utils.NameMap;
+import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -29,15 +34,20 @@ import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.store.NotificationStore;
 import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.util.ServerSecret;
+import io.dataspray.singletable.IndexSchema;
+import io.dataspray.singletable.ShardPageResult;
 import io.dataspray.singletable.SingleTable;
 import io.dataspray.singletable.TableSchema;
 import lombok.extern.slf4j.Slf4j;
 
+import java.time.Instant;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.stream.StreamSupport;
 
+import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_READ_BATCH_MAX_SIZE;
 import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
 
 @Slf4j
@@ -62,10 +72,14 @@ public class DynamoNotificationStore implements NotificationStore {
     private ServerSecret serverSecretCursor;
 
     private TableSchema<NotificationModel> notificationSchema;
+    private TableSchema<FanOutCheckpoint> fanOutCheckpointSchema;
+    private IndexSchema<FanOutCheckpoint> fanOutCheckpointShardedSchema;
 
     @Inject
     private void setup() {
         notificationSchema = singleTable.parseTableSchema(NotificationModel.class);
+        fanOutCheckpointSchema = singleTable.parseTableSchema(FanOutCheckpoint.class);
+        fanOutCheckpointShardedSchema = singleTable.parseGlobalSecondaryIndexSchema(2, FanOutCheckpoint.class);
     }
 
     @Override
@@ -157,6 +171,73 @@ public class DynamoNotificationStore implements NotificationStore {
                 });
     }
 
+    @Override
+    public boolean fanOutCheckpointPut(FanOutCheckpoint checkpoint, Optional<String> previousLeaseOwnerOpt) {
+        PutItemSpec putItemSpec = new PutItemSpec()
+                .withItem(fanOutCheckpointSchema.toItem(checkpoint));
+        if (previousLeaseOwnerOpt.isPresent()) {
+            putItemSpec.withConditionExpression("attribute_exists(#partitionKey) AND #leaseOwner = :leaseOwner")
+                    .withNameMap(Map.of(
+                            "#partitionKey", fanOutCheckpointSchema.partitionKeyName(),
+                            "#leaseOwner", "leaseOwner"))
+                    .withValueMap(Map.of(
+                            ":leaseOwner", previousLeaseOwnerOpt.get()));
+        } else {
+            putItemSpec.withConditionExpression("attribute_not_exists(#partitionKey)")
+                    .withNameMap(Map.of(
+                            "#partitionKey", fanOutCheckpointSchema.partitionKeyName()));
+        }
+        try {
+            fanOutCheckpointSchema.table().putItem(putItemSpec);
+            return true;
+        } catch (ConditionalCheckFailedException ex) {
+            return false;
+        }
+    }
+
+    @Override
+    public Optional<FanOutCheckpoint> fanOutCheckpointClaim(String fanOutId, String leaseOwner, long leaseExpiresEpochMs) {
+        try {
+            return Optional.of(fanOutCheckpointSchema.fromItem(fanOutCheckpointSchema.table().updateItem(new UpdateItemSpec()
+                            .withPrimaryKey(fanOutCheckpointSchema.primaryKey(Map.of(
+                                    "fanOutId", fanOutId)))
+                            .withConditionExpression("attribute_exists(#partitionKey) AND #leaseExpiresEpochMs < :now")
+                            .withUpdateExpression("SET #leaseOwner = :leaseOwner, #leaseExpiresEpochMs = :leaseExpiresEpochMs")
+                            .withNameMap(new NameMap()
+                                    .with("#partitionKey", fanOutCheckpointSchema.partitionKeyName())
+                                    .with("#leaseOwner", "leaseOwner")
+                                    .with("#leaseExpiresEpochMs", "leaseExpiresEpochMs"))
+                            .withValueMap(new ValueMap()
+                                    .withLong(":now", Instant.now().toEpochMilli())
+                                    .withString(":leaseOwner", leaseOwner)
+                                    .withLong(":leaseExpiresEpochMs", leaseExpiresEpochMs))
+                            .withReturnValues(ReturnValue.ALL_NEW))
+                    .getItem()));
+        } catch (ConditionalCheckFailedException ex) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void fanOutCheckpointDelete(String fanOutId) {
+        fanOutCheckpointSchema.table().deleteItem(new DeleteItemSpec()
+                .withPrimaryKey(fanOutCheckpointSchema.primaryKey(Map.of(
+                        "fanOutId", fanOutId))));
+    }
+
+    @Override
+    public void fanOutCheckpointListAll(Consumer<FanOutCheckpoint> consumer) {
+        Optional<String> cursorOpt = Optional.empty();
+        do {
+            ShardPageResult<FanOutCheckpoint> result = singleTable.fetchShardNextPage(
+                    fanOutCheckpointShardedSchema,
+                    cursorOpt,
+                    DYNAMO_READ_BATCH_MAX_SIZE);
+            cursorOpt = result.getCursorOpt();
+            result.getItems().forEach(consumer);
+        } while (cursorOpt.isPresent());
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
@@ -39,6 +39,8 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -54,6 +56,7 @@ import com.smotana.clearflask.api.model.IdeaStatus;
 import com.smotana.clearflask.api.model.VersionedConfig;
 import com.smotana.clearflask.api.model.VersionedConfigAdmin;
 import com.smotana.clearflask.api.model.Voting;
+import com.smotana.clearflask.store.CacheInvalidationBus;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.WebhookListener.ResourceType;
 import com.smotana.clearflask.store.VoteStore.VoteValue;
@@ -122,6 +125,9 @@ public class DynamoProjectStore implements ProjectStore {
         Duration invitationExpireAfterAccepted();
     }
 
+    private static final String SLUG_CACHE_NAME = "slug";
+    private static final String PROJECT_CACHE_NAME = "project";
+
     @Inject
     private Config config;
     @Inject
@@ -142,6 +148,8 @@ public class DynamoProjectStore implements ProjectStore {
     private ProjectUpgrader projectUpgrader;
     @Inject
     private IntercomUtil intercomUtil;
+    @Inject
+    private CacheInvalidationBus cacheInvalidationBus;
 
     private TableSchema<ProjectModel> projectSchema;
     private IndexSchema<ProjectModel> projectShardedSchema;
@@ -160,6 +168,8 @@ public class DynamoProjectStore implements ProjectStore {
         projectCache = CacheBuilder.newBuilder()
                 .expireAfterWrite(config.configCacheExpireAfterWrite())
                 .build();
+        cacheInvalidationBus.subscribe(SLUG_CACHE_NAME, slugCache::invalidate);
+        cacheInvalidationBus.subscribe(PROJECT_CACHE_NAME, projectCache::invalidate);
 
         projectSchema = singleTable.parseTableSchema(ProjectModel.class);
         projectShardedSchema = singleTable.parseGlobalSecondaryIndexSchema(2, ProjectModel.class);
@@ -393,6 +403,7 @@ public class DynamoProjectStore implements ProjectStore {
                         .withValueMap(Map.of(
                                 ":projectId", projectId)));
                 slugCache.invalidate(slugTo);
+                cacheInvalidationBus.publish(SLUG_CACHE_NAME, slugTo);
             } catch (ConditionalCheckFailedException ex) {
                 throw new ApiException(Response.Status.CONFLICT, "Slug is already taken, please choose another.", ex);
             }
@@ -447,6 +458,7 @@ public class DynamoProjectStore implements ProjectStore {
                                 .withPrimaryKey(slugSchema.primaryKey(ImmutableMap.of(
                                         "slug", slugTo))));
                 slugCache.invalidate(slugTo);
+                cacheInvalidationBus.publish(SLUG_CACHE_NAME, slugTo);
             });
             throw new ApiException(Response.Status.CONFLICT, "Project was modified by someone else while you were editing. Cannot merge changes.", ex);
         }
@@ -468,11 +480,13 @@ public class DynamoProjectStore implements ProjectStore {
                                         projectId,
                                         Instant.now().plus(config.slugExpireAfterMigration()).getEpochSecond()))));
                 slugCache.invalidate(slugFrom);
+                cacheInvalidationBus.publish(SLUG_CACHE_NAME, slugFrom);
             } catch (ConditionalCheckFailedException ex) {
                 log.warn("Updating slug, but previous slug '{}' already doesn't exist?, switching to '{}'", slugFrom, slugTo, ex);
             }
         });
         projectCache.invalidate(projectId);
+        cacheInvalidationBus.publish(PROJECT_CACHE_NAME, projectId);
     }
 
     @Override
@@ -496,6 +510,7 @@ public class DynamoProjectStore implements ProjectStore {
                 .withValueMap(new ValueMap().withStringSet(":webhookListener", packWebhookListener(listener)))
                 .withReturnValues(ReturnValue.ALL_NEW));
         projectCache.invalidate(projectId);
+        cacheInvalidationBus.publish(PROJECT_CACHE_NAME, projectId);
     }
 
     @Extern
@@ -506,6 +521,7 @@ public class DynamoProjectStore implements ProjectStore {
                 .withPrimaryKey(projectSchema.primaryKey(ImmutableMap.of(
                         "projectId", projectId))));
         projectCache.invalidate(projectId);
+        cacheInvalidationBus.publish(PROJECT_CACHE_NAME, projectId);
 
         // Delete Slug
         Iterables.partition(StreamSupport.stream(slugByProjectSchema.index().query(new QuerySpec()
@@ -520,11 +536,15 @@ public class DynamoProjectStore implements ProjectStore {
                         .filter(slug -> projectId.equals(slug.getProjectId()))
                         .collect(ImmutableSet.toImmutableSet()), DYNAMO_WRITE_BATCH_MAX_SIZE)
                 .forEach(slugsBatch -> {
-                    slugCache.invalidateAll(slugsBatch);
+                    ImmutableList<String> slugs = slugsBatch.stream()
+                            .map(SlugModel::getSlug)
+                            .collect(ImmutableList.toImmutableList());
+                    slugCache.invalidateAll(slugs);
+                    slugs.forEach(slug -> cacheInvalidationBus.publish(SLUG_CACHE_NAME, slug));
                     TableWriteItems tableWriteItems = new TableWriteItems(slugSchema.tableName());
-                    slugsBatch.stream()
-                            .map(slugModel -> slugSchema.primaryKey(Map.of(
-                                    "slug", slugModel.getSlug())))
+                    slugs.stream()
+                            .map(slug -> slugSchema.primaryKey(Map.of(
+                                    "slug", slug)))
                             .forEach(tableWriteItems::addPrimaryKeyToDelete);
                     singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
                 });
@@ -619,6 +639,7 @@ public class DynamoProjectStore implements ProjectStore {
                                         Instant.now().plus(config.invitationExpireAfterAccepted()).getEpochSecond())))))
                 .build()));
         projectCache.invalidate(invitation.getProjectId());
+        cacheInvalidationBus.publish(PROJECT_CACHE_NAME, invitation.getProjectId());
         return invitation.getProjectId();
     }
 
@@ -648,6 +669,7 @@ public class DynamoProjectStore implements ProjectStore {
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem()));
         projectCache.put(projectId, Optional.of(project));
+        cacheInvalidationBus.publish(PROJECT_CACHE_NAME, projectId);
         return project;
     }
 
@@ -665,6 +687,7 @@ public class DynamoProjectStore implements ProjectStore {
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem()));
         projectCache.put(projectId, Optional.of(project));
+        cacheInvalidationBus.publish(PROJECT_CACHE_NAME, projectId);
         return project;
     }
 
@@ -700,6 +723,7 @@ public class DynamoProjectStore implements ProjectStore {
                 log.warn("Writing upgraded project failed, will let someone else upgrade it later", ex);
             }
             projectCache.invalidate(projectModel.getProjectId());
+            cacheInvalidationBus.publish(PROJECT_CACHE_NAME, projectModel.getProjectId());
         }
 
         // Upgrade project if necessary
@@ -740,8 +764,10 @@ public class DynamoProjectStore implements ProjectStore {
             this.accountId = projectModel.getAccountId();
             this.projectId = projectModel.getProjectId();
             this.version = projectModel.getVersion();
-            this.versionedConfig = new VersionedConfig(gson.fromJson(projectModel.getConfigJson(), com.smotana.clearflask.api.model.Config.class), projectModel.getVersion());
-            this.versionedConfigAdmin = new VersionedConfigAdmin(gson.fromJson(projectModel.getConfigJson(), ConfigAdmin.class), projectModel.getVersion());
+            // Parse the JSON text once and bind the tree to both views
+            JsonElement configJsonElement = JsonParser.parseString(projectModel.getConfigJson());
+            this.versionedConfig = new VersionedConfig(gson.fromJson(configJsonElement, com.smotana.clearflask.api.model.Config.class), projectModel.getVersion());
+            this.versionedConfigAdmin = new VersionedConfigAdmin(gson.fromJson(configJsonElement, ConfigAdmin.class), projectModel.getVersion());
             this.categoryExpressionToWeight = this.versionedConfig.getConfig().getContent().getCategories().stream()
                     .filter(category -> category.getSupport().getExpress() != null)
                     .filter(category -> category.getSupport().getExpress().getLimitEmojiSet() != null)
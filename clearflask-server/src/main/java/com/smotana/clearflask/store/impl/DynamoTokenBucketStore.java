@@ -0,0 +1,106 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.impl;
+
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.store.TokenBucketStore;
+import io.dataspray.singletable.SingleTable;
+import io.dataspray.singletable.TableSchema;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+
+@Slf4j
+@Singleton
+public class DynamoTokenBucketStore implements TokenBucketStore {
+
+    public interface Config {
+        /**
+         * Attempts to write a bucket when other nodes keep updating it concurrently.
+         */
+        @DefaultValue("5")
+        int maxConflictRetries();
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private SingleTable singleTable;
+
+    private TableSchema<TokenBucket> tokenBucketSchema;
+
+    @Inject
+    private void setup() {
+        tokenBucketSchema = singleTable.parseTableSchema(TokenBucket.class);
+    }
+
+    @Override
+    public double take(String bucketId, double minPermits, double maxPermits, double permitsPerSecond, double capacityInSeconds, double initialPermits) {
+        for (int attempt = 0; ; attempt++) {
+            long nowEpochMs = Instant.now().toEpochMilli();
+            Optional<TokenBucket> bucketOpt = Optional.ofNullable(tokenBucketSchema.fromItem(tokenBucketSchema.table().getItem(new GetItemSpec()
+                    .withPrimaryKey(tokenBucketSchema.primaryKey(Map.of(
+                            "bucketId", bucketId)))
+                    .withConsistentRead(true))));
+            double available = bucketOpt
+                    .map(bucket -> refilledPermits(bucket, nowEpochMs, permitsPerSecond, capacityInSeconds))
+                    .orElse(Math.min(initialPermits, permitsPerSecond * capacityInSeconds));
+            if (available < minPermits) {
+                return available;
+            }
+            double taken = Math.min(available, maxPermits);
+            double remaining = available - taken;
+            long version = bucketOpt.map(TokenBucket::getVersion).orElse(0L);
+
+            PutItemSpec putItemSpec = new PutItemSpec()
+                    .withItem(tokenBucketSchema.toItem(new TokenBucket(
+                            bucketId,
+                            remaining,
+                            nowEpochMs,
+                            version + 1,
+                            Instant.ofEpochMilli(nowEpochMs).getEpochSecond()
+                                    + (long) Math.ceil((permitsPerSecond * capacityInSeconds - remaining) / permitsPerSecond))));
+            if (bucketOpt.isPresent()) {
+                putItemSpec.withConditionExpression("attribute_exists(#partitionKey) AND #version = :version")
+                        .withNameMap(Map.of(
+                                "#partitionKey", tokenBucketSchema.partitionKeyName(),
+                                "#version", "version"))
+                        .withValueMap(Map.of(
+                                ":version", version));
+            } else {
+                putItemSpec.withConditionExpression("attribute_not_exists(#partitionKey)")
+                        .withNameMap(Map.of(
+                                "#partitionKey", tokenBucketSchema.partitionKeyName()));
+            }
+            try {
+                tokenBucketSchema.table().putItem(putItemSpec);
+                return taken;
+            } catch (ConditionalCheckFailedException ex) {
+                if (attempt + 1 >= config.maxConflictRetries()) {
+                    throw ex;
+                }
+                log.trace("Token bucket {} updated concurrently, retrying", bucketId);
+            }
+        }
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(TokenBucketStore.class).to(DynamoTokenBucketStore.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+            }
+        };
+    }
+}
@@ -0,0 +1,46 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.impl;
+
+import com.google.common.collect.Maps;
+import com.google.inject.AbstractModule;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.smotana.clearflask.store.CacheInvalidationBus;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Single node bus delivering every invalidation straight back to this node's subscribers.
+ */
+@Singleton
+public class LoopbackCacheInvalidationBus implements CacheInvalidationBus {
+
+    private final ConcurrentMap<String, List<Consumer<String>>> handlersByCacheName = Maps.newConcurrentMap();
+
+    @Override
+    public void publish(String cacheName, String key) {
+        List<Consumer<String>> handlers = handlersByCacheName.get(cacheName);
+        if (handlers != null) {
+            handlers.forEach(handler -> handler.accept(key));
+        }
+    }
+
+    @Override
+    public void subscribe(String cacheName, Consumer<String> handler) {
+        handlersByCacheName.computeIfAbsent(cacheName, c -> new CopyOnWriteArrayList<>())
+                .add(handler);
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(CacheInvalidationBus.class).to(LoopbackCacheInvalidationBus.class).asEagerSingleton();
+            }
+        };
+    }
+}
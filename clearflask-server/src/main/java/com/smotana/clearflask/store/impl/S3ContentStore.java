@@ -4,11 +4,25 @@ package com.smotana.clearflask.store.impl;
 
 import com.amazonaws.HttpMethod;
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
 import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -17,14 +31,25 @@ import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.core.ManagedService;
 import com.smotana.clearflask.store.ContentStore;
+import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.util.IdUtil;
+import lombok.NonNull;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Date;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -49,6 +74,35 @@ public class S3ContentStore extends ManagedService implements ContentStore {
 
         @DefaultValue("PT3H")
         Duration presignedUrlExpiry();
+
+        /**
+         * Signing time is aligned to buckets of this length so a key signs to the same URL for the whole bucket,
+         * letting browsers cache the content. Must be shorter than presignedUrlExpiry, a URL is served with at
+         * least their difference remaining.
+         */
+        @DefaultValue("PT1H")
+        Duration signedUrlTimeBucket();
+
+        @DefaultValue("100000")
+        long signedUrlCacheMaximumSize();
+
+        /**
+         * Uploads larger than this are streamed in parts, S3 requires parts of at least 5MB.
+         */
+        @DefaultValue("8388608")
+        int multipartPartSizeInBytes();
+
+        /**
+         * Parts buffered or uploading at once per upload, bounds the memory of a single upload.
+         */
+        @DefaultValue("4")
+        int multipartMaxPartsInFlight();
+
+        /**
+         * Threads shared by all part uploads and deletions.
+         */
+        @DefaultValue("8")
+        int transferThreads();
     }
 
     @Inject
@@ -56,11 +110,27 @@ public class S3ContentStore extends ManagedService implements ContentStore {
     @Inject
     private AmazonS3 s3;
 
+    private Cache<String, SignedUrl> signedUrlCache;
+    private ListeningExecutorService transferExecutor;
+
     @Override
     protected void serviceStart() throws Exception {
         if (config.createBucket()) {
             s3.createBucket(config.bucketName());
         }
+        signedUrlCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.presignedUrlExpiry())
+                .maximumSize(config.signedUrlCacheMaximumSize())
+                .recordStats()
+                .build();
+        transferExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(config.transferThreads(),
+                new ThreadFactoryBuilder().setNameFormat("S3ContentStore-transfer-%d").build()));
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        transferExecutor.shutdownNow();
+        transferExecutor.awaitTermination(30, TimeUnit.SECONDS);
     }
 
     @Override
@@ -73,11 +143,79 @@ public class S3ContentStore extends ManagedService implements ContentStore {
         ContentUrl contentUrl = generateContentUrl(projectId, userId, contentType);
         ObjectMetadata metadata = new ObjectMetadata();
         metadata.setContentType(contentType.getMediaType());
-        metadata.setContentLength(length);
-        s3.putObject(config.bucketName(), contentUrl.getKey(), inputStream, metadata);
+        if (length > config.multipartPartSizeInBytes()) {
+            uploadMultipart(contentUrl.getKey(), inputStream, metadata);
+        } else {
+            metadata.setContentLength(length);
+            s3.putObject(config.bucketName(), contentUrl.getKey(), inputStream, metadata);
+        }
         return contentUrl;
     }
 
+    /**
+     * Uploads each part as soon as it is read from the stream, with a bounded number of parts in flight. A failed part
+     * aborts the upload without reading the rest of the stream.
+     */
+    private void uploadMultipart(String key, InputStream inputStream, ObjectMetadata metadata) {
+        String uploadId = s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(config.bucketName(), key, metadata))
+                .getUploadId();
+        Semaphore partsInFlight = new Semaphore(config.multipartMaxPartsInFlight());
+        List<ListenableFuture<PartETag>> partFutures = Lists.newArrayList();
+        try {
+            for (int partNumber = 1; ; partNumber++) {
+                partsInFlight.acquire();
+                // Stop reading the stream as soon as any part failed, the upload is aborted below
+                for (ListenableFuture<PartETag> partFuture : partFutures) {
+                    if (partFuture.isDone()) {
+                        Futures.getDone(partFuture);
+                    }
+                }
+                byte[] part;
+                try {
+                    part = inputStream.readNBytes(config.multipartPartSizeInBytes());
+                } catch (IOException ex) {
+                    partsInFlight.release();
+                    throw new UncheckedIOException(ex);
+                }
+                if (part.length == 0 && partNumber > 1) {
+                    partsInFlight.release();
+                    break;
+                }
+                int partNumberFinal = partNumber;
+                ListenableFuture<PartETag> partFuture = transferExecutor.submit(() -> s3.uploadPart(new UploadPartRequest()
+                                .withBucketName(config.bucketName())
+                                .withKey(key)
+                                .withUploadId(uploadId)
+                                .withPartNumber(partNumberFinal)
+                                .withInputStream(new ByteArrayInputStream(part))
+                                .withPartSize(part.length))
+                        .getPartETag());
+                // Released once done rather than when the upload returns, so a failure is seen by the next acquirer
+                partFuture.addListener(partsInFlight::release, MoreExecutors.directExecutor());
+                partFutures.add(partFuture);
+                if (part.length < config.multipartPartSizeInBytes()) {
+                    break;
+                }
+            }
+            List<PartETag> partETags = Futures.allAsList(partFutures).get();
+            s3.completeMultipartUpload(new CompleteMultipartUploadRequest(config.bucketName(), key, uploadId, partETags));
+        } catch (Exception ex) {
+            partFutures.forEach(partFuture -> partFuture.cancel(true));
+            try {
+                s3.abortMultipartUpload(new AbortMultipartUploadRequest(config.bucketName(), key, uploadId));
+            } catch (Exception abortEx) {
+                log.warn("Failed to abort multipart upload of key {}", key, abortEx);
+            }
+            if (ex instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            if (ex instanceof RuntimeException) {
+                throw (RuntimeException) ex;
+            }
+            throw new RuntimeException("Failed multipart upload of key " + key, ex);
+        }
+    }
+
     @Override
     public String uploadAndSign(String projectId, String userId, ContentType contentType, InputStream inputStream, int length) {
         ContentUrl contentUrl = upload(projectId, userId, contentType, inputStream, length);
@@ -107,6 +245,7 @@ public class S3ContentStore extends ManagedService implements ContentStore {
             return;
         }
         s3.deleteObject(config.bucketName(), contentUrlOpt.get().getKey());
+        signedUrlCache.invalidate(contentUrlOpt.get().getKey());
     }
 
     @Override
@@ -119,18 +258,37 @@ public class S3ContentStore extends ManagedService implements ContentStore {
         deleteAllForPrefix(KEY_PREFIX + projectId + "/");
     }
 
+    /**
+     * Deletes each listed page of up to a thousand keys in a single request, while the next page is being listed.
+     */
     private void deleteAllForPrefix(String prefix) {
-        ObjectListing objectListing = s3.listObjects(config.bucketName(), prefix);
-        while (true) {
-            s3.deleteObjects(new DeleteObjectsRequest(config.bucketName())
-                    .withKeys(objectListing.getObjectSummaries().stream()
-                            .map(S3ObjectSummary::getKey)
-                            .toArray(String[]::new)));
-            if (objectListing.isTruncated()) {
-                objectListing = s3.listNextBatchOfObjects(objectListing);
-            } else {
-                break;
+        List<ListenableFuture<?>> deleteFutures = Lists.newArrayList();
+        try {
+            ObjectListing objectListing = s3.listObjects(config.bucketName(), prefix);
+            while (true) {
+                String[] keys = objectListing.getObjectSummaries().stream()
+                        .map(S3ObjectSummary::getKey)
+                        .toArray(String[]::new);
+                if (keys.length > 0) {
+                    deleteFutures.add(transferExecutor.submit(() -> {
+                        s3.deleteObjects(new DeleteObjectsRequest(config.bucketName())
+                                .withKeys(keys)
+                                .withQuiet(true));
+                        signedUrlCache.invalidateAll(List.of(keys));
+                    }));
+                }
+                if (objectListing.isTruncated()) {
+                    objectListing = s3.listNextBatchOfObjects(objectListing);
+                } else {
+                    break;
+                }
             }
+            Futures.allAsList(deleteFutures).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted deleting prefix " + prefix, ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed deleting prefix " + prefix, ex.getCause());
         }
     }
 
@@ -147,11 +305,32 @@ public class S3ContentStore extends ManagedService implements ContentStore {
 
     @Override
     public String signUrl(ContentUrl contentUrl) {
-        return s3.generatePresignedUrl(
+        Instant bucketStart = currentSignedUrlBucketStart();
+        SignedUrl signedUrl = signedUrlCache.getIfPresent(contentUrl.getKey());
+        if (signedUrl == null || !bucketStart.equals(signedUrl.getBucketStart())) {
+            signedUrl = sign(contentUrl.getKey(), bucketStart);
+            signedUrlCache.put(contentUrl.getKey(), signedUrl);
+        }
+        return signedUrl.getUrl();
+    }
+
+    private SignedUrl sign(String key, Instant bucketStart) {
+        return new SignedUrl(s3.generatePresignedUrl(
                 config.bucketName(),
-                contentUrl.getKey(),
-                Date.from(Instant.now().plus(config.presignedUrlExpiry())),
-                HttpMethod.GET).toString();
+                key,
+                Date.from(bucketStart.plus(config.presignedUrlExpiry())),
+                HttpMethod.GET).toString(), bucketStart);
+    }
+
+    private Instant currentSignedUrlBucketStart() {
+        long bucketMillis = Math.max(1L, config.signedUrlTimeBucket().toMillis());
+        long nowMillis = System.currentTimeMillis();
+        return Instant.ofEpochMilli(nowMillis - (nowMillis % bucketMillis));
+    }
+
+    @Extern
+    public CacheStats getSignedUrlCacheStats() {
+        return signedUrlCache.stats();
     }
 
     @Override
@@ -187,6 +366,14 @@ public class S3ContentStore extends ManagedService implements ContentStore {
         return new ContentUrl(url, key, fileName, null, projectId, userId, contentType);
     }
 
+    @Value
+    private static class SignedUrl {
+        @NonNull
+        String url;
+        @NonNull
+        Instant bucketStart;
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
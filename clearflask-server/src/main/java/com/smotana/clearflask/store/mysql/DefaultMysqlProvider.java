@@ -3,6 +3,7 @@
 package com.smotana.clearflask.store.mysql;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -19,15 +20,31 @@ import com.smotana.clearflask.core.ServiceInjector.Environment;
 import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.util.NetworkUtil;
 import com.smotana.clearflask.web.Application;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
 import lombok.SneakyThrows;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.jooq.CloseableDSLContext;
 import org.jooq.DSLContext;
 import org.jooq.SQLDialect;
 import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
 
+import javax.sql.DataSource;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import static com.smotana.clearflask.util.IdUtil.CONTENT_UNIQUE_MAX_LENGTH;
 import static com.smotana.clearflask.util.IdUtil.UUID_DASHLESS_MAX_LENGTH;
@@ -54,6 +71,57 @@ public class DefaultMysqlProvider extends ManagedService implements Provider<DSL
         @DefaultValue("clearflask")
         String databaseName();
 
+        /**
+         * If disabled, every query opens a new connection.
+         */
+        @DefaultValue("true")
+        boolean poolEnabled();
+
+        @DefaultValue("2")
+        int poolMinIdle();
+
+        @DefaultValue("20")
+        int poolMaxSize();
+
+        /**
+         * Max time to wait for a connection from the pool before failing.
+         */
+        @DefaultValue("PT10S")
+        Duration poolConnectionTimeout();
+
+        @DefaultValue("PT5S")
+        Duration poolValidationTimeout();
+
+        @DefaultValue("PT10M")
+        Duration poolIdleTimeout();
+
+        @DefaultValue("PT30M")
+        Duration poolMaxLifetime();
+
+        /**
+         * Log a warning if a connection is held longer than this. Zero to disable.
+         */
+        @DefaultValue("PT1M")
+        Duration poolLeakDetectionThreshold();
+
+        /**
+         * Threads for async query execution; replaces the common ForkJoin pool used by jOOQ by default.
+         */
+        @DefaultValue("20")
+        int asyncExecutorThreads();
+
+        /**
+         * When queue is full, queries are run on the calling thread instead.
+         */
+        @DefaultValue("1000")
+        int asyncExecutorQueueSize();
+
+        /**
+         * Lets the driver send JDBC batches, such as from reindexing, in as few round trips as possible.
+         */
+        @DefaultValue("true")
+        boolean rewriteBatchedStatements();
+
         /** For testing only */
         @DefaultValue("false")
         boolean recreateDatabaseOnStartup();
@@ -73,12 +141,62 @@ public class DefaultMysqlProvider extends ManagedService implements Provider<DSL
     private Provider<DSLContext> clientProvider;
 
     private Optional<DSLContext> clientOpt = Optional.empty();
+    private Optional<HikariDataSource> pooledDataSourceOpt = Optional.empty();
+    private Optional<ExecutorService> asyncExecutorOpt = Optional.empty();
+    private final PoolMetricsTrackerFactory poolMetricsTrackerFactory = new PoolMetricsTrackerFactory();
 
     @SneakyThrows
     @Override
     public DSLContext get() {
         if (clientOpt.isPresent()) return clientOpt.get();
 
+        waitUntilDeps();
+
+        log.info("Opening Mysql client on {}:{}", config.host(), config.port());
+        Class.forName("com.mysql.cj.jdbc.Driver");
+        System.setProperty("org.jooq.no-logo", "true");
+        MysqlDataSource mysqlDataSource = new MysqlDataSource();
+        mysqlDataSource.setURL(getConnectionUrl(true));
+        mysqlDataSource.setPassword(config.pass());
+        mysqlDataSource.setUser(config.user());
+        mysqlDataSource.setDatabaseName(config.databaseName());
+
+        DataSource dataSource;
+        if (config.poolEnabled()) {
+            HikariConfig hikariConfig = new HikariConfig();
+            hikariConfig.setPoolName("mysql-" + config.databaseName());
+            hikariConfig.setDataSource(mysqlDataSource);
+            hikariConfig.setMinimumIdle(config.poolMinIdle());
+            hikariConfig.setMaximumPoolSize(config.poolMaxSize());
+            hikariConfig.setConnectionTimeout(config.poolConnectionTimeout().toMillis());
+            hikariConfig.setValidationTimeout(config.poolValidationTimeout().toMillis());
+            hikariConfig.setIdleTimeout(config.poolIdleTimeout().toMillis());
+            hikariConfig.setMaxLifetime(config.poolMaxLifetime().toMillis());
+            hikariConfig.setLeakDetectionThreshold(config.poolLeakDetectionThreshold().toMillis());
+            hikariConfig.setMetricsTrackerFactory(poolMetricsTrackerFactory);
+            // Do not fail if the database is not created yet, connections are opened once it is
+            hikariConfig.setInitializationFailTimeout(-1);
+            pooledDataSourceOpt = Optional.of(new HikariDataSource(hikariConfig));
+            dataSource = pooledDataSourceOpt.get();
+        } else {
+            dataSource = mysqlDataSource;
+        }
+
+        asyncExecutorOpt = Optional.of(new ThreadPoolExecutor(
+                config.asyncExecutorThreads(), config.asyncExecutorThreads(), 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(config.asyncExecutorQueueSize()),
+                new ThreadFactoryBuilder().setNameFormat("DefaultMysqlProvider-async-%d").build(),
+                new ThreadPoolExecutor.CallerRunsPolicy()));
+        ExecutorService asyncExecutor = asyncExecutorOpt.get();
+
+        clientOpt = Optional.of(DSL.using(new DefaultConfiguration()
+                .set(dataSource)
+                .set(SQLDialect.MYSQL)
+                .set(() -> asyncExecutor)));
+        return clientOpt.get();
+    }
+
+    private void waitUntilDeps() {
         if (configApp.startupWaitUntilDeps()) {
             log.info("Waiting for Mysql to be up {}:{}", config.host(), config.port());
             try {
@@ -87,34 +205,106 @@ public class DefaultMysqlProvider extends ManagedService implements Provider<DSL
                 throw new ProvisionException("Failed to wait until Mysql port opened", ex);
             }
         }
+    }
 
-        log.info("Opening Mysql client on {}:{}", config.host(), config.port());
-        Class.forName("com.mysql.cj.jdbc.Driver");
-        System.setProperty("org.jooq.no-logo", "true");
-        MysqlDataSource dataSource = new MysqlDataSource();
-        dataSource.setURL(getConnectionUrl(true));
-        dataSource.setPassword(config.pass());
-        dataSource.setUser(config.user());
-        dataSource.setDatabaseName(config.databaseName());
-        clientOpt = Optional.of(DSL.using(dataSource, SQLDialect.MYSQL));
-        return clientOpt.get();
+    @Value
+    public static class MysqlPoolStats {
+        boolean poolEnabled;
+        int activeConnections;
+        int idleConnections;
+        int totalConnections;
+        int threadsAwaitingConnection;
+        long connectionsAcquired;
+        long connectionTimeouts;
+        double avgAcquireWaitMillis;
+        double maxAcquireWaitMillis;
+        double avgUsageMillis;
+        int asyncExecutorActiveThreads;
+        int asyncExecutorQueueSize;
+    }
+
+    @Extern
+    public MysqlPoolStats getPoolStats() {
+        Optional<HikariPoolMXBean> poolBeanOpt = pooledDataSourceOpt.map(HikariDataSource::getHikariPoolMXBean);
+        Optional<ThreadPoolExecutor> threadPoolOpt = asyncExecutorOpt
+                .filter(ThreadPoolExecutor.class::isInstance)
+                .map(ThreadPoolExecutor.class::cast);
+        return new MysqlPoolStats(
+                poolBeanOpt.isPresent(),
+                poolBeanOpt.map(HikariPoolMXBean::getActiveConnections).orElse(0),
+                poolBeanOpt.map(HikariPoolMXBean::getIdleConnections).orElse(0),
+                poolBeanOpt.map(HikariPoolMXBean::getTotalConnections).orElse(0),
+                poolBeanOpt.map(HikariPoolMXBean::getThreadsAwaitingConnection).orElse(0),
+                poolMetricsTrackerFactory.acquiredCount.sum(),
+                poolMetricsTrackerFactory.timeoutCount.sum(),
+                average(poolMetricsTrackerFactory.acquiredNanosTotal.sum(), poolMetricsTrackerFactory.acquiredCount.sum()) / 1_000_000d,
+                poolMetricsTrackerFactory.acquiredNanosMax.get() / 1_000_000d,
+                average(poolMetricsTrackerFactory.usageMillisTotal.sum(), poolMetricsTrackerFactory.usageCount.sum()),
+                threadPoolOpt.map(ThreadPoolExecutor::getActiveCount).orElse(0),
+                threadPoolOpt.map(e -> e.getQueue().size()).orElse(0));
+    }
+
+    private static double average(long total, long count) {
+        return count == 0 ? 0d : (double) total / count;
+    }
+
+    private static class PoolMetricsTrackerFactory implements MetricsTrackerFactory {
+        private final LongAdder acquiredCount = new LongAdder();
+        private final LongAdder acquiredNanosTotal = new LongAdder();
+        private final AtomicLong acquiredNanosMax = new AtomicLong();
+        private final LongAdder usageCount = new LongAdder();
+        private final LongAdder usageMillisTotal = new LongAdder();
+        private final LongAdder timeoutCount = new LongAdder();
+
+        @Override
+        public IMetricsTracker create(String poolName, PoolStats poolStats) {
+            return new IMetricsTracker() {
+                @Override
+                public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                    acquiredCount.increment();
+                    acquiredNanosTotal.add(elapsedAcquiredNanos);
+                    acquiredNanosMax.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+                }
+
+                @Override
+                public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                    usageCount.increment();
+                    usageMillisTotal.add(elapsedBorrowedMillis);
+                }
+
+                @Override
+                public void recordConnectionTimeout() {
+                    timeoutCount.increment();
+                }
+            };
+        }
     }
 
     @Override
     protected void serviceStart() throws Exception {
         if (configApp.defaultSearchEngine().isWriteMysql()) {
-            clientProvider.get(); // Load eagerly when enabled
+            // Database must exist before the pool opens its first connections to it
             if (configApp.createIndexesOnStartup()) {
+                waitUntilDeps();
                 if (config.recreateDatabaseOnStartup()) {
                     dropDatabase();
                 }
                 createDatabase();
             }
+            clientProvider.get(); // Load eagerly when enabled
         }
     }
 
     @Override
     protected void serviceStop() throws Exception {
+        if (asyncExecutorOpt.isPresent()) {
+            asyncExecutorOpt.get().shutdown();
+            asyncExecutorOpt.get().awaitTermination(30, TimeUnit.SECONDS);
+        }
+        if (pooledDataSourceOpt.isPresent()) {
+            pooledDataSourceOpt.get().close();
+        }
+        // Only once nothing else holds connections to it
         if (config.dropDatabaseOnShutdown() && configApp.defaultSearchEngine().isWriteMysql()) {
             dropDatabase();
         }
@@ -144,7 +334,8 @@ public class DefaultMysqlProvider extends ManagedService implements Provider<DSL
     private String getConnectionUrl(boolean includeDatabase) {
         String url = "jdbc:mysql://" + config.host() + ":" + config.port();
         return !includeDatabase ? url
-                : url + "/" + config.databaseName();
+                : url + "/" + config.databaseName()
+                + "?rewriteBatchedStatements=" + config.rewriteBatchedStatements();
     }
 
     public static Module module() {
@@ -2,7 +2,10 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.store.mysql;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.primitives.Ints;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
@@ -18,6 +21,7 @@ import com.smotana.clearflask.store.elastic.ElasticUtil.ConfigSearch;
 import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore.SearchIdeasConditions;
 import com.smotana.clearflask.util.MathUtil;
 import com.smotana.clearflask.util.ServerSecret;
+import lombok.NonNull;
 import lombok.SneakyThrows;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
@@ -30,6 +34,9 @@ import org.jooq.JoinType;
 import org.jooq.Queries;
 import org.jooq.Query;
 import org.jooq.Record;
+import org.jooq.SelectField;
+import org.jooq.SortField;
+import org.jooq.SortOrder;
 import org.jooq.Table;
 import org.jooq.TableField;
 import org.jooq.exception.DataAccessException;
@@ -39,23 +46,32 @@ import org.jooq.impl.DSL;
 import javax.annotation.Nullable;
 import java.io.Reader;
 import java.io.StringReader;
+import java.math.BigDecimal;
 import java.sql.SQLException;
 import java.sql.SQLSyntaxErrorException;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Singleton
 public class MysqlUtil {
+    private static final String SEEK_CURSOR_PREFIX = "seek:";
+    private static final String SEEK_CURSOR_DELIMITER = ".";
+    private static final String SEEK_CURSOR_NULL = "~";
+
     @Inject
     private Provider<DSLContext> mysql;
     @Inject
@@ -82,10 +98,11 @@ public class MysqlUtil {
         if (qs.length <= 0) {
             return CompletableFuture.completedFuture(0);
         }
-        CompletionStage<Integer> completionStage = qs[0].executeAsync();
+        Executor executor = mysql.get().configuration().executorProvider().provide();
+        CompletionStage<Integer> completionStage = qs[0].executeAsync(executor);
         for (int i = 1; i < qs.length; i++) {
             Query nextQuery = qs[i];
-            completionStage = completionStage.thenComposeAsync(count -> nextQuery.executeAsync());
+            completionStage = completionStage.thenComposeAsync(count -> nextQuery.executeAsync(executor), executor);
         }
         return completionStage;
     }
@@ -259,6 +276,130 @@ public class MysqlUtil {
                 .map(serverSecretCursor::encryptString);
     }
 
+    /**
+     * Field to sort by using keyset pagination. The last field in a list must be unique to have stable tie-breaking.
+     */
+    @Value
+    public static class SeekField<T> {
+        @NonNull
+        Field<T> field;
+        @NonNull
+        SortOrder sortOrder;
+    }
+
+    public static <T> SeekField<T> seekField(Field<T> field, SortOrder sortOrder) {
+        return new SeekField<>(field, sortOrder);
+    }
+
+    public ImmutableList<SortField<?>> seekSortFields(List<SeekField<?>> seekFields) {
+        return seekFields.stream()
+                .map(seekField -> seekField.getField().sort(seekField.getSortOrder()))
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    /**
+     * Fields to select so the last row can be turned into a cursor using {@link #nextSeekCursor}.
+     */
+    public ImmutableSet<SelectField<?>> seekSelectFields(List<SeekField<?>> seekFields, SelectField<?>... fields) {
+        return ImmutableSet.<SelectField<?>>builder()
+                .add(fields)
+                .addAll(seekFields.stream()
+                        .map(SeekField::getField)
+                        .iterator())
+                .build();
+    }
+
+    /**
+     * Condition selecting rows strictly after the row encoded in the cursor. Cursors that are not seek cursors,
+     * such as offset cursors issued previously, do not add a condition.
+     * <p>
+     * Follows MySQL ordering of nulls: first in ascending order, last in descending order.
+     */
+    public Condition seekCondition(List<SeekField<?>> seekFields, Optional<String> cursorOpt) {
+        Optional<List<Optional<String>>> valuesOpt = cursorOpt
+                .map(serverSecretCursor::decryptString)
+                .filter(cursor -> cursor.startsWith(SEEK_CURSOR_PREFIX))
+                .map(cursor -> Splitter.on(SEEK_CURSOR_DELIMITER)
+                        .splitToList(cursor.substring(SEEK_CURSOR_PREFIX.length()))
+                        .stream()
+                        .map(value -> SEEK_CURSOR_NULL.equals(value)
+                                ? Optional.<String>empty()
+                                : Optional.of(new String(Base64.getUrlDecoder().decode(value), Charsets.UTF_8)))
+                        .collect(Collectors.toList()));
+        if (valuesOpt.isEmpty()) {
+            return DSL.noCondition();
+        }
+        List<Optional<String>> values = valuesOpt.get();
+        if (values.size() != seekFields.size()) {
+            log.info("Seek cursor with {} values does not match {} sort fields, ignoring", values.size(), seekFields.size());
+            return DSL.noCondition();
+        }
+        Condition condition = DSL.falseCondition();
+        Condition previousEqual = DSL.noCondition();
+        for (int i = 0; i < seekFields.size(); i++) {
+            condition = condition.or(previousEqual.and(seekAfter(seekFields.get(i), values.get(i))));
+            previousEqual = previousEqual.and(seekEqual(seekFields.get(i), values.get(i)));
+        }
+        return condition;
+    }
+
+    /**
+     * Cursor pointing after the last result, or empty if there are no more results.
+     */
+    public Optional<String> nextSeekCursor(ConfigSearch configSearch, Optional<Integer> sizeOpt, List<SeekField<?>> seekFields, List<? extends Record> results) {
+        if (results.isEmpty() || results.size() < limit(configSearch, sizeOpt)) {
+            return Optional.empty();
+        }
+        Record lastRecord = results.get(results.size() - 1);
+        return Optional.of(SEEK_CURSOR_PREFIX + seekFields.stream()
+                        .map(seekField -> Optional.ofNullable(lastRecord.get(seekField.getField()))
+                                .map(value -> Base64.getUrlEncoder().withoutPadding().encodeToString(
+                                        value.toString().getBytes(Charsets.UTF_8)))
+                                .orElse(SEEK_CURSOR_NULL))
+                        .collect(Collectors.joining(SEEK_CURSOR_DELIMITER)))
+                .map(serverSecretCursor::encryptString);
+    }
+
+    private <T> Condition seekAfter(SeekField<T> seekField, Optional<String> valueOpt) {
+        Field<T> field = seekField.getField();
+        boolean isDesc = SortOrder.DESC.equals(seekField.getSortOrder());
+        if (valueOpt.isEmpty()) {
+            return isDesc ? DSL.falseCondition() : field.isNotNull();
+        }
+        T value = parseSeekValue(field.getType(), valueOpt.get());
+        return isDesc ? field.lt(value).or(field.isNull()) : field.gt(value);
+    }
+
+    private <T> Condition seekEqual(SeekField<T> seekField, Optional<String> valueOpt) {
+        Field<T> field = seekField.getField();
+        if (valueOpt.isEmpty()) {
+            return field.isNull();
+        }
+        return field.eq(parseSeekValue(field.getType(), valueOpt.get()));
+    }
+
+    private <T> T parseSeekValue(Class<T> type, String value) {
+        final Object parsed;
+        if (type == String.class) {
+            parsed = value;
+        } else if (type == Long.class) {
+            parsed = Long.valueOf(value);
+        } else if (type == Integer.class) {
+            parsed = Integer.valueOf(value);
+        } else if (type == Double.class) {
+            parsed = Double.valueOf(value);
+        } else if (type == BigDecimal.class) {
+            parsed = new BigDecimal(value);
+        } else if (type == Boolean.class) {
+            parsed = Boolean.valueOf(value);
+        } else if (type == Instant.class) {
+            parsed = Instant.parse(value);
+        } else {
+            throw new IllegalArgumentException("Unsupported seek field type " + type);
+        }
+        return type.cast(parsed);
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
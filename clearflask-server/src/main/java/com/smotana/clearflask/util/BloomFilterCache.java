@@ -0,0 +1,164 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.store.UserStore.UserModel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Value;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * Cache of decoded per-user Bloom filters to avoid deserializing the same filter on every request.
+ * <p>
+ * Entries are keyed by the hash of the serialized filter so an updated filter is never served stale. Returned
+ * filters are shared and must not be modified; use {@link BloomFilter#copy()} before calling
+ * {@link BloomFilter#put(Object)}.
+ */
+@Singleton
+public class BloomFilterCache {
+
+    public interface Config {
+        @DefaultValue("true")
+        boolean enabled();
+
+        /**
+         * Total size of all serialized filters kept in cache.
+         */
+        @DefaultValue("67108864")
+        long maxWeightInBytes();
+
+        @DefaultValue("PT10M")
+        Duration expireAfterAccess();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public enum Kind {
+        VOTE(UserModel::getVoteBloom),
+        EXPRESS(UserModel::getExpressBloom),
+        FUND(UserModel::getFundBloom),
+        COMMENT_VOTE(UserModel::getCommentVoteBloom);
+
+        private final Function<UserModel, byte[]> bytesGetter;
+    }
+
+    @Value
+    private static class BloomFilterKey {
+        String projectId;
+        String userId;
+        Kind kind;
+        HashCode contentHash;
+    }
+
+    @Value
+    private static class DecodedBloomFilter {
+        BloomFilter<CharSequence> bloomFilter;
+        int serializedSize;
+    }
+
+    @Inject
+    private Config config;
+
+    private Cache<BloomFilterKey, DecodedBloomFilter> cache;
+
+    @Inject
+    private void setup() {
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(config.maxWeightInBytes())
+                .<BloomFilterKey, DecodedBloomFilter>weigher((key, decoded) -> decoded.getSerializedSize())
+                .expireAfterAccess(config.expireAfterAccess())
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the decoded filter of given kind for the user, or empty if the user has none yet.
+     */
+    public Optional<BloomFilter<CharSequence>> get(UserModel user, Kind kind) {
+        return get(user.getProjectId(), user.getUserId(), kind, kind.getBytesGetter().apply(user));
+    }
+
+    public Optional<BloomFilter<CharSequence>> get(String projectId, String userId, Kind kind, byte[] bytes) {
+        if (bytes == null) {
+            return Optional.empty();
+        }
+        if (!config.enabled()) {
+            return Optional.of(decode(bytes));
+        }
+        try {
+            return Optional.of(cache.get(
+                            new BloomFilterKey(projectId, userId, kind, hash(bytes)),
+                            () -> new DecodedBloomFilter(decode(bytes), bytes.length))
+                    .getBloomFilter());
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Convenience for checking a single item; prefer fetching the filter once when checking many items.
+     */
+    public boolean mightContain(UserModel user, Kind kind, String item) {
+        return get(user, kind)
+                .map(bloomFilter -> bloomFilter.mightContain(item))
+                .orElse(false);
+    }
+
+    /**
+     * Primes the cache with an already decoded filter after it has been serialized and persisted. The filter
+     * must not be modified afterwards.
+     */
+    public void put(String projectId, String userId, Kind kind, byte[] bytes, BloomFilter<CharSequence> bloomFilter) {
+        if (!config.enabled()) {
+            return;
+        }
+        cache.put(new BloomFilterKey(projectId, userId, kind, hash(bytes)), new DecodedBloomFilter(bloomFilter, bytes.length));
+    }
+
+    @Extern
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    @Extern
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private HashCode hash(byte[] bytes) {
+        return Hashing.murmur3_128().hashBytes(bytes);
+    }
+
+    private BloomFilter<CharSequence> decode(byte[] bytes) {
+        return BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8));
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(BloomFilterCache.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+            }
+        };
+    }
+}
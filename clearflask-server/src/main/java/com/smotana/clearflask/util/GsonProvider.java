@@ -3,6 +3,9 @@
 package com.smotana.clearflask.util;
 
 import com.dampcake.gson.immutable.ImmutableAdapterFactory;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -13,18 +16,27 @@ import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import com.smotana.clearflask.api.model.ConfigAdmin;
+import com.smotana.clearflask.api.model.VersionedConfig;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.lang.reflect.Type;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
 
 @Slf4j
 @Singleton
@@ -53,6 +65,8 @@ public class GsonProvider implements Provider<Gson> {
                 .registerTypeAdapterFactory(ExplicitNull.get());
         if (useConfigAdminUpgrader) {
             gsonBuilder.registerTypeAdapter(ConfigAdmin.class, new ConfigAdminUpgrader());
+            gsonBuilder.registerTypeAdapterFactory(new SerializationCacheAdapterFactory(ImmutableSet.of(
+                    VersionedConfig.class)));
         }
         return gsonBuilder.create();
     }
@@ -98,6 +112,56 @@ public class GsonProvider implements Provider<Gson> {
         }
     }
 
+    /**
+     * Remembers the serialized form of large immutable objects that are written out repeatedly, such as a project's
+     * config which is held by the project cache until its next version. Entries are keyed by instance identity and
+     * are dropped once the instance is garbage collected.
+     */
+    private static class SerializationCacheAdapterFactory implements TypeAdapterFactory {
+        private final ImmutableSet<Class<?>> cachedTypes;
+        private final Cache<Object, String> serializedCache = CacheBuilder.newBuilder()
+                .weakKeys()
+                .build();
+
+        private SerializationCacheAdapterFactory(ImmutableSet<Class<?>> cachedTypes) {
+            this.cachedTypes = cachedTypes;
+        }
+
+        @Override
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+            if (!cachedTypes.contains(typeToken.getRawType())) {
+                return null;
+            }
+            TypeAdapter<T> delegate = gson.getDelegateAdapter(this, typeToken);
+            return new TypeAdapter<T>() {
+                @Override
+                public void write(JsonWriter out, T value) throws IOException {
+                    if (value == null) {
+                        delegate.write(out, null);
+                        return;
+                    }
+                    String json;
+                    try {
+                        json = serializedCache.get(value, () -> {
+                            // Use a writer with this Gson's settings, notably to omit nulls
+                            StringWriter stringWriter = new StringWriter();
+                            delegate.write(gson.newJsonWriter(stringWriter), value);
+                            return stringWriter.toString();
+                        });
+                    } catch (ExecutionException ex) {
+                        throw new IOException(ex.getCause());
+                    }
+                    out.jsonValue(json);
+                }
+
+                @Override
+                public T read(JsonReader in) throws IOException {
+                    return delegate.read(in);
+                }
+            };
+        }
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
@@ -2,7 +2,6 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.web.resource;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
@@ -11,7 +10,6 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
 import com.google.inject.multibindings.Multibinder;
@@ -47,11 +45,12 @@ import com.smotana.clearflask.store.UserStore.UserModel;
 import com.smotana.clearflask.store.VoteStore;
 import com.smotana.clearflask.store.VoteStore.VoteValue;
 import com.smotana.clearflask.store.impl.DynamoElasticCommentStore;
-import com.smotana.clearflask.util.BloomFilters;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.web.ApiException;
 import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.ExtendedSecurityContext;
 import com.smotana.clearflask.web.security.Role;
+import com.smotana.clearflask.web.util.RecentWrites;
 import com.smotana.clearflask.web.util.WebhookService;
 import lombok.extern.slf4j.Slf4j;
 
@@ -65,8 +64,10 @@ import javax.ws.rs.core.Response;
 import java.time.Instant;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 @Slf4j
@@ -94,6 +95,10 @@ public class CommentResource extends AbstractResource implements CommentAdminApi
     private WebhookService webhookService;
     @Inject
     private GitHubStore gitHubStore;
+    @Inject
+    private BloomFilterCache bloomFilterCache;
+    @Inject
+    private RecentWrites recentWrites;
 
     @RolesAllowed({Role.PROJECT_USER})
     @Limit(requiredPermits = 10, challengeAfter = 50)
@@ -133,6 +138,7 @@ public class CommentResource extends AbstractResource implements CommentAdminApi
                         0,
                         0))
                 .getCommentModel();
+        recentWrites.commentWritten(user.getUserId(), commentModel);
         notificationService.onCommentReply(
                 configAdmin,
                 idea,
@@ -152,12 +158,20 @@ public class CommentResource extends AbstractResource implements CommentAdminApi
         boolean isParent = ideaCommentSearch.getParentCommentId() != null;
         boolean isInitial = isParent && (ideaCommentSearch.getExcludeChildrenCommentIds() == null || ideaCommentSearch.getExcludeChildrenCommentIds().isEmpty());
         IdeaStore.IdeaModel idea = ideaStore.getIdea(projectId, ideaId).get();
-        ImmutableSet<CommentModel> comments = commentStore.getCommentsForPost(
+        Optional<String> parentCommentIdOpt = Optional.ofNullable(Strings.emptyToNull(ideaCommentSearch.getParentCommentId()));
+        ImmutableSet<String> excludeChildrenCommentIds = ideaCommentSearch.getExcludeChildrenCommentIds() == null ? ImmutableSet.of() : ImmutableSet.copyOf(ideaCommentSearch.getExcludeChildrenCommentIds());
+        ImmutableSet<CommentModel> comments = addRecentComments(
                 projectId,
                 ideaId,
                 idea.getMergedPostIds(),
-                Optional.ofNullable(Strings.emptyToNull(ideaCommentSearch.getParentCommentId())),
-                ideaCommentSearch.getExcludeChildrenCommentIds() == null ? ImmutableSet.of() : ImmutableSet.copyOf(ideaCommentSearch.getExcludeChildrenCommentIds()));
+                parentCommentIdOpt,
+                excludeChildrenCommentIds,
+                commentStore.getCommentsForPost(
+                        projectId,
+                        ideaId,
+                        idea.getMergedPostIds(),
+                        parentCommentIdOpt,
+                        excludeChildrenCommentIds));
         return new IdeaCommentSearchResponse(toCommentWithVotesAndAddMergedPostsAsComments(
                 projectId,
                 comments,
@@ -197,9 +211,26 @@ public class CommentResource extends AbstractResource implements CommentAdminApi
                         .build(),
                 false,
                 Optional.ofNullable(Strings.emptyToNull(cursor)));
+        ImmutableList<CommentModel> comments = response.getComments();
+        Optional<String> userIdOpt = getExtendedPrincipal().flatMap(ExtendedSecurityContext.ExtendedPrincipal::getAuthenticatedUserSessionOpt)
+                .map(UserStore.UserSession::getUserId);
+        if (Strings.isNullOrEmpty(cursor)
+                && userIdOpt.isPresent()
+                && userIdOpt.get().equals(commentSearch.getFilterAuthorId())) {
+            // Own recent comments may not be searchable yet, show them on the first page
+            Set<String> commentIds = comments.stream()
+                    .map(CommentModel::getCommentId)
+                    .collect(Collectors.toSet());
+            comments = ImmutableList.<CommentModel>builder()
+                    .addAll(getLatestComments(projectId, recentWrites.getRecentComments(projectId, userIdOpt.get()).stream()
+                            .filter(comment -> !commentIds.contains(comment.getCommentId()))
+                            .collect(ImmutableList.toImmutableList())))
+                    .addAll(comments)
+                    .build();
+        }
         return new CommentSearchResponse(
                 response.getCursorOpt().orElse(null),
-                toCommentWithVotes(projectId, response.getComments()));
+                toCommentWithVotes(projectId, comments));
     }
 
     @RolesAllowed({Role.PROJECT_ADMIN_ACTIVE, Role.PROJECT_MODERATOR_ACTIVE})
@@ -253,6 +284,56 @@ public class CommentResource extends AbstractResource implements CommentAdminApi
                 subscriptionListener.getListenerUrl()));
     }
 
+    /**
+     * Own recent comments may not be searchable yet, add those belonging to the requested thread.
+     */
+    private ImmutableSet<CommentModel> addRecentComments(String projectId, String ideaId, ImmutableSet<String> mergedPostIds, Optional<String> parentCommentIdOpt, ImmutableSet<String> excludeChildrenCommentIds, ImmutableSet<CommentModel> comments) {
+        Optional<String> userIdOpt = getExtendedPrincipal().flatMap(ExtendedSecurityContext.ExtendedPrincipal::getAuthenticatedUserSessionOpt)
+                .map(UserStore.UserSession::getUserId);
+        if (!userIdOpt.isPresent()) {
+            return comments;
+        }
+        Set<String> commentIds = comments.stream()
+                .map(CommentModel::getCommentId)
+                .collect(Collectors.toSet());
+        ImmutableList<CommentModel> recentComments = recentWrites.getRecentComments(projectId, userIdOpt.get()).stream()
+                .filter(comment -> ideaId.equals(comment.getIdeaId()) || mergedPostIds.contains(comment.getIdeaId()))
+                .filter(comment -> parentCommentIdOpt
+                        // parent comment id may be a merged post id
+                        .map(parentCommentId -> comment.getParentCommentIds().contains(parentCommentId)
+                                || parentCommentId.equals(comment.getIdeaId()))
+                        .orElse(true))
+                .filter(comment -> !commentIds.contains(comment.getCommentId())
+                        && !excludeChildrenCommentIds.contains(comment.getCommentId()))
+                .collect(ImmutableList.toImmutableList());
+        if (recentComments.isEmpty()) {
+            return comments;
+        }
+        return ImmutableSet.<CommentModel>builder()
+                .addAll(comments)
+                .addAll(getLatestComments(projectId, recentComments))
+                .build();
+    }
+
+    /**
+     * Re-reads comments to reflect changes since they were written, dropping deleted ones.
+     */
+    private ImmutableList<CommentModel> getLatestComments(String projectId, ImmutableList<CommentModel> comments) {
+        if (comments.isEmpty()) {
+            return comments;
+        }
+        Map<String, ImmutableMap<String, CommentModel>> latestByIdeaId = Maps.newHashMap();
+        return comments.stream()
+                .map(comment -> latestByIdeaId.computeIfAbsent(comment.getIdeaId(), ideaId -> commentStore.getComments(projectId, ideaId, comments.stream()
+                                .filter(c -> ideaId.equals(c.getIdeaId()))
+                                .map(CommentModel::getCommentId)
+                                .collect(ImmutableSet.toImmutableSet())))
+                        .get(comment.getCommentId()))
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(ImmutableList.toImmutableList());
+    }
+
     private ImmutableList<CommentWithVote> toCommentWithVotes(String projectId, ImmutableCollection<CommentModel> comments) {
         return toCommentWithVotesAndAddMergedPostsAsComments(projectId, comments, Optional.empty(), ImmutableSet.of(), 0, ImmutableList.of());
     }
@@ -263,8 +344,7 @@ public class CommentResource extends AbstractResource implements CommentAdminApi
                 .flatMap(userId -> userStore.getUser(projectId, userId));
         Map<String, VoteOption> voteResults = ImmutableMap.of();
         if (userOpt.isPresent()) {
-            Optional<BloomFilter<CharSequence>> bloomFilterOpt = userOpt.map(UserModel::getCommentVoteBloom)
-                    .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)));
+            Optional<BloomFilter<CharSequence>> bloomFilterOpt = bloomFilterCache.get(userOpt.get(), BloomFilterCache.Kind.COMMENT_VOTE);
             voteResults = Maps.transformValues(
                     voteStore.voteSearch(projectId, userOpt.get().getUserId(), comments.stream()
                             .filter(comment -> userOpt.get().getUserId().equals(comment.getAuthorUserId())
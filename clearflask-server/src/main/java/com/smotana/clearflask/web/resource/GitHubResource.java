@@ -13,8 +13,8 @@ import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.store.GitHubStore;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.Project;
-import com.smotana.clearflask.store.github.GitHubClientProvider;
-import com.smotana.clearflask.store.github.GitHubClientProvider.GitHubInstallation;
+import com.smotana.clearflask.store.github.GitHubEventQueue;
+import com.smotana.clearflask.store.github.GitHubEventQueue.GitHubEvent;
 import com.smotana.clearflask.util.GitHubSignatureVerifier;
 import com.smotana.clearflask.util.LogUtil;
 import com.smotana.clearflask.web.Application;
@@ -41,6 +41,7 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
 import java.io.StringReader;
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 
@@ -75,7 +76,7 @@ public class GitHubResource {
     @Inject
     private ProjectStore projectStore;
     @Inject
-    private GitHubClientProvider gitHubClientProvider;
+    private GitHubEventQueue gitHubEventQueue;
 
     @POST
     @Path(WEBHOOK_PATH)
@@ -165,26 +166,20 @@ public class GitHubResource {
             // https://github.community/t/delete-a-webhook-from-unwanted-repository/14124/6
             throw new ClientErrorException(Response.Status.GONE);
         }
-        Project project = projectOpt.get();
-        com.smotana.clearflask.api.model.GitHub integration = project.getGitHubIntegration().get();
-
-        GitHubInstallation installation = gitHubClientProvider.getInstallationClient(installationId);
-
-        if (!installation.getRateLimiter().tryAcquire()) {
-            throw new ClientErrorException(Response.Status.TOO_MANY_REQUESTS);
-        }
         switch (eventType) {
             case "issues":
-                GHEventPayload.Issue issue = parseEventPayload(installation.getClient(), payload, GHEventPayload.Issue.class);
-                gitHubStore.ghIssueEvent(project, issue);
-                break;
             case "issue_comment":
-                GHEventPayload.IssueComment issueComment = parseEventPayload(installation.getClient(), payload, GHEventPayload.IssueComment.class);
-                gitHubStore.ghIssueCommentEvent(project, issueComment, payload);
-                break;
             case "release":
-                GHEventPayload.Release release = parseEventPayload(installation.getClient(), payload, GHEventPayload.Release.class);
-                gitHubStore.ghReleaseEvent(project, release, payload);
+                if (!gitHubEventQueue.enqueue(new GitHubEvent(
+                        eventGuid,
+                        eventType,
+                        projectId,
+                        installationId,
+                        repositoryId,
+                        payload,
+                        Instant.now()))) {
+                    log.info("Ignoring redelivered GitHub event {} guid {}", eventType, eventGuid);
+                }
                 break;
             case "ping":
                 break;
@@ -2,13 +2,11 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.web.resource;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.hash.Funnels;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
 import com.google.inject.multibindings.Multibinder;
@@ -61,11 +59,12 @@ import com.smotana.clearflask.store.UserStore.UserSession;
 import com.smotana.clearflask.store.VoteStore;
 import com.smotana.clearflask.store.VoteStore.VoteValue;
 import com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider;
-import com.smotana.clearflask.util.BloomFilters;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.web.ApiException;
 import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.ExtendedSecurityContext;
 import com.smotana.clearflask.web.security.Role;
+import com.smotana.clearflask.web.util.RecentWrites;
 import com.smotana.clearflask.web.util.WebhookService;
 import lombok.extern.slf4j.Slf4j;
 
@@ -83,6 +82,7 @@ import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
 
 @Slf4j
 @Singleton
@@ -109,6 +109,10 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
     private WebhookService webhookService;
     @Inject
     private GitHubStore gitHubStore;
+    @Inject
+    private BloomFilterCache bloomFilterCache;
+    @Inject
+    private RecentWrites recentWrites;
 
     @RolesAllowed({Role.PROJECT_USER})
     @Limit(requiredPermits = 30, challengeAfter = 20)
@@ -167,6 +171,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
         } else {
             ideaStore.createIdea(ideaModel);
         }
+        recentWrites.ideaWritten(user.getUserId(), ideaModel);
 
         webhookService.eventPostNew(ideaModel, user);
         billing.recordUsage(UsageType.POST, project.getAccountId(), project.getProjectId(), user);
@@ -243,6 +248,11 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
         } catch (InterruptedException | ExecutionException | TimeoutException e) {
             // Let it slide
         }
+        IdeaModel ideaModelCreated = ideaModel;
+        getExtendedPrincipal()
+                .flatMap(ExtendedSecurityContext.ExtendedPrincipal::getAuthenticatedUserSessionOpt)
+                .map(UserSession::getUserId)
+                .ifPresent(userId -> recentWrites.ideaWritten(userId, ideaModelCreated));
 
         if (!Strings.isNullOrEmpty(deleteDraftId)) {
             getExtendedPrincipal()
@@ -394,18 +404,36 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
                 ideaSearch,
                 userOpt.map(UserModel::getUserId),
                 Optional.ofNullable(Strings.emptyToNull(cursor)));
-        if (searchResponse.getIdeaIds().isEmpty()) {
+
+        // Own recent ideas may not be searchable yet, show them on the first page
+        ImmutableList<String> recentIdeaIds = userOpt.isPresent() && Strings.isNullOrEmpty(cursor)
+                ? recentWrites.getRecentIdeas(projectId, userOpt.get().getUserId()).stream()
+                .map(IdeaModel::getIdeaId)
+                .filter(ideaId -> !searchResponse.getIdeaIds().contains(ideaId))
+                .distinct()
+                .collect(ImmutableList.toImmutableList())
+                : ImmutableList.of();
+
+        if (searchResponse.getIdeaIds().isEmpty() && recentIdeaIds.isEmpty()) {
             return new IdeaWithVoteSearchResponse(
                     null,
                     ImmutableList.of(),
                     null);
         }
 
-        ImmutableMap<String, IdeaModel> ideasById = ideaStore.getIdeas(projectId, searchResponse.getIdeaIds());
-
-        ImmutableList<IdeaModel> ideaModels = searchResponse.getIdeaIds().stream()
-                .map(ideasById::get)
-                .filter(Objects::nonNull)
+        ImmutableMap<String, IdeaModel> ideasById = ideaStore.getIdeas(projectId, ImmutableList.<String>builder()
+                .addAll(recentIdeaIds)
+                .addAll(searchResponse.getIdeaIds())
+                .build());
+
+        ImmutableList<IdeaModel> ideaModels = Stream.concat(
+                        recentIdeaIds.stream()
+                                .map(ideasById::get)
+                                .filter(Objects::nonNull)
+                                .filter(idea -> RecentWrites.matches(ideaSearch, idea)),
+                        searchResponse.getIdeaIds().stream()
+                                .map(ideasById::get)
+                                .filter(Objects::nonNull))
                 .collect(ImmutableList.toImmutableList());
 
         return new IdeaWithVoteSearchResponse(
@@ -673,27 +701,21 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
         boolean isAuthor = user.getUserId().equals(idea.getAuthorUserId());
         Optional<VoteOption> voteOptionOpt = Optional.empty();
         if (isAuthor
-                || user.getVoteBloom() != null
-                && BloomFilters.fromByteArray(user.getVoteBloom(), Funnels.stringFunnel(Charsets.UTF_8))
-                .mightContain(idea.getIdeaId())) {
+                || bloomFilterCache.mightContain(user, BloomFilterCache.Kind.VOTE, idea.getIdeaId())) {
             voteOptionOpt = Optional.ofNullable(voteStore.voteSearch(user.getProjectId(), user.getUserId(), ImmutableSet.of(idea.getIdeaId()))
                             .get(idea.getIdeaId()))
                     .map(voteModel -> VoteValue.fromValue(voteModel.getVote()).toVoteOption());
         }
         Optional<List<String>> expressionOpt = Optional.empty();
         if (isAuthor
-                || user.getExpressBloom() != null
-                && BloomFilters.fromByteArray(user.getExpressBloom(), Funnels.stringFunnel(Charsets.UTF_8))
-                .mightContain(idea.getIdeaId())) {
+                || bloomFilterCache.mightContain(user, BloomFilterCache.Kind.EXPRESS, idea.getIdeaId())) {
             expressionOpt = Optional.ofNullable(voteStore.expressSearch(user.getProjectId(), user.getUserId(), ImmutableSet.of(idea.getIdeaId()))
                             .get(idea.getIdeaId()))
                     .map(expressModel -> expressModel.getExpressions().asList());
         }
         Optional<Long> fundAmountOpt = Optional.empty();
         if (isAuthor
-                || user.getFundBloom() != null
-                && BloomFilters.fromByteArray(user.getFundBloom(), Funnels.stringFunnel(Charsets.UTF_8))
-                .mightContain(idea.getIdeaId())) {
+                || bloomFilterCache.mightContain(user, BloomFilterCache.Kind.FUND, idea.getIdeaId())) {
             fundAmountOpt = Optional.ofNullable(voteStore.fundSearch(user.getProjectId(), user.getUserId(), ImmutableSet.of(idea.getIdeaId()))
                             .get(idea.getIdeaId()))
                     .map(VoteStore.FundModel::getFundAmount);
@@ -708,8 +730,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
     }
 
     private ImmutableList<IdeaWithVote> toIdeasWithVotes(UserModel user, ImmutableCollection<IdeaModel> ideas) {
-        ImmutableMap<String, VoteStore.VoteModel> voteResults = Optional.ofNullable(user.getVoteBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
+        ImmutableMap<String, VoteStore.VoteModel> voteResults = bloomFilterCache.get(user, BloomFilterCache.Kind.VOTE)
                 .map(bloomFilter -> ideas.stream()
                         .filter(idea -> user.getUserId().equals(idea.getAuthorUserId()) || bloomFilter.mightContain(idea.getIdeaId()))
                         .map(IdeaModel::getIdeaId)
@@ -717,8 +738,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
                 .map(ideaIds -> voteStore.voteSearch(user.getProjectId(), user.getUserId(), ideaIds))
                 .orElse(ImmutableMap.of());
 
-        ImmutableMap<String, VoteStore.ExpressModel> expressResults = Optional.ofNullable(user.getExpressBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
+        ImmutableMap<String, VoteStore.ExpressModel> expressResults = bloomFilterCache.get(user, BloomFilterCache.Kind.EXPRESS)
                 .map(bloomFilter -> ideas.stream()
                         .filter(idea -> user.getUserId().equals(idea.getAuthorUserId()) || bloomFilter.mightContain(idea.getIdeaId()))
                         .map(IdeaModel::getIdeaId)
@@ -726,8 +746,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
                 .map(ideaIds -> voteStore.expressSearch(user.getProjectId(), user.getUserId(), ideaIds))
                 .orElse(ImmutableMap.of());
 
-        ImmutableMap<String, VoteStore.FundModel> fundResults = Optional.ofNullable(user.getFundBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
+        ImmutableMap<String, VoteStore.FundModel> fundResults = bloomFilterCache.get(user, BloomFilterCache.Kind.FUND)
                 .map(bloomFilter -> ideas.stream()
                         .filter(idea -> user.getUserId().equals(idea.getAuthorUserId()) || bloomFilter.mightContain(idea.getIdeaId()))
                         .map(IdeaModel::getIdeaId)
@@ -7,14 +7,15 @@ import com.github.rholder.retry.RetryerBuilder;
 import com.github.rholder.retry.StopStrategies;
 import com.github.rholder.retry.WaitStrategies;
 import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.RateLimiter;
 import com.google.inject.AbstractModule;
 import com.google.inject.Injector;
 import com.google.inject.Module;
@@ -32,6 +33,7 @@ import com.smotana.clearflask.api.model.ConfigAndUserBindSlugResult;
 import com.smotana.clearflask.api.model.ConfigBindSlugResult;
 import com.smotana.clearflask.api.model.IdeaStatus;
 import com.smotana.clearflask.api.model.ImportResponse;
+import com.smotana.clearflask.api.model.ImportStatus;
 import com.smotana.clearflask.api.model.InvitationAdmin;
 import com.smotana.clearflask.api.model.NewProjectResult;
 import com.smotana.clearflask.api.model.Onboarding;
@@ -78,10 +80,12 @@ import com.smotana.clearflask.web.security.AuthenticationFilter;
 import com.smotana.clearflask.web.security.ExtendedSecurityContext.ExtendedPrincipal;
 import com.smotana.clearflask.web.security.Role;
 import com.smotana.clearflask.web.security.UserBindUtil;
+import com.smotana.clearflask.web.util.ProjectExporter;
+import com.smotana.clearflask.web.util.ProjectImporter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
 import org.joda.time.DateTime;
 
 import javax.annotation.Nullable;
@@ -90,13 +94,13 @@ import javax.annotation.security.RolesAllowed;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.ws.rs.Path;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
-import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStreamWriter;
 import java.text.ParseException;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
@@ -106,14 +110,9 @@ import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.smotana.clearflask.web.resource.UserResource.USER_AUTH_COOKIE_NAME_PREFIX;
@@ -124,11 +123,21 @@ import static com.smotana.clearflask.web.resource.UserResource.USER_AUTH_COOKIE_
 public class ProjectResource extends AbstractResource implements ProjectApi, ProjectAdminApi {
 
     public interface Config {
+        /**
+         * Rows per second, shared by all tables of a single export.
+         */
         @DefaultValue("100")
         double exportRateLimitPerSecond();
 
         @DefaultValue("100")
-        double importRateLimitPerSecond();
+        long importMaxRowErrors();
+
+        /**
+         * Tag config responses with the config version and reply with 304 Not Modified when the client already
+         * has it.
+         */
+        @DefaultValue("true")
+        boolean configETagEnabled();
     }
 
     @Context
@@ -171,6 +180,10 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
     private DateUtil dateUtil;
     @Inject
     private ElasticUtil elasticUtil;
+    @Inject
+    private ProjectExporter projectExporter;
+    @Inject
+    private ProjectImporter projectImporter;
 
     @PermitAll
     @Limit(requiredPermits = 10)
@@ -178,6 +191,15 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
     public ConfigBindSlugResult configBindSlug(String slug) {
         Project project = projectStore.getProjectBySlug(slug, true)
                 .orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "Project does not exist or was deleted by owner"));
+        if (config.configETagEnabled()) {
+            // Response depends only on the config, so its version identifies the content
+            EntityTag eTag = new EntityTag(project.getProjectId() + "-" + project.getVersion());
+            String ifNoneMatch = headers.getHeaderString(HttpHeaders.IF_NONE_MATCH);
+            if (ifNoneMatch != null && Splitter.on(',').trimResults().splitToList(ifNoneMatch).contains(eTag.toString())) {
+                throw new WebApplicationException(Response.notModified(eTag).build());
+            }
+            response.setHeader(HttpHeaders.ETAG, eTag.toString());
+        }
         if (!Onboarding.VisibilityEnum.PUBLIC.equals(project.getVersionedConfigAdmin()
                 .getConfig()
                 .getUsers()
@@ -347,6 +369,10 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
                 versionedConfigAdmin,
                 isSuperAdmin);
 
+        if (isGitHubRepositoryNewlyLinked(Optional.of(project.getVersionedConfigAdmin().getConfig()), configAdmin)) {
+            gitHubStore.backfillIssuesAsync(projectId);
+        }
+
         return versionedConfigAdmin;
     }
 
@@ -461,6 +487,10 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
             throw new ApiException(Response.Status.INTERNAL_SERVER_ERROR, "Failed to create project, please contact support", ex);
         }
 
+        if (isGitHubRepositoryNewlyLinked(Optional.empty(), configAdmin)) {
+            gitHubStore.backfillIssuesAsync(projectId);
+        }
+
         UserModel accountUser = userStore.accountCreateOrGet(projectId, account);
         UserStore.UserSession session = userStore.createSession(
                 accountUser,
@@ -513,130 +543,36 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
             String projectId,
             @Nullable Boolean includePosts,
             @Nullable Boolean includeUsers,
-            @Nullable Boolean includeComments) {
+            @Nullable Boolean includeComments,
+            @Nullable String format,
+            @Nullable String cursor) {
+        ProjectExporter.Format exportFormat = ProjectExporter.Format.parse(format);
+        Optional<ProjectExporter.ExportCursor> cursorOpt = projectExporter.parseCursor(cursor);
+        ImmutableSet.Builder<ProjectExporter.Table> tablesBuilder = ImmutableSet.builder();
+        if (includePosts == Boolean.TRUE) {
+            tablesBuilder.add(ProjectExporter.Table.POSTS);
+        }
+        if (includeUsers == Boolean.TRUE) {
+            tablesBuilder.add(ProjectExporter.Table.USERS);
+        }
+        if (includeComments == Boolean.TRUE) {
+            tablesBuilder.add(ProjectExporter.Table.COMMENTS);
+        }
+        ImmutableSet<ProjectExporter.Table> tables = tablesBuilder.build();
+
         String fileName = getExportFileName(projectId, "data", "zip");
         response.setHeader("content-disposition", "attachment; filename=" + fileName);
 
-        return (outputStream) -> {
-            RateLimiter limiter = RateLimiter.create(config.exportRateLimitPerSecond());
-            try (ZipOutputStream zos = new ZipOutputStream(outputStream)) {
-                CSVFormat format = CSVFormat.DEFAULT;
-                if (includePosts == Boolean.TRUE) {
-                    zos.putNextEntry(new ZipEntry(getExportFileName(projectId, "posts", "csv")));
-                    CSVPrinter csvPrinter = new CSVPrinter(new OutputStreamWriter(zos), format.withHeader(
-                            "ideaId",
-                            "authorUserId",
-                            "created",
-                            "title",
-                            "description",
-                            "response",
-                            "categoryId",
-                            "statusId",
-                            "tagIds",
-                            "funded",
-                            "fundersCount",
-                            "fundGoal",
-                            "voteValue",
-                            "votersCount",
-                            "expressionsValue",
-                            "expressions"));
-                    ideaStore.exportAllForProject(projectId, idea -> {
-                        try {
-                            csvPrinter.printRecord(
-                                    idea.getIdeaId(),
-                                    idea.getAuthorUserId(),
-                                    idea.getCreated(),
-                                    idea.getTitle(),
-                                    idea.getDescriptionSanitized(sanitizer),
-                                    idea.getResponseSanitized(sanitizer),
-                                    idea.getCategoryId(),
-                                    idea.getStatusId(),
-                                    String.join(",", idea.getTagIds()),
-                                    idea.getFunded(),
-                                    idea.getFundersCount(),
-                                    idea.getFundGoal(),
-                                    idea.getVoteValue(),
-                                    idea.getVotersCount(),
-                                    idea.getExpressionsValue(),
-                                    idea.getExpressions() == null ? null : idea.getExpressions().entrySet().stream()
-                                            .map(entry -> entry.getKey() + "=" + entry.getValue())
-                                            .collect(Collectors.joining(",")));
-                        } catch (IOException ex) {
-                            throw new RuntimeException(ex);
-                        }
-                        limiter.acquire();
-                    });
-                    csvPrinter.flush();
-                    zos.closeEntry();
-                }
-                if (includeUsers == Boolean.TRUE) {
-                    zos.putNextEntry(new ZipEntry(getExportFileName(projectId, "users", "csv")));
-                    CSVPrinter csvPrinter = new CSVPrinter(new OutputStreamWriter(zos), format.withHeader(
-                            "userId",
-                            "ssoGuid",
-                            "isMod",
-                            "name",
-                            "email",
-                            "emailVerified",
-                            "emailNotify",
-                            "balance",
-                            "created"));
-                    userStore.exportAllForProject(projectId, user -> {
-                        try {
-                            csvPrinter.printRecord(
-                                    user.getUserId(),
-                                    user.getSsoGuid(),
-                                    user.getIsMod(),
-                                    user.getName(),
-                                    user.getEmail(),
-                                    user.getEmailVerified(),
-                                    user.isEmailNotify(),
-                                    user.getBalance(),
-                                    user.getCreated());
-                        } catch (IOException ex) {
-                            throw new RuntimeException(ex);
-                        }
-                        limiter.acquire();
-                    });
-                    csvPrinter.flush();
-                    zos.closeEntry();
-                }
-                if (includeComments == Boolean.TRUE) {
-                    zos.putNextEntry(new ZipEntry(getExportFileName(projectId, "comments", "csv")));
-                    CSVPrinter csvPrinter = new CSVPrinter(new OutputStreamWriter(zos), format.withHeader(
-                            "ideaId",
-                            "commentId",
-                            "parentCommentId",
-                            "authorUserId",
-                            "created",
-                            "edited",
-                            "content",
-                            "upvotes",
-                            "downvotes"));
-                    commentStore.exportAllForProject(projectId, comment -> {
-                        try {
-                            csvPrinter.printRecord(
-                                    comment.getIdeaId(),
-                                    comment.getCommentId(),
-                                    comment.getParentCommentIds().isEmpty()
-                                            ? null
-                                            : comment.getParentCommentIds().get(comment.getParentCommentIds().size() - 1),
-                                    comment.getAuthorUserId(),
-                                    comment.getCreated(),
-                                    comment.getEdited(),
-                                    comment.getContentSanitized(sanitizer),
-                                    comment.getUpvotes(),
-                                    comment.getDownvotes());
-                        } catch (IOException ex) {
-                            throw new RuntimeException(ex);
-                        }
-                        limiter.acquire();
-                    });
-                    csvPrinter.flush();
-                    zos.closeEntry();
-                }
-            }
-        };
+        return (outputStream) -> projectExporter.export(
+                projectId,
+                tables,
+                exportFormat,
+                cursorOpt,
+                // Callers passing neither format nor cursor predate chunking and expect the whole export
+                !Strings.isNullOrEmpty(format) || cursorOpt.isPresent(),
+                config.exportRateLimitPerSecond(),
+                (type, extension) -> getExportFileName(projectId, type, extension),
+                outputStream);
     }
 
     @RolesAllowed({Role.PROJECT_ADMIN})
@@ -656,21 +592,28 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
                                                  @Nullable Long indexVoteValue,
                                                  @Nullable Long indexDateTime,
                                                  @Nullable Long tzOffInMin) {
-        RateLimiter limiter = RateLimiter.create(config.importRateLimitPerSecond());
-
         Optional<UserModel> authorOpt = userStore.getUser(projectId, authorUserId);
         if (!authorOpt.isPresent()) {
-            return new ImportResponse("Author not found", true);
+            return ImportResponse.builder()
+                    .userFacingMessage("Author not found")
+                    .isError(true)
+                    .build();
         }
 
         Optional<Project> projectOpt = projectStore.getProject(projectId, false);
         if (!projectOpt.isPresent()) {
-            return new ImportResponse("Project not found", true);
+            return ImportResponse.builder()
+                    .userFacingMessage("Project not found")
+                    .isError(true)
+                    .build();
         }
 
         Optional<Category> categoryOpt = projectOpt.get().getCategory(categoryId);
         if (!categoryOpt.isPresent()) {
-            return new ImportResponse("Category not found", true);
+            return ImportResponse.builder()
+                    .userFacingMessage("Category not found")
+                    .isError(true)
+                    .build();
         }
 
         CSVFormat format = CSVFormat.DEFAULT;
@@ -690,127 +633,193 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
         ImmutableMap<String, String> tagNameToId = categoryOpt.get().getTagging().getTags().stream().collect(ImmutableMap
                 .toImmutableMap(Tag::getName, Tag::getTagId));
 
-        AtomicLong counter = new AtomicLong(0);
+        // Validate and map every row before writing anything, reporting all row problems at once
+        ImmutableList.Builder<IdeaModel> ideasBuilder = ImmutableList.builder();
+        List<String> rowErrors = Lists.newArrayList();
+        long rowErrorCount = 0L;
         AtomicReference<DateTimeFormatter> lastDateTimeFormatter = new AtomicReference<>();
         try (CSVParser csvFileParser = CSVParser.parse(body, Charsets.UTF_8, format)) {
-            ideaStore.createIdeas(projectId, StreamSupport.stream(csvFileParser.spliterator(), false).map(record -> {
-                limiter.acquire();
-                counter.incrementAndGet();
+            for (CSVRecord record : csvFileParser) {
+                try {
+                    ideasBuilder.add(importPostRow(projectId, categoryId, authorOpt.get(), record, indexTitle, indexDescription,
+                            indexStatusId, indexStatusName, indexTagIds, indexTagNames, indexVoteValue, indexDateTime,
+                            tzOffInMin, allStatusIds, statusNameToId, allTagIds, tagNameToId, lastDateTimeFormatter));
+                } catch (ApiException ex) {
+                    rowErrorCount++;
+                    if (rowErrors.size() < config.importMaxRowErrors()) {
+                        rowErrors.add("Row " + record.getRecordNumber() + ": " + ex.getUserFacingMessageOpt().orElse("Invalid row"));
+                    }
+                } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+                    rowErrorCount++;
+                    if (rowErrors.size() < config.importMaxRowErrors()) {
+                        rowErrors.add("Row " + record.getRecordNumber() + ": " + ex.getMessage());
+                    }
+                }
+            }
+        } catch (Exception ex) {
+            log.warn("Failed to parse CSV", ex);
+            return ImportResponse.builder()
+                    .userFacingMessage("Failed to parse CSV")
+                    .isError(true)
+                    .build();
+        }
+        if (rowErrorCount > 0) {
+            return ImportResponse.builder()
+                    .userFacingMessage("Found problems in " + rowErrorCount + " row(s), nothing was imported")
+                    .isError(true)
+                    .rowErrors(rowErrors)
+                    .build();
+        }
 
-                String title = record.get(indexTitle.intValue());
+        ImmutableList<IdeaModel> ideas = ideasBuilder.build();
+        ProjectImporter.ImportJob importJob = projectImporter.importIdeas(projectId, ideas);
+        return ImportResponse.builder()
+                .userFacingMessage("Importing " + ideas.size() + " item(s)")
+                .importId(importJob.getImportId())
+                .build();
+    }
 
-                Optional<String> statusIdOpt = Optional.ofNullable(indexStatusId).map(Long::intValue).map(record::get);
-                if (statusIdOpt.isPresent() && !allStatusIds.contains(statusIdOpt.get())) {
-                    throw new ApiException(Response.Status.BAD_REQUEST, "Status with ID not found: " + statusIdOpt.get());
-                }
-                if (!statusIdOpt.isPresent() && indexStatusName != null) {
-                    statusIdOpt = Optional.ofNullable(Strings.emptyToNull(record.get(indexStatusName.intValue()))).map(statusName -> {
-                        String statusId = statusNameToId.get(statusName);
-                        if (statusId == null) {
-                            throw new ApiException(Response.Status.BAD_REQUEST, "Status with name not found: " + statusName);
-                        }
-                        return statusId;
-                    });
-                }
+    @RolesAllowed({Role.PROJECT_ADMIN})
+    @Limit(requiredPermits = 1)
+    @Override
+    public ImportStatus projectImportStatusAdmin(String projectId, String importId) {
+        ProjectImporter.ImportJob importJob = projectImporter.getImportJob(projectId, importId)
+                .orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "Import not found"));
+        return ImportStatus.builder()
+                .importId(importJob.getImportId())
+                .total(importJob.getTotal())
+                .processed(importJob.getProcessed())
+                .done(importJob.isDone())
+                .userFacingMessage(importJob.getErrorMessage() != null ? importJob.getErrorMessage()
+                        : (importJob.isDone() ? "Successfully imported " + importJob.getProcessed() + " item(s)" : null))
+                .isError(importJob.getErrorMessage() != null ? true : null)
+                .build();
+    }
 
-                ImmutableSet<String> tagIds = Optional.ofNullable(indexTagIds).map(Long::intValue).map(record::get).stream()
-                        .flatMap(tagIdsStr -> {
-                            if (tagIdsStr.startsWith("[") && tagIdsStr.endsWith("]")) {
-                                tagIdsStr = tagIdsStr.substring(1, tagIdsStr.length() - 2);
-                            }
-                            return Arrays.stream(tagIdsStr.split(","));
-                        })
-                        .map(String::trim)
-                        .collect(ImmutableSet.toImmutableSet());
-                for (String tagId : tagIds) {
-                    if (!allTagIds.contains(tagId)) {
-                        throw new ApiException(Response.Status.BAD_REQUEST, "Tag with ID not found: " + tagId);
-                    }
-                }
-                if (tagIds.isEmpty() && indexTagNames != null) {
-                    tagIds = Optional.ofNullable(Strings.emptyToNull(record.get(indexTagNames.intValue())))
-                            .stream()
-                            .flatMap(tagIdsStr -> Arrays.stream(tagIdsStr.split(",")))
-                            .map(tagName -> {
-                                String tagId = tagNameToId.get(tagName);
-                                if (tagId == null) {
-                                    throw new ApiException(Response.Status.BAD_REQUEST, "Tag with name not found: " + tagName);
-                                }
-                                return tagId;
-                            })
-                            .collect(ImmutableSet.toImmutableSet());
+    private IdeaModel importPostRow(
+            String projectId,
+            String categoryId,
+            UserModel author,
+            CSVRecord record,
+            Long indexTitle,
+            @Nullable Long indexDescription,
+            @Nullable Long indexStatusId,
+            @Nullable Long indexStatusName,
+            @Nullable Long indexTagIds,
+            @Nullable Long indexTagNames,
+            @Nullable Long indexVoteValue,
+            @Nullable Long indexDateTime,
+            @Nullable Long tzOffInMin,
+            ImmutableSet<String> allStatusIds,
+            ImmutableMap<String, String> statusNameToId,
+            ImmutableSet<String> allTagIds,
+            ImmutableMap<String, String> tagNameToId,
+            AtomicReference<DateTimeFormatter> lastDateTimeFormatter) {
+        String title = record.get(indexTitle.intValue());
+
+        Optional<String> statusIdOpt = Optional.ofNullable(indexStatusId).map(Long::intValue).map(record::get);
+        if (statusIdOpt.isPresent() && !allStatusIds.contains(statusIdOpt.get())) {
+            throw new ApiException(Response.Status.BAD_REQUEST, "Status with ID not found: " + statusIdOpt.get());
+        }
+        if (!statusIdOpt.isPresent() && indexStatusName != null) {
+            statusIdOpt = Optional.ofNullable(Strings.emptyToNull(record.get(indexStatusName.intValue()))).map(statusName -> {
+                String statusId = statusNameToId.get(statusName);
+                if (statusId == null) {
+                    throw new ApiException(Response.Status.BAD_REQUEST, "Status with name not found: " + statusName);
                 }
+                return statusId;
+            });
+        }
 
-                Optional<Long> voteValueOpt = Optional.ofNullable(indexVoteValue).map(Long::intValue).map(record::get).map(Long::valueOf);
-
-                Optional<Instant> createdOpt = Optional.ofNullable(indexDateTime)
-                        .map(Long::intValue)
-                        .map(record::get)
-                        .map(dateTimeStr -> {
-                            if (lastDateTimeFormatter.get() != null) {
-                                try {
-                                    return dateUtil.parse(dateTimeStr, lastDateTimeFormatter.get())
-                                            .plus(tzOffInMin == null ? 0L : tzOffInMin, ChronoUnit.MINUTES);
-                                } catch (Exception ex) {
-                                    // Failed to parse using last format, continue to find new one
-                                }
-                            }
-                            DateTimeFormatter dateTimeFormatter = dateUtil.determineDateFormat(dateTimeStr)
-                                    .orElseThrow(() -> new ApiException(Response.Status.BAD_REQUEST, "Cannot parse date/time: " + dateTimeStr));
-                            lastDateTimeFormatter.set(dateTimeFormatter);
-                            try {
-                                return dateUtil.parse(dateTimeStr, dateTimeFormatter)
-                                        .plus(tzOffInMin == null ? 0L : tzOffInMin, ChronoUnit.MINUTES);
-                            } catch (ParseException ex) {
-                                throw new ApiException(Response.Status.BAD_REQUEST, "Cannot parse date/time " + dateTimeStr + " usig format " + dateTimeFormatter, ex);
-                            }
-                        });
-
-                return new IdeaModel(
-                        projectId,
-                        ideaStore.genIdeaId(title),
-                        authorOpt.get().getUserId(),
-                        authorOpt.get().getName(),
-                        authorOpt.get().getIsMod(),
-                        createdOpt.orElseGet(Instant::now),
-                        title,
-                        Optional.ofNullable(indexDescription).map(Long::intValue).map(record::get)
-                                .map(desc -> sanitizer.richHtml(desc, "idea", "import", projectId, true))
-                                .orElse(null),
-                        null,
-                        null,
-                        null,
-                        null,
-                        categoryId,
-                        statusIdOpt.orElse(null),
-                        tagIds,
-                        0L,
-                        0L,
-                        null,
-                        null,
-                        null,
-                        voteValueOpt.orElse(null),
-                        voteValueOpt.map(Math::abs).orElse(null),
-                        null,
-                        ImmutableMap.of(),
-                        null,
-                        ImmutableSet.of(),
-                        ImmutableSet.of(),
-                        null,
-                        null,
-                        ImmutableSet.of(),
-                        null,
-                        null,
-                        null);
-            }).collect(Collectors.toList())).get();
-        } catch (ApiException ex) {
-            throw ex;
-        } catch (Exception ex) {
-            log.warn("Failed to import CSV", ex);
-            return new ImportResponse("Failed to import CSV", true);
+        ImmutableSet<String> tagIds = Optional.ofNullable(indexTagIds).map(Long::intValue).map(record::get).stream()
+                .flatMap(tagIdsStr -> {
+                    if (tagIdsStr.startsWith("[") && tagIdsStr.endsWith("]")) {
+                        tagIdsStr = tagIdsStr.substring(1, tagIdsStr.length() - 2);
+                    }
+                    return Arrays.stream(tagIdsStr.split(","));
+                })
+                .map(String::trim)
+                .collect(ImmutableSet.toImmutableSet());
+        for (String tagId : tagIds) {
+            if (!allTagIds.contains(tagId)) {
+                throw new ApiException(Response.Status.BAD_REQUEST, "Tag with ID not found: " + tagId);
+            }
         }
+        if (tagIds.isEmpty() && indexTagNames != null) {
+            tagIds = Optional.ofNullable(Strings.emptyToNull(record.get(indexTagNames.intValue())))
+                    .stream()
+                    .flatMap(tagIdsStr -> Arrays.stream(tagIdsStr.split(",")))
+                    .map(tagName -> {
+                        String tagId = tagNameToId.get(tagName);
+                        if (tagId == null) {
+                            throw new ApiException(Response.Status.BAD_REQUEST, "Tag with name not found: " + tagName);
+                        }
+                        return tagId;
+                    })
+                    .collect(ImmutableSet.toImmutableSet());
+        }
+
+        Optional<Long> voteValueOpt = Optional.ofNullable(indexVoteValue).map(Long::intValue).map(record::get).map(Long::valueOf);
+
+        Optional<Instant> createdOpt = Optional.ofNullable(indexDateTime)
+                .map(Long::intValue)
+                .map(record::get)
+                .map(dateTimeStr -> {
+                    if (lastDateTimeFormatter.get() != null) {
+                        try {
+                            return dateUtil.parse(dateTimeStr, lastDateTimeFormatter.get())
+                                    .plus(tzOffInMin == null ? 0L : tzOffInMin, ChronoUnit.MINUTES);
+                        } catch (Exception ex) {
+                            // Failed to parse using last format, continue to find new one
+                        }
+                    }
+                    DateTimeFormatter dateTimeFormatter = dateUtil.determineDateFormat(dateTimeStr)
+                            .orElseThrow(() -> new ApiException(Response.Status.BAD_REQUEST, "Cannot parse date/time: " + dateTimeStr));
+                    lastDateTimeFormatter.set(dateTimeFormatter);
+                    try {
+                        return dateUtil.parse(dateTimeStr, dateTimeFormatter)
+                                .plus(tzOffInMin == null ? 0L : tzOffInMin, ChronoUnit.MINUTES);
+                    } catch (ParseException ex) {
+                        throw new ApiException(Response.Status.BAD_REQUEST, "Cannot parse date/time " + dateTimeStr + " usig format " + dateTimeFormatter, ex);
+                    }
+                });
 
-        return new ImportResponse("Successfully imported " + counter.get() + " item(s)", null);
+        return new IdeaModel(
+                projectId,
+                ideaStore.genIdeaId(title),
+                author.getUserId(),
+                author.getName(),
+                author.getIsMod(),
+                createdOpt.orElseGet(Instant::now),
+                title,
+                Optional.ofNullable(indexDescription).map(Long::intValue).map(record::get)
+                        .map(desc -> sanitizer.richHtml(desc, "idea", "import", projectId, true))
+                        .orElse(null),
+                null,
+                null,
+                null,
+                null,
+                categoryId,
+                statusIdOpt.orElse(null),
+                tagIds,
+                0L,
+                0L,
+                null,
+                null,
+                null,
+                voteValueOpt.orElse(null),
+                voteValueOpt.map(Math::abs).orElse(null),
+                null,
+                ImmutableMap.of(),
+                null,
+                ImmutableSet.of(),
+                ImmutableSet.of(),
+                null,
+                null,
+                ImmutableSet.of(),
+                null,
+                null,
+                null);
     }
 
     private String getExportFileName(String projectId, String type, String extension) {
@@ -865,10 +874,10 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
     }
 
     @Extern
-    private void reindexProjects(boolean deleteExistingIndices, boolean repopulateElasticSearch, boolean repopulateMysql) throws Exception {
+    private void reindexProjects(boolean deleteExistingIndices, boolean repopulateElasticSearch, boolean repopulateMysql, boolean resume) throws Exception {
         projectStore.listAllProjects(project -> {
             try {
-                reindexProject(project.getProjectId(), deleteExistingIndices, repopulateElasticSearch, repopulateMysql);
+                reindexProject(project.getProjectId(), deleteExistingIndices, repopulateElasticSearch, repopulateMysql, resume);
             } catch (Exception ex) {
                 throw new RuntimeException(ex);
             }
@@ -881,15 +890,33 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
         reindexProject(projectId,
                 deleteExistingIndices,
                 searchEngine.isWriteElastic(),
-                searchEngine.isWriteMysql());
+                searchEngine.isWriteMysql(),
+                false);
+    }
+
+    @Extern
+    private void reindexProject(String projectId, boolean deleteExistingIndices, boolean repopulateElasticSearch, boolean repopulateMysql, boolean resume) throws Exception {
+        checkArgument(projectStore.getProject(projectId, false).isPresent(), "Project id does not exist: " + projectId);
+        userStore.repopulateIndex(projectId, deleteExistingIndices, repopulateElasticSearch, repopulateMysql, resume);
+        ideaStore.repopulateIndex(projectId, deleteExistingIndices, repopulateElasticSearch, repopulateMysql, resume);
+        commentStore.repopulateIndex(projectId, deleteExistingIndices, repopulateElasticSearch, repopulateMysql, resume);
     }
 
     @Extern
-    private void reindexProject(String projectId, boolean deleteExistingIndices, boolean repopulateElasticSearch, boolean repopulateMysql) throws Exception {
+    private void rebuildProjectIndexesElasticSearch(String projectId) throws Exception {
         checkArgument(projectStore.getProject(projectId, false).isPresent(), "Project id does not exist: " + projectId);
-        userStore.repopulateIndex(projectId, deleteExistingIndices, repopulateElasticSearch, repopulateMysql);
-        ideaStore.repopulateIndex(projectId, deleteExistingIndices, repopulateElasticSearch, repopulateMysql);
-        commentStore.repopulateIndex(projectId, deleteExistingIndices, repopulateElasticSearch, repopulateMysql);
+        checkArgument(projectStore.getSearchEngineForProject(projectId).isWriteElastic(), "Project does not use ElasticSearch: " + projectId);
+        userStore.rebuildIndexElasticSearch(projectId);
+        ideaStore.rebuildIndexElasticSearch(projectId);
+        commentStore.rebuildIndexElasticSearch(projectId);
+    }
+
+    private static boolean isGitHubRepositoryNewlyLinked(Optional<ConfigAdmin> configPrevious, ConfigAdmin configAdmin) {
+        Optional<Long> repositoryIdOpt = Optional.ofNullable(configAdmin.getGithub())
+                .map(com.smotana.clearflask.api.model.GitHub::getRepositoryId);
+        return repositoryIdOpt.isPresent() && !repositoryIdOpt.equals(configPrevious
+                .flatMap(c -> Optional.ofNullable(c.getGithub()))
+                .map(com.smotana.clearflask.api.model.GitHub::getRepositoryId));
     }
 
     public static Module module() {
@@ -2,14 +2,12 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.web.resource;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
 import com.google.inject.multibindings.Multibinder;
@@ -47,7 +45,7 @@ import com.smotana.clearflask.store.UserStore.UserSession;
 import com.smotana.clearflask.store.VoteStore;
 import com.smotana.clearflask.store.VoteStore.FundModel;
 import com.smotana.clearflask.store.VoteStore.VoteValue;
-import com.smotana.clearflask.util.BloomFilters;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.web.ApiException;
 import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.ExtendedSecurityContext;
@@ -86,6 +84,8 @@ public class VoteResource extends AbstractResource implements VoteApi {
     private Billing billing;
     @Inject
     private WebhookService webhookService;
+    @Inject
+    private BloomFilterCache bloomFilterCache;
 
     @RolesAllowed({Role.PROJECT_USER})
     @Limit(requiredPermits = 1)
@@ -122,8 +122,7 @@ public class VoteResource extends AbstractResource implements VoteApi {
                 .flatMap(userId -> userStore.getUser(projectId, userId))
                 .get();
 
-        Optional<BloomFilter<CharSequence>> bloomFilterOpt = Optional.ofNullable(user.getCommentVoteBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)));
+        Optional<BloomFilter<CharSequence>> bloomFilterOpt = bloomFilterCache.get(user, BloomFilterCache.Kind.COMMENT_VOTE);
         Map<String, VoteOption> votesByCommentId = Maps.transformValues(
                 voteStore.voteSearch(projectId, user.getUserId(), commentIds.stream()
                         .filter(commentId -> myOwnCommentIds.contains(commentId)
@@ -156,24 +155,21 @@ public class VoteResource extends AbstractResource implements VoteApi {
                 .flatMap(userId -> userStore.getUser(projectId, userId))
                 .get();
 
-        Optional<BloomFilter<CharSequence>> voteBloomFilterOpt = Optional.ofNullable(user.getVoteBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)));
+        Optional<BloomFilter<CharSequence>> voteBloomFilterOpt = bloomFilterCache.get(user, BloomFilterCache.Kind.VOTE);
         Map<String, VoteOption> votesByIdeaId = Maps.transformValues(
                 voteStore.voteSearch(projectId, user.getUserId(), ideaIds.stream()
                         .filter(ideaId -> myOwnIdeaIds.contains(ideaId)
                                 || voteBloomFilterOpt.isPresent() && voteBloomFilterOpt.get().mightContain(ideaId))
                         .collect(ImmutableSet.toImmutableSet())), voteModel -> VoteValue.fromValue(voteModel.getVote()).toVoteOption());
 
-        Optional<BloomFilter<CharSequence>> expressBloomFilterOpt = Optional.ofNullable(user.getExpressBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)));
+        Optional<BloomFilter<CharSequence>> expressBloomFilterOpt = bloomFilterCache.get(user, BloomFilterCache.Kind.EXPRESS);
         Map<String, List<String>> expressionByIdeaId = Maps.transformValues(
                 voteStore.expressSearch(projectId, user.getUserId(), ideaIds.stream()
                         .filter(ideaId -> myOwnIdeaIds.contains(ideaId)
                                 || expressBloomFilterOpt.isPresent() && expressBloomFilterOpt.get().mightContain(ideaId))
                         .collect(ImmutableSet.toImmutableSet())), expressModel -> expressModel.getExpressions().asList());
 
-        Optional<BloomFilter<CharSequence>> fundBloomFilterOpt = Optional.ofNullable(user.getFundBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)));
+        Optional<BloomFilter<CharSequence>> fundBloomFilterOpt = bloomFilterCache.get(user, BloomFilterCache.Kind.FUND);
         Map<String, Long> fundAmountByIdeaId = Maps.transformValues(
                 voteStore.fundSearch(projectId, user.getUserId(), ideaIds.stream()
                         .filter(ideaId -> myOwnIdeaIds.contains(ideaId)
@@ -2,10 +2,20 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.web.security;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.html.HtmlEscapers;
 import com.google.common.net.InternetDomainName;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
@@ -14,8 +24,11 @@ import com.google.inject.Singleton;
 import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.store.ContentStore;
+import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.util.LogUtil;
 import com.smotana.clearflask.web.ApiException;
+import lombok.NonNull;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.owasp.html.Handler;
 import org.owasp.html.HtmlChangeListener;
@@ -32,11 +45,13 @@ import org.xbill.DNS.Type;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
 import javax.ws.rs.core.Response;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Predicate;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
@@ -68,6 +83,21 @@ public class Sanitizer {
 
         @DefaultValue("<p style=\"color: #e60000;\">Cannot display corrupted message</p>")
         boolean htmlSanitizerInvalidHtmlMessage();
+
+        /**
+         * Content only changes on write, cache its sanitized output and only sign image urls on read.
+         */
+        @DefaultValue("true")
+        boolean htmlSanitizerCacheEnabled();
+
+        @DefaultValue("20000")
+        long htmlSanitizerCacheMaximumSize();
+
+        @DefaultValue("PT1H")
+        Duration htmlSanitizerCacheExpireAfterAccess();
+
+        @DefaultValue("10000")
+        long htmlSanitizerPolicyCacheMaximumSize();
     }
 
     @Inject
@@ -87,13 +117,41 @@ public class Sanitizer {
     private static final String SUBDOMAIN_REGEX = "^[a-z0-9](?:[a-z0-9\\-]*[a-z0-9])?$";
     private static final long SEARCH_TEXT_MAX_LENGTH = 200;
     private static final Pattern IS_NUMERIC_PATTERN = Pattern.compile("^[0-9]+$");
+    /** Matches image sources as written by {@link HtmlStreamRenderer} */
+    private static final Pattern SANITIZED_IMG_SRC_PATTERN = Pattern.compile("<img\\b[^>]*? src=\"([^\"]*)\"");
+    private static final HtmlChangeListener<Map<String, Set<String>>> DISCARDED_LISTENER = new HtmlChangeListener<>() {
+        @Override
+        public void discardedTag(Map<String, Set<String>> discarded, String elementName) {
+            discarded.putIfAbsent(elementName, Sets.newHashSet());
+        }
+
+        @Override
+        public void discardedAttributes(Map<String, Set<String>> discarded, String elementName, String... attributeNames) {
+            discarded.getOrDefault(elementName, Sets.newHashSet()).addAll(Arrays.asList(attributeNames));
+        }
+    };
 
     private Predicate<String> subdomainPredicate;
     private PolicyFactory richHtmlPolicyFactory;
+    private LoadingCache<String, PolicyFactory> projectPolicyCache;
+    private Cache<SanitizedHtmlKey, SanitizedHtml> sanitizedHtmlCache;
 
     @Inject
     private void setup() {
         subdomainPredicate = Pattern.compile(SUBDOMAIN_REGEX).asPredicate();
+        projectPolicyCache = CacheBuilder.newBuilder()
+                .maximumSize(config.htmlSanitizerPolicyCacheMaximumSize())
+                .build(new CacheLoader<>() {
+                    @Override
+                    public PolicyFactory load(String projectId) {
+                        return richHtmlPolicyFactory.and(contentUrlsPolicy(projectId));
+                    }
+                });
+        sanitizedHtmlCache = CacheBuilder.newBuilder()
+                .maximumSize(config.htmlSanitizerCacheMaximumSize())
+                .expireAfterAccess(config.htmlSanitizerCacheExpireAfterAccess())
+                .recordStats()
+                .build();
         richHtmlPolicyFactory = new HtmlPolicyBuilder()
                 .allowAttributes("class").matching(Pattern.compile("ql-indent-[0-9]")).onElements("li")
                 .allowAttributes("class").matching(false, "ql-syntax").onElements("pre")
@@ -245,20 +303,35 @@ public class Sanitizer {
         if (!config.htmlSanitizerEnabled()) {
             return html;
         }
-        StringBuilder sanitizedHtmlBuilder = new StringBuilder();
+        if (Strings.isNullOrEmpty(html)) {
+            return "";
+        }
 
-        Map<String, Set<String>> discarded = Maps.newHashMap();
-        HtmlChangeListener<Map<String, Set<String>>> htmlChangeListener = new HtmlChangeListener<>() {
-            @Override
-            public void discardedTag(Map<String, Set<String>> discarded, String elementName) {
-                discarded.putIfAbsent(elementName, Sets.newHashSet());
+        SanitizedHtml sanitizedHtml;
+        if (config.htmlSanitizerCacheEnabled()) {
+            SanitizedHtmlKey key = new SanitizedHtmlKey(
+                    projectId,
+                    identifierType,
+                    identifierId,
+                    Hashing.murmur3_128().hashString(html, Charsets.UTF_8));
+            sanitizedHtml = sanitizedHtmlCache.getIfPresent(key);
+            if (sanitizedHtml == null) {
+                sanitizedHtml = sanitize(html, identifierType, identifierId, projectId);
+                sanitizedHtmlCache.put(key, sanitizedHtml);
             }
+        } else {
+            sanitizedHtml = sanitize(html, identifierType, identifierId, projectId);
+        }
+        return render(sanitizedHtml, projectId);
+    }
 
-            @Override
-            public void discardedAttributes(Map<String, Set<String>> discarded, String elementName, String... attributeNames) {
-                discarded.getOrDefault(elementName, Sets.newHashSet()).addAll(Arrays.asList(attributeNames));
-            }
-        };
+    /**
+     * Sanitizes content leaving image sources unsigned, split out to be signed on every render.
+     */
+    private SanitizedHtml sanitize(String html, String identifierType, String identifierId, String projectId) {
+        StringBuilder sanitizedHtmlBuilder = new StringBuilder();
+
+        Map<String, Set<String>> discarded = Maps.newHashMap();
         HtmlStreamRenderer renderer = HtmlStreamRenderer.create(
                 sanitizedHtmlBuilder,
                 badHtml -> {
@@ -268,8 +341,7 @@ public class Sanitizer {
                     }
                     sanitizedHtmlBuilder.append(config.htmlSanitizerInvalidHtmlMessage());
                 });
-        PolicyFactory policy = richHtmlPolicyFactory.and(contentSignUrlsPolicy(projectId));
-        HtmlSanitizer.sanitize(html, policy.apply(renderer, htmlChangeListener, discarded));
+        HtmlSanitizer.sanitize(html, projectPolicyCache.getUnchecked(projectId).apply(renderer, DISCARDED_LISTENER, discarded));
 
         // Migration from <p> to <div>
         if (!discarded.isEmpty()
@@ -282,17 +354,59 @@ public class Sanitizer {
             log.info("HTML Policy violation(s) for {} {} id {}, element-attribute violations(s): {}",
                     projectId, identifierType, identifierId, discarded);
         }
-        return sanitizedHtmlBuilder.toString();
+
+        String sanitized = sanitizedHtmlBuilder.toString();
+        ImmutableList.Builder<String> segmentsBuilder = ImmutableList.builder();
+        ImmutableList.Builder<String> contentUrlsBuilder = ImmutableList.builder();
+        Matcher matcher = SANITIZED_IMG_SRC_PATTERN.matcher(sanitized);
+        int segmentStart = 0;
+        while (matcher.find()) {
+            segmentsBuilder.add(sanitized.substring(segmentStart, matcher.start(1)));
+            contentUrlsBuilder.add(matcher.group(1));
+            segmentStart = matcher.end(1);
+        }
+        segmentsBuilder.add(sanitized.substring(segmentStart));
+        return new SanitizedHtml(segmentsBuilder.build(), contentUrlsBuilder.build());
+    }
+
+    private String render(SanitizedHtml sanitizedHtml, String projectId) {
+        if (sanitizedHtml.getContentUrls().isEmpty()) {
+            return sanitizedHtml.getSegments().get(0);
+        }
+        StringBuilder renderedHtmlBuilder = new StringBuilder();
+        for (int i = 0; i < sanitizedHtml.getSegments().size(); i++) {
+            renderedHtmlBuilder.append(sanitizedHtml.getSegments().get(i));
+            if (i < sanitizedHtml.getContentUrls().size()) {
+                String contentUrl = sanitizedHtml.getContentUrls().get(i);
+                renderedHtmlBuilder.append(contentStore.signUrl(projectId, contentUrl)
+                        .map(HtmlEscapers.htmlEscaper()::escape)
+                        .orElse(contentUrl));
+            }
+        }
+        return renderedHtmlBuilder.toString();
+    }
+
+    @Extern
+    public void invalidateSanitizedHtmlCache() {
+        sanitizedHtmlCache.invalidateAll();
+        projectPolicyCache.invalidateAll();
+    }
+
+    @Extern
+    public CacheStats getSanitizedHtmlCacheStats() {
+        return sanitizedHtmlCache.stats();
     }
 
     /**
-     * - Only allow images uploaded to our service
-     * - Attach S3 presigned URL query params.
+     * - Only allow images uploaded to our service, signed at render time
      */
-    private PolicyFactory contentSignUrlsPolicy(String projectId) {
+    private PolicyFactory contentUrlsPolicy(String projectId) {
         return new HtmlPolicyBuilder()
                 .allowAttributes("src")
-                .matching((elementName, attributeName, value) -> contentStore.signUrl(projectId, value).orElse(null))
+                .matching((elementName, attributeName, value) -> contentStore.parseContentUrl(value)
+                        .filter(contentUrl -> projectId.equals(contentUrl.getProjectId()))
+                        .map(ContentStore.ContentUrl::getUrl)
+                        .orElse(null))
                 .onElements("img")
 
                 .allowAttributes("width")
@@ -326,6 +440,29 @@ public class Sanitizer {
         return sanitizedHtmlBuilder.toString();
     }
 
+    @Value
+    private static class SanitizedHtmlKey {
+        @NonNull
+        String projectId;
+        @NonNull
+        String identifierType;
+        @NonNull
+        String identifierId;
+        @NonNull
+        HashCode contentHash;
+    }
+
+    /**
+     * Sanitized html split around its image sources, segments has one more entry than contentUrls.
+     */
+    @Value
+    private static class SanitizedHtml {
+        @NonNull
+        ImmutableList<String> segments;
+        @NonNull
+        ImmutableList<String> contentUrls;
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
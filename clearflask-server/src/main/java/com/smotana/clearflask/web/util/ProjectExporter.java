@@ -0,0 +1,499 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.store.CommentStore;
+import com.smotana.clearflask.store.CommentStore.CommentModel;
+import com.smotana.clearflask.store.ExportPage;
+import com.smotana.clearflask.store.IdeaStore;
+import com.smotana.clearflask.store.IdeaStore.IdeaModel;
+import com.smotana.clearflask.store.UserStore;
+import com.smotana.clearflask.store.UserStore.UserModel;
+import com.smotana.clearflask.util.StringSerdeUtil;
+import com.smotana.clearflask.web.ApiException;
+import com.smotana.clearflask.web.security.Sanitizer;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.csv.CSVFormat;
+
+import javax.ws.rs.core.Response;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams a project's posts, users and comments into a zip, one entry per table.
+ * <p>
+ * Each table is scanned and rendered on a worker into a bounded queue of pages while the zip writer consumes it.
+ * A table's scan starts only once the writer reaches it, so a chunk never reads or spends rate limit on tables it
+ * does not include. Chunked exports larger than a chunk end with a {@link #NEXT_CURSOR_ENTRY_NAME} entry holding
+ * the cursor to resume from.
+ */
+@Slf4j
+@Singleton
+public class ProjectExporter extends ManagedService {
+
+    public static final String NEXT_CURSOR_ENTRY_NAME = "next-cursor.txt";
+
+    public interface Config {
+        /**
+         * Each export scans its current table on a thread; exports beyond this are rejected until threads free up.
+         */
+        @DefaultValue("30")
+        int maxScanThreads();
+
+        /**
+         * Rendered pages buffered per table ahead of the zip writer.
+         */
+        @DefaultValue("4")
+        int bufferedPagesPerTable();
+
+        /**
+         * Rows after which a chunked export ends with a cursor, checked at page boundaries.
+         */
+        @DefaultValue("100000")
+        long maxRowsPerChunk();
+
+        @DefaultValue("65536")
+        int outputBufferSizeInBytes();
+
+        @DefaultValue("-1")
+        int compressionLevel();
+
+        @DefaultValue("PT5M")
+        Duration pageTimeout();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public enum Format {
+        CSV("csv"),
+        NDJSON("ndjson");
+
+        private final String extension;
+
+        public static Format parse(String format) {
+            if (Strings.isNullOrEmpty(format)) {
+                return CSV;
+            }
+            for (Format value : values()) {
+                if (value.getExtension().equalsIgnoreCase(format)) {
+                    return value;
+                }
+            }
+            throw new ApiException(Response.Status.BAD_REQUEST, "Unknown export format " + format);
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public enum Table {
+        POSTS("posts"),
+        USERS("users"),
+        COMMENTS("comments");
+
+        private final String type;
+    }
+
+    @Value
+    public static class ExportCursor {
+        @NonNull
+        Table table;
+        @NonNull
+        Optional<String> tableCursorOpt;
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private IdeaStore ideaStore;
+    @Inject
+    private UserStore userStore;
+    @Inject
+    private CommentStore commentStore;
+    @Inject
+    private Sanitizer sanitizer;
+    @Inject
+    private Gson gson;
+
+    private ExecutorService executor;
+
+    @Override
+    protected void serviceStart() throws Exception {
+        // No queue, a scan waiting for a thread would only time out the export
+        executor = new ThreadPoolExecutor(
+                0, config.maxScanThreads(), 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("ProjectExporter-worker-%d").build());
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    public Optional<ExportCursor> parseCursor(String cursor) {
+        if (Strings.isNullOrEmpty(cursor)) {
+            return Optional.empty();
+        }
+        try {
+            String[] parts = StringSerdeUtil.unMergeString(new String(Base64.getUrlDecoder().decode(cursor), Charsets.UTF_8));
+            return Optional.of(new ExportCursor(
+                    Table.valueOf(parts[0]),
+                    Optional.ofNullable(Strings.emptyToNull(parts[1]))));
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+            throw new ApiException(Response.Status.BAD_REQUEST, "Invalid export cursor", ex);
+        }
+    }
+
+    public String serializeCursor(ExportCursor cursor) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(StringSerdeUtil.mergeStrings(
+                        cursor.getTable().name(),
+                        cursor.getTableCursorOpt().orElse(""))
+                .getBytes(Charsets.UTF_8));
+    }
+
+    /**
+     * Writes the zip to the output stream, returns the cursor of the next chunk if the export is not complete.
+     *
+     * @param chunked                Whether to end the export with a cursor after {@link Config#maxRowsPerChunk()}
+     *                               rows, otherwise the whole project is exported at once
+     * @param rateLimitRowsPerSecond Shared by all tables of this export
+     * @param entryNamer             Zip entry name from table type and file extension
+     */
+    public Optional<ExportCursor> export(
+            String projectId,
+            ImmutableSet<Table> tables,
+            Format format,
+            Optional<ExportCursor> cursorOpt,
+            boolean chunked,
+            double rateLimitRowsPerSecond,
+            BiFunction<String, String, String> entryNamer,
+            OutputStream outputStream) throws IOException {
+        ImmutableList<Table> remainingTables = tables.stream()
+                .filter(table -> cursorOpt.isEmpty() || table.ordinal() >= cursorOpt.get().getTable().ordinal())
+                .sorted()
+                .collect(ImmutableList.toImmutableList());
+
+        long maxRowsPerChunk = chunked ? config.maxRowsPerChunk() : Long.MAX_VALUE;
+        RateLimiter limiter = RateLimiter.create(rateLimitRowsPerSecond);
+        Map<Table, TableScan> scans = Maps.newEnumMap(Table.class);
+        try {
+            ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(outputStream, config.outputBufferSizeInBytes()));
+            zos.setLevel(config.compressionLevel());
+            long rowCount = 0L;
+            Optional<ExportCursor> nextCursorOpt = Optional.empty();
+            for (int i = 0; i < remainingTables.size() && nextCursorOpt.isEmpty(); i++) {
+                Table table = remainingTables.get(i);
+                Optional<String> tableCursorOpt = cursorOpt
+                        .filter(cursor -> cursor.getTable() == table)
+                        .flatMap(ExportCursor::getTableCursorOpt);
+                TableScan scan = startScan(projectId, table, format, tableCursorOpt, limiter);
+                scans.put(table, scan);
+                zos.putNextEntry(new ZipEntry(entryNamer.apply(table.getType(), format.getExtension())));
+                zos.write(scan.getHeader());
+                while (true) {
+                    RenderedPage page = scan.take(config.pageTimeout());
+                    zos.write(page.getContent());
+                    // Push out what the deflater produced so far, keeps the connection alive on slow scans
+                    zos.flush();
+                    rowCount += page.getRowCount();
+                    if (page.getNextCursorOpt().isEmpty()) {
+                        if (rowCount >= maxRowsPerChunk && i + 1 < remainingTables.size()) {
+                            nextCursorOpt = Optional.of(new ExportCursor(remainingTables.get(i + 1), Optional.empty()));
+                        }
+                        break;
+                    }
+                    if (rowCount >= maxRowsPerChunk) {
+                        nextCursorOpt = Optional.of(new ExportCursor(table, page.getNextCursorOpt()));
+                        break;
+                    }
+                }
+                zos.closeEntry();
+            }
+            if (nextCursorOpt.isPresent()) {
+                zos.putNextEntry(new ZipEntry(NEXT_CURSOR_ENTRY_NAME));
+                zos.write(serializeCursor(nextCursorOpt.get()).getBytes(Charsets.UTF_8));
+                zos.closeEntry();
+            }
+            zos.finish();
+            zos.flush();
+            return nextCursorOpt;
+        } finally {
+            scans.values().forEach(TableScan::cancel);
+        }
+    }
+
+    private TableScan startScan(String projectId, Table table, Format format, Optional<String> tableCursorOpt, RateLimiter limiter) {
+        switch (table) {
+            case POSTS:
+                return startScan(format, tableCursorOpt, limiter,
+                        cursorOpt -> ideaStore.exportPageForProject(projectId, cursorOpt),
+                        ImmutableList.of(
+                                "ideaId",
+                                "authorUserId",
+                                "created",
+                                "title",
+                                "description",
+                                "response",
+                                "categoryId",
+                                "statusId",
+                                "tagIds",
+                                "funded",
+                                "fundersCount",
+                                "fundGoal",
+                                "voteValue",
+                                "votersCount",
+                                "expressionsValue",
+                                "expressions"),
+                        (IdeaModel idea) -> Arrays.asList(
+                                idea.getIdeaId(),
+                                idea.getAuthorUserId(),
+                                idea.getCreated(),
+                                idea.getTitle(),
+                                idea.getDescriptionSanitized(sanitizer),
+                                idea.getResponseSanitized(sanitizer),
+                                idea.getCategoryId(),
+                                idea.getStatusId(),
+                                String.join(",", idea.getTagIds()),
+                                idea.getFunded(),
+                                idea.getFundersCount(),
+                                idea.getFundGoal(),
+                                idea.getVoteValue(),
+                                idea.getVotersCount(),
+                                idea.getExpressionsValue(),
+                                idea.getExpressions() == null ? null : idea.getExpressions().entrySet().stream()
+                                        .map(entry -> entry.getKey() + "=" + entry.getValue())
+                                        .collect(Collectors.joining(","))));
+            case USERS:
+                return startScan(format, tableCursorOpt, limiter,
+                        cursorOpt -> userStore.exportPageForProject(projectId, cursorOpt),
+                        ImmutableList.of(
+                                "userId",
+                                "ssoGuid",
+                                "isMod",
+                                "name",
+                                "email",
+                                "emailVerified",
+                                "emailNotify",
+                                "balance",
+                                "created"),
+                        (UserModel user) -> Arrays.asList(
+                                user.getUserId(),
+                                user.getSsoGuid(),
+                                user.getIsMod(),
+                                user.getName(),
+                                user.getEmail(),
+                                user.getEmailVerified(),
+                                user.isEmailNotify(),
+                                user.getBalance(),
+                                user.getCreated()));
+            case COMMENTS:
+                return startScan(format, tableCursorOpt, limiter,
+                        cursorOpt -> commentStore.exportPageForProject(projectId, cursorOpt),
+                        ImmutableList.of(
+                                "ideaId",
+                                "commentId",
+                                "parentCommentId",
+                                "authorUserId",
+                                "created",
+                                "edited",
+                                "content",
+                                "upvotes",
+                                "downvotes"),
+                        (CommentModel comment) -> Arrays.asList(
+                                comment.getIdeaId(),
+                                comment.getCommentId(),
+                                comment.getParentCommentIds().isEmpty()
+                                        ? null
+                                        : comment.getParentCommentIds().get(comment.getParentCommentIds().size() - 1),
+                                comment.getAuthorUserId(),
+                                comment.getCreated(),
+                                comment.getEdited(),
+                                comment.getContentSanitized(sanitizer),
+                                comment.getUpvotes(),
+                                comment.getDownvotes()));
+            default:
+                throw new IllegalStateException("Unknown table " + table);
+        }
+    }
+
+    private <T> TableScan startScan(
+            Format format,
+            Optional<String> tableCursorOpt,
+            RateLimiter limiter,
+            PageFetcher<T> pageFetcher,
+            ImmutableList<String> columns,
+            Function<T, List<Object>> rowMapper) {
+        BlockingQueue<RenderedPage> queue = new ArrayBlockingQueue<>(config.bufferedPagesPerTable());
+        Future<?> producer;
+        try {
+            producer = executor.submit(() -> scan(format, tableCursorOpt, limiter, pageFetcher, columns, rowMapper, queue));
+        } catch (RejectedExecutionException ex) {
+            throw new ApiException(Response.Status.TOO_MANY_REQUESTS, "Too many exports in progress, try again later", ex);
+        }
+        return new TableScan(
+                format == Format.CSV ? renderCsvRow(columns).getBytes(Charsets.UTF_8) : new byte[0],
+                queue,
+                producer);
+    }
+
+    private <T> Void scan(
+            Format format,
+            Optional<String> tableCursorOpt,
+            RateLimiter limiter,
+            PageFetcher<T> pageFetcher,
+            ImmutableList<String> columns,
+            Function<T, List<Object>> rowMapper,
+            BlockingQueue<RenderedPage> queue) throws Exception {
+        Optional<String> cursorOpt = tableCursorOpt;
+        do {
+            ExportPage<T> page = pageFetcher.fetch(cursorOpt);
+            cursorOpt = page.getCursorOpt();
+            if (!page.getItems().isEmpty()) {
+                limiter.acquire(page.getItems().size());
+            }
+            StringBuilder content = new StringBuilder();
+            for (T item : page.getItems()) {
+                renderRow(format, columns, rowMapper.apply(item), content);
+            }
+            // Blocks while the writer is behind, bounding memory per table
+            queue.put(new RenderedPage(
+                    content.toString().getBytes(Charsets.UTF_8),
+                    page.getItems().size(),
+                    cursorOpt));
+        } while (cursorOpt.isPresent());
+        return null;
+    }
+
+    private void renderRow(Format format, ImmutableList<String> columns, List<Object> values, StringBuilder content) {
+        switch (format) {
+            case CSV:
+                content.append(renderCsvRow(values));
+                break;
+            case NDJSON:
+                Map<String, Object> row = Maps.newLinkedHashMap();
+                for (int i = 0; i < columns.size(); i++) {
+                    Object value = values.get(i);
+                    row.put(columns.get(i), value instanceof Instant ? value.toString() : value);
+                }
+                content.append(gson.toJson(row)).append('\n');
+                break;
+            default:
+                throw new IllegalStateException("Unknown format " + format);
+        }
+    }
+
+    private String renderCsvRow(List<?> values) {
+        return CSVFormat.DEFAULT.format(values.toArray()) + CSVFormat.DEFAULT.getRecordSeparator();
+    }
+
+    @FunctionalInterface
+    private interface PageFetcher<T> {
+        ExportPage<T> fetch(Optional<String> cursorOpt) throws Exception;
+    }
+
+    @Value
+    private static class RenderedPage {
+        @NonNull
+        byte[] content;
+        int rowCount;
+        @NonNull
+        Optional<String> nextCursorOpt;
+    }
+
+    @Value
+    private static class TableScan {
+        @NonNull
+        byte[] header;
+        @NonNull
+        BlockingQueue<RenderedPage> queue;
+        @NonNull
+        Future<?> producer;
+
+        RenderedPage take(Duration timeout) throws IOException {
+            long deadline = System.nanoTime() + timeout.toNanos();
+            try {
+                while (true) {
+                    RenderedPage page = queue.poll(1, TimeUnit.SECONDS);
+                    if (page != null) {
+                        return page;
+                    }
+                    if (producer.isDone()) {
+                        // Surfaces the failure, otherwise it finished between our poll and check
+                        producer.get();
+                        page = queue.poll();
+                        if (page != null) {
+                            return page;
+                        }
+                        throw new IOException("Export table scan ended without its last page");
+                    }
+                    if (System.nanoTime() > deadline) {
+                        throw new TimeoutException("Timed out waiting for export page");
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            } catch (ExecutionException | TimeoutException ex) {
+                throw new IOException(ex);
+            }
+        }
+
+        void cancel() {
+            producer.cancel(true);
+        }
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ProjectExporter.class).asEagerSingleton();
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(ProjectExporter.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+            }
+        };
+    }
+}
@@ -0,0 +1,277 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web.util;
+
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.store.IdeaStore;
+import com.smotana.clearflask.store.IdeaStore.IdeaModel;
+import com.smotana.clearflask.util.IdUtil;
+import io.dataspray.singletable.DynamoTable;
+import io.dataspray.singletable.SingleTable;
+import io.dataspray.singletable.TableSchema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.dataspray.singletable.TableType.Primary;
+
+/**
+ * Writes already validated imports in the background, in parallel batches, tracking progress in DynamoDB
+ * so any node can report it.
+ */
+@Slf4j
+@Singleton
+public class ProjectImporter extends ManagedService {
+
+    private static final String SHUTDOWN_ERROR_MESSAGE = "Import interrupted by server shutdown, some items may not have been imported";
+
+    public interface Config {
+        /**
+         * Shared by all batches of a single import.
+         */
+        @DefaultValue("1000")
+        double importRateLimitRowsPerSecond();
+
+        @DefaultValue("500")
+        int batchSize();
+
+        /**
+         * Batches written concurrently across all imports.
+         */
+        @DefaultValue("4")
+        int writeThreads();
+
+        /**
+         * Imports submitting batches concurrently, further imports wait their turn.
+         */
+        @DefaultValue("4")
+        int submitThreads();
+
+        @DefaultValue("P1D")
+        Duration importJobExpiry();
+    }
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = {"importId", "projectId"}, rangePrefix = "importJob")
+    public static class ImportJob {
+        @NonNull
+        String projectId;
+
+        @NonNull
+        String importId;
+
+        long total;
+
+        long processed;
+
+        boolean done;
+
+        /**
+         * Set when the import stopped on a failure.
+         */
+        String errorMessage;
+
+        @NonNull
+        long ttlInEpochSec;
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private SingleTable singleTable;
+    @Inject
+    private IdeaStore ideaStore;
+
+    private final Set<ImportProgress> inProgress = Sets.newConcurrentHashSet();
+    private TableSchema<ImportJob> importJobSchema;
+    private ExecutorService submitExecutor;
+    private ListeningExecutorService writeExecutor;
+
+    @Inject
+    private void setup() {
+        importJobSchema = singleTable.parseTableSchema(ImportJob.class);
+    }
+
+    @Override
+    protected void serviceStart() throws Exception {
+        submitExecutor = Executors.newFixedThreadPool(config.submitThreads(),
+                new ThreadFactoryBuilder().setNameFormat("ProjectImporter-submit-%d").build());
+        writeExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(config.writeThreads(),
+                new ThreadFactoryBuilder().setNameFormat("ProjectImporter-write-%d").build()));
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        submitExecutor.shutdownNow();
+        // Cancel batches that never started so their import fails instead of waiting forever
+        writeExecutor.shutdownNow().stream()
+                .filter(task -> task instanceof Future)
+                .forEach(task -> ((Future<?>) task).cancel(false));
+        submitExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        writeExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        // Imports whose batches were never submitted
+        inProgress.forEach(progress -> progress.finish(SHUTDOWN_ERROR_MESSAGE));
+    }
+
+    /**
+     * Starts writing the ideas, returns the job to poll for progress.
+     */
+    public ImportJob importIdeas(String projectId, ImmutableList<IdeaModel> ideas) {
+        ImportJob job = new ImportJob(
+                projectId,
+                IdUtil.randomId(),
+                ideas.size(),
+                0L,
+                ideas.isEmpty(),
+                null,
+                Instant.now().plus(config.importJobExpiry()).getEpochSecond());
+        ImportProgress progress = new ImportProgress(job);
+        progress.save();
+        if (!job.isDone()) {
+            inProgress.add(progress);
+        }
+
+        try {
+            submitExecutor.execute(() -> submitBatches(projectId, job.getImportId(), ideas, progress));
+        } catch (RejectedExecutionException ex) {
+            progress.finish(SHUTDOWN_ERROR_MESSAGE);
+            throw ex;
+        }
+
+        return job;
+    }
+
+    private void submitBatches(String projectId, String importId, ImmutableList<IdeaModel> ideas, ImportProgress progress) {
+        RateLimiter limiter = RateLimiter.create(config.importRateLimitRowsPerSecond());
+        AtomicBoolean failed = new AtomicBoolean(false);
+        List<ListenableFuture<Void>> batchFutures = Lists.newArrayList();
+        try {
+            for (List<IdeaModel> batch : Lists.partition(ideas, config.batchSize())) {
+                // Paced here rather than in the write threads shared by all imports
+                limiter.acquire(batch.size());
+                // Import already failed, no point writing the rest
+                if (failed.get()) {
+                    break;
+                }
+                batchFutures.add(writeExecutor.submit(() -> {
+                    try {
+                        ideaStore.createIdeas(projectId, batch).get();
+                    } catch (Exception ex) {
+                        failed.set(true);
+                        throw ex;
+                    }
+                    progress.processed(batch.size());
+                    return (Void) null;
+                }));
+            }
+        } catch (RejectedExecutionException ex) {
+            // Shutting down
+            batchFutures.add(Futures.immediateFailedFuture(ex));
+        }
+        Futures.addCallback(Futures.allAsList(batchFutures), new FutureCallback<>() {
+            @Override
+            public void onSuccess(List<Void> result) {
+                progress.finish(null);
+            }
+
+            @Override
+            public void onFailure(Throwable th) {
+                log.warn("Failed to import into project {} import id {}", projectId, importId, th);
+                progress.finish("Import failed, some items may not have been imported");
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    public Optional<ImportJob> getImportJob(String projectId, String importId) {
+        return Optional.ofNullable(importJobSchema.fromItem(importJobSchema.table().getItem(new GetItemSpec()
+                .withPrimaryKey(importJobSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "importId", importId))))));
+    }
+
+    /**
+     * Serializes progress writes of a single import so they land in order.
+     */
+    @AllArgsConstructor
+    private class ImportProgress {
+        private ImportJob job;
+
+        synchronized void processed(long count) {
+            if (job.isDone()) {
+                return;
+            }
+            job = job.toBuilder()
+                    .processed(job.getProcessed() + count)
+                    .build();
+            save();
+        }
+
+        synchronized void finish(String errorMessage) {
+            inProgress.remove(this);
+            if (job.isDone()) {
+                return;
+            }
+            job = job.toBuilder()
+                    .done(true)
+                    .errorMessage(errorMessage)
+                    .build();
+            save();
+        }
+
+        synchronized void save() {
+            try {
+                importJobSchema.table().putItem(new PutItemSpec()
+                        .withItem(importJobSchema.toItem(job)));
+            } catch (Exception ex) {
+                log.warn("Failed to save progress of import {}", job, ex);
+            }
+        }
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ProjectImporter.class).asEagerSingleton();
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(ProjectImporter.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+            }
+        };
+    }
+}
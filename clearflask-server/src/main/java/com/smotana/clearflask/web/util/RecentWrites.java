@@ -0,0 +1,192 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web.util;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.api.model.IdeaSearch;
+import com.smotana.clearflask.store.CommentStore.CommentModel;
+import com.smotana.clearflask.store.IdeaStore.IdeaModel;
+import com.smotana.clearflask.store.impl.DynamoElasticCommentStore;
+import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Remembers each user's own recent writes for a short while, so their searches include them
+ * until the search index catches up. Only active when the store indexes asynchronously,
+ * otherwise writes are searchable once acknowledged.
+ */
+@Slf4j
+@Singleton
+public class RecentWrites {
+
+    public interface Config {
+        @DefaultValue("true")
+        boolean enabled();
+
+        /**
+         * Should comfortably exceed the time for a write to become searchable.
+         */
+        @DefaultValue("PT10S")
+        Duration expireAfterWrite();
+
+        @DefaultValue("10000")
+        long maximumSessions();
+
+        @DefaultValue("20")
+        int maximumWritesPerSession();
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private DynamoElasticIdeaStore.Config configIdeaStore;
+    @Inject
+    private DynamoElasticCommentStore.Config configCommentStore;
+
+    private Cache<SessionKey, ImmutableList<RecentWrite<IdeaModel>>> recentIdeas;
+    private Cache<SessionKey, ImmutableList<RecentWrite<CommentModel>>> recentComments;
+
+    @Inject
+    private void setup() {
+        recentIdeas = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.expireAfterWrite())
+                .maximumSize(config.maximumSessions())
+                .build();
+        recentComments = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.expireAfterWrite())
+                .maximumSize(config.maximumSessions())
+                .build();
+    }
+
+    public void ideaWritten(String userId, IdeaModel idea) {
+        record(isIdeasEnabled(), recentIdeas, new SessionKey(idea.getProjectId(), userId), idea);
+    }
+
+    public void commentWritten(String userId, CommentModel comment) {
+        record(isCommentsEnabled(), recentComments, new SessionKey(comment.getProjectId(), userId), comment);
+    }
+
+    /**
+     * Ideas recently written by the user, newest first. As written, callers should re-read them.
+     */
+    public ImmutableList<IdeaModel> getRecentIdeas(String projectId, String userId) {
+        return get(isIdeasEnabled(), recentIdeas, new SessionKey(projectId, userId));
+    }
+
+    /**
+     * Comments recently written by the user, newest first. As written, callers should re-read them.
+     */
+    public ImmutableList<CommentModel> getRecentComments(String projectId, String userId) {
+        return get(isCommentsEnabled(), recentComments, new SessionKey(projectId, userId));
+    }
+
+    /**
+     * Approximates the search filters that can be evaluated without the index. Free text and
+     * similarity searches never match as their results cannot be predicted.
+     */
+    public static boolean matches(IdeaSearch ideaSearch, IdeaModel idea) {
+        if (!Strings.isNullOrEmpty(ideaSearch.getSearchText())
+                || !Strings.isNullOrEmpty(ideaSearch.getSimilarToIdeaId())
+                || ideaSearch.getFundedByMeAndActive() == Boolean.TRUE
+                || idea.getMergedToPostId() != null) {
+            return false;
+        }
+        if (!Strings.isNullOrEmpty(ideaSearch.getFilterAuthorId())
+                && !ideaSearch.getFilterAuthorId().equals(idea.getAuthorUserId())) {
+            return false;
+        }
+        return matchesFilter(ideaSearch.getFilterCategoryIds(), ideaSearch.getInvertCategory(), Stream.ofNullable(idea.getCategoryId()))
+                && matchesFilter(ideaSearch.getFilterStatusIds(), ideaSearch.getInvertStatus(), Stream.ofNullable(idea.getStatusId()))
+                && matchesFilter(ideaSearch.getFilterTagIds(), ideaSearch.getInvertTag(), idea.getTagIds().stream());
+    }
+
+    private static boolean matchesFilter(List<String> filterIds, Boolean invert, Stream<String> ids) {
+        if (filterIds == null || filterIds.isEmpty()) {
+            return true;
+        }
+        return ids.anyMatch(filterIds::contains) != (invert == Boolean.TRUE);
+    }
+
+    private boolean isIdeasEnabled() {
+        return config.enabled() && configIdeaStore.elasticAsyncIndexing();
+    }
+
+    private boolean isCommentsEnabled() {
+        return config.enabled() && configCommentStore.elasticAsyncIndexing();
+    }
+
+    private <T> void record(boolean enabled, Cache<SessionKey, ImmutableList<RecentWrite<T>>> cache, SessionKey key, T model) {
+        if (!enabled) {
+            return;
+        }
+        Instant expiredBefore = Instant.now().minus(config.expireAfterWrite());
+        cache.asMap().compute(key, (k, writes) -> {
+            ImmutableList.Builder<RecentWrite<T>> writesBuilder = ImmutableList.builder();
+            writesBuilder.add(new RecentWrite<>(model, Instant.now()));
+            if (writes != null) {
+                writes.stream()
+                        .filter(write -> write.getWritten().isAfter(expiredBefore))
+                        .limit(config.maximumWritesPerSession() - 1)
+                        .forEach(writesBuilder::add);
+            }
+            return writesBuilder.build();
+        });
+    }
+
+    private <T> ImmutableList<T> get(boolean enabled, Cache<SessionKey, ImmutableList<RecentWrite<T>>> cache, SessionKey key) {
+        if (!enabled) {
+            return ImmutableList.of();
+        }
+        ImmutableList<RecentWrite<T>> writes = cache.getIfPresent(key);
+        if (writes == null) {
+            return ImmutableList.of();
+        }
+        Instant expiredBefore = Instant.now().minus(config.expireAfterWrite());
+        return writes.stream()
+                .filter(write -> write.getWritten().isAfter(expiredBefore))
+                .map(RecentWrite::getModel)
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    @Value
+    private static class SessionKey {
+        @NonNull
+        String projectId;
+        @NonNull
+        String userId;
+    }
+
+    @Value
+    private static class RecentWrite<T> {
+        @NonNull
+        T model;
+        @NonNull
+        Instant written;
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(RecentWrites.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+            }
+        };
+    }
+}
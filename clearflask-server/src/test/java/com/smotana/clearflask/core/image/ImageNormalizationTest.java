@@ -18,12 +18,15 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
 @Slf4j
 @RunWith(Parameterized.class)
@@ -105,6 +108,26 @@ public class ImageNormalizationTest extends AbstractTest {
         assertEquals(isGif ? height : height / 2, normalizedBuffered.getHeight());
     }
 
+    @Test(timeout = 10_000L)
+    public void testGifReencoded() throws Exception {
+        assumeTrue("gif".equals(FilenameUtils.getExtension(testImagePath)));
+        byte[] exampleImgBytes = Thread.currentThread().getContextClassLoader().getResourceAsStream(testImagePath).readAllBytes();
+        BufferedImage exampleImgBuffered = ImageIO.read(new ByteArrayInputStream(exampleImgBytes));
+        int width = exampleImgBuffered.getWidth();
+        int height = exampleImgBuffered.getHeight();
+
+        configSet(ImageNormalizationImpl.Config.class, "keepGifsAsIs", "false");
+        configSet(ImageNormalizationImpl.Config.class, "maxWidth", String.valueOf(width / 2));
+        ImageNormalization.Image normalized = normalization.normalize(exampleImgBytes);
+        writeFileToTempFolder(normalized, "reencoded");
+        assertEquals("image/gif", normalized.getMediaType());
+        ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+        reader.setInput(ImageIO.createImageInputStream(new ByteArrayInputStream(normalized.getData())));
+        assertTrue(reader.getNumImages(true) > 1);
+        assertEquals(width / 2, reader.getWidth(0));
+        assertEquals(height / 2, reader.getHeight(0));
+    }
+
     private void writeFileToTempFolder(ImageNormalization.Image image, String suffix) throws IOException {
         String outputFileName = FilenameUtils.getBaseName(testImagePath)
                 + "-" + suffix
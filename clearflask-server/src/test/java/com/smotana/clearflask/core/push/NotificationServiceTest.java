@@ -8,11 +8,14 @@ import com.amazonaws.auth.BasicAWSCredentials;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ControllableSleepingStopwatch;
 import com.google.common.util.concurrent.GuavaRateLimiters;
 import com.google.inject.Inject;
+import com.smotana.clearflask.TestUtil;
 import com.smotana.clearflask.api.model.TransactionType;
 import com.smotana.clearflask.api.model.VersionedConfigAdmin;
+import com.smotana.clearflask.core.push.NotificationServiceImpl.LaneStats;
 import com.smotana.clearflask.core.push.message.EmailLogin;
 import com.smotana.clearflask.core.push.message.EmailTemplates;
 import com.smotana.clearflask.core.push.message.EmailVerify;
@@ -35,10 +38,12 @@ import com.smotana.clearflask.core.push.provider.MockNotificationStore;
 import com.smotana.clearflask.security.limiter.rate.LocalRateLimiter;
 import com.smotana.clearflask.store.CommentStore;
 import com.smotana.clearflask.store.ContentStore;
+import com.smotana.clearflask.store.IdeaStore;
 import com.smotana.clearflask.store.IdeaStore.IdeaModel;
 import com.smotana.clearflask.store.MockModelUtil;
 import com.smotana.clearflask.store.NotificationStore.NotificationModel;
 import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.ProjectStore.Project;
 import com.smotana.clearflask.store.UserStore;
 import com.smotana.clearflask.store.UserStore.UserModel;
 import com.smotana.clearflask.store.VoteStore;
@@ -58,20 +63,33 @@ import org.bouncycastle.jce.interfaces.ECPrivateKey;
 import org.bouncycastle.jce.interfaces.ECPublicKey;
 import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
 import org.junit.Test;
+import org.mockito.Mockito;
 
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.Security;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.Optional;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import static com.smotana.clearflask.testutil.HtmlUtil.textToSimpleHtml;
 import static nl.martijndwars.webpush.Utils.ALGORITHM;
 import static nl.martijndwars.webpush.Utils.CURVE;
 import static org.bouncycastle.jce.provider.BouncyCastleProvider.PROVIDER_NAME;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 
 @Slf4j
@@ -89,6 +107,12 @@ public class NotificationServiceTest extends AbstractTest {
     private UserStore mockUserStore;
     @Inject
     private MockNotificationStore mockNotificationStore;
+    @Inject
+    private ProjectStore mockProjectStore;
+    @Inject
+    private IdeaStore mockIdeaStore;
+    @Inject
+    private NotificationServiceImpl.Config configNotificationService;
 
     @Override
     protected void configure() {
@@ -99,6 +123,8 @@ public class NotificationServiceTest extends AbstractTest {
         bindMock(VoteStore.class);
         bindMock(UserStore.class);
         bindMock(ContentStore.class);
+        bindMock(ProjectStore.class);
+        bindMock(IdeaStore.class);
 
         install(NotificationServiceImpl.module());
         install(EmailTemplates.module());
@@ -427,4 +453,174 @@ public class NotificationServiceTest extends AbstractTest {
     private String encodePrivateKey(KeyPair keyPair) {
         return Base64Encoder.encodeUrl(Utils.encode((ECPrivateKey) keyPair.getPrivate()));
     }
-}
\ No newline at end of file
+
+    @Test(timeout = 10_000L)
+    public void testFanOutResumeAfterInterruption() throws Exception {
+        configSet(NotificationServiceImpl.Config.class, "fanOutLeaseDuration", "PT0S");
+        String projectId = "myProject";
+        VersionedConfigAdmin versionedConfigAdmin = ModelUtil.createEmptyConfig(projectId);
+        IdeaModel idea = MockModelUtil.getRandomIdea().toBuilder()
+                .projectId(projectId)
+                .statusId(versionedConfigAdmin.getConfig().getContent().getCategories().get(0).getWorkflow().getStatuses().get(0).getStatusId())
+                .categoryId(versionedConfigAdmin.getConfig().getContent().getCategories().get(0).getCategoryId())
+                .fundersCount(0L)
+                .votersCount(9L).voteValue(9L)
+                .expressions(ImmutableMap.of())
+                .build();
+        Project project = Mockito.mock(Project.class);
+        when(project.getVersionedConfigAdmin()).thenReturn(versionedConfigAdmin);
+        when(mockProjectStore.getProject(eq(projectId), anyBoolean())).thenReturn(Optional.of(project));
+        when(mockIdeaStore.getIdea(projectId, idea.getIdeaId())).thenReturn(Optional.of(idea));
+
+        // Three pages of three voters, cursors differ on every read like encrypted cursors do
+        when(this.mockVoteStore.voteListByTarget(eq(projectId), eq(idea.getIdeaId()), any())).thenAnswer(invocation -> {
+            Optional<String> cursorOpt = invocation.getArgument(2);
+            int pageIndex = cursorOpt.map(cursor -> Integer.parseInt(cursor.split("-")[0])).orElse(0);
+            ImmutableList<VoteModel> votes = IntStream.range(pageIndex * 3, pageIndex * 3 + 3)
+                    .mapToObj(i -> VoteModel.builder()
+                            .userId("user" + i)
+                            .projectId(projectId)
+                            .targetId(idea.getIdeaId())
+                            .vote(1)
+                            .build())
+                    .collect(ImmutableList.toImmutableList());
+            return new VoteStore.ListResponse<>(votes, pageIndex < 2
+                    ? Optional.of((pageIndex + 1) + "-" + IdUtil.randomId())
+                    : Optional.empty());
+        });
+        // Simulate the node going away while sending the second page
+        AtomicBoolean interrupted = new AtomicBoolean(false);
+        when(this.mockUserStore.getUsers(any(), any())).thenAnswer(invocation -> {
+            Collection<String> userIds = invocation.getArgument(1);
+            if (userIds.contains("user3") && interrupted.compareAndSet(false, true)) {
+                throw new RuntimeException("Interrupted");
+            }
+            return userIds.stream().collect(ImmutableMap.toImmutableMap(
+                    userId -> userId,
+                    userId -> MockModelUtil.getRandomUser().toBuilder()
+                            .projectId(projectId)
+                            .userId(userId)
+                            .emailNotify(false)
+                            .browserPushToken(null)
+                            .build()));
+        });
+
+        service.onStatusOrResponseChanged(
+                versionedConfigAdmin.getConfig(),
+                idea,
+                true,
+                false,
+                Optional.empty());
+
+        Set<String> notifiedUserIds = Sets.newHashSet();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(notifiedUserIds.add(mockNotificationStore.sent.take().getUserId()));
+        }
+        while (!interrupted.get()) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, mockNotificationStore.fanOutCheckpoints.size());
+        Thread.sleep(5); // Let the lease expire
+
+        ((NotificationServiceImpl) service).resumeAbandonedFanOuts();
+
+        for (int i = 0; i < 6; i++) {
+            assertTrue(notifiedUserIds.add(mockNotificationStore.sent.take().getUserId()));
+        }
+        while (!mockNotificationStore.fanOutCheckpoints.isEmpty()) {
+            Thread.sleep(10);
+        }
+        assertEquals(IntStream.range(0, 9).mapToObj(i -> "user" + i).collect(ImmutableSet.toImmutableSet()), notifiedUserIds);
+        assertTrue(mockNotificationStore.sent.isEmpty());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testLaneSelection() throws Exception {
+        String projectId = "myProject";
+        VersionedConfigAdmin versionedConfigAdmin = ModelUtil.createEmptyConfig(projectId);
+        UserModel user = MockModelUtil.getRandomUser().toBuilder()
+                .projectId(projectId)
+                .userId(IdUtil.randomId())
+                .email("user@email.com")
+                .emailNotify(true)
+                .build();
+        when(this.mockUserStore.getUser(any(), any())).thenReturn(Optional.of(user));
+        when(this.mockUserStore.createToken(any(), any(), any())).thenReturn("myAuthToken");
+        IdeaModel idea = getIdeaWithStatus(versionedConfigAdmin);
+        mockEmptyFanOut(idea);
+
+        service.onForgotPassword(versionedConfigAdmin.getConfig(), user);
+        assertNotNull(mockEmailService.sent.take());
+        TestUtil.retry(() -> {
+            assertEquals(1L, getLaneStats("transactional").getCompleted());
+            assertEquals(0L, getLaneStats("bulk").getCompleted());
+        });
+
+        service.onStatusOrResponseChanged(versionedConfigAdmin.getConfig(), idea, true, false, Optional.empty());
+        TestUtil.retry(() -> {
+            assertEquals(1L, getLaneStats("transactional").getCompleted());
+            assertEquals(1L, getLaneStats("bulk").getCompleted());
+        });
+    }
+
+    @Test(timeout = 10_000L)
+    public void testBulkLaneFullRunsOnCaller() throws Exception {
+        String projectId = "myProject";
+        VersionedConfigAdmin versionedConfigAdmin = ModelUtil.createEmptyConfig(projectId);
+        IdeaModel idea = getIdeaWithStatus(versionedConfigAdmin);
+        mockEmptyFanOut(idea);
+        // Block every lane thread on its first fan-out
+        int bulkThreads = configNotificationService.bulkThreads();
+        int bulkQueueSize = configNotificationService.bulkQueueSize();
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger fanOutCount = new AtomicInteger();
+        List<Thread> fanOutThreads = new CopyOnWriteArrayList<>();
+        when(this.mockVoteStore.fundListByTarget(any(), any(), any())).thenAnswer(invocation -> {
+            fanOutThreads.add(Thread.currentThread());
+            if (fanOutCount.incrementAndGet() <= bulkThreads) {
+                release.await();
+            }
+            return new VoteStore.ListResponse<>(ImmutableList.of(), Optional.empty());
+        });
+
+        for (int i = 0; i < bulkThreads + bulkQueueSize; i++) {
+            service.onStatusOrResponseChanged(versionedConfigAdmin.getConfig(), idea, true, false, Optional.empty());
+        }
+        TestUtil.retry(() -> {
+            assertEquals(bulkThreads, getLaneStats("bulk").getActiveThreads());
+            assertEquals(bulkQueueSize, getLaneStats("bulk").getQueueDepth());
+        });
+
+        // Lane is full, the next fan-out is not dropped but runs right here
+        service.onStatusOrResponseChanged(versionedConfigAdmin.getConfig(), idea, true, false, Optional.empty());
+        assertTrue(fanOutThreads.contains(Thread.currentThread()));
+        assertEquals(1L, getLaneStats("bulk").getCallerRuns());
+
+        release.countDown();
+        TestUtil.retry(() -> assertEquals(bulkThreads + bulkQueueSize + 1L, getLaneStats("bulk").getCompleted()));
+    }
+
+    private IdeaModel getIdeaWithStatus(VersionedConfigAdmin versionedConfigAdmin) {
+        return MockModelUtil.getRandomIdea().toBuilder()
+                .projectId(versionedConfigAdmin.getConfig().getProjectId())
+                .statusId(versionedConfigAdmin.getConfig().getContent().getCategories().get(0).getWorkflow().getStatuses().get(0).getStatusId())
+                .categoryId(versionedConfigAdmin.getConfig().getContent().getCategories().get(0).getCategoryId())
+                .build();
+    }
+
+    private void mockEmptyFanOut(IdeaModel idea) {
+        when(this.mockVoteStore.fundListByTarget(eq(idea.getProjectId()), eq(idea.getIdeaId()), any()))
+                .thenReturn(new VoteStore.ListResponse<>(ImmutableList.of(), Optional.empty()));
+        when(this.mockVoteStore.voteListByTarget(eq(idea.getProjectId()), eq(idea.getIdeaId()), any()))
+                .thenReturn(new VoteStore.ListResponse<>(ImmutableList.of(), Optional.empty()));
+        when(this.mockVoteStore.expressListByTarget(eq(idea.getProjectId()), eq(idea.getIdeaId()), any()))
+                .thenReturn(new VoteStore.ListResponse<>(ImmutableList.of(), Optional.empty()));
+    }
+
+    private LaneStats getLaneStats(String name) {
+        return ((NotificationServiceImpl) service).getLaneStats().stream()
+                .filter(laneStats -> name.equals(laneStats.getName()))
+                .findAny()
+                .get();
+    }
+}
@@ -2,6 +2,7 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.core.push.provider;
 
+import com.google.common.collect.Maps;
 import com.google.common.collect.Queues;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
@@ -11,15 +12,19 @@ import com.smotana.clearflask.web.ApiException;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.ws.rs.core.Response;
+import java.time.Instant;
 import java.util.Collection;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
 
 @Slf4j
 @Singleton
 public class MockNotificationStore implements NotificationStore {
 
     public final BlockingQueue<NotificationModel> sent = Queues.newLinkedBlockingDeque();
+    public final ConcurrentMap<String, FanOutCheckpoint> fanOutCheckpoints = Maps.newConcurrentMap();
 
     @Override
     public void notificationCreate(NotificationModel notification) {
@@ -47,6 +52,34 @@ public class MockNotificationStore implements NotificationStore {
         throw new ApiException(Response.Status.NOT_IMPLEMENTED);
     }
 
+    @Override
+    public boolean fanOutCheckpointPut(FanOutCheckpoint checkpoint, Optional<String> previousLeaseOwnerOpt) {
+        if (previousLeaseOwnerOpt.isPresent()) {
+            return fanOutCheckpoints.computeIfPresent(checkpoint.getFanOutId(), (id, c) -> previousLeaseOwnerOpt.get().equals(c.getLeaseOwner()) ? checkpoint : c) == checkpoint;
+        } else {
+            return fanOutCheckpoints.putIfAbsent(checkpoint.getFanOutId(), checkpoint) == null;
+        }
+    }
+
+    @Override
+    public Optional<FanOutCheckpoint> fanOutCheckpointClaim(String fanOutId, String leaseOwner, long leaseExpiresEpochMs) {
+        long now = Instant.now().toEpochMilli();
+        return Optional.ofNullable(fanOutCheckpoints.computeIfPresent(fanOutId, (id, c) -> c.getLeaseExpiresEpochMs() < now
+                        ? c.toBuilder().leaseOwner(leaseOwner).leaseExpiresEpochMs(leaseExpiresEpochMs).build()
+                        : c))
+                .filter(c -> leaseOwner.equals(c.getLeaseOwner()));
+    }
+
+    @Override
+    public void fanOutCheckpointDelete(String fanOutId) {
+        fanOutCheckpoints.remove(fanOutId);
+    }
+
+    @Override
+    public void fanOutCheckpointListAll(Consumer<FanOutCheckpoint> consumer) {
+        fanOutCheckpoints.values().forEach(consumer);
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
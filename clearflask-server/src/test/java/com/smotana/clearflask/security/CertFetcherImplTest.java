@@ -0,0 +1,134 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.security;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.smotana.clearflask.security.CertFetcher.CertAndKeypair;
+import com.smotana.clearflask.store.CertStore;
+import com.smotana.clearflask.store.CertStore.CertModel;
+import com.smotana.clearflask.store.CertStore.KeypairModel;
+import com.smotana.clearflask.store.CertStore.KeypairModel.KeypairType;
+import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.ProjectStore.Project;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.shredzone.acme4j.util.KeyPairUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Slf4j
+public class CertFetcherImplTest extends AbstractTest {
+
+    @Inject
+    private CertFetcher certFetcher;
+    @Inject
+    private CertStore certStore;
+    @Inject
+    private ProjectStore projectStore;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        bindMock(CertStore.class);
+        bindMock(ProjectStore.class);
+
+        install(CertFetcherImpl.module());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testCertCached() throws Exception {
+        String domain = "feedback.example.com";
+        when(projectStore.getProjectBySlug(domain, true)).thenReturn(Optional.of(Mockito.mock(Project.class)));
+        CertModel certModel = new CertModel(
+                domain,
+                "cert",
+                "chain",
+                ImmutableList.of(domain),
+                Instant.now(),
+                Instant.now().plus(Duration.ofDays(90)),
+                Instant.now().plus(Duration.ofDays(90)).getEpochSecond());
+        KeypairModel keypairModel = new KeypairModel(domain, KeypairType.CERT, KeyPairUtils.createKeyPair());
+        when(certStore.getCert(domain)).thenReturn(Optional.of(certModel));
+        when(certStore.getKeypair(KeypairType.CERT, domain)).thenReturn(Optional.of(keypairModel));
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Optional.of(new CertAndKeypair(certModel, keypairModel)), certFetcher.getOrCreateCertAndKeypair(domain));
+        }
+        verify(certStore, times(1)).getCert(domain);
+        verify(certStore, times(1)).getKeypair(KeypairType.CERT, domain);
+        verify(certStore, never()).setCert(any());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testUnknownDomainCached() throws Exception {
+        String domain = "unknown.example.com";
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Optional.empty(), certFetcher.getOrCreateCertAndKeypair(domain));
+        }
+        verify(projectStore, times(1)).getProjectBySlug(anyString(), anyBoolean());
+        verify(certStore, never()).getCert(anyString());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testConcurrentCreationSingleFlightWithFailureBackoff() throws Exception {
+        String domain = "feedback.example.com";
+        int handshakeCount = 10;
+        when(projectStore.getProjectBySlug(domain, true)).thenReturn(Optional.of(Mockito.mock(Project.class)));
+        AtomicInteger getCertCount = new AtomicInteger();
+        when(certStore.getCert(domain)).thenAnswer(invocation -> {
+            getCertCount.incrementAndGet();
+            return Optional.empty();
+        });
+        // First step of creating a cert, hold it until all handshakes are waiting on a cert, then fail it
+        CountDownLatch allHandshakesStarted = new CountDownLatch(1);
+        when(certStore.getKeypair(KeypairType.ACCOUNT, domain)).thenAnswer(invocation -> {
+            allHandshakesStarted.await();
+            throw new RuntimeException("ACME unavailable");
+        });
+
+        ExecutorService handshakeExecutor = Executors.newFixedThreadPool(handshakeCount);
+        try {
+            List<Future<Optional<CertAndKeypair>>> results = Lists.newArrayList();
+            for (int i = 0; i < handshakeCount; i++) {
+                results.add(handshakeExecutor.submit(() -> certFetcher.getOrCreateCertAndKeypair(domain)));
+            }
+            while (getCertCount.get() < handshakeCount) {
+                Thread.sleep(10);
+            }
+            allHandshakesStarted.countDown();
+            for (Future<Optional<CertAndKeypair>> result : results) {
+                assertEquals(Optional.empty(), result.get());
+            }
+        } finally {
+            handshakeExecutor.shutdownNow();
+        }
+        verify(certStore, times(1)).getKeypair(KeypairType.ACCOUNT, domain);
+
+        // Failure is remembered, later handshakes do not start another creation
+        assertEquals(Optional.empty(), certFetcher.getOrCreateCertAndKeypair(domain));
+        verify(certStore, times(1)).getKeypair(KeypairType.ACCOUNT, domain);
+    }
+}
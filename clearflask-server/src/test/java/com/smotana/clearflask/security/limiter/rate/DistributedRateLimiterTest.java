@@ -0,0 +1,99 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.security.limiter.rate;
+
+import com.google.common.util.concurrent.ControllableSleepingStopwatch;
+import com.google.common.util.concurrent.GuavaRateLimiters;
+import com.google.inject.Inject;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@Slf4j
+public class DistributedRateLimiterTest extends AbstractTest {
+
+    private static final double PERMITS_PER_SECOND = 1d / 1024d;
+    private static final double CAPACITY_IN_SECONDS = 100d * 1024d;
+
+    @Inject
+    private RateLimiter rateLimiter;
+    @Inject
+    private InMemoryTokenBucketStore store;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(DistributedRateLimiter.module());
+        install(InMemoryTokenBucketStore.module());
+        install(GuavaRateLimiters.testModule(new ControllableSleepingStopwatch()));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testSharedCapacity() throws Exception {
+        // Capacity of 100 permits, fully precharged, and 5 permits leased at a time
+        assertEquals(100, acquireUntilLimited());
+        assertTrue(store.takeCount.get() <= 21);
+        assertTrue(rateLimiter.getStats().getLocalHitCount() >= 80);
+
+        // Leases on another node cannot exceed the shared bucket
+        rateLimiter.clearAll();
+        assertFalse(rateLimiter.tryAcquire("a", 1, CAPACITY_IN_SECONDS, PERMITS_PER_SECOND, CAPACITY_IN_SECONDS));
+
+        assertTrue(rateLimiter.tryAcquire("b", 1, CAPACITY_IN_SECONDS, PERMITS_PER_SECOND, CAPACITY_IN_SECONDS));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testDenialRemembered() throws Exception {
+        assertEquals(100, acquireUntilLimited());
+
+        // Shared bucket needs over 17 minutes to refill a single permit
+        long takeCount = store.takeCount.get();
+        for (int i = 0; i < 10; i++) {
+            assertFalse(rateLimiter.tryAcquire("a", 1, CAPACITY_IN_SECONDS, PERMITS_PER_SECOND, CAPACITY_IN_SECONDS));
+        }
+        assertEquals(takeCount, store.takeCount.get());
+
+        // Capacity of one permit refilled every 10ms
+        assertTrue(rateLimiter.tryAcquire("c", 1, 0.01d, 100d, 0.01d));
+        assertFalse(rateLimiter.tryAcquire("c", 1, 0.01d, 100d, 0.01d));
+        takeCount = store.takeCount.get();
+        Thread.sleep(20);
+        assertTrue(rateLimiter.tryAcquire("c", 1, 0.01d, 100d, 0.01d));
+        assertEquals(takeCount + 1, store.takeCount.get());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testFallbackToLocal() throws Exception {
+        store.failing.set(true);
+
+        // Local limiter allows one extra permit on credit
+        int acquired = acquireUntilLimited();
+        assertTrue(acquired >= 100 && acquired <= 101);
+        assertTrue(rateLimiter.getStats().getSharedStoreFailureCount() > 0);
+    }
+
+    @Test(timeout = 10_000L)
+    public void testDisabled() throws Exception {
+        configSet(DistributedRateLimiter.Config.class, "enabled", "false");
+
+        int acquired = acquireUntilLimited();
+        assertTrue(acquired >= 100 && acquired <= 101);
+        assertEquals(0L, store.takeCount.get());
+    }
+
+    private int acquireUntilLimited() {
+        int acquired = 0;
+        while (rateLimiter.tryAcquire("a", 1, CAPACITY_IN_SECONDS, PERMITS_PER_SECOND, CAPACITY_IN_SECONDS)) {
+            acquired++;
+            if (acquired > 1000) {
+                break;
+            }
+        }
+        return acquired;
+    }
+}
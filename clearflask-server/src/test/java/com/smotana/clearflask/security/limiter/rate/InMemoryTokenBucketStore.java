@@ -0,0 +1,60 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.security.limiter.rate;
+
+import com.google.common.collect.Maps;
+import com.google.inject.AbstractModule;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.smotana.clearflask.store.TokenBucketStore;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the shared token bucket store.
+ */
+@Slf4j
+@Singleton
+public class InMemoryTokenBucketStore implements TokenBucketStore {
+
+    public final Map<String, TokenBucket> buckets = Maps.newHashMap();
+    public final AtomicLong takeCount = new AtomicLong();
+    public final AtomicBoolean failing = new AtomicBoolean(false);
+
+    @Override
+    public synchronized double take(String bucketId, double minPermits, double maxPermits, double permitsPerSecond, double capacityInSeconds, double initialPermits) {
+        takeCount.incrementAndGet();
+        if (failing.get()) {
+            throw new RuntimeException("Simulated store failure");
+        }
+        long nowEpochMs = Instant.now().toEpochMilli();
+        TokenBucket bucket = buckets.get(bucketId);
+        double available = bucket == null
+                ? Math.min(initialPermits, permitsPerSecond * capacityInSeconds)
+                : refilledPermits(bucket, nowEpochMs, permitsPerSecond, capacityInSeconds);
+        if (available < minPermits) {
+            return available;
+        }
+        double taken = Math.min(available, maxPermits);
+        buckets.put(bucketId, new TokenBucket(
+                bucketId,
+                available - taken,
+                nowEpochMs,
+                bucket == null ? 1L : bucket.getVersion() + 1,
+                Long.MAX_VALUE));
+        return taken;
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(TokenBucketStore.class).to(InMemoryTokenBucketStore.class).asEagerSingleton();
+            }
+        };
+    }
+}
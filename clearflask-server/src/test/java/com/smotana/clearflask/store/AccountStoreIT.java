@@ -2,6 +2,7 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.store;
 
+import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -21,15 +22,18 @@ import com.smotana.clearflask.store.ProjectStore.SearchEngine;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
+import com.smotana.clearflask.store.elastic.IndexRebuilder;
 import com.smotana.clearflask.store.impl.DynamoElasticAccountStore;
 import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
 import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
 import com.smotana.clearflask.store.impl.DynamoProjectStore;
 import com.smotana.clearflask.store.impl.DynamoVoteStore;
+import com.smotana.clearflask.store.impl.LoopbackCacheInvalidationBus;
 import com.smotana.clearflask.store.mysql.MysqlCustomFunction;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
 import com.smotana.clearflask.store.mysql.model.tables.JooqIdea;
 import com.smotana.clearflask.testutil.AbstractIT;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.util.ChatwootUtil;
 import com.smotana.clearflask.util.DefaultServerSecret;
 import com.smotana.clearflask.util.IdUtil;
@@ -107,15 +111,19 @@ public class AccountStoreIT extends AbstractIT {
                 DynamoElasticIdeaStore.module(),
                 DynamoElasticAccountStore.module(),
                 DynamoProjectStore.module(),
+                LoopbackCacheInvalidationBus.module(),
                 DynamoVoteStore.module(),
                 ProjectUpgraderImpl.module(),
                 IntercomUtil.module(),
                 ChatwootUtil.module(),
                 ElasticUtil.module(),
+                Reindexer.module(),
+                IndexRebuilder.module(),
                 Sanitizer.module(),
                 DefaultServerSecret.module(Names.named("cursor")),
                 WebhookServiceImpl.module(),
-                DynamoElasticUserStore.module()
+                DynamoElasticUserStore.module(),
+                BloomFilterCache.module()
         ).with(new AbstractModule() {
             @Override
             protected void configure() {
@@ -301,6 +309,62 @@ public class AccountStoreIT extends AbstractIT {
         assertFalse(store.getSession(accountSession3.getSessionId()).isPresent());
     }
 
+    @Test(timeout = 30_000L)
+    public void testAuthCache() throws Exception {
+        Account account = new Account(
+                store.genAccountId(),
+                "my@email.com",
+                SubscriptionStatus.ACTIVETRIAL,
+                null,
+                "planId1",
+                Instant.now(),
+                "name",
+                "password",
+                ImmutableSet.of(),
+                ImmutableSet.of(),
+                null,
+                ImmutableMap.of(),
+                null);
+        store.createAccount(account).getIndexingFuture().get();
+
+        String apiKey = "asdfgagasd";
+        account = store.updateApiKey(account.getAccountId(), apiKey);
+        long apiKeyHitCount = storeImpl.getAuthCacheStats().get("accountIdByApiKey").hitCount();
+        assertEquals(Optional.of(account), store.getAccountByApiKey(apiKey));
+        assertEquals(Optional.of(account), store.getAccountByApiKey(apiKey));
+        assertEquals(apiKeyHitCount + 1, storeImpl.getAuthCacheStats().get("accountIdByApiKey").hitCount());
+
+        String apiKey2 = "asdfgagasd2";
+        account = store.updateApiKey(account.getAccountId(), apiKey2);
+        assertEquals(Optional.empty(), store.getAccountByApiKey(apiKey));
+        assertEquals(Optional.of(account), store.getAccountByApiKey(apiKey2));
+
+        AccountStore.AccountSession accountSession = store.createSession(account, Instant.ofEpochMilli(System.currentTimeMillis()).plus(1, ChronoUnit.DAYS).getEpochSecond());
+        long sessionHitCount = storeImpl.getAuthCacheStats().get("session").hitCount();
+        assertEquals(Optional.of(accountSession), store.getSession(accountSession.getSessionId()));
+        assertEquals(Optional.of(accountSession), store.getSession(accountSession.getSessionId()));
+        assertEquals(sessionHitCount + 1, storeImpl.getAuthCacheStats().get("session").hitCount());
+
+        // Revoked by another node, served from cache until expiry
+        TableSchema<AccountStore.AccountSession> sessionSchema = singleTable.parseTableSchema(AccountStore.AccountSession.class);
+        sessionSchema.table().deleteItem(new DeleteItemSpec()
+                .withPrimaryKey(sessionSchema.primaryKey(accountSession)));
+        assertEquals(Optional.of(accountSession), store.getSession(accountSession.getSessionId()));
+        configSet(DynamoElasticAccountStore.Config.class, "enableAuthCache", "false");
+        assertEquals(Optional.empty(), store.getSession(accountSession.getSessionId()));
+        configSet(DynamoElasticAccountStore.Config.class, "enableAuthCache", "true");
+
+        // Expired session is not served from cache
+        AccountStore.AccountSession expiringSession = store.createSession(account, Instant.ofEpochMilli(System.currentTimeMillis()).plus(1, ChronoUnit.DAYS).getEpochSecond());
+        assertTrue(store.getSession(expiringSession.getSessionId()).isPresent());
+        store.refreshSession(expiringSession, Instant.now().minus(1, ChronoUnit.MINUTES).getEpochSecond());
+        assertEquals(Optional.empty(), store.getSession(expiringSession.getSessionId()));
+
+        // Deleted account's api key is no longer served from cache
+        store.deleteAccount(account.getAccountId()).get();
+        assertEquals(Optional.empty(), store.getAccountByApiKey(apiKey2));
+    }
+
     @Test(timeout = 30_000L)
     public void testAccountAttrs() throws Exception {
         Account account = new Account(
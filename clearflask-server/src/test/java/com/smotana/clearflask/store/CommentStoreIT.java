@@ -18,14 +18,17 @@ import com.smotana.clearflask.store.VoteStore.VoteValue;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
+import com.smotana.clearflask.store.elastic.IndexRebuilder;
 import com.smotana.clearflask.store.impl.DynamoElasticAccountStore;
 import com.smotana.clearflask.store.impl.DynamoElasticCommentStore;
 import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
 import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
 import com.smotana.clearflask.store.impl.DynamoProjectStore;
 import com.smotana.clearflask.store.impl.DynamoVoteStore;
+import com.smotana.clearflask.store.impl.LoopbackCacheInvalidationBus;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
 import com.smotana.clearflask.testutil.AbstractIT;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.util.ChatwootUtil;
 import com.smotana.clearflask.util.DefaultServerSecret;
 import com.smotana.clearflask.util.IdUtil;
@@ -81,14 +84,18 @@ public class CommentStoreIT extends AbstractIT {
                 DynamoElasticCommentStore.module(),
                 DynamoElasticAccountStore.module(),
                 DynamoElasticUserStore.module(),
+                BloomFilterCache.module(),
                 DynamoVoteStore.module(),
                 Sanitizer.module(),
                 MysqlUtil.module(),
+                Reindexer.module(),
+                IndexRebuilder.module(),
                 ElasticUtil.module(),
                 DynamoElasticIdeaStore.module(),
                 DefaultServerSecret.module(Names.named("cursor")),
                 WebhookServiceImpl.module(),
                 DynamoProjectStore.module(),
+                LoopbackCacheInvalidationBus.module(),
                 ProjectUpgraderImpl.module(),
                 IntercomUtil.module(),
                 ChatwootUtil.module()
@@ -140,6 +147,26 @@ public class CommentStoreIT extends AbstractIT {
         assertEquals(c0.getCommentId(), comments.get(0).getCommentId());
     }
 
+    @Test(timeout = 10_000L)
+    public void testCreateComments() throws Exception {
+        String projectId = IdUtil.randomId();
+        store.createIndex(projectId).get();
+        ideaStore.createIndex(projectId);
+        String ideaId = createRandomIdea(projectId).getIdeaId();
+
+        CommentModel c0 = getRandomComment(projectId, ideaId, ImmutableList.of());
+        CommentModel c1 = getRandomComment(projectId, ideaId, ImmutableList.of());
+        store.createComments(projectId, ImmutableList.of(c0, c1)).get();
+        assertEquals(ImmutableSet.of(c0, c1), ImmutableSet.copyOf(store.getComments(projectId, ideaId, ImmutableSet.of(c0.getCommentId(), c1.getCommentId())).values()));
+
+        ImmutableList<CommentModel> comments = store.searchComments(projectId, CommentSearchAdmin.builder()
+                        .filterAuthorId(c1.getAuthorUserId())
+                        .build(), false, Optional.empty())
+                .getComments();
+        assertEquals(1, comments.size());
+        assertEquals(c1.getCommentId(), comments.get(0).getCommentId());
+    }
+
     @Test(timeout = 10_000L)
     public void testUpdate() throws Exception {
         String projectId = IdUtil.randomId();
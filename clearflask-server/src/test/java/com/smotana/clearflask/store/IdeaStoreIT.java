@@ -5,8 +5,12 @@ package com.smotana.clearflask.store;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.name.Names;
 import com.google.inject.util.Modules;
 import com.kik.config.ice.ConfigSystem;
@@ -21,13 +25,19 @@ import com.smotana.clearflask.store.IdeaStore.IdeaModel;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
+import com.smotana.clearflask.store.elastic.IndexRebuilder;
 import com.smotana.clearflask.store.impl.DynamoElasticAccountStore;
 import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
 import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
 import com.smotana.clearflask.store.impl.DynamoProjectStore;
 import com.smotana.clearflask.store.impl.DynamoVoteStore;
+import com.smotana.clearflask.store.impl.LoopbackCacheInvalidationBus;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
+import com.smotana.clearflask.store.mysql.model.tables.JooqIdea;
+import com.smotana.clearflask.store.mysql.model.tables.JooqIdeaFunders;
+import com.smotana.clearflask.store.mysql.model.tables.records.JooqIdeaRecord;
 import com.smotana.clearflask.testutil.AbstractIT;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.util.ChatwootUtil;
 import com.smotana.clearflask.util.DefaultServerSecret;
 import com.smotana.clearflask.util.IdUtil;
@@ -37,14 +47,20 @@ import com.smotana.clearflask.util.ServerSecretTest;
 import com.smotana.clearflask.web.security.Sanitizer;
 import com.smotana.clearflask.web.util.WebhookServiceImpl;
 import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.jooq.DSLContext;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 
@@ -70,7 +86,13 @@ public class IdeaStoreIT extends AbstractIT {
     @Inject
     private IdeaStore store;
     @Inject
+    private DynamoElasticIdeaStore dynamoElasticIdeaStore;
+    @Inject
     private UserStore userStore;
+    @Inject
+    private ElasticUtil elasticUtil;
+    @Inject
+    private Provider<DSLContext> mysql;
 
     @Override
     protected void configure() {
@@ -85,13 +107,17 @@ public class IdeaStoreIT extends AbstractIT {
                 DynamoElasticIdeaStore.module(),
                 DynamoElasticAccountStore.module(),
                 DynamoElasticUserStore.module(),
+                BloomFilterCache.module(),
                 DynamoVoteStore.module(),
                 Sanitizer.module(),
                 MysqlUtil.module(),
+                Reindexer.module(),
+                IndexRebuilder.module(),
                 ElasticUtil.module(),
                 DefaultServerSecret.module(Names.named("cursor")),
                 WebhookServiceImpl.module(),
                 DynamoProjectStore.module(),
+                LoopbackCacheInvalidationBus.module(),
                 ProjectUpgraderImpl.module(),
                 IntercomUtil.module(),
                 ChatwootUtil.module()
@@ -154,6 +180,40 @@ public class IdeaStoreIT extends AbstractIT {
         assertEquals(Optional.empty(), store.getIdea(projectId, idea2Updated.getIdeaId()));
     }
 
+    @Test(timeout = 30_000L)
+    public void testIdeaCache() throws Exception {
+        String projectId = IdUtil.randomId();
+        store.createIndex(projectId).get();
+        IdeaModel idea = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        IdeaModel idea2 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        store.createIdea(idea).get();
+        store.createIdea(idea2).get();
+        userStore.createIndex(projectId);
+        String userId = userStore.createUser(MockModelUtil.getRandomUser().toBuilder().projectId(projectId).build()).getUser().getUserId();
+
+        long hitCount = dynamoElasticIdeaStore.getIdeaCacheStats().hitCount();
+        assertEquals(Optional.of(idea), store.getIdea(projectId, idea.getIdeaId()));
+        assertEquals(hitCount, dynamoElasticIdeaStore.getIdeaCacheStats().hitCount());
+        assertEquals(Optional.of(idea), store.getIdea(projectId, idea.getIdeaId()));
+        assertEquals(hitCount + 1, dynamoElasticIdeaStore.getIdeaCacheStats().hitCount());
+
+        // Partially cached batch fetches only the miss
+        long missCount = dynamoElasticIdeaStore.getIdeaCacheStats().missCount();
+        assertEquals(ImmutableSet.of(idea, idea2), ImmutableSet.copyOf(store.getIdeas(projectId, ImmutableList.of(idea.getIdeaId(), idea2.getIdeaId())).values()));
+        assertEquals(missCount + 1, dynamoElasticIdeaStore.getIdeaCacheStats().missCount());
+
+        // Write-through
+        IdeaModel ideaVoted = store.voteIdea(projectId, idea.getIdeaId(), userId, Upvote).getIdea();
+        hitCount = dynamoElasticIdeaStore.getIdeaCacheStats().hitCount();
+        assertEquals(Optional.of(ideaVoted), store.getIdea(projectId, idea.getIdeaId()));
+        assertEquals(Long.valueOf(1L), store.getIdea(projectId, idea.getIdeaId()).get().getVoteValue());
+        assertEquals(hitCount + 2, dynamoElasticIdeaStore.getIdeaCacheStats().hitCount());
+
+        store.deleteIdea(projectId, idea.getIdeaId(), true).get();
+        assertEquals(Optional.empty(), store.getIdea(projectId, idea.getIdeaId()));
+        assertEquals(ImmutableSet.of(idea2.getIdeaId()), store.getIdeas(projectId, ImmutableList.of(idea.getIdeaId(), idea2.getIdeaId())).keySet());
+    }
+
     @Test(timeout = 30_000L)
     public void testSearch() throws Exception {
         String projectId = IdUtil.randomId();
@@ -308,6 +368,38 @@ public class IdeaStoreIT extends AbstractIT {
                 idea2.getIdeaId()));
     }
 
+    @Test(timeout = 30_000L)
+    public void testSearchPaginationWithTies() throws Exception {
+        String projectId = IdUtil.randomId();
+        store.createIndex(projectId).get();
+        ImmutableSet.Builder<String> expectedPostIdsBuilder = ImmutableSet.builder();
+        for (int i = 0; i < 5; i++) {
+            IdeaModel idea = MockModelUtil.getRandomIdea().toBuilder()
+                    .projectId(projectId)
+                    .funded(0L)
+                    .voteValue(0L)
+                    .expressionsValue(0d)
+                    .build();
+            store.createIdea(idea).get();
+            expectedPostIdsBuilder.add(idea.getIdeaId());
+        }
+        ImmutableSet<String> expectedPostIds = expectedPostIdsBuilder.build();
+
+        List<String> actualPostIds = Lists.newArrayList();
+        Optional<String> cursorOpt = Optional.empty();
+        do {
+            IdeaStore.SearchResponse searchResponse = store.searchIdeas(projectId, IdeaSearchAdmin.builder()
+                    .sortBy(IdeaSearchAdmin.SortByEnum.TOP)
+                    .limit(2L)
+                    .build(), true, cursorOpt);
+            actualPostIds.addAll(searchResponse.getIdeaIds());
+            cursorOpt = searchResponse.getCursorOpt();
+        } while (cursorOpt.isPresent());
+
+        assertEquals(expectedPostIds.size(), actualPostIds.size());
+        assertEquals(expectedPostIds, ImmutableSet.copyOf(actualPostIds));
+    }
+
     IdeaModel dropIdea(String projectId, String postId, Optional<IdeaModel> afterPostOpt, Optional<IdeaModel> beforePostOpt) throws ExecutionException, InterruptedException {
         // This logic determines what the order should be based on other posts in the same list
         // This is implemented in dashboardDndActionHandler.ts, if changed there, change here too
@@ -342,6 +434,26 @@ public class IdeaStoreIT extends AbstractIT {
                 .getIdeaIds()));
     }
 
+    @Test(timeout = 30_000L)
+    public void testSearchCacheGeneration() throws Exception {
+        String projectId = IdUtil.randomId();
+        store.createIndex(projectId).get();
+        IdeaModel idea1 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        IdeaModel idea2 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        store.createIdea(idea1).get();
+
+        assertSearchResult(projectId, IdeaSearchAdmin.builder().build(), ImmutableSet.of(idea1.getIdeaId()));
+        long hitCount = dynamoElasticIdeaStore.getIdeaSearchCacheStats().hitCount();
+        assertSearchResult(projectId, IdeaSearchAdmin.builder().build(), ImmutableSet.of(idea1.getIdeaId()));
+        assertEquals(hitCount + 1, dynamoElasticIdeaStore.getIdeaSearchCacheStats().hitCount());
+
+        store.createIdea(idea2).get();
+        assertSearchResult(projectId, IdeaSearchAdmin.builder().build(), ImmutableSet.of(idea1.getIdeaId(), idea2.getIdeaId()));
+
+        store.deleteIdea(projectId, idea1.getIdeaId(), true).get();
+        assertSearchResult(projectId, IdeaSearchAdmin.builder().build(), ImmutableSet.of(idea2.getIdeaId()));
+    }
+
     @Test(timeout = 30_000L)
     public void testHistogram() throws Exception {
         String projectId = IdUtil.randomId();
@@ -639,4 +751,67 @@ public class IdeaStoreIT extends AbstractIT {
 
         store.expressIdeaSet(projectId, idea.getIdeaId(), userId, e -> e.equals("👀") ? 2d : 1d, Optional.of("👀")).getIndexingFuture().get();
     }
-}
\ No newline at end of file
+
+    @Test(timeout = 30_000L)
+    public void testCoalescedIndexUpdates() throws Exception {
+        String projectId = IdUtil.randomId();
+        store.createIndex(projectId).get();
+        IdeaModel idea = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        store.createIdea(idea).get();
+        userStore.createIndex(projectId);
+        String userId1 = userStore.createUser(MockModelUtil.getRandomUser().toBuilder().projectId(projectId).build()).getUser().getUserId();
+        String userId2 = userStore.createUser(MockModelUtil.getRandomUser().toBuilder().projectId(projectId).build()).getUser().getUserId();
+        String userId3 = userStore.createUser(MockModelUtil.getRandomUser().toBuilder().projectId(projectId).build()).getUser().getUserId();
+
+        long startMillis = System.currentTimeMillis();
+        ImmutableList<ListenableFuture<Void>> indexingFutures = ImmutableList.of(
+                store.voteIdea(projectId, idea.getIdeaId(), userId1, Upvote).getIndexingFuture(),
+                store.voteIdea(projectId, idea.getIdeaId(), userId2, Upvote).getIndexingFuture(),
+                store.voteIdea(projectId, idea.getIdeaId(), userId3, Downvote).getIndexingFuture(),
+                store.expressIdeaAdd(projectId, idea.getIdeaId(), userId1, e -> 1d, "👀").getIndexingFuture(),
+                store.expressIdeaAdd(projectId, idea.getIdeaId(), userId2, e -> 0.5d, "🤪").getIndexingFuture(),
+                store.fundIdea(projectId, idea.getIdeaId(), userId1, 10L, "transactionType", "summary").getIndexingFuture(),
+                // Funder added and removed within the same window
+                store.fundIdea(projectId, idea.getIdeaId(), userId2, 7L, "transactionType", "summary").getIndexingFuture(),
+                store.fundIdea(projectId, idea.getIdeaId(), userId2, -7L, "transactionType", "summary").getIndexingFuture());
+        dynamoElasticIdeaStore.flushPendingIndexUpdates();
+        Futures.allAsList(indexingFutures).get();
+        long endMillis = System.currentTimeMillis();
+        int trendEventCount = indexingFutures.size();
+        double rate = 1d / Duration.ofDays(7).toMillis();
+
+        if (searchEngine.isWriteElastic()) {
+            Map<String, Object> source = elastic.get().get(new GetRequest(
+                            elasticUtil.getIndexName(DynamoElasticIdeaStore.IDEA_INDEX, projectId), idea.getIdeaId()),
+                    RequestOptions.DEFAULT).getSourceAsMap();
+            assertEquals(1L, ((Number) source.get("voteValue")).longValue());
+            assertEquals(3L, ((Number) source.get("votersCount")).longValue());
+            assertEquals(1.5d, ((Number) source.get("expressionsValue")).doubleValue(), 0.001);
+            assertEquals(ImmutableSet.of("👀", "🤪"), ImmutableSet.copyOf((List<?>) source.get("expressions")));
+            assertEquals(10L, ((Number) source.get("funded")).longValue());
+            assertEquals(1L, ((Number) source.get("fundersCount")).longValue());
+            assertEquals(ImmutableList.of(userId1), source.get("funderUserIds"));
+            // All events within the window count towards the trend
+            double trendScore = ((Number) source.get("trendScore")).doubleValue();
+            assertTrue(trendScore >= rate * startMillis + Math.log(trendEventCount) - 0.001);
+            assertTrue(trendScore <= rate * endMillis + Math.log(trendEventCount) + 0.001);
+        }
+        if (searchEngine.isWriteMysql()) {
+            JooqIdeaRecord record = mysql.get().selectFrom(JooqIdea.IDEA)
+                    .where(JooqIdea.IDEA.PROJECTID.eq(projectId)
+                            .and(JooqIdea.IDEA.POSTID.eq(idea.getIdeaId())))
+                    .fetchOne();
+            assertEquals(Long.valueOf(1L), record.getVotevalue());
+            assertEquals(Long.valueOf(3L), record.getVoterscount());
+            assertEquals(1.5d, record.getExpressionsvalue(), 0.001);
+            assertEquals(Long.valueOf(10L), record.getFunded());
+            assertEquals(Long.valueOf(1L), record.getFunderscount());
+            assertTrue(record.getTrendscore() >= rate * startMillis - 0.001);
+            assertEquals(ImmutableList.of(userId1), mysql.get().select(JooqIdeaFunders.IDEA_FUNDERS.FUNDERUSERID)
+                    .from(JooqIdeaFunders.IDEA_FUNDERS)
+                    .where(JooqIdeaFunders.IDEA_FUNDERS.PROJECTID.eq(projectId)
+                            .and(JooqIdeaFunders.IDEA_FUNDERS.POSTID.eq(idea.getIdeaId())))
+                    .fetch(JooqIdeaFunders.IDEA_FUNDERS.FUNDERUSERID));
+        }
+    }
+}
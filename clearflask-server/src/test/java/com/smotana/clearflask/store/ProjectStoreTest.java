@@ -17,6 +17,7 @@ import com.smotana.clearflask.store.ProjectStore.SlugModel;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
 import com.smotana.clearflask.store.impl.DynamoProjectStore;
+import com.smotana.clearflask.store.impl.LoopbackCacheInvalidationBus;
 import com.smotana.clearflask.testutil.AbstractTest;
 import com.smotana.clearflask.util.ChatwootUtil;
 import com.smotana.clearflask.util.IdUtil;
@@ -52,6 +53,7 @@ public class ProjectStoreTest extends AbstractTest {
 
         install(Modules.override(
                 DynamoProjectStore.module(),
+                LoopbackCacheInvalidationBus.module(),
                 InMemoryDynamoDbProvider.module(),
                 SingleTableProvider.module(),
                 Sanitizer.module(),
@@ -0,0 +1,275 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+import com.smotana.clearflask.store.Reindexer.JobProgress;
+import com.smotana.clearflask.store.Reindexer.JobState;
+import com.smotana.clearflask.store.Reindexer.Page;
+import com.smotana.clearflask.store.Reindexer.ReindexCheckpoint;
+import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
+import com.smotana.clearflask.store.dynamo.SingleTableProvider;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.util.IdUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpHost;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.rest.RestStatus;
+import org.jooq.DSLContext;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@Slf4j
+public class ReindexerTest extends AbstractTest {
+
+    private static final Pattern BULK_DOC_ID = Pattern.compile("\"_id\":\"([^\"]+)\"");
+
+    @Inject
+    private Reindexer reindexer;
+
+    /**
+     * Stands in for ElasticSearch bulk requests.
+     */
+    private HttpServer elasticServer;
+    private RestHighLevelClient elasticClient;
+    private final AtomicInteger bulkRequestCount = new AtomicInteger();
+    private final Set<String> indexedDocIds = Sets.newConcurrentHashSet();
+    /**
+     * Rejects the first whole request and the first document of the next.
+     */
+    private volatile boolean rejectFirstRequests = false;
+    /**
+     * Fails whole requests containing any of these documents.
+     */
+    private final Set<String> failingDocIds = Sets.newConcurrentHashSet();
+    /**
+     * Always rejects these documents.
+     */
+    private final Set<String> rejectedDocIds = Sets.newConcurrentHashSet();
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        try {
+            elasticServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        elasticServer.createContext("/_bulk", this::handleBulk);
+        elasticServer.start();
+        elasticClient = new RestHighLevelClient(RestClient.builder(
+                new HttpHost("localhost", elasticServer.getAddress().getPort())));
+        bind(RestHighLevelClient.class).toInstance(elasticClient);
+        bindMock(DSLContext.class);
+
+        install(Reindexer.module());
+        install(InMemoryDynamoDbProvider.module());
+        install(SingleTableProvider.module());
+    }
+
+    @After
+    public void stopElasticServer() throws Exception {
+        elasticClient.close();
+        elasticServer.stop(0);
+    }
+
+    @Test(timeout = 10_000L)
+    public void testResumeFromCheckpoint() throws Exception {
+        String jobId = "test-" + IdUtil.randomId();
+        ImmutableList<ImmutableList<String>> pages = ImmutableList.of(
+                ImmutableList.of("a", "b"),
+                ImmutableList.of("c"),
+                ImmutableList.of("d", "e", "f"),
+                ImmutableList.of("g"));
+        List<Optional<String>> requestedCursors = Lists.newArrayList();
+
+        try {
+            reindexer.reindex(job(jobId, pages, requestedCursors, 2));
+            fail("Expected failure on page 2");
+        } catch (RuntimeException ex) {
+            assertEquals("page 2 unavailable", ex.getMessage());
+        }
+        assertEquals(ImmutableList.of(Optional.empty(), Optional.of("1"), Optional.of("2")), requestedCursors);
+        Optional<ReindexCheckpoint> checkpointOpt = reindexer.getCheckpoint(jobId);
+        assertTrue(checkpointOpt.isPresent());
+        assertEquals("2", checkpointOpt.get().getCursor());
+        assertEquals(3L, checkpointOpt.get().getDocumentCount());
+        assertEquals(JobState.FAILED, reindexer.getReindexProgress().get(jobId).getState());
+
+        requestedCursors.clear();
+        assertEquals(7L, reindexer.reindex(job(jobId, pages, requestedCursors, -1)));
+        assertEquals(ImmutableList.of(Optional.of("2"), Optional.of("3")), requestedCursors);
+        assertFalse(reindexer.getCheckpoint(jobId).isPresent());
+        assertEquals(JobState.COMPLETED, reindexer.getReindexProgress().get(jobId).getState());
+        assertTrue(reindexer.getReindexProgress().get(jobId).isResumed());
+        assertEquals(4L, reindexer.getReindexProgress().get(jobId).getDocumentCount());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testResumeAfterWriteFailure() throws Exception {
+        String jobId = "test-" + IdUtil.randomId();
+        ImmutableList<ImmutableList<String>> pages = ImmutableList.of(
+                ImmutableList.of("a", "b"),
+                ImmutableList.of("c"),
+                ImmutableList.of("d", "e", "f"),
+                ImmutableList.of("g"));
+        List<Optional<String>> requestedCursors = Lists.newArrayList();
+        failingDocIds.add("c");
+
+        try {
+            reindexer.reindex(esJob(jobId, pages, requestedCursors));
+            fail("Expected failure writing page 1");
+        } catch (ElasticsearchStatusException ex) {
+            log.info("Page write failed as expected", ex);
+        }
+        // Pages written after the failed one must not move the checkpoint past it
+        Optional<ReindexCheckpoint> checkpointOpt = reindexer.getCheckpoint(jobId);
+        assertTrue(checkpointOpt.isPresent());
+        assertEquals("1", checkpointOpt.get().getCursor());
+        assertEquals(JobState.FAILED, reindexer.getReindexProgress().get(jobId).getState());
+
+        failingDocIds.clear();
+        requestedCursors.clear();
+        assertEquals(7L, reindexer.reindex(esJob(jobId, pages, requestedCursors)));
+        assertEquals(Optional.of("1"), requestedCursors.get(0));
+        assertEquals(ImmutableSet.of("a", "b", "c", "d", "e", "f", "g"), indexedDocIds);
+        assertFalse(reindexer.getCheckpoint(jobId).isPresent());
+        assertEquals(JobState.COMPLETED, reindexer.getReindexProgress().get(jobId).getState());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testRejectionRetriesExhaustedFailsJob() throws Exception {
+        configSet(Reindexer.Config.class, "rejectionBackoffInitial", "PT0.01S");
+        configSet(Reindexer.Config.class, "rejectionMaxRetries", "2");
+        String jobId = "test-" + IdUtil.randomId();
+        rejectedDocIds.add("b");
+
+        try {
+            reindexer.reindex(esJob(jobId, ImmutableList.of(ImmutableList.of("a", "b", "c")), Lists.newArrayList()));
+            fail("Expected failure after rejections");
+        } catch (ElasticsearchStatusException ex) {
+            assertEquals(RestStatus.TOO_MANY_REQUESTS, ex.status());
+        }
+        JobProgress progress = reindexer.getReindexProgress().get(jobId);
+        assertEquals(JobState.FAILED, progress.getState());
+        assertEquals(1L, progress.getFailedDocumentCount());
+        assertFalse(indexedDocIds.contains("b"));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testRejectionBackoff() throws Exception {
+        configSet(Reindexer.Config.class, "rejectionBackoffInitial", "PT0.01S");
+        rejectFirstRequests = true;
+        String jobId = "test-" + IdUtil.randomId();
+        ImmutableList<String> docIds = ImmutableList.of("a", "b", "c", "d", "e");
+
+        assertEquals(5L, reindexer.reindex(Reindexer.Job.<String>builder()
+                .jobId(jobId)
+                .pageFetcher(cursorOpt -> new Page<>(docIds, Optional.empty()))
+                .toEsIndexRequest(docId -> new IndexRequest("test-index").id(docId).source(Map.of("docId", docId)))
+                .build()));
+
+        assertEquals(ImmutableSet.copyOf(docIds), indexedDocIds);
+        JobProgress progress = reindexer.getReindexProgress().get(jobId);
+        assertEquals(JobState.COMPLETED, progress.getState());
+        assertEquals(0L, progress.getFailedDocumentCount());
+        // Whole first request and first document of the second
+        assertEquals(6L, progress.getRejectionCount());
+        assertEquals(3L, progress.getBulkRequestCount());
+        assertEquals(3, bulkRequestCount.get());
+    }
+
+    private void handleBulk(HttpExchange exchange) throws IOException {
+        int requestIndex = bulkRequestCount.getAndIncrement();
+        if (rejectFirstRequests && requestIndex == 0) {
+            sendJson(exchange, 429, "{\"error\":{\"root_cause\":[],\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected\"},\"status\":429}");
+            return;
+        }
+        Matcher matcher = BULK_DOC_ID.matcher(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+        List<String> docIds = Lists.newArrayList();
+        while (matcher.find()) {
+            docIds.add(matcher.group(1));
+        }
+        if (docIds.stream().anyMatch(failingDocIds::contains)) {
+            sendJson(exchange, 500, "{\"error\":{\"root_cause\":[],\"type\":\"exception\",\"reason\":\"failed\"},\"status\":500}");
+            return;
+        }
+        List<String> items = Lists.newArrayList();
+        boolean errors = false;
+        boolean first = true;
+        for (String docId : docIds) {
+            if ((rejectFirstRequests && requestIndex == 1 && first) || rejectedDocIds.contains(docId)) {
+                errors = true;
+                items.add("{\"index\":{\"_index\":\"test-index\",\"_type\":\"_doc\",\"_id\":\"" + docId + "\",\"status\":429,"
+                        + "\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected\"}}}");
+            } else {
+                indexedDocIds.add(docId);
+                items.add("{\"index\":{\"_index\":\"test-index\",\"_type\":\"_doc\",\"_id\":\"" + docId + "\",\"_version\":1,"
+                        + "\"result\":\"created\",\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},"
+                        + "\"_seq_no\":0,\"_primary_term\":1,\"status\":201}}");
+            }
+            first = false;
+        }
+        sendJson(exchange, 200, "{\"took\":1,\"errors\":" + errors + ",\"items\":[" + String.join(",", items) + "]}");
+    }
+
+    private void sendJson(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    private Reindexer.Job<String> esJob(String jobId, ImmutableList<ImmutableList<String>> pages, List<Optional<String>> requestedCursors) {
+        return jobBuilder(jobId, pages, requestedCursors, -1)
+                .toEsIndexRequest(docId -> new IndexRequest("test-index").id(docId).source(Map.of("docId", docId)))
+                .build();
+    }
+
+    private Reindexer.Job<String> job(String jobId, ImmutableList<ImmutableList<String>> pages, List<Optional<String>> requestedCursors, int failOnPage) {
+        return jobBuilder(jobId, pages, requestedCursors, failOnPage).build();
+    }
+
+    private Reindexer.Job.JobBuilder<String> jobBuilder(String jobId, ImmutableList<ImmutableList<String>> pages, List<Optional<String>> requestedCursors, int failOnPage) {
+        return Reindexer.Job.<String>builder()
+                .jobId(jobId)
+                .pageFetcher(cursorOpt -> {
+                    requestedCursors.add(cursorOpt);
+                    int pageIndex = cursorOpt.map(Integer::parseInt).orElse(0);
+                    if (pageIndex == failOnPage) {
+                        throw new RuntimeException("page " + pageIndex + " unavailable");
+                    }
+                    return new Page<>(
+                            pages.get(pageIndex),
+                            pageIndex + 1 < pages.size() ? Optional.of(String.valueOf(pageIndex + 1)) : Optional.empty());
+                })
+                .resume(true);
+    }
+}
@@ -2,6 +2,7 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.store;
 
+import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.AbstractModule;
@@ -20,13 +21,16 @@ import com.smotana.clearflask.store.UserStore.UserSession;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
+import com.smotana.clearflask.store.elastic.IndexRebuilder;
 import com.smotana.clearflask.store.impl.DynamoElasticAccountStore;
 import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
 import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
 import com.smotana.clearflask.store.impl.DynamoProjectStore;
 import com.smotana.clearflask.store.impl.DynamoVoteStore;
+import com.smotana.clearflask.store.impl.LoopbackCacheInvalidationBus;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
 import com.smotana.clearflask.testutil.AbstractIT;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.util.ChatwootUtil;
 import com.smotana.clearflask.util.DefaultServerSecret;
 import com.smotana.clearflask.util.IdUtil;
@@ -36,6 +40,8 @@ import com.smotana.clearflask.util.ServerSecretTest;
 import com.smotana.clearflask.util.StringableSecretKey;
 import com.smotana.clearflask.web.security.Sanitizer;
 import com.smotana.clearflask.web.util.WebhookServiceImpl;
+import io.dataspray.singletable.SingleTable;
+import io.dataspray.singletable.TableSchema;
 import io.jsonwebtoken.security.Keys;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.Test;
@@ -69,6 +75,10 @@ public class UserStoreIT extends AbstractIT {
 
     @Inject
     private UserStore store;
+    @Inject
+    private DynamoElasticUserStore storeImpl;
+    @Inject
+    private SingleTable singleTable;
 
     @Override
     protected void configure() {
@@ -81,15 +91,19 @@ public class UserStoreIT extends AbstractIT {
                 InMemoryDynamoDbProvider.module(),
                 SingleTableProvider.module(),
                 DynamoElasticUserStore.module(),
+                BloomFilterCache.module(),
                 DynamoElasticIdeaStore.module(),
                 DynamoElasticAccountStore.module(),
                 DynamoVoteStore.module(),
                 Sanitizer.module(),
                 MysqlUtil.module(),
+                Reindexer.module(),
+                IndexRebuilder.module(),
                 ElasticUtil.module(),
                 DefaultServerSecret.module(Names.named("cursor")),
                 WebhookServiceImpl.module(),
                 DynamoProjectStore.module(),
+                LoopbackCacheInvalidationBus.module(),
                 ProjectUpgraderImpl.module(),
                 IntercomUtil.module(),
                 ChatwootUtil.module()
@@ -443,4 +457,61 @@ public class UserStoreIT extends AbstractIT {
         store.revokeSessions(user.getProjectId(), user.getUserId(), Optional.empty());
         assertFalse(store.getSession(session3.getSessionId()).isPresent());
     }
-}
\ No newline at end of file
+
+    @Test(timeout = 10_000L)
+    public void testUserSessionCache() throws Exception {
+        UserModel user = new UserModel(
+                IdUtil.randomId(),
+                store.genUserId(Optional.empty()),
+                null,
+                false,
+                "john",
+                "john.doe@example.com",
+                null,
+                null,
+                "password",
+                null,
+                true,
+                1L,
+                "myIosPushToken",
+                "myAndroidPushToken",
+                "myBrowserPushToken",
+                Instant.now(),
+                null,
+                null,
+                null,
+                null,
+                null,
+                ImmutableSet.of());
+
+        store.createIndex(user.getProjectId()).get();
+        store.createUser(user).getIndexingFuture().get();
+
+        UserSession session = store.createSession(user, Instant.ofEpochMilli(System.currentTimeMillis()).plus(1, ChronoUnit.DAYS).getEpochSecond());
+        long hitCount = storeImpl.getSessionCacheStats().hitCount();
+        assertEquals(Optional.of(session), store.getSession(session.getSessionId()));
+        assertEquals(Optional.of(session), store.getSession(session.getSessionId()));
+        assertEquals(hitCount + 1, storeImpl.getSessionCacheStats().hitCount());
+
+        // Revoked by another node, served from cache until expiry
+        TableSchema<UserSession> sessionSchema = singleTable.parseTableSchema(UserSession.class);
+        sessionSchema.table().deleteItem(new DeleteItemSpec()
+                .withPrimaryKey(sessionSchema.primaryKey(session)));
+        assertEquals(Optional.of(session), store.getSession(session.getSessionId()));
+        configSet(DynamoElasticUserStore.Config.class, "enableSessionCache", "false");
+        assertEquals(Optional.empty(), store.getSession(session.getSessionId()));
+        configSet(DynamoElasticUserStore.Config.class, "enableSessionCache", "true");
+
+        // Expired session is not served from cache
+        UserSession expiringSession = store.createSession(user, Instant.ofEpochMilli(System.currentTimeMillis()).plus(1, ChronoUnit.DAYS).getEpochSecond());
+        assertTrue(store.getSession(expiringSession.getSessionId()).isPresent());
+        store.refreshSession(expiringSession, Instant.now().minus(1, ChronoUnit.MINUTES).getEpochSecond());
+        assertEquals(Optional.empty(), store.getSession(expiringSession.getSessionId()));
+
+        // Revocation on this node takes effect immediately
+        UserSession revokedSession = store.createSession(user, Instant.ofEpochMilli(System.currentTimeMillis()).plus(1, ChronoUnit.DAYS).getEpochSecond());
+        assertTrue(store.getSession(revokedSession.getSessionId()).isPresent());
+        store.revokeSession(revokedSession);
+        assertEquals(Optional.empty(), store.getSession(revokedSession.getSessionId()));
+    }
+}
@@ -0,0 +1,121 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.elastic;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
+import com.smotana.clearflask.store.dynamo.SingleTableProvider;
+import com.smotana.clearflask.testutil.AbstractIT;
+import com.smotana.clearflask.util.IdUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+@Slf4j
+public class IndexRebuilderIT extends AbstractIT {
+
+    @Inject
+    private IndexRebuilder indexRebuilder;
+
+    /**
+     * Source of truth, document id to title.
+     */
+    private final ConcurrentMap<String, String> docs = Maps.newConcurrentMap();
+
+    @Override
+    protected void configure() {
+        enableKillBillClient = false;
+        super.configure();
+
+        install(Modules.override(
+                InMemoryDynamoDbProvider.module(),
+                SingleTableProvider.module(),
+                IndexRebuilder.module()
+        ).with(new AbstractModule() {
+            @Override
+            protected void configure() {
+                install(ConfigSystem.overrideModule(IndexRebuilder.Config.class, om -> {
+                    om.override(om.id().rebuildStateCacheExpiry()).withValue("PT1S");
+                    om.override(om.id().changeFlushInterval()).withValue("PT0.1S");
+                }));
+            }
+        }));
+    }
+
+    @Test(timeout = 60_000L)
+    public void testWritesDuringRebuildSurviveSwap() throws Exception {
+        String alias = "rebuild-" + IdUtil.randomId().toLowerCase();
+        // Concrete index from before aliases
+        elastic.get().indices().create(new CreateIndexRequest(alias), RequestOptions.DEFAULT);
+        write(alias, "before", "written before rebuild");
+
+        AtomicBoolean writtenDuringReplay = new AtomicBoolean(false);
+        String targetIndex = indexRebuilder.rebuild(alias,
+                indexName -> elastic.get().indices().create(new CreateIndexRequest(indexName), RequestOptions.DEFAULT),
+                indexName -> {
+                    indexRebuilder.replayDocuments(indexName, docs.keySet(), indexRequests(docs.keySet()));
+                    // Lands on the old index after populating, must be caught up before the swap
+                    write(alias, "duringPopulate", "written after populating");
+                },
+                (indexName, keys) -> {
+                    if (writtenDuringReplay.compareAndSet(false, true)) {
+                        // Lands on the old index during the last replay, must be caught up after the swap
+                        write(alias, "duringReplay", "written during replay");
+                    }
+                    indexRebuilder.replayDocuments(indexName, keys, indexRequests(keys));
+                });
+
+        assertArrayEquals(new String[]{targetIndex}, indexRebuilder.resolveIndices(alias));
+        assertFalse(indexRebuilder.getRebuild(alias).isPresent());
+        elastic.get().indices().refresh(new RefreshRequest(alias), RequestOptions.DEFAULT);
+        SearchHit[] hits = elastic.get().search(new SearchRequest(alias).source(new SearchSourceBuilder()
+                        .query(QueryBuilders.matchAllQuery())), RequestOptions.DEFAULT)
+                .getHits()
+                .getHits();
+        assertEquals(ImmutableSet.of("before", "duringPopulate", "duringReplay"), Arrays.stream(hits)
+                .map(SearchHit::getId)
+                .collect(ImmutableSet.toImmutableSet()));
+    }
+
+    private void write(String alias, String id, String title) throws Exception {
+        docs.put(id, title);
+        elastic.get().index(indexRequests(ImmutableSet.of(id)).get(id)
+                .index(alias)
+                .setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE), RequestOptions.DEFAULT);
+        indexRebuilder.recordChange(alias, id);
+    }
+
+    private Map<String, IndexRequest> indexRequests(Iterable<String> ids) {
+        ImmutableMap.Builder<String, IndexRequest> builder = ImmutableMap.builder();
+        for (String id : ids) {
+            String title = docs.get(id);
+            if (title != null) {
+                builder.put(id, new IndexRequest().id(id).source(Map.of("title", title)));
+            }
+        }
+        return builder.build();
+    }
+}
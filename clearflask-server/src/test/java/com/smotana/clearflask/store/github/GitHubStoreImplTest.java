@@ -0,0 +1,305 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.github;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.inject.Inject;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.billing.Billing;
+import com.smotana.clearflask.core.push.NotificationService;
+import com.smotana.clearflask.store.CommentStore;
+import com.smotana.clearflask.store.GitHubStore;
+import com.smotana.clearflask.store.GitHubStore.GitHubBackfillCheckpoint;
+import com.smotana.clearflask.store.IdeaStore;
+import com.smotana.clearflask.store.IdeaStore.IdeaModel;
+import com.smotana.clearflask.store.MockModelUtil;
+import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.ProjectStore.Project;
+import com.smotana.clearflask.store.UserStore;
+import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
+import com.smotana.clearflask.store.dynamo.SingleTableProvider;
+import com.smotana.clearflask.store.github.GitHubClientProvider.GitHubInstallation;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.util.ColorUtil;
+import com.smotana.clearflask.util.MarkdownAndQuillUtil;
+import com.smotana.clearflask.web.resource.GitHubResource;
+import com.smotana.clearflask.web.security.Sanitizer;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Before;
+import org.junit.Test;
+import org.kohsuke.github.GHIssue;
+import org.kohsuke.github.GHIssueQueryBuilder;
+import org.kohsuke.github.GHIssueState;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GHUser;
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.PagedIterable;
+import org.kohsuke.github.PagedIterator;
+import org.mockito.Answers;
+import org.mockito.Mockito;
+
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@Slf4j
+public class GitHubStoreImplTest extends AbstractTest {
+
+    private static final String PROJECT_ID = "myproject";
+    private static final long INSTALLATION_ID = 1L;
+    private static final long REPOSITORY_ID = 2L;
+    private static final int PAGE_SIZE = 2;
+    private static final Instant UPDATED_START = Instant.parse("2020-01-01T00:00:00Z");
+
+    @Inject
+    private GitHubStore store;
+    @Inject
+    private GitHubStoreImpl storeImpl;
+    @Inject
+    private GitHubClientProvider gitHubClientProvider;
+    @Inject
+    private ProjectStore projectStore;
+    @Inject
+    private IdeaStore ideaStore;
+    @Inject
+    private CommentStore commentStore;
+    @Inject
+    private UserStore userStore;
+
+    /** Issue number to last updated time, the fake repository sorts and filters by it */
+    private final Map<Integer, Instant> issuesUpdated = Maps.newConcurrentMap();
+    private final Map<Integer, GHIssue> issues = Maps.newConcurrentMap();
+    private final List<Instant> queriedSince = new CopyOnWriteArrayList<>();
+    private final Set<String> existingIdeaIds = Sets.newConcurrentHashSet();
+    private final List<String> createdIdeaIds = new CopyOnWriteArrayList<>();
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        bindMock(GitHubClientProvider.class);
+        bindMock(ProjectStore.class);
+        bindMock(IdeaStore.class);
+        bindMock(CommentStore.class);
+        bindMock(UserStore.class);
+        bindMock(MarkdownAndQuillUtil.class);
+        bindMock(Sanitizer.class);
+        bindMock(ColorUtil.class);
+        bindMock(Billing.class);
+        bindMock(NotificationService.class);
+
+        install(ConfigSystem.configModule(GitHubResource.Config.class));
+        install(InMemoryDynamoDbProvider.module());
+        install(SingleTableProvider.module());
+        install(GitHubStoreImpl.module());
+    }
+
+    @Before
+    public void setupMocks() throws Exception {
+        configSet(GitHubStoreImpl.Config.class, "backfillPageSize", String.valueOf(PAGE_SIZE));
+
+        com.smotana.clearflask.api.model.GitHub integration = Mockito.mock(com.smotana.clearflask.api.model.GitHub.class);
+        when(integration.getInstallationId()).thenReturn(INSTALLATION_ID);
+        when(integration.getRepositoryId()).thenReturn(REPOSITORY_ID);
+        when(integration.getCreateWithCategoryId()).thenReturn("category1");
+        when(integration.getInitialStatusId()).thenReturn("status1");
+        Project project = Mockito.mock(Project.class);
+        when(project.getProjectId()).thenReturn(PROJECT_ID);
+        when(project.getGitHubIntegration()).thenReturn(Optional.of(integration));
+        when(projectStore.getProject(eq(PROJECT_ID), anyBoolean())).thenReturn(Optional.of(project));
+
+        GHRepository repository = Mockito.mock(GHRepository.class);
+        when(repository.queryIssues()).thenAnswer(invocation -> mockIssueQuery());
+        GitHub client = Mockito.mock(GitHub.class);
+        when(client.getRepositoryById(REPOSITORY_ID)).thenReturn(repository);
+        when(gitHubClientProvider.getInstallationClient(INSTALLATION_ID))
+                .thenReturn(new GitHubInstallation(client, () -> true));
+
+        when(userStore.createOrGet(anyString(), anyString(), any(Supplier.class), any(Supplier.class), anyBoolean()))
+                .thenReturn(MockModelUtil.getRandomUser().toBuilder().projectId(PROJECT_ID).build());
+        when(ideaStore.genDeterministicIdeaIdForGithubIssue(anyLong(), anyLong(), anyLong())).thenCallRealMethod();
+        when(ideaStore.getIdeas(eq(PROJECT_ID), any())).thenAnswer(invocation -> {
+            Collection<String> ideaIds = invocation.getArgument(1);
+            return ideaIds.stream()
+                    .filter(existingIdeaIds::contains)
+                    .collect(ImmutableMap.toImmutableMap(ideaId -> ideaId, ideaId -> MockModelUtil.getRandomIdea().toBuilder()
+                            .projectId(PROJECT_ID)
+                            .ideaId(ideaId)
+                            .build()));
+        });
+        when(ideaStore.createIdeas(eq(PROJECT_ID), any())).thenAnswer(invocation -> {
+            recordCreatedIdeas(invocation.getArgument(1));
+            return Futures.immediateFuture(ImmutableList.of());
+        });
+        when(commentStore.createComments(eq(PROJECT_ID), any()))
+                .thenReturn(Futures.immediateFuture(ImmutableList.of()));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testBackfillPagesAndSkipsExisting() throws Exception {
+        for (int issueNumber = 1; issueNumber <= 5; issueNumber++) {
+            addIssue(issueNumber);
+        }
+        existingIdeaIds.add(ideaId(3));
+
+        store.backfillIssuesAsync(PROJECT_ID).get();
+
+        assertEquals(ImmutableList.of(ideaId(1), ideaId(2), ideaId(4), ideaId(5)), createdIdeaIds);
+        GitHubBackfillCheckpoint checkpoint = storeImpl.getBackfillCheckpoint(PROJECT_ID, REPOSITORY_ID).get();
+        assertTrue(checkpoint.isComplete());
+        assertEquals(updatedAt(5), checkpoint.getUpdatedSince());
+        assertEquals(Instant.EPOCH, queriedSince.get(0));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testBackfillIssueUpdatedMidRun() throws Exception {
+        for (int issueNumber = 1; issueNumber <= 6; issueNumber++) {
+            addIssue(issueNumber);
+        }
+        // Once the first page is written, move an already written issue to the end,
+        // shifting every remaining issue one place earlier
+        AtomicBoolean updated = new AtomicBoolean(false);
+        when(ideaStore.createIdeas(eq(PROJECT_ID), any())).thenAnswer(invocation -> {
+            recordCreatedIdeas(invocation.getArgument(1));
+            if (updated.compareAndSet(false, true)) {
+                issuesUpdated.put(1, updatedAt(7));
+            }
+            return Futures.immediateFuture(ImmutableList.of());
+        });
+
+        store.backfillIssuesAsync(PROJECT_ID).get();
+
+        assertEquals(ImmutableList.of(ideaId(1), ideaId(2), ideaId(3), ideaId(4), ideaId(5), ideaId(6)), createdIdeaIds);
+        GitHubBackfillCheckpoint checkpoint = storeImpl.getBackfillCheckpoint(PROJECT_ID, REPOSITORY_ID).get();
+        assertTrue(checkpoint.isComplete());
+        assertEquals(updatedAt(7), checkpoint.getUpdatedSince());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testBackfillResumeFromCheckpoint() throws Exception {
+        for (int issueNumber = 1; issueNumber <= 6; issueNumber++) {
+            addIssue(issueNumber);
+        }
+        AtomicInteger createIdeasCount = new AtomicInteger();
+        when(ideaStore.createIdeas(eq(PROJECT_ID), any())).thenAnswer(invocation -> {
+            if (createIdeasCount.incrementAndGet() == 2) {
+                return Futures.immediateFailedFuture(new RuntimeException("Interrupted"));
+            }
+            recordCreatedIdeas(invocation.getArgument(1));
+            return Futures.immediateFuture(ImmutableList.of());
+        });
+
+        try {
+            store.backfillIssuesAsync(PROJECT_ID).get();
+            fail("Expected backfill to fail");
+        } catch (ExecutionException ex) {
+            log.info("Expected failure", ex);
+        }
+        GitHubBackfillCheckpoint checkpoint = storeImpl.getBackfillCheckpoint(PROJECT_ID, REPOSITORY_ID).get();
+        assertFalse(checkpoint.isComplete());
+        assertEquals(updatedAt(2), checkpoint.getUpdatedSince());
+        assertEquals(ImmutableList.of(ideaId(1), ideaId(2)), createdIdeaIds);
+
+        queriedSince.clear();
+        store.backfillIssuesAsync(PROJECT_ID).get();
+
+        assertEquals(updatedAt(2), queriedSince.get(0));
+        assertEquals(ImmutableList.of(ideaId(1), ideaId(2), ideaId(3), ideaId(4), ideaId(5), ideaId(6)), createdIdeaIds);
+        assertTrue(storeImpl.getBackfillCheckpoint(PROJECT_ID, REPOSITORY_ID).get().isComplete());
+    }
+
+    private void recordCreatedIdeas(Iterable<IdeaModel> ideas) {
+        ideas.forEach(idea -> {
+            createdIdeaIds.add(idea.getIdeaId());
+            existingIdeaIds.add(idea.getIdeaId());
+        });
+    }
+
+    private void addIssue(int issueNumber) throws Exception {
+        issuesUpdated.put(issueNumber, updatedAt(issueNumber));
+        GHUser ghUser = Mockito.mock(GHUser.class);
+        when(ghUser.getId()).thenReturn(100L + issueNumber);
+        GHIssue ghIssue = Mockito.mock(GHIssue.class);
+        when(ghIssue.getNumber()).thenReturn(issueNumber);
+        when(ghIssue.getId()).thenReturn(1000L + issueNumber);
+        when(ghIssue.isPullRequest()).thenReturn(false);
+        when(ghIssue.getState()).thenReturn(GHIssueState.OPEN);
+        when(ghIssue.getTitle()).thenReturn("Issue " + issueNumber);
+        when(ghIssue.getBody()).thenReturn("Body " + issueNumber);
+        when(ghIssue.getUser()).thenReturn(ghUser);
+        when(ghIssue.getHtmlUrl()).thenReturn(new URL("https://github.com/owner/repo/issues/" + issueNumber));
+        when(ghIssue.getCreatedAt()).thenReturn(Date.from(updatedAt(issueNumber)));
+        when(ghIssue.getUpdatedAt()).thenAnswer(invocation -> Date.from(issuesUpdated.get(issueNumber)));
+        issues.put(issueNumber, ghIssue);
+    }
+
+    /**
+     * Mimics GitHub's offset paging, each page is taken from the issues as they are when the page is fetched.
+     */
+    private GHIssueQueryBuilder.ForRepository mockIssueQuery() {
+        AtomicReference<Instant> sinceRef = new AtomicReference<>(Instant.EPOCH);
+        GHIssueQueryBuilder.ForRepository query = Mockito.mock(GHIssueQueryBuilder.ForRepository.class, Answers.RETURNS_SELF);
+        when(query.since(any(Date.class))).thenAnswer(invocation -> {
+            Date since = invocation.getArgument(0);
+            sinceRef.set(since.toInstant());
+            queriedSince.add(since.toInstant());
+            return query;
+        });
+        when(query.list()).thenReturn(new PagedIterable<GHIssue>() {
+            @Override
+            public PagedIterator<GHIssue> _iterator(int pageSize) {
+                AtomicInteger offset = new AtomicInteger();
+                Supplier<List<GHIssue>> matching = () -> issuesUpdated.entrySet().stream()
+                        .filter(e -> !e.getValue().isBefore(sinceRef.get()))
+                        .sorted(Map.Entry.<Integer, Instant>comparingByValue().thenComparing(Map.Entry.comparingByKey()))
+                        .map(e -> issues.get(e.getKey()))
+                        .collect(Collectors.toList());
+                PagedIterator<GHIssue> iterator = Mockito.mock(PagedIterator.class);
+                when(iterator.hasNext()).thenAnswer(invocation -> matching.get().size() > offset.get());
+                when(iterator.nextPage()).thenAnswer(invocation -> {
+                    List<GHIssue> all = matching.get();
+                    int from = offset.getAndAdd(PAGE_SIZE);
+                    return ImmutableList.copyOf(all.subList(from, Math.min(all.size(), from + PAGE_SIZE)));
+                });
+                return iterator;
+            }
+        });
+        return query;
+    }
+
+    private String ideaId(int issueNumber) {
+        return ideaStore.genDeterministicIdeaIdForGithubIssue(issueNumber, 1000L + issueNumber, REPOSITORY_ID);
+    }
+
+    private Instant updatedAt(int issueNumber) {
+        return UPDATED_START.plus(Duration.ofMinutes(issueNumber));
+    }
+}
@@ -0,0 +1,183 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.github;
+
+import com.google.inject.Inject;
+import com.smotana.clearflask.store.GitHubStore;
+import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.ProjectStore.Project;
+import com.smotana.clearflask.store.github.GitHubClientProvider.GitHubInstallation;
+import com.smotana.clearflask.store.github.GitHubEventQueue.GitHubEvent;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Before;
+import org.junit.Test;
+import org.kohsuke.github.GHEventPayload;
+import org.kohsuke.github.GitHub;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Slf4j
+public class LocalGitHubEventQueueTest extends AbstractTest {
+
+    private static final String PROJECT_ID = "myproject";
+    private static final long INSTALLATION_ID = 1L;
+    private static final long REPOSITORY_ID = 2L;
+
+    @Inject
+    private LocalGitHubEventQueue queue;
+    @Inject
+    private GitHubClientProvider gitHubClientProvider;
+    @Inject
+    private ProjectStore projectStore;
+    @Inject
+    private GitHubStore gitHubStore;
+
+    private final AtomicBoolean rateLimiterAllow = new AtomicBoolean(true);
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        bindMock(GitHubStore.class);
+        bindMock(ProjectStore.class);
+        bindMock(GitHubClientProvider.class);
+
+        install(LocalGitHubEventQueue.module());
+    }
+
+    @Before
+    public void setupMocks() throws Exception {
+        when(gitHubClientProvider.getInstallationClient(anyLong()))
+                .thenReturn(new GitHubInstallation(GitHub.offline(), rateLimiterAllow::get));
+        com.smotana.clearflask.api.model.GitHub integration = Mockito.mock(com.smotana.clearflask.api.model.GitHub.class);
+        when(integration.getInstallationId()).thenReturn(INSTALLATION_ID);
+        when(integration.getRepositoryId()).thenReturn(REPOSITORY_ID);
+        Project project = Mockito.mock(Project.class);
+        when(project.getGitHubIntegration()).thenReturn(Optional.of(integration));
+        when(projectStore.getProject(anyString(), anyBoolean())).thenReturn(Optional.of(project));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testDedupe() throws Exception {
+        assertTrue(queue.enqueue(issueEvent("delivery1", 5, "closed")));
+        assertFalse(queue.enqueue(issueEvent("delivery1", 5, "closed")));
+        assertTrue(queue.enqueue(issueEvent("delivery2", 5, "reopened")));
+
+        waitFor("processed", 2L);
+        assertEquals(List.of("closed", "reopened"), processedIssueEvents(2).stream()
+                .map(GHEventPayload::getAction)
+                .collect(Collectors.toList()));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testCoalesceWhileRateLimited() throws Exception {
+        configSet(LocalGitHubEventQueue.Config.class, "rateLimitedRetryDelay", "PT1S");
+        rateLimiterAllow.set(false);
+
+        assertTrue(queue.enqueue(issueEvent("delivery1", 5, "closed")));
+        waitFor("rateLimited", 1L);
+        waitFor("pending", 1L);
+
+        assertTrue(queue.enqueue(issueEvent("delivery2", 5, "reopened")));
+        assertTrue(queue.enqueue(issueEvent("delivery3", 5, "closed")));
+        assertTrue(queue.enqueue(issueEvent("delivery4", 5, "labeled")));
+        assertTrue(queue.enqueue(issueEvent("delivery5", 5, "unlabeled")));
+        assertTrue(queue.enqueue(issueEvent("delivery6", 6, "closed")));
+
+        rateLimiterAllow.set(true);
+        waitFor("processed", 3L);
+        waitFor("pending", 0L);
+        List<GHEventPayload.Issue> issueEvents = processedIssueEvents(3);
+        assertEquals(List.of("closed", "unlabeled", "closed"), issueEvents.stream()
+                .map(GHEventPayload::getAction)
+                .collect(Collectors.toList()));
+        assertEquals(List.of(5, 5, 6), issueEvents.stream()
+                .map(issueEvent -> issueEvent.getIssue().getNumber())
+                .collect(Collectors.toList()));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testEditsNotCoalesced() throws Exception {
+        configSet(LocalGitHubEventQueue.Config.class, "rateLimitedRetryDelay", "PT1S");
+        rateLimiterAllow.set(false);
+
+        assertTrue(queue.enqueue(issueEvent("delivery1", 5, "edited", "{\"title\":{\"from\":\"old title\"}}")));
+        waitFor("rateLimited", 1L);
+        waitFor("pending", 1L);
+        assertTrue(queue.enqueue(issueEvent("delivery2", 5, "edited", "{\"body\":{\"from\":\"old body\"}}")));
+
+        rateLimiterAllow.set(true);
+        waitFor("processed", 2L);
+        List<GHEventPayload.Issue> issueEvents = processedIssueEvents(2);
+        assertNotNull(issueEvents.get(0).getChanges().getTitle());
+        assertNull(issueEvents.get(0).getChanges().getBody());
+        assertNull(issueEvents.get(1).getChanges().getTitle());
+        assertNotNull(issueEvents.get(1).getChanges().getBody());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testFailedDeliveryAcceptsRedelivery() throws Exception {
+        when(gitHubStore.ghIssueEvent(any(), any()))
+                .thenThrow(new RuntimeException("processing failed"))
+                .thenReturn(Optional.empty());
+
+        assertTrue(queue.enqueue(issueEvent("delivery1", 5, "closed")));
+        waitFor("failed", 1L);
+
+        // Manual redelivery of the failed delivery
+        assertTrue(queue.enqueue(issueEvent("delivery1", 5, "closed")));
+        waitFor("processed", 1L);
+        assertFalse(queue.enqueue(issueEvent("delivery1", 5, "closed")));
+        assertEquals(1L, (long) queue.getStats().get("duplicate"));
+    }
+
+    private List<GHEventPayload.Issue> processedIssueEvents(int count) throws Exception {
+        ArgumentCaptor<GHEventPayload.Issue> issueCaptor = ArgumentCaptor.forClass(GHEventPayload.Issue.class);
+        verify(gitHubStore, times(count)).ghIssueEvent(any(), issueCaptor.capture());
+        return issueCaptor.getAllValues();
+    }
+
+    private void waitFor(String stat, long expected) throws InterruptedException {
+        while (queue.getStats().get(stat) != expected) {
+            Thread.sleep(10);
+        }
+    }
+
+    private GitHubEvent issueEvent(String deliveryId, int issueNumber, String action) {
+        return issueEvent(deliveryId, issueNumber, action, null);
+    }
+
+    private GitHubEvent issueEvent(String deliveryId, int issueNumber, String action, String changesJson) {
+        return new GitHubEvent(
+                deliveryId,
+                "issues",
+                PROJECT_ID,
+                INSTALLATION_ID,
+                REPOSITORY_ID,
+                "{\"action\":\"" + action + "\","
+                        + (changesJson == null ? "" : "\"changes\":" + changesJson + ",")
+                        + "\"issue\":{\"id\":" + (100 + issueNumber) + ",\"number\":" + issueNumber + "},"
+                        + "\"repository\":{\"id\":" + REPOSITORY_ID + ",\"full_name\":\"owner/repo\"}}",
+                Instant.now());
+    }
+}
@@ -0,0 +1,106 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.impl;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Queues;
+import com.google.common.collect.Sets;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
+import com.smotana.clearflask.store.dynamo.SingleTableProvider;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@Slf4j
+public class DynamoCacheInvalidationBusTest extends AbstractTest {
+
+    @Inject
+    private DynamoCacheInvalidationBus bus;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(Modules.override(
+                DynamoCacheInvalidationBus.module(),
+                InMemoryDynamoDbProvider.module(),
+                SingleTableProvider.module()
+        ).with(new AbstractModule() {
+            @Override
+            protected void configure() {
+                install(ConfigSystem.overrideModule(DynamoCacheInvalidationBus.Config.class, om -> {
+                    om.override(om.id().pollInterval()).withValue(Duration.ofMillis(100));
+                    om.override(om.id().publishInterval()).withValue(Duration.ofMillis(50));
+                    om.override(om.id().bucketShards()).withValue(4);
+                }));
+            }
+        }));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testDeliveredToOtherNodesOnly() throws Exception {
+        DynamoCacheInvalidationBus otherNode = startOtherNode();
+        try {
+            BlockingQueue<String> invalidatedKeys = Queues.newLinkedBlockingQueue();
+            bus.subscribe("project", invalidatedKeys::add);
+            bus.subscribe("slug", key -> invalidatedKeys.add("slug-" + key));
+
+            bus.publish("project", "own");
+            otherNode.publish("project", "other1");
+            otherNode.publish("slug", "other2");
+
+            // Order of delivery depends on which shard each landed in
+            assertEquals(ImmutableSet.of("other1", "slug-other2"), ImmutableSet.of(
+                    invalidatedKeys.poll(5, TimeUnit.SECONDS),
+                    invalidatedKeys.poll(5, TimeUnit.SECONDS)));
+            // Messages are re-read during lookback, make sure they are not delivered twice
+            assertNull(invalidatedKeys.poll(1, TimeUnit.SECONDS));
+        } finally {
+            otherNode.stopAsync().awaitTerminated();
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testBatchedAcrossShards() throws Exception {
+        DynamoCacheInvalidationBus otherNode = startOtherNode();
+        try {
+            BlockingQueue<String> invalidatedKeys = Queues.newLinkedBlockingQueue();
+            bus.subscribe("project", invalidatedKeys::add);
+
+            // More than a single DynamoDB batch write, spread randomly across all shards
+            ImmutableSet<String> expectedKeys = IntStream.range(0, 60)
+                    .mapToObj(i -> "key" + i)
+                    .collect(ImmutableSet.toImmutableSet());
+            expectedKeys.forEach(key -> otherNode.publish("project", key));
+
+            Set<String> receivedKeys = Sets.newHashSet();
+            while (receivedKeys.size() < expectedKeys.size()) {
+                receivedKeys.add(invalidatedKeys.take());
+            }
+            assertEquals(expectedKeys, receivedKeys);
+            assertNull(invalidatedKeys.poll(1, TimeUnit.SECONDS));
+        } finally {
+            otherNode.stopAsync().awaitTerminated();
+        }
+    }
+
+    private DynamoCacheInvalidationBus startOtherNode() {
+        DynamoCacheInvalidationBus otherNode = new DynamoCacheInvalidationBus();
+        injector.injectMembers(otherNode);
+        otherNode.startAsync().awaitRunning();
+        return otherNode;
+    }
+}
@@ -28,6 +28,7 @@ import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.util.Optional;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -112,6 +113,24 @@ public class S3ContentStoreIT extends AbstractTest {
         assertEquals(signedUrl, 404, get(signedUrl));
     }
 
+    @Test(timeout = 60_000L)
+    public void testMultipartAndDeleteAll() throws Exception {
+        configSet(S3ContentStore.Config.class, "multipartPartSizeInBytes", String.valueOf(5 * 1024 * 1024));
+        byte[] bytes = new byte[11 * 1024 * 1024];
+        new Random().nextBytes(bytes);
+        String projectId = "my-project-id";
+        String userId = "my-user-id";
+
+        ContentUrl contentUrl = store.upload(projectId, userId, ContentType.GIF, new ByteArrayInputStream(bytes), bytes.length);
+        assertArrayEquals(bytes, s3.getObject(bucketName, contentUrl.getKey()).getObjectContent().readAllBytes());
+
+        String signedUrl = store.signUrl(projectId, contentUrl.getUrl()).get();
+        assertEquals(signedUrl, store.signUrl(projectId, contentUrl.getUrl()).get());
+
+        store.deleteAllForProject(projectId);
+        assertFalse(s3.doesObjectExist(bucketName, contentUrl.getKey()));
+    }
+
     private int get(String url) throws Exception {
         HttpGet req = new HttpGet(url);
         try (CloseableHttpClient client = HttpClientBuilder.create().build();
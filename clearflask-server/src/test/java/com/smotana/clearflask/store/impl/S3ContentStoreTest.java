@@ -0,0 +1,67 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.impl;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.google.inject.Inject;
+import com.smotana.clearflask.store.ContentStore;
+import com.smotana.clearflask.store.ContentStore.ContentType;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Slf4j
+public class S3ContentStoreTest extends AbstractTest {
+
+    private static final int PART_SIZE = 1024;
+
+    @Inject
+    private ContentStore store;
+    @Inject
+    private AmazonS3 s3;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        bindMock(AmazonS3.class);
+
+        install(S3ContentStore.module());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testMultipartAbortsOnPartFailure() throws Exception {
+        configSet(S3ContentStore.Config.class, "multipartPartSizeInBytes", String.valueOf(PART_SIZE));
+        // Next part is read only once the failed one finished
+        configSet(S3ContentStore.Config.class, "multipartMaxPartsInFlight", "1");
+        InitiateMultipartUploadResult initiateResult = new InitiateMultipartUploadResult();
+        initiateResult.setUploadId("uploadId");
+        when(s3.initiateMultipartUpload(any())).thenReturn(initiateResult);
+        when(s3.uploadPart(any())).thenThrow(new AmazonS3Exception("part failed"));
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(new byte[PART_SIZE * 10]);
+
+        try {
+            store.upload("projectId", "userId", ContentType.GIF, inputStream, PART_SIZE * 10);
+            fail("Expected upload to fail");
+        } catch (RuntimeException ex) {
+            log.info("Upload failed as expected", ex);
+        }
+
+        verify(s3, times(1)).uploadPart(any());
+        verify(s3, times(1)).abortMultipartUpload(any());
+        verify(s3, never()).completeMultipartUpload(any());
+        assertEquals(PART_SIZE * 9, inputStream.available());
+    }
+}
@@ -8,14 +8,18 @@ import com.kik.config.ice.ConfigSystem;
 import com.smotana.clearflask.store.ContentStore;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.SearchEngine;
+import com.smotana.clearflask.store.Reindexer;
 import com.smotana.clearflask.store.VoteStore;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
+import com.smotana.clearflask.store.elastic.IndexRebuilder;
 import com.smotana.clearflask.store.impl.DynamoElasticAccountStore;
 import com.smotana.clearflask.store.impl.DynamoElasticCommentStore;
 import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
 import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
+import com.smotana.clearflask.store.impl.LoopbackCacheInvalidationBus;
 import com.smotana.clearflask.testutil.AbstractIT;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.util.DefaultServerSecret;
 import com.smotana.clearflask.util.IntercomUtil;
 import com.smotana.clearflask.util.ProjectUpgrader;
@@ -66,9 +70,13 @@ public class JooqCodegenIT extends AbstractIT {
 
         install(Modules.override(
                 DynamoElasticIdeaStore.module(),
+                LoopbackCacheInvalidationBus.module(),
                 DynamoElasticAccountStore.module(),
                 DynamoElasticUserStore.module(),
+                BloomFilterCache.module(),
                 DynamoElasticCommentStore.module(),
+                Reindexer.module(),
+                IndexRebuilder.module(),
                 InMemoryDynamoDbProvider.module(),
                 SingleTableProvider.module(),
                 Sanitizer.module(),
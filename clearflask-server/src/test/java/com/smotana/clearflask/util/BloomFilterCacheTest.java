@@ -0,0 +1,64 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.inject.Inject;
+import com.smotana.clearflask.store.MockModelUtil;
+import com.smotana.clearflask.store.UserStore.UserModel;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@Slf4j
+public class BloomFilterCacheTest extends AbstractTest {
+
+    @Inject
+    private BloomFilterCache bloomFilterCache;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(BloomFilterCache.module());
+    }
+
+    @Test(timeout = 10_000L)
+    public void test() throws Exception {
+        UserModel user = MockModelUtil.getRandomUser();
+        assertEquals(Optional.empty(), bloomFilterCache.get(user, BloomFilterCache.Kind.VOTE));
+        assertFalse(bloomFilterCache.mightContain(user, BloomFilterCache.Kind.VOTE, "idea1"));
+
+        BloomFilter<CharSequence> bloomFilter = BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), 100, 0.01);
+        bloomFilter.put("idea1");
+        user = user.toBuilder().voteBloom(BloomFilters.toByteArray(bloomFilter)).build();
+
+        BloomFilter<CharSequence> decoded = bloomFilterCache.get(user, BloomFilterCache.Kind.VOTE).get();
+        assertTrue(decoded.mightContain("idea1"));
+        assertFalse(decoded.mightContain("idea2"));
+        assertSame(decoded, bloomFilterCache.get(user, BloomFilterCache.Kind.VOTE).get());
+        assertEquals(Optional.empty(), bloomFilterCache.get(user, BloomFilterCache.Kind.EXPRESS));
+
+        BloomFilter<CharSequence> updated = decoded.copy();
+        updated.put("idea2");
+        byte[] updatedBytes = BloomFilters.toByteArray(updated);
+        bloomFilterCache.put(user.getProjectId(), user.getUserId(), BloomFilterCache.Kind.VOTE, updatedBytes, updated);
+        user = user.toBuilder().voteBloom(updatedBytes).build();
+
+        BloomFilter<CharSequence> decodedUpdated = bloomFilterCache.get(user, BloomFilterCache.Kind.VOTE).get();
+        assertSame(updated, decodedUpdated);
+        assertNotSame(decoded, decodedUpdated);
+        assertTrue(bloomFilterCache.mightContain(user, BloomFilterCache.Kind.VOTE, "idea2"));
+        assertFalse(decoded.mightContain("idea2"));
+    }
+}
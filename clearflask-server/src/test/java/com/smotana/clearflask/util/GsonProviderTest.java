@@ -0,0 +1,46 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.inject.Inject;
+import com.smotana.clearflask.api.model.Config;
+import com.smotana.clearflask.api.model.ConfigBindSlugResult;
+import com.smotana.clearflask.api.model.VersionedConfig;
+import com.smotana.clearflask.api.model.VersionedConfigAdmin;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+@Slf4j
+public class GsonProviderTest extends AbstractTest {
+
+    @Inject
+    private Gson gson;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(GsonProvider.module());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testSerializationCache() throws Exception {
+        Gson plainGson = new GsonBuilder().disableHtmlEscaping().create();
+        VersionedConfigAdmin versionedConfigAdmin = ModelUtil.createEmptyConfig("myProject");
+        String configJson = plainGson.toJson(versionedConfigAdmin.getConfig());
+        VersionedConfig versionedConfig = new VersionedConfig(
+                gson.fromJson(configJson, Config.class),
+                versionedConfigAdmin.getVersion());
+
+        String expected = plainGson.toJson(new ConfigBindSlugResult("myProject", versionedConfig, null));
+        assertEquals(expected, gson.toJson(new ConfigBindSlugResult("myProject", versionedConfig, null)));
+        // Second time around is served from cache
+        assertEquals(expected, gson.toJson(new ConfigBindSlugResult("myProject", versionedConfig, null)));
+        assertEquals(gson.toJson(versionedConfig), gson.toJson(versionedConfig));
+    }
+}
@@ -68,12 +68,15 @@ import com.smotana.clearflask.security.limiter.rate.LocalRateLimiter;
 import com.smotana.clearflask.store.AccountStore;
 import com.smotana.clearflask.store.IdeaStore;
 import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.Reindexer;
 import com.smotana.clearflask.store.UserStore;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
+import com.smotana.clearflask.store.elastic.IndexRebuilder;
 import com.smotana.clearflask.store.github.GitHubClientProviderImpl;
 import com.smotana.clearflask.store.github.GitHubStoreImpl;
+import com.smotana.clearflask.store.github.LocalGitHubEventQueue;
 import com.smotana.clearflask.store.impl.DynamoCertStore;
 import com.smotana.clearflask.store.impl.DynamoDraftStore;
 import com.smotana.clearflask.store.impl.DynamoElasticAccountStore;
@@ -84,11 +87,13 @@ import com.smotana.clearflask.store.impl.DynamoNotificationStore;
 import com.smotana.clearflask.store.impl.DynamoProjectStore;
 import com.smotana.clearflask.store.impl.DynamoTokenVerifyStore;
 import com.smotana.clearflask.store.impl.DynamoVoteStore;
+import com.smotana.clearflask.store.impl.LoopbackCacheInvalidationBus;
 import com.smotana.clearflask.store.impl.ResourceLegalStore;
 import com.smotana.clearflask.store.impl.S3ContentStore;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
 import com.smotana.clearflask.store.s3.DefaultS3ClientProvider;
 import com.smotana.clearflask.testutil.AbstractIT;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.util.ChatwootUtil;
 import com.smotana.clearflask.util.DefaultServerSecret;
 import com.smotana.clearflask.util.IdUtil;
@@ -104,6 +109,9 @@ import com.smotana.clearflask.web.security.MockExtendedSecurityContext;
 import com.smotana.clearflask.web.security.Sanitizer;
 import com.smotana.clearflask.web.security.SuperAdminPredicate;
 import com.smotana.clearflask.web.security.UserBindUtil;
+import com.smotana.clearflask.web.util.ProjectExporter;
+import com.smotana.clearflask.web.util.ProjectImporter;
+import com.smotana.clearflask.web.util.RecentWrites;
 import com.smotana.clearflask.web.util.WebhookServiceImpl;
 import io.dataspray.singletable.SingleTable;
 import io.jsonwebtoken.security.Keys;
@@ -210,6 +218,7 @@ public abstract class AbstractBlackboxIT extends AbstractIT {
                 KillBillResource.module(),
                 GitHubResource.module(),
                 GitHubStoreImpl.module(),
+                LocalGitHubEventQueue.module(),
                 MarkdownAndQuillUtil.module(),
                 GitHubClientProviderImpl.module(),
                 AmazonSimpleEmailServiceProvider.module(),
@@ -223,6 +232,9 @@ public abstract class AbstractBlackboxIT extends AbstractIT {
                 EmailTemplates.module(),
                 OnCreditChange.module(),
                 WebhookServiceImpl.module(),
+                ProjectExporter.module(),
+                ProjectImporter.module(),
+                RecentWrites.module(),
                 OnCommentReply.module(),
                 OnStatusOrResponseChange.module(),
                 OnTrialEnded.module(),
@@ -249,9 +261,11 @@ public abstract class AbstractBlackboxIT extends AbstractIT {
                 DynamoDraftStore.module(),
                 DynamoElasticIdeaStore.module(),
                 DynamoProjectStore.module(),
+                LoopbackCacheInvalidationBus.module(),
                 DynamoCouponStore.module(),
                 ProjectUpgraderImpl.module(),
                 DynamoElasticUserStore.module(),
+                BloomFilterCache.module(),
                 DynamoTokenVerifyStore.module(),
                 DynamoVoteStore.module(),
                 DynamoCertStore.module(),
@@ -261,6 +275,8 @@ public abstract class AbstractBlackboxIT extends AbstractIT {
                 MockAuthCookie.module(),
                 UserBindUtil.module(),
                 MysqlUtil.module(),
+                Reindexer.module(),
+                IndexRebuilder.module(),
                 ElasticUtil.module(),
                 Sanitizer.module(),
                 SimpleEmailValidator.module(),
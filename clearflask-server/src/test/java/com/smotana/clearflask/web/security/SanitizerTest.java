@@ -16,6 +16,7 @@ import org.mockito.Mockito;
 
 import javax.ws.rs.core.Response;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
@@ -126,6 +127,7 @@ public class SanitizerTest extends AbstractTest {
     public void testImg() throws Exception {
         String uploadDomain = "upload.clearflask.com";
         String signedQuery = "?signed";
+        mockParseContentUrl(uploadDomain);
         Mockito.when(contentStoreMock.signUrl(Mockito.anyString(), Mockito.anyString()))
                 .thenAnswer(i -> {
                     String matchProjectId = i.getArgument(0);
@@ -170,6 +172,41 @@ public class SanitizerTest extends AbstractTest {
                 "o<img src=\"data:image/png;base64,iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mP8z/C/HgAGgwJ/lK3Q6wAAAABJRU5ErkJggg==\" />");
     }
 
+    @Test(timeout = 10_000L)
+    public void testSanitizedHtmlCache() throws Exception {
+        String uploadDomain = "upload.clearflask.com";
+        mockParseContentUrl(uploadDomain);
+        AtomicInteger signCount = new AtomicInteger();
+        Mockito.when(contentStoreMock.signUrl(Mockito.anyString(), Mockito.anyString()))
+                .thenAnswer(i -> Optional.of(i.getArgument(1) + "?signed=" + signCount.incrementAndGet() + "&a=b"));
+        String url = "https://" + uploadDomain + "/" + PROJECT_ID + "/user-id/image.jpeg";
+        String html = "<div>a</div><img src=\"" + url + "\" /><div>b</div>";
+
+        assertEquals("<div>a</div><img src=\"" + url + "?signed=1&amp;a=b\" /><div>b</div>",
+                sanitizer.richHtml(html, "idea", "idea-id", PROJECT_ID, false));
+        assertEquals("Cached output should still be signed on every render",
+                "<div>a</div><img src=\"" + url + "?signed=2&amp;a=b\" /><div>b</div>",
+                sanitizer.richHtml(html, "idea", "idea-id", PROJECT_ID, false));
+        Mockito.verify(contentStoreMock, Mockito.times(1)).parseContentUrl(url);
+
+        assertEquals("Changed content should not be served from cache",
+                "<div>c</div>",
+                sanitizer.richHtml("<div>c</div>", "idea", "idea-id", PROJECT_ID, false));
+    }
+
+    void mockParseContentUrl(String uploadDomain) {
+        Mockito.when(contentStoreMock.parseContentUrl(Mockito.anyString()))
+                .thenAnswer(i -> {
+                    String url = i.getArgument(0);
+                    String prefix = "https://" + uploadDomain + "/";
+                    if (!url.startsWith(prefix)) {
+                        return Optional.empty();
+                    }
+                    String[] parts = url.substring(prefix.length()).split("/");
+                    return Optional.of(new ContentStore.ContentUrl(url, url.substring(prefix.length()), parts[2], null, parts[0], parts[1], ContentStore.ContentType.JPEG));
+                });
+    }
+
     void assertSanitizeDomain(String domain, boolean expectFailure) {
         try {
             sanitizer.domain(domain, false);
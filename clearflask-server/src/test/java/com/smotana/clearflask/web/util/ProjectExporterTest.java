@@ -0,0 +1,155 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.inject.Inject;
+import com.smotana.clearflask.store.CommentStore;
+import com.smotana.clearflask.store.CommentStore.CommentModel;
+import com.smotana.clearflask.store.ContentStore;
+import com.smotana.clearflask.store.ExportPage;
+import com.smotana.clearflask.store.IdeaStore;
+import com.smotana.clearflask.store.IdeaStore.IdeaModel;
+import com.smotana.clearflask.store.MockModelUtil;
+import com.smotana.clearflask.store.UserStore;
+import com.smotana.clearflask.store.UserStore.UserModel;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.web.security.Sanitizer;
+import com.smotana.clearflask.web.util.ProjectExporter.ExportCursor;
+import com.smotana.clearflask.web.util.ProjectExporter.Format;
+import com.smotana.clearflask.web.util.ProjectExporter.Table;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Slf4j
+public class ProjectExporterTest extends AbstractTest {
+
+    @Inject
+    private ProjectExporter exporter;
+    @Inject
+    private IdeaStore ideaStore;
+    @Inject
+    private UserStore userStore;
+    @Inject
+    private CommentStore commentStore;
+    @Inject
+    private ContentStore contentStore;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        bindMock(IdeaStore.class);
+        bindMock(UserStore.class);
+        bindMock(CommentStore.class);
+        bindMock(ContentStore.class);
+
+        install(Sanitizer.module());
+        install(ProjectExporter.module());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testChunkedExport() throws Exception {
+        when(contentStore.getScheme()).thenReturn("https");
+        String projectId = "myproject";
+        IdeaModel idea1 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        IdeaModel idea2 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        UserModel user = MockModelUtil.getRandomUser().toBuilder().projectId(projectId).build();
+        CommentModel comment = MockModelUtil.getRandomComment().toBuilder().projectId(projectId).build();
+        when(ideaStore.exportPageForProject(eq(projectId), eq(Optional.empty())))
+                .thenReturn(new ExportPage<>(ImmutableList.of(idea1), Optional.of("ideaCursor")));
+        when(ideaStore.exportPageForProject(eq(projectId), eq(Optional.of("ideaCursor"))))
+                .thenReturn(new ExportPage<>(ImmutableList.of(idea2), Optional.empty()));
+        when(userStore.exportPageForProject(eq(projectId), any()))
+                .thenReturn(new ExportPage<>(ImmutableList.of(user), Optional.empty()));
+        when(commentStore.exportPageForProject(eq(projectId), any()))
+                .thenReturn(new ExportPage<>(ImmutableList.of(comment), Optional.empty()));
+        configSet(ProjectExporter.Config.class, "maxRowsPerChunk", "1");
+
+        ImmutableSet<Table> tables = ImmutableSet.of(Table.POSTS, Table.USERS, Table.COMMENTS);
+        ByteArrayOutputStream chunk1 = new ByteArrayOutputStream();
+        Optional<ExportCursor> cursor1Opt = exporter.export(projectId, tables, Format.NDJSON, Optional.empty(), true, 1000d,
+                (type, extension) -> type + "." + extension, chunk1);
+        assertEquals(Optional.of(new ExportCursor(Table.POSTS, Optional.of("ideaCursor"))), cursor1Opt);
+        ImmutableMap<String, String> entries1 = readZip(chunk1.toByteArray());
+        assertEquals(ImmutableSet.of("posts.ndjson", ProjectExporter.NEXT_CURSOR_ENTRY_NAME), entries1.keySet());
+        assertTrue(entries1.get("posts.ndjson").contains(idea1.getIdeaId()));
+        assertFalse(entries1.get("posts.ndjson").contains(idea2.getIdeaId()));
+        Optional<ExportCursor> parsedCursor1Opt = exporter.parseCursor(entries1.get(ProjectExporter.NEXT_CURSOR_ENTRY_NAME));
+        assertEquals(cursor1Opt, parsedCursor1Opt);
+        // Tables past the end of the chunk are never scanned
+        verify(userStore, never()).exportPageForProject(any(), any());
+        verify(commentStore, never()).exportPageForProject(any(), any());
+
+        configSet(ProjectExporter.Config.class, "maxRowsPerChunk", "100");
+        ByteArrayOutputStream chunk2 = new ByteArrayOutputStream();
+        Optional<ExportCursor> cursor2Opt = exporter.export(projectId, tables, Format.CSV, parsedCursor1Opt, true, 1000d,
+                (type, extension) -> type + "." + extension, chunk2);
+        assertEquals(Optional.empty(), cursor2Opt);
+        ImmutableMap<String, String> entries2 = readZip(chunk2.toByteArray());
+        assertEquals(ImmutableSet.of("posts.csv", "users.csv", "comments.csv"), entries2.keySet());
+        assertTrue(entries2.get("posts.csv").startsWith("ideaId,authorUserId,"));
+        assertTrue(entries2.get("posts.csv").contains(idea2.getIdeaId()));
+        assertFalse(entries2.get("posts.csv").contains(idea1.getIdeaId()));
+        assertTrue(entries2.get("users.csv").contains(user.getUserId()));
+        assertTrue(entries2.get("comments.csv").contains(comment.getCommentId()));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testUnchunkedExport() throws Exception {
+        when(contentStore.getScheme()).thenReturn("https");
+        String projectId = "myproject";
+        IdeaModel idea1 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        IdeaModel idea2 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        UserModel user = MockModelUtil.getRandomUser().toBuilder().projectId(projectId).build();
+        when(ideaStore.exportPageForProject(eq(projectId), eq(Optional.empty())))
+                .thenReturn(new ExportPage<>(ImmutableList.of(idea1), Optional.of("ideaCursor")));
+        when(ideaStore.exportPageForProject(eq(projectId), eq(Optional.of("ideaCursor"))))
+                .thenReturn(new ExportPage<>(ImmutableList.of(idea2), Optional.empty()));
+        when(userStore.exportPageForProject(eq(projectId), any()))
+                .thenReturn(new ExportPage<>(ImmutableList.of(user), Optional.empty()));
+        configSet(ProjectExporter.Config.class, "maxRowsPerChunk", "1");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Optional<ExportCursor> cursorOpt = exporter.export(projectId, ImmutableSet.of(Table.POSTS, Table.USERS), Format.CSV, Optional.empty(), false, 1000d,
+                (type, extension) -> type + "." + extension, output);
+        assertEquals(Optional.empty(), cursorOpt);
+        ImmutableMap<String, String> entries = readZip(output.toByteArray());
+        assertEquals(ImmutableSet.of("posts.csv", "users.csv"), entries.keySet());
+        assertTrue(entries.get("posts.csv").contains(idea1.getIdeaId()));
+        assertTrue(entries.get("posts.csv").contains(idea2.getIdeaId()));
+        assertTrue(entries.get("users.csv").contains(user.getUserId()));
+    }
+
+    private ImmutableMap<String, String> readZip(byte[] zip) throws Exception {
+        ImmutableMap.Builder<String, String> entriesBuilder = ImmutableMap.builder();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                String content = new String(ByteStreams.toByteArray(zis), Charsets.UTF_8);
+                log.info("Entry {}:\n{}", entry.getName(), content);
+                entriesBuilder.put(entry.getName(), content);
+            }
+        }
+        return entriesBuilder.build();
+    }
+}
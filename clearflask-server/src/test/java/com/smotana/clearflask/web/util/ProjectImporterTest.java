@@ -0,0 +1,113 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.inject.Inject;
+import com.smotana.clearflask.TestUtil;
+import com.smotana.clearflask.store.IdeaStore;
+import com.smotana.clearflask.store.IdeaStore.IdeaModel;
+import com.smotana.clearflask.store.MockModelUtil;
+import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
+import com.smotana.clearflask.store.dynamo.SingleTableProvider;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.web.util.ProjectImporter.ImportJob;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Slf4j
+public class ProjectImporterTest extends AbstractTest {
+
+    @Inject
+    private ProjectImporter importer;
+    @Inject
+    private IdeaStore ideaStore;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        bindMock(IdeaStore.class);
+
+        install(InMemoryDynamoDbProvider.module());
+        install(SingleTableProvider.module());
+        install(ProjectImporter.module());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testImportIdeas() throws Exception {
+        configSet(ProjectImporter.Config.class, "batchSize", "2");
+        String projectId = "myproject";
+        when(ideaStore.createIdeas(eq(projectId), any()))
+                .thenReturn(Futures.immediateFuture(ImmutableList.of()));
+        ImmutableList<IdeaModel> ideas = IntStream.range(0, 5)
+                .mapToObj(i -> MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build())
+                .collect(ImmutableList.toImmutableList());
+
+        ImportJob job = importer.importIdeas(projectId, ideas);
+        assertEquals(5L, job.getTotal());
+
+        TestUtil.retry(() -> assertTrue(importer.getImportJob(projectId, job.getImportId()).get().isDone()));
+        ImportJob jobDone = importer.getImportJob(projectId, job.getImportId()).get();
+        assertEquals(5L, jobDone.getProcessed());
+        assertNull(jobDone.getErrorMessage());
+        verify(ideaStore, times(3)).createIdeas(eq(projectId), any());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testFailureStopsSubmitting() throws Exception {
+        configSet(ProjectImporter.Config.class, "batchSize", "2");
+        // Next batch waits for permits long enough for the first one to fail
+        configSet(ProjectImporter.Config.class, "importRateLimitRowsPerSecond", "4");
+        String projectId = "myproject";
+        when(ideaStore.createIdeas(eq(projectId), any()))
+                .thenReturn(Futures.immediateFailedFuture(new RuntimeException("write failed")));
+        ImmutableList<IdeaModel> ideas = IntStream.range(0, 5)
+                .mapToObj(i -> MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build())
+                .collect(ImmutableList.toImmutableList());
+
+        ImportJob job = importer.importIdeas(projectId, ideas);
+
+        TestUtil.retry(() -> assertTrue(importer.getImportJob(projectId, job.getImportId()).get().isDone()));
+        ImportJob jobDone = importer.getImportJob(projectId, job.getImportId()).get();
+        assertEquals(0L, jobDone.getProcessed());
+        assertNotNull(jobDone.getErrorMessage());
+        verify(ideaStore, times(1)).createIdeas(eq(projectId), any());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testShutdownFinishesJob() throws Exception {
+        configSet(ProjectImporter.Config.class, "batchSize", "1");
+        String projectId = "myproject";
+        // Writes never complete, occupying every write thread with the rest of the batches queued
+        when(ideaStore.createIdeas(eq(projectId), any()))
+                .thenReturn(SettableFuture.create());
+        ImmutableList<IdeaModel> ideas = IntStream.range(0, 10)
+                .mapToObj(i -> MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build())
+                .collect(ImmutableList.toImmutableList());
+
+        ImportJob job = importer.importIdeas(projectId, ideas);
+        TestUtil.retry(() -> verify(ideaStore, times(4)).createIdeas(eq(projectId), any()));
+
+        importer.stopAsync().awaitTerminated();
+
+        ImportJob jobDone = importer.getImportJob(projectId, job.getImportId()).get();
+        assertTrue(jobDone.isDone());
+        assertEquals(0L, jobDone.getProcessed());
+        assertNotNull(jobDone.getErrorMessage());
+    }
+}
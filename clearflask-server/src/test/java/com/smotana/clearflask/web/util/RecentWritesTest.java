@@ -0,0 +1,90 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Inject;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.api.model.IdeaSearch;
+import com.smotana.clearflask.store.IdeaStore.IdeaModel;
+import com.smotana.clearflask.store.MockModelUtil;
+import com.smotana.clearflask.store.impl.DynamoElasticCommentStore;
+import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@Slf4j
+public class RecentWritesTest extends AbstractTest {
+
+    @Inject
+    private RecentWrites recentWrites;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(RecentWrites.module());
+        install(ConfigSystem.configModule(DynamoElasticIdeaStore.Config.class));
+        install(ConfigSystem.configModule(DynamoElasticCommentStore.Config.class));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testRecentIdeas() throws Exception {
+        configSet(DynamoElasticIdeaStore.Config.class, "elasticAsyncIndexing", "true");
+        configSet(RecentWrites.Config.class, "maximumWritesPerSession", "2");
+        String projectId = "myproject";
+        IdeaModel idea1 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        IdeaModel idea2 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        IdeaModel idea3 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+
+        recentWrites.ideaWritten("user1", idea1);
+        recentWrites.ideaWritten("user1", idea2);
+        assertEquals(ImmutableList.of(idea2, idea1), recentWrites.getRecentIdeas(projectId, "user1"));
+        assertEquals(ImmutableList.of(), recentWrites.getRecentIdeas(projectId, "user2"));
+        assertEquals(ImmutableList.of(), recentWrites.getRecentIdeas("otherproject", "user1"));
+
+        recentWrites.ideaWritten("user1", idea3);
+        assertEquals(ImmutableList.of(idea3, idea2), recentWrites.getRecentIdeas(projectId, "user1"));
+
+        configSet(RecentWrites.Config.class, "expireAfterWrite", "PT0S");
+        assertEquals(ImmutableList.of(), recentWrites.getRecentIdeas(projectId, "user1"));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testDisabledWithoutAsyncIndexing() throws Exception {
+        configSet(DynamoElasticIdeaStore.Config.class, "elasticAsyncIndexing", "false");
+        String projectId = "myproject";
+        IdeaModel idea = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+
+        recentWrites.ideaWritten("user1", idea);
+        assertEquals(ImmutableList.of(), recentWrites.getRecentIdeas(projectId, "user1"));
+
+        // Writes made while disabled are not remembered
+        configSet(DynamoElasticIdeaStore.Config.class, "elasticAsyncIndexing", "true");
+        assertEquals(ImmutableList.of(), recentWrites.getRecentIdeas(projectId, "user1"));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testMatches() throws Exception {
+        IdeaModel idea = MockModelUtil.getRandomIdea().toBuilder()
+                .categoryId("cat1")
+                .statusId("status1")
+                .tagIds(ImmutableSet.of("tag1", "tag2"))
+                .mergedToPostId(null)
+                .build();
+
+        assertTrue(RecentWrites.matches(IdeaSearch.builder().build(), idea));
+        assertTrue(RecentWrites.matches(IdeaSearch.builder().filterCategoryIds(ImmutableList.of("cat1")).build(), idea));
+        assertFalse(RecentWrites.matches(IdeaSearch.builder().filterCategoryIds(ImmutableList.of("cat1")).invertCategory(true).build(), idea));
+        assertFalse(RecentWrites.matches(IdeaSearch.builder().filterStatusIds(ImmutableList.of("status2")).build(), idea));
+        assertTrue(RecentWrites.matches(IdeaSearch.builder().filterTagIds(ImmutableList.of("tag2", "tag3")).build(), idea));
+        assertFalse(RecentWrites.matches(IdeaSearch.builder().filterAuthorId("someone-else").build(), idea));
+        assertFalse(RecentWrites.matches(IdeaSearch.builder().searchText("text").build(), idea));
+    }
+}